@@ -138,6 +138,7 @@ public class AddUserDialog extends JDialog {
                 logAdminAction(conn, adminUsername, "Add User", "Added " + role + " with username: " + username);
 
                 conn.commit();
+                IdentityDirectory.getInstance().invalidate();
                 return true;
             }
         }
@@ -0,0 +1,290 @@
+package com.example.hospi.GUI;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * AlertCoalescer - Folds bursts of abnormal readings into a single open emergency alert.
+ * The first abnormal reading for a patient and alert type opens an alert row; further readings
+ * inside the coalescing window only bump that row's reading count and worst values. Callers
+ * notify doctors and show popups only for newly opened alerts, so a burst of thousands of
+ * abnormal rows produces one alert, one email per doctor and one popup.
+ *
+ * The alert rows are written in the caller's transaction, and the coalescer only learns of
+ * them when the caller applies the returned Update after committing. A rolled-back chunk
+ * therefore leaves no readings, worst values or alert IDs behind for the next one to build on.
+ *
+ * record() writes while holding a lock for its patient and alert type only, so uploads for
+ * different patients do not wait on each other's SQL.
+ */
+class AlertCoalescer {
+
+    private static final String INSERT_ALERT_SQL =
+            "INSERT INTO emergency_alerts (patient_id, vitals_id, alert_time, alert_type, reading_count, last_reading_time, worst_values) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String UPDATE_ALERT_SQL =
+            "UPDATE emergency_alerts SET reading_count = ?, last_reading_time = ?, worst_values = ? WHERE id = ?";
+
+    private static final AlertCoalescer INSTANCE =
+            new AlertCoalescer(Long.getLong("hospi.alerts.coalesceWindowMs", 5 * 60_000L));
+
+    // Locks serializing record() per patient and alert type; keys share a lock only by hash
+    private static final int LOCK_STRIPES = 64;
+
+    private final long windowMs;
+
+    // Open alert per patient and alert type, as last committed; written under this. Entries whose
+    // window has passed are pruned as updates are applied
+    private final Map<Key, OpenAlert> openAlerts = new ConcurrentHashMap<>();
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * An abnormal vitals reading as uploaded.
+     *
+     * @param vitalsId      ID of the stored vitals row
+     * @param heartRate     Heart rate in bpm
+     * @param bloodPressure Blood pressure as systolic/diastolic
+     * @param oxygenLevel   Oxygen saturation in percent
+     * @param temperature   Body temperature in °F
+     */
+    record Reading(int vitalsId, String heartRate, String bloodPressure, String oxygenLevel, String temperature) {
+    }
+
+    private record Key(int patientId, String alertType) {
+    }
+
+    /**
+     * Alert rows written by record() in a transaction that has not committed yet.
+     */
+    final class Update {
+        private final Key key;
+        private final OpenAlert alert;
+        private final List<Integer> opened;
+
+        private Update(Key key, OpenAlert alert, List<Integer> opened) {
+            this.key = key;
+            this.alert = alert;
+            this.opened = opened;
+        }
+
+        /**
+         * @return Vitals IDs that opened a new alert; the caller should notify once for each,
+         *         after committing
+         */
+        List<Integer> opened() {
+            return opened;
+        }
+
+        /**
+         * Makes the written alert the open alert later readings fold into. Call once the
+         * transaction has committed; after a rollback, drop the update instead.
+         */
+        void apply() {
+            applyUpdate(this);
+        }
+    }
+
+    /**
+     * Creates a coalescer.
+     *
+     * @param windowMs How long after an alert is opened further readings are folded into it
+     */
+    AlertCoalescer(long windowMs) {
+        this.windowMs = windowMs;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return The application-wide coalescer, window configured by -Dhospi.alerts.coalesceWindowMs
+     */
+    static AlertCoalescer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records abnormal readings for a patient, opening or updating alert rows on the given connection.
+     * Each affected alert row is written once, however many readings it absorbs.
+     *
+     * @param conn      Connection to write on; the caller owns the transaction
+     * @param patientId Patient the readings belong to
+     * @param alertType Alert category
+     * @param readings  Abnormal readings in upload order
+     * @return The alert as written; apply it once the transaction commits
+     * @throws SQLException if an alert row cannot be written
+     */
+    Update record(Connection conn, int patientId, String alertType, List<Reading> readings) throws SQLException {
+        Key key = new Key(patientId, alertType);
+        if (readings.isEmpty()) {
+            return new Update(key, null, new ArrayList<>());
+        }
+        synchronized (locks[Math.floorMod(key.hashCode(), locks.length)]) {
+            return record(conn, key, readings);
+        }
+    }
+
+    /**
+     * Writes the alert row for one patient and alert type; the caller holds that key's lock.
+     */
+    private Update record(Connection conn, Key key, List<Reading> readings) throws SQLException {
+        List<Integer> opened = new ArrayList<>();
+
+        long now = System.currentTimeMillis();
+        OpenAlert committed = openAlerts.get(key);
+        // Worked on a copy: the committed state stays as it is until the caller applies the update
+        OpenAlert current = committed != null && now - committed.openedAt < windowMs ? committed.copy() : null;
+
+        // Readings handed over together share one timestamp, so they all land in the same window
+        if (current == null) {
+            current = new OpenAlert(readings.get(0).vitalsId(), now);
+            opened.add(current.firstVitalsId);
+        }
+        for (Reading reading : readings) {
+            current.count++;
+            current.worst.merge(reading);
+        }
+
+        if (current.alertId < 0 || !update(conn, current, now)) {
+            // New alert, or the row it pointed at was rolled back or deleted
+            if (current.alertId >= 0 && !opened.contains(current.firstVitalsId)) {
+                opened.add(current.firstVitalsId);
+            }
+            insert(conn, key.patientId(), key.alertType(), current, now);
+        }
+        return new Update(key, current, opened);
+    }
+
+    private synchronized void applyUpdate(Update update) {
+        long now = System.currentTimeMillis();
+        openAlerts.values().removeIf(alert -> now - alert.openedAt >= windowMs);
+        if (update.alert != null && now - update.alert.openedAt < windowMs) {
+            openAlerts.put(update.key, update.alert);
+        }
+    }
+
+    private void insert(Connection conn, int patientId, String alertType, OpenAlert alert, long now) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(INSERT_ALERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+            ps.setInt(1, patientId);
+            ps.setInt(2, alert.firstVitalsId);
+            ps.setTimestamp(3, new Timestamp(alert.openedAt));
+            ps.setString(4, alertType);
+            ps.setInt(5, alert.count);
+            ps.setTimestamp(6, new Timestamp(now));
+            ps.setString(7, alert.worst.summary());
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (keys.next()) {
+                    alert.alertId = keys.getInt(1);
+                }
+            }
+        }
+    }
+
+    private boolean update(Connection conn, OpenAlert alert, long now) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(UPDATE_ALERT_SQL)) {
+            ps.setInt(1, alert.count);
+            ps.setTimestamp(2, new Timestamp(now));
+            ps.setString(3, alert.worst.summary());
+            ps.setInt(4, alert.alertId);
+            return ps.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * An alert row that is still absorbing readings.
+     */
+    private static final class OpenAlert {
+        private final int firstVitalsId;
+        private final long openedAt;
+        private final WorstValues worst = new WorstValues();
+        private int alertId = -1;
+        private int count;
+
+        private OpenAlert(int firstVitalsId, long openedAt) {
+            this.firstVitalsId = firstVitalsId;
+            this.openedAt = openedAt;
+        }
+
+        private OpenAlert copy() {
+            OpenAlert copy = new OpenAlert(firstVitalsId, openedAt);
+            copy.alertId = alertId;
+            copy.count = count;
+            copy.worst.copyFrom(worst);
+            return copy;
+        }
+    }
+
+    /**
+     * Tracks, per vital sign, the reading furthest outside its normal range.
+     * Ranges match UploadVitals.isAbnormal.
+     */
+    private static final class WorstValues {
+        private Integer heartRate;
+        private Integer systolic;
+        private Integer diastolic;
+        private Integer oxygen;
+        private Float temperature;
+
+        private void copyFrom(WorstValues other) {
+            heartRate = other.heartRate;
+            systolic = other.systolic;
+            diastolic = other.diastolic;
+            oxygen = other.oxygen;
+            temperature = other.temperature;
+        }
+
+        private void merge(Reading reading) {
+            try {
+                heartRate = worse(heartRate, Integer.parseInt(reading.heartRate().trim()), 60, 100);
+                oxygen = worse(oxygen, Integer.parseInt(reading.oxygenLevel().trim()), 95, Integer.MAX_VALUE);
+                float temp = Float.parseFloat(reading.temperature().trim());
+                if (temperature == null || deviation(temp, 97.0, 99.5) > deviation(temperature, 97.0, 99.5)) {
+                    temperature = temp;
+                }
+                String[] bp = reading.bloodPressure().split("/");
+                if (bp.length == 2) {
+                    systolic = worse(systolic, Integer.parseInt(bp[0].trim()), 90, 140);
+                    diastolic = worse(diastolic, Integer.parseInt(bp[1].trim()), 60, 90);
+                }
+            } catch (NumberFormatException e) {
+                // Unparseable readings still count towards the alert, they just cannot be ranked
+            }
+        }
+
+        private static Integer worse(Integer current, int candidate, int low, int high) {
+            if (current == null || deviation(candidate, low, high) > deviation(current, low, high)) {
+                return candidate;
+            }
+            return current;
+        }
+
+        private static double deviation(double value, double low, double high) {
+            return value < low ? low - value : value > high ? value - high : 0;
+        }
+
+        /**
+         * @return Human-readable summary stored in emergency_alerts.worst_values
+         */
+        private String summary() {
+            List<String> parts = new ArrayList<>();
+            if (heartRate != null) parts.add("HR " + heartRate + " bpm");
+            if (systolic != null) parts.add("Systolic " + systolic + " mmHg");
+            if (diastolic != null) parts.add("Diastolic " + diastolic + " mmHg");
+            if (oxygen != null) parts.add("SpO2 " + oxygen + "%");
+            if (temperature != null) parts.add("Temp " + temperature + "°F");
+            String summary = String.join(", ", parts);
+            return summary.length() > 255 ? summary.substring(0, 255) : summary;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.hospi.GUI;
+
+import javafx.application.Platform;
+import javafx.stage.Window;
+import javafx.stage.WindowEvent;
+
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * AsyncDatabase - Runs the database work of JavaFX screens off the JavaFX Application Thread.
+ *
+ * Queries run on a small pool of daemon threads (-Dhospi.db.asyncThreads, default 4; the
+ * connection pool bounds real concurrency anyway) and their results are handed back to the
+ * screen on the JavaFX Application Thread, so a slow MySQL shows a loading placeholder instead
+ * of freezing the window.
+ *
+ * Loads started with load() belong to a window. When it closes, loads still queued are cancelled
+ * and never reach the database; a query already running finishes, but its result is dropped
+ * rather than applied to a window nobody sees.
+ */
+final class AsyncDatabase {
+
+    // Key under which a window keeps its outstanding loads
+    private static final String PENDING_LOADS = "hospi.pendingLoads";
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService EXECUTOR =
+            Executors.newFixedThreadPool(Math.max(1, Integer.getInteger("hospi.db.asyncThreads", 4)), r -> {
+                Thread thread = new Thread(r, "db-async-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private AsyncDatabase() {
+    }
+
+    /**
+     * Database work that produces a result.
+     */
+    interface Query<T> {
+
+        /**
+         * @return The result, handed to the screen
+         * @throws SQLException if the database cannot be read
+         */
+        T run() throws SQLException;
+    }
+
+    /**
+     * Runs a query on the database threads.
+     *
+     * @return Completes with the query's result, or exceptionally with its SQLException
+     */
+    static <T> CompletableFuture<T> supply(Query<T> query) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return query.run();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, EXECUTOR);
+    }
+
+    /**
+     * Loads data for a window, printing failures.
+     *
+     * @see #load(Window, Query, Consumer, Consumer)
+     */
+    static <T> CompletableFuture<T> load(Window window, Query<T> query, Consumer<T> onResult) {
+        return load(window, query, onResult, Throwable::printStackTrace);
+    }
+
+    /**
+     * Runs a query in the background and applies its result to a window on the JavaFX
+     * Application Thread. Closing the window cancels the load.
+     *
+     * @param window   Window the result is shown in
+     * @param query    Database work; must not touch the scene
+     * @param onResult Applies the result, on the JavaFX Application Thread
+     * @param onError  Shows a failure, on the JavaFX Application Thread
+     * @return The load; cancelling it keeps onResult and onError from running. Start loads
+     *         after the window is shown, or in the same event as showing it
+     */
+    static <T> CompletableFuture<T> load(Window window, Query<T> query, Consumer<T> onResult,
+                                         Consumer<Throwable> onError) {
+        CompletableFuture<T> future = supply(query);
+        Set<CompletableFuture<?>> pending = pendingLoads(window);
+        pending.add(future);
+        future.whenComplete((result, failure) -> {
+            pending.remove(future);
+            if (future.isCancelled()) return;
+            Platform.runLater(() -> {
+                // The window may have closed after the query finished, while this waited its turn
+                if (!window.isShowing()) return;
+                if (failure == null) {
+                    onResult.accept(result);
+                } else {
+                    onError.accept(failure instanceof CompletionException ? failure.getCause() : failure);
+                }
+            });
+        });
+        return future;
+    }
+
+    /**
+     * Cancels every load still outstanding for a window. Done automatically when it closes.
+     */
+    static void cancelAll(Window window) {
+        for (CompletableFuture<?> future : pendingLoads(window)) {
+            future.cancel(false);
+        }
+    }
+
+    // Window properties are only touched on the JavaFX Application Thread, where loads start
+    @SuppressWarnings("unchecked")
+    private static Set<CompletableFuture<?>> pendingLoads(Window window) {
+        Object pending = window.getProperties().get(PENDING_LOADS);
+        if (pending == null) {
+            pending = ConcurrentHashMap.newKeySet();
+            window.getProperties().put(PENDING_LOADS, pending);
+            // Registered once per window, on its first load
+            window.addEventHandler(WindowEvent.WINDOW_HIDDEN, e -> cancelAll(window));
+        }
+        return (Set<CompletableFuture<?>>) pending;
+    }
+}
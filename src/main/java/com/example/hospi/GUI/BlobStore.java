@@ -0,0 +1,365 @@
+package com.example.hospi.GUI;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BlobStore - Content-addressed local storage for chat attachments.
+ *
+ * A blob is stored once under its SHA-256, as blobs/ab/abcdef..., however many times it is sent.
+ * Uploads arrive in chunks and are appended to a partial file per (uploader, hash), so an
+ * interrupted upload resumes from the bytes already received, also across reconnects and
+ * restarts. The hash is verified before a blob becomes visible.
+ *
+ * Each blob has a list of users allowed to download it, kept beside it as ab/abcdef....readers:
+ * every user who uploaded it in full, then the receiver of every message that shares it. Knowing
+ * a blob's hash is not enough: a user who asks to upload a stored blob they may not read has to
+ * send the whole file, which is verified like any other upload.
+ *
+ * Each user may store at most -Dhospi.chat.blobQuotaBytes of new blobs, counting uploads in
+ * progress; the running total is kept in usage/userId. Partial uploads not touched for
+ * -Dhospi.chat.uploadExpiryMs are deleted.
+ *
+ * File work for the NIO transport runs on the store's own thread (execute), never on the selector.
+ */
+class BlobStore {
+
+    private static final int VERIFY_BUFFER_BYTES = 64 * 1024;
+
+    private final Path blobDir;
+    private final Path uploadDir;
+    private final Path usageDir;
+    private final long maxBytes;
+    private final long quotaBytes = Long.getLong("hospi.chat.blobQuotaBytes", 500L * 1024 * 1024);
+    private final long uploadExpiryMs = Long.getLong("hospi.chat.uploadExpiryMs", TimeUnit.HOURS.toMillis(24));
+
+    // Each upload in progress, keyed by partial file name
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    // Bytes of blobs each user has added to the store, loaded from usage/ on first use
+    private final Map<Integer, Long> usage = new ConcurrentHashMap<>();
+
+    // Uploads from the NIO transport, and the sweep of abandoned ones
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chat-blob-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * An upload in progress.
+     *
+     * @param userId   Uploader
+     * @param size     Declared size of the whole file
+     * @param begunAt  When begin() was last called for it, in epoch milliseconds
+     */
+    private record Upload(int userId, long size, long begunAt) {
+    }
+
+    /**
+     * @param root     Directory holding the blobs and partial uploads
+     * @param maxBytes Largest attachment accepted
+     */
+    BlobStore(Path root, long maxBytes) {
+        this.blobDir = root.resolve("blobs");
+        this.uploadDir = root.resolve("uploads");
+        this.usageDir = root.resolve("usage");
+        this.maxBytes = maxBytes;
+        long sweepMs = Math.max(1_000, Math.min(uploadExpiryMs, TimeUnit.HOURS.toMillis(1)));
+        worker.scheduleWithFixedDelay(this::removeAbandonedUploads, sweepMs, sweepMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs upload work on the store's own thread, in submission order, so chunks of one upload
+     * are appended in the order they arrived.
+     *
+     * @param task Work that reads or writes files
+     */
+    void execute(Runnable task) {
+        worker.execute(task);
+    }
+
+    /**
+     * @return The attachment size limit (-Dhospi.chat.maxAttachmentBytes), shared by the server and the client
+     */
+    static long maxAttachmentBytes() {
+        return Long.getLong("hospi.chat.maxAttachmentBytes", 25L * 1024 * 1024);
+    }
+
+    /**
+     * @param hash SHA-256 as 32 bytes
+     * @return The hash as 64 lower-case hex digits, the blob's name
+     */
+    static String hex(byte[] hash) {
+        return HexFormat.of().formatHex(hash);
+    }
+
+    /**
+     * Starts or resumes an upload.
+     *
+     * @param userId Uploader
+     * @param hash   Hex SHA-256 of the whole file
+     * @param size   Size of the whole file
+     * @return Bytes already received, which is size if the blob is already stored; -1 if refused
+     */
+    long begin(int userId, String hash, long size) {
+        if (size <= 0 || size > maxBytes) return -1;
+        try {
+            if (Files.exists(blobPath(hash)) && mayRead(hash, userId)) {
+                // Uploaded or received before: nothing to send
+                return size;
+            }
+            Path partial = partialPath(userId, hash);
+            String name = partial.getFileName().toString();
+            if (usage(userId) + uploadingBytes(userId, name) + size > quotaBytes) {
+                System.out.println("Upload " + hash + " from " + userId + " refused, attachment quota reached.");
+                return -1;
+            }
+            Files.createDirectories(uploadDir);
+            long received = Files.exists(partial) ? Files.size(partial) : 0;
+            if (received > size) {
+                Files.delete(partial);
+                received = 0;
+            }
+            uploads.put(name, new Upload(userId, size, System.currentTimeMillis()));
+            return received;
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Could not start upload " + hash + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Appends one chunk of an upload started with begin(). Once the last chunk is in, the file
+     * is verified and moved into the store.
+     *
+     * @param userId Uploader
+     * @param hash   Hex SHA-256 of the whole file
+     * @param offset Position of the chunk in the file
+     * @param chunk  The chunk's bytes
+     * @return Bytes received so far (the file size once stored), which differs from
+     *         offset + chunk length if the chunk was out of place; -1 if the upload failed
+     */
+    long append(int userId, String hash, long offset, ByteBuffer chunk) {
+        Path partial = partialPath(userId, hash);
+        Upload upload = uploads.get(partial.getFileName().toString());
+        if (upload == null) return -1;  // Not begun, or already finished
+        long size = upload.size();
+        try (FileChannel file = FileChannel.open(partial,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long received = file.size();
+            if (offset != received || received + chunk.remaining() > size) {
+                // Lost or repeated chunk: tell the uploader where to continue
+                return received;
+            }
+            while (chunk.hasRemaining()) {
+                file.write(chunk);
+            }
+            received = file.size();
+            if (received < size) return received;
+        } catch (IOException e) {
+            System.err.println("Could not write upload " + hash + ": " + e.getMessage());
+            return -1;
+        }
+        return finish(userId, hash, partial, size);
+    }
+
+    /**
+     * @return Whether the user has begun uploading the blob and not finished yet
+     */
+    boolean uploading(int userId, String hash) {
+        return uploads.containsKey(partialPath(userId, hash).getFileName().toString());
+    }
+
+    private long finish(int userId, String hash, Path partial, long size) {
+        uploads.remove(partial.getFileName().toString());
+        try {
+            if (!hash.equals(sha256(partial))) {
+                System.out.println("Upload " + hash + " from " + userId + " failed verification, discarded.");
+                Files.deleteIfExists(partial);
+                return -1;
+            }
+            Path blob = blobPath(hash);
+            if (Files.exists(blob)) {
+                // Someone stored it first; this user has now shown they hold the whole file
+                Files.deleteIfExists(partial);
+            } else {
+                Files.createDirectories(blob.getParent());
+                Files.move(partial, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                addUsage(userId, size);
+            }
+            grant(hash, userId);
+            return size;
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Could not store upload " + hash + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * @return Declared bytes of the user's uploads in progress, other than the named one
+     */
+    private long uploadingBytes(int userId, String except) {
+        long total = 0;
+        for (Map.Entry<String, Upload> entry : uploads.entrySet()) {
+            if (entry.getValue().userId() == userId && !entry.getKey().equals(except)) {
+                total += entry.getValue().size();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return Bytes of blobs the user has added to the store
+     */
+    private long usage(int userId) {
+        return usage.computeIfAbsent(userId, id -> {
+            Path file = usageDir.resolve(String.valueOf(id));
+            try {
+                return Files.exists(file) ? Long.parseLong(Files.readString(file, StandardCharsets.UTF_8).trim()) : 0L;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring unreadable attachment usage " + file);
+                return 0L;
+            }
+        });
+    }
+
+    private synchronized void addUsage(int userId, long bytes) throws IOException {
+        long total = usage(userId) + bytes;
+        Files.createDirectories(usageDir);
+        Files.writeString(usageDir.resolve(String.valueOf(userId)), Long.toString(total), StandardCharsets.UTF_8);
+        usage.put(userId, total);
+    }
+
+    /**
+     * Worker thread: forgets uploads not begun or appended to within the expiry, and deletes
+     * their partial files, including those left by an earlier run.
+     */
+    private void removeAbandonedUploads() {
+        long cutoff = System.currentTimeMillis() - uploadExpiryMs;
+        int removed = 0;
+        try {
+            uploads.entrySet().removeIf(entry -> entry.getValue().begunAt() < cutoff
+                    && !Files.exists(uploadDir.resolve(entry.getKey())));
+            if (!Files.isDirectory(uploadDir)) return;
+            try (DirectoryStream<Path> partials = Files.newDirectoryStream(uploadDir, "*.part")) {
+                for (Path partial : partials) {
+                    if (Files.getLastModifiedTime(partial).toMillis() >= cutoff) continue;
+                    Upload upload = uploads.get(partial.getFileName().toString());
+                    if (upload != null && upload.begunAt() >= cutoff) continue;
+                    uploads.remove(partial.getFileName().toString());
+                    Files.deleteIfExists(partial);
+                    removed++;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not clean up abandoned uploads: " + e.getMessage());
+        }
+        if (removed > 0) {
+            System.out.println("Removed " + removed + " abandoned attachment uploads.");
+        }
+    }
+
+    /**
+     * Allows a user to download a stored blob.
+     *
+     * @return false if there is no such blob
+     */
+    synchronized boolean grant(String hash, int userId) {
+        if (!isHash(hash) || !Files.exists(blobPath(hash))) return false;
+        if (mayRead(hash, userId)) return true;
+        try {
+            Files.writeString(readersPath(hash), userId + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not share attachment " + hash + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return Whether the user uploaded the blob or was sent it
+     */
+    synchronized boolean mayRead(String hash, int userId) {
+        if (!isHash(hash)) return false;
+        try {
+            Path readers = readersPath(hash);
+            if (!Files.exists(readers)) return false;
+            List<String> ids = Files.readAllLines(readers, StandardCharsets.UTF_8);
+            return ids.contains(String.valueOf(userId));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a stored blob for a user allowed to read it.
+     *
+     * @return The blob, positioned at 0, or null if it does not exist or the user may not read it
+     */
+    FileChannel open(String hash, int userId) {
+        if (!mayRead(hash, userId)) return null;
+        try {
+            return FileChannel.open(blobPath(hash), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Hex SHA-256 of a file, read through one small reusable buffer
+     */
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is a required algorithm", e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(VERIFY_BUFFER_BYTES);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private Path blobPath(String hash) {
+        return blobDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Path readersPath(String hash) {
+        return blobDir.resolve(hash.substring(0, 2)).resolve(hash + ".readers");
+    }
+
+    private Path partialPath(int userId, String hash) {
+        return uploadDir.resolve(userId + "-" + hash + ".part");
+    }
+
+    // Hashes become file names, so only well-formed ones are accepted
+    private static boolean isHash(String hash) {
+        return hash != null && hash.matches("[0-9a-f]{64}");
+    }
+}
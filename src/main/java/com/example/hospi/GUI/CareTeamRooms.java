@@ -0,0 +1,142 @@
+package com.example.hospi.GUI;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * CareTeamRooms - Group conversations between the doctors assigned to a patient.
+ *
+ * A room is named by the patient's user ID and its members are the user IDs of every doctor
+ * assigned to the patient in doctorpatientassignment. Membership is read on first use and kept
+ * for -Dhospi.chat.roomCacheMs (default one minute), so a new assignment joins the room within
+ * that time without a query per message.
+ *
+ * Room work runs in order on one thread: resolving membership may touch the database, which must
+ * not happen on a routing thread or the NIO selector, and a single thread keeps every member's
+ * view of a room in the same order.
+ */
+class CareTeamRooms {
+
+    private static final String MEMBERS_SQL = """
+            SELECT p.id AS patient_id, d.user_id AS member_id
+            FROM hospital_db.patients p
+            LEFT JOIN hospital_db.doctorpatientassignment da ON p.id = da.PatientID
+            LEFT JOIN hospital_db.doctors d ON d.id = da.DoctorID
+            WHERE p.user_id = ?
+            """;
+
+    /**
+     * One care-team room.
+     *
+     * @param patientUserId User ID of the patient; names the room on the wire
+     * @param patientId     patients.id, the key rooms are stored under
+     * @param members       User IDs of the assigned doctors
+     */
+    record Room(int patientUserId, int patientId, Set<String> members) {
+    }
+
+    /**
+     * Finds a room's membership.
+     */
+    interface Lookup {
+
+        /**
+         * @param patientUserId User ID of the patient
+         * @return The room, or null if there is no such patient
+         * @throws SQLException if the assignments cannot be read
+         */
+        Room find(int patientUserId) throws SQLException;
+    }
+
+    private record Cached(Room room, long loadedAt) {
+    }
+
+    private final Lookup lookup;
+    private final long cacheMs;
+    private final Map<Integer, Cached> cache = new ConcurrentHashMap<>();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chat-rooms");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param lookup  Reads a room's membership
+     * @param cacheMs How long membership is reused before it is read again
+     */
+    CareTeamRooms(Lookup lookup, long cacheMs) {
+        this.lookup = lookup;
+        this.cacheMs = cacheMs;
+    }
+
+    /**
+     * @return A lookup reading doctorpatientassignment
+     */
+    static Lookup lookupFromDatabase() {
+        return patientUserId -> {
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(MEMBERS_SQL)) {
+                stmt.setInt(1, patientUserId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    int patientId = -1;
+                    Set<String> members = new HashSet<>();
+                    while (rs.next()) {
+                        patientId = rs.getInt("patient_id");
+                        int memberId = rs.getInt("member_id");
+                        if (!rs.wasNull()) members.add(String.valueOf(memberId));
+                    }
+                    return patientId < 0 ? null : new Room(patientUserId, patientId, Set.copyOf(members));
+                }
+            }
+        };
+    }
+
+    /**
+     * Runs room work on the room thread, in submission order.
+     */
+    void execute(Runnable task) {
+        try {
+            worker.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Server stopping
+        }
+    }
+
+    /**
+     * @param patientUserId User ID of the patient
+     * @return The room, or null if there is no such patient or it cannot be read
+     */
+    Room room(int patientUserId) {
+        Cached cached = cache.get(patientUserId);
+        if (cached != null && System.currentTimeMillis() - cached.loadedAt() < cacheMs) {
+            return cached.room();
+        }
+        try {
+            Room room = lookup.find(patientUserId);
+            if (room != null) {
+                cache.put(patientUserId, new Cached(room, System.currentTimeMillis()));
+            }
+            return room;
+        } catch (SQLException e) {
+            System.err.println("Could not load the care team room of patient " + patientUserId + ": " + e.getMessage());
+            // Better a slightly stale room than none
+            return cached != null ? cached.room() : null;
+        }
+    }
+
+    /**
+     * Stops the room thread; pending work is dropped.
+     */
+    void shutdown() {
+        worker.shutdownNow();
+    }
+}
@@ -0,0 +1,422 @@
+package com.example.hospi.GUI;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ChatCluster - Membership and node-to-node links for a ChatServer running as one node of a cluster.
+ *
+ * Every node knows the chat address of every other node and which node each connected user is on
+ * (ChatDirectory). A message for a user connected elsewhere is relayed over a link to that node,
+ * which delivers it like a local message. Each user also has a home node, picked by hashing the
+ * user ID over the node list: messages for users connected nowhere wait in the home node's
+ * offline store, and a user who connects to another node has them handed over.
+ *
+ * Links are ordinary chat connections that open with ChatProtocol.NODE_HELLO. Each node sends
+ * over its own outgoing link, so a pair of nodes uses one connection per direction.
+ *
+ * Nothing here blocks the caller on the network or the database. Each link has a bounded queue
+ * (-Dhospi.chat.cluster.peerQueue) drained by its own writer thread, and directory updates and
+ * lookups run on the cluster executor (execute). Lookups are cached for
+ * -Dhospi.chat.cluster.locateCacheMs; the cache is corrected by handovers, by local connects and
+ * disconnects, and by peers reporting that a user is no longer with them.
+ *
+ * Relayed messages (forward) are acknowledged by the receiving node once it has delivered,
+ * queued or passed them on. A message not acknowledged within -Dhospi.chat.cluster.ackTimeoutMs
+ * is sent again, up to -Dhospi.chat.cluster.forwardAttempts times, after which the caller's
+ * fallback keeps it. Receivers drop repeats, so a lost ack does not deliver a message twice.
+ */
+class ChatCluster {
+
+    // How long a node that refused a connection is skipped before it is tried again
+    private static final long RETRY_MS = 2_000;
+    private static final int CONNECT_TIMEOUT_MS = 1_000;
+    // Forward IDs remembered per sending node to drop repeats
+    private static final int SEEN_FORWARDS = 4_096;
+
+    private final String nodeId;
+    private final Map<String, InetSocketAddress> nodes;
+    private final ChatDirectory directory;
+    private final Map<String, PeerLink> links = new ConcurrentHashMap<>();
+
+    private final int peerQueueCapacity = Integer.getInteger("hospi.chat.cluster.peerQueue", 10_000);
+    private final long ackTimeoutMs = Math.max(100, Long.getLong("hospi.chat.cluster.ackTimeoutMs", 2_000L));
+    private final int forwardAttempts = Math.max(1, Integer.getInteger("hospi.chat.cluster.forwardAttempts", 3));
+    private final long locateCacheMs = Long.getLong("hospi.chat.cluster.locateCacheMs", 5_000L);
+
+    // Directory lookups by user; only users found on a node are cached
+    private final Map<String, Located> located = new ConcurrentHashMap<>();
+
+    // Relayed messages waiting for their FORWARD_ACK, by forward ID
+    private final Map<Long, PendingForward> unacked = new ConcurrentHashMap<>();
+    // Unique per run, so a restarted node's IDs do not collide with those a peer remembers
+    private final AtomicLong nextForwardId = new AtomicLong(System.currentTimeMillis() << 20);
+    private final Map<String, Map<Long, Boolean>> seenForwards = new ConcurrentHashMap<>();
+
+    // Directory work and routing decisions that may wait on the database
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chat-cluster");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chat-cluster-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A cached directory lookup.
+     *
+     * @param node      Node the user was found on
+     * @param expiresAt System.nanoTime() after which the directory is asked again
+     */
+    private record Located(String node, long expiresAt) {
+    }
+
+    /**
+     * A relayed message not yet acknowledged.
+     */
+    private static final class PendingForward {
+        final String node;
+        final String receiver;
+        final byte[] frame;
+        final Runnable onFailed;
+        int attempts = 1;
+        long deadline;
+
+        PendingForward(String node, String receiver, byte[] frame, Runnable onFailed, long deadline) {
+            this.node = node;
+            this.receiver = receiver;
+            this.frame = frame;
+            this.onFailed = onFailed;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * @param nodeId    This node's ID
+     * @param nodes     Chat address of every node, this one included, keyed by node ID. May be
+     *                  filled in after construction (ChatClusterTest binds ephemeral ports first)
+     * @param directory Presence directory shared by all nodes
+     */
+    ChatCluster(String nodeId, Map<String, InetSocketAddress> nodes, ChatDirectory directory) {
+        this.nodeId = nodeId;
+        this.nodes = nodes;
+        this.directory = directory;
+        long sweepMs = Math.max(50, ackTimeoutMs / 2);
+        retries.scheduleWithFixedDelay(this::retryUnacked, sweepMs, sweepMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Parses a node list of the form "a@host:port,b@host:port".
+     *
+     * @param spec Comma-separated node definitions
+     * @return Addresses keyed by node ID, in the order given
+     * @throws IllegalArgumentException if an entry is malformed
+     */
+    static Map<String, InetSocketAddress> parseNodes(String spec) {
+        Map<String, InetSocketAddress> nodes = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            int at = entry.indexOf('@');
+            int colon = entry.lastIndexOf(':');
+            if (at <= 0 || colon < at) {
+                throw new IllegalArgumentException("Expected id@host:port, got " + entry);
+            }
+            nodes.put(entry.substring(0, at).trim(), InetSocketAddress.createUnresolved(
+                    entry.substring(at + 1, colon).trim(), Integer.parseInt(entry.substring(colon + 1).trim())));
+        }
+        return nodes;
+    }
+
+    /**
+     * @return This node's ID
+     */
+    String nodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return The shared presence directory
+     */
+    ChatDirectory directory() {
+        return directory;
+    }
+
+    /**
+     * @param username User ID
+     * @return The node that keeps the user's offline messages; the same on every node
+     */
+    String homeNode(String username) {
+        List<String> ids = new ArrayList<>(nodes.keySet());
+        Collections.sort(ids);
+        return ids.get(Math.floorMod(username.hashCode(), ids.size()));
+    }
+
+    /**
+     * Runs directory work on the cluster executor, one task at a time in submission order.
+     * After close() the task runs on the caller's thread.
+     *
+     * @param task Work that may wait on the directory
+     */
+    void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * Looks a user up in the directory, or in the cache of earlier lookups. May wait on the
+     * database; call it on the cluster executor.
+     *
+     * @param username User ID
+     * @return The node the user is connected to, or null if none
+     */
+    String locate(String username) {
+        Located cached = located.get(username);
+        if (cached != null && cached.expiresAt() - System.nanoTime() > 0) return cached.node();
+        String node = directory.locate(username);
+        if (node != null && locateCacheMs > 0) {
+            located.put(username, new Located(node, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(locateCacheMs)));
+        } else {
+            located.remove(username);
+        }
+        return node;
+    }
+
+    /**
+     * Records where a user is, e.g. the node that asked for their offline messages.
+     */
+    void located(String username, String node) {
+        if (locateCacheMs > 0) {
+            located.put(username, new Located(node, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(locateCacheMs)));
+        }
+    }
+
+    /**
+     * Drops a cached lookup, e.g. because the user connected or disconnected here.
+     */
+    void forget(String username) {
+        located.remove(username);
+    }
+
+    /**
+     * Queues a frame for another node, connecting first if needed. Never blocks.
+     *
+     * @param node  Target node ID
+     * @param frame Encoded ChatProtocol frame
+     * @return false if the node is unknown, recently unreachable, or has too much queued
+     */
+    boolean send(String node, byte[] frame) {
+        if (!nodes.containsKey(node)) return false;
+        return links.computeIfAbsent(node, PeerLink::new).send(frame);
+    }
+
+    /**
+     * Relays a message to another node and keeps it until that node acknowledges it. Never blocks.
+     *
+     * @param node     Target node ID
+     * @param sender   User ID of the sender
+     * @param receiver User ID of the receiver
+     * @param text     Message content
+     * @param onFailed Runs on the cluster executor if the node never acknowledges the message
+     * @return false if the message could not even be queued; onFailed is not run then
+     */
+    boolean forward(String node, String sender, String receiver, String text, Runnable onFailed) {
+        long id = nextForwardId.incrementAndGet();
+        byte[] frame = ChatProtocol.forward(id, sender, receiver, text);
+        unacked.put(id, new PendingForward(node, receiver, frame, onFailed, ackDeadline()));
+        if (send(node, frame)) return true;
+        unacked.remove(id);
+        forget(receiver);
+        return false;
+    }
+
+    /**
+     * Records a FORWARD_ACK.
+     *
+     * @param node      Node that sent the ack
+     * @param forwardId The acknowledged FORWARD
+     * @param delivered true if the receiver was connected to that node
+     */
+    void acked(String node, long forwardId, boolean delivered) {
+        PendingForward pending = unacked.remove(forwardId);
+        if (pending == null || delivered) return;
+        Located cached = located.get(pending.receiver);
+        if (cached != null && cached.node().equals(node)) {
+            // The user has moved on; look again next time
+            forget(pending.receiver);
+        }
+    }
+
+    /**
+     * @param node      Node that sent a FORWARD
+     * @param forwardId Its forward ID
+     * @return false if the same FORWARD was already received, i.e. this is a retry after a lost ack
+     */
+    boolean firstDelivery(String node, long forwardId) {
+        Map<Long, Boolean> seen = seenForwards.computeIfAbsent(node, n -> Collections.synchronizedMap(
+                new LinkedHashMap<>(16, 0.75f, false) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                        return size() > SEEN_FORWARDS;
+                    }
+                }));
+        return seen.put(forwardId, Boolean.TRUE) == null;
+    }
+
+    /**
+     * Resends relayed messages whose ack is overdue and gives up on those out of attempts.
+     */
+    private void retryUnacked() {
+        long now = System.nanoTime();
+        for (Iterator<PendingForward> it = unacked.values().iterator(); it.hasNext(); ) {
+            PendingForward pending = it.next();
+            if (pending.deadline - now > 0) continue;
+            if (pending.attempts < forwardAttempts && send(pending.node, pending.frame)) {
+                pending.attempts++;
+                pending.deadline = ackDeadline();
+                continue;
+            }
+            it.remove();
+            forget(pending.receiver);
+            System.out.println("Chat node " + pending.node + " did not acknowledge a message for "
+                    + pending.receiver + ", keeping it elsewhere.");
+            execute(pending.onFailed);
+        }
+    }
+
+    private long ackDeadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ackTimeoutMs);
+    }
+
+    /**
+     * Closes every outgoing link, after finishing queued directory work.
+     */
+    void close() {
+        retries.shutdownNow();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        links.values().forEach(PeerLink::close);
+        links.clear();
+    }
+
+    /**
+     * Outgoing connection to one node. Frames are queued and written by the link's own thread,
+     * one burst per flush, which keeps frames from one node arriving in the order they were sent.
+     */
+    private final class PeerLink {
+        private final String node;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(Math.max(1, peerQueueCapacity));
+        private final Thread writer;
+        private volatile Socket socket;
+        private volatile DataOutputStream out;
+        private volatile long retryAt;
+        private volatile boolean closed;
+
+        private PeerLink(String node) {
+            this.node = node;
+            this.writer = new Thread(this::writeLoop, "chat-peer-" + node);
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        boolean send(byte[] frame) {
+            if (closed) return false;
+            // Fail fast while the node is known to be down, so callers fall back at once
+            if (out == null && System.currentTimeMillis() < retryAt) return false;
+            return queue.offer(frame);
+        }
+
+        private void writeLoop() {
+            List<byte[]> burst = new ArrayList<>();
+            while (!closed) {
+                try {
+                    burst.add(queue.take());
+                    queue.drainTo(burst);
+                    if (out == null) {
+                        if (System.currentTimeMillis() < retryAt) continue;
+                        connect();
+                    }
+                    for (byte[] frame : burst) {
+                        out.write(frame);
+                    }
+                    out.flush();
+                } catch (InterruptedException e) {
+                    break;
+                } catch (IOException e) {
+                    // Unacknowledged forwards in the burst are resent or given up by retryUnacked
+                    if (!closed) System.out.println("Chat node " + node + " unreachable: " + e.getMessage());
+                    closeSocket();
+                    retryAt = System.currentTimeMillis() + RETRY_MS;
+                } finally {
+                    burst.clear();
+                }
+            }
+            closeSocket();
+        }
+
+        private void connect() throws IOException {
+            InetSocketAddress address = nodes.get(node);
+            Socket s = new Socket();
+            try {
+                s.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT_MS);
+                s.setTcpNoDelay(true);
+                out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                out.write(ChatProtocol.MAGIC);
+                out.write(ChatProtocol.nodeHello(nodeId));
+                socket = s;
+            } catch (IOException e) {
+                s.close();
+                out = null;
+                throw e;
+            }
+        }
+
+        private void closeSocket() {
+            try {
+                if (socket != null) socket.close();
+            } catch (IOException e) {
+                // Ignore close exceptions
+            }
+            socket = null;
+            out = null;
+        }
+
+        void close() {
+            closed = true;
+            writer.interrupt();
+            // Also ends a write blocked on a node that stopped reading
+            Socket current = socket;
+            try {
+                if (current != null) current.close();
+            } catch (IOException e) {
+                // Ignore close exceptions
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.hospi.GUI;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * ChatCompression - Per-connection deflate for the binary chat protocol.
+ *
+ * A client asks for it by sending HELLO with ChatProtocol.VERSION_COMPRESSED. Everything after
+ * that HELLO, in both directions, is one raw deflate stream per direction, flushed with
+ * SYNC_FLUSH at the end of every burst of frames so the other side can decode them at once.
+ * Each stream lives as long as the connection, so later messages are coded against everything
+ * sent before them.
+ *
+ * Both streams start from a preset DICTIONARY of words common in hospital chat. A short message
+ * early in a conversation has little history of its own to match, so without the dictionary
+ * deflate barely shrinks it.
+ */
+final class ChatCompression {
+
+    // Phrases deflate may refer back to from the first byte on. Later entries are cheaper to
+    // reference, so the most frequent words come last
+    static final byte[] DICTIONARY = ("""
+            attachment:application/pdf image/jpeg image/png\
+             laboratory radiology x-ray ultrasound MRI CT scan ECG report referral discharge summary\
+             allergy allergic reaction rash swelling dizziness nausea vomiting diarrhea cough\
+             shortness of breath chest pain headache fever temperature blood sugar glucose insulin\
+             heart rate pulse oxygen saturation weight blood pressure readings vitals\
+             tablet capsule syrup injection dose dosage mg ml once daily twice a day three times a day\
+             before meals after meals at night for 5 days for 7 days for two weeks\
+             paracetamol ibuprofen amoxicillin metformin amlodipine omeprazole\
+             prescription medicine medication refill pharmacy side effects\
+             appointment tomorrow today this week next week morning afternoon evening reschedule\
+             follow-up consultation check-up test results please let me know if\
+             I have been feeling I am feeling better worse still the same since yesterday\
+             Thank you doctor Hello doctor Good morning doctor Please take your patient\
+            """).getBytes(StandardCharsets.UTF_8);
+
+    private static final int BUFFER_BYTES = 8 * 1024;
+
+    private ChatCompression() {
+    }
+
+    /**
+     * @return Whether the client should ask for compression (-Dhospi.chat.compress, default true)
+     */
+    static boolean requested() {
+        return Boolean.parseBoolean(System.getProperty("hospi.chat.compress", "true"));
+    }
+
+    /**
+     * @return Deflate level (-Dhospi.chat.compressionLevel, default 6). Chat frames are small,
+     *         so higher levels cost CPU for almost no saving
+     */
+    static int level() {
+        return Integer.getInteger("hospi.chat.compressionLevel", 6);
+    }
+
+    /**
+     * @param dictionary Preset dictionary; empty for none
+     * @return A raw deflater primed with the dictionary
+     */
+    static Deflater deflater(int level, byte[] dictionary) {
+        Deflater deflater = new Deflater(level, true);
+        if (dictionary.length > 0) deflater.setDictionary(dictionary);
+        return deflater;
+    }
+
+    /**
+     * @param dictionary Preset dictionary; empty for none
+     * @return A raw inflater primed with the dictionary
+     */
+    static Inflater inflater(byte[] dictionary) {
+        Inflater inflater = new Inflater(true);
+        if (dictionary.length > 0) inflater.setDictionary(dictionary);
+        return inflater;
+    }
+
+    /**
+     * Wraps a blocking connection's output. Every flush() ends the current burst with a
+     * SYNC_FLUSH, so callers flush exactly as they would on the plain stream.
+     */
+    static OutputStream compress(OutputStream out) {
+        return new DeflaterOutputStream(out, deflater(level(), DICTIONARY), BUFFER_BYTES, true) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Wraps a blocking connection's input.
+     */
+    static InputStream decompress(InputStream in) {
+        return new InflaterInputStream(in, inflater(DICTIONARY), BUFFER_BYTES) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Compressing half of a non-blocking connection: frames are added one by one and come out
+     * as one compressed block per burst.
+     */
+    static final class Encoder {
+        private final Deflater deflater;
+        private byte[] output = new byte[BUFFER_BYTES];
+        private int length;
+
+        Encoder(int level) {
+            this(level, DICTIONARY);
+        }
+
+        Encoder(int level, byte[] dictionary) {
+            this.deflater = deflater(level, dictionary);
+        }
+
+        /**
+         * Compresses a frame into the current burst.
+         */
+        void add(ByteBuffer frame) {
+            deflater.setInput(frame);
+            while (!deflater.needsInput()) {
+                drain(Deflater.NO_FLUSH);
+            }
+        }
+
+        /**
+         * @return Bytes of the current burst so far; may lag behind the input until finish()
+         */
+        int pending() {
+            return length;
+        }
+
+        /**
+         * Ends the burst so the receiver can decode all of it.
+         *
+         * @return The compressed burst, to be written before the next one is started
+         */
+        ByteBuffer finish() {
+            // SYNC_FLUSH is complete once it leaves room unused in the output
+            while (drain(Deflater.SYNC_FLUSH) == 0) {
+                // Output was full; drain() grew it
+            }
+            ByteBuffer burst = ByteBuffer.wrap(Arrays.copyOf(output, length));
+            length = 0;
+            return burst;
+        }
+
+        // Returns the space left in the output after one deflate call, growing it if full
+        private int drain(int flush) {
+            length += deflater.deflate(output, length, output.length - length, flush);
+            if (length < output.length) return output.length - length;
+            output = Arrays.copyOf(output, output.length * 2);
+            return 0;
+        }
+
+        void end() {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompressing half of a non-blocking connection.
+     */
+    static final class Decoder {
+        private final Inflater inflater;
+        private final ByteBuffer output = ByteBuffer.allocate(BUFFER_BYTES);
+
+        Decoder() {
+            this(DICTIONARY);
+        }
+
+        Decoder(byte[] dictionary) {
+            this.inflater = inflater(dictionary);
+        }
+
+        /**
+         * Hands over compressed bytes; inflate() consumes them.
+         */
+        void input(ByteBuffer compressed) {
+            inflater.setInput(compressed);
+        }
+
+        /**
+         * @return The next piece of decompressed data, flipped for reading and valid until the
+         *         next call, or null once the input is used up
+         * @throws DataFormatException if the peer sent something that is not deflate data
+         */
+        ByteBuffer inflate() throws DataFormatException {
+            output.clear();
+            int n = inflater.inflate(output);
+            if (n == 0) return null;
+            output.flip();
+            return output;
+        }
+
+        void end() {
+            inflater.end();
+        }
+    }
+}
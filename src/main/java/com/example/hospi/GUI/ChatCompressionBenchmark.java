@@ -0,0 +1,352 @@
+package com.example.hospi.GUI;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+
+/**
+ * ChatCompressionBenchmark - Bytes on the wire and CPU cost of chat compression.
+ *
+ * Part one encodes a generated hospital conversation the way the server sends it, as text lines
+ * (SEQUENCED codec) and binary frames, then deflates the binary stream as a compressed connection
+ * would: once with one SYNC_FLUSH per message (live chat) and once in bursts of --backlog
+ * messages (the backlog flushed on reconnect), with and without the preset dictionary. CPU time
+ * is the benchmark thread's own, per message, for compressing and inflating. The first
+ * --short messages are measured again on their own, as a connection that stays short.
+ *
+ * Part two sends the same messages from one client to another through an embedded ChatServer
+ * in each protocol and counts every byte both clients wrote and read, handshakes included.
+ * Persistence is off, so there are no acknowledgements and no database time in the CPU figure.
+ *
+ * Usage: ChatCompressionBenchmark [--messages=5000] [--backlog=50] [--short=20] [--rounds=5]
+ *                                 [--seed=1] [--mode=threads|virtual|nio]
+ */
+public class ChatCompressionBenchmark {
+
+    private static final String[] SYMPTOMS = {"a headache", "chest pain", "a dry cough", "dizziness",
+            "nausea", "a rash on my arm", "shortness of breath", "a fever", "back pain", "trouble sleeping"};
+    private static final String[] MEDICINES = {"paracetamol", "ibuprofen", "amoxicillin", "metformin",
+            "amlodipine", "omeprazole", "cetirizine", "atorvastatin"};
+    private static final String[] SCHEDULES = {"once daily", "twice a day", "three times a day",
+            "after meals", "at night"};
+    private static final String[] DAYS = {"tomorrow", "on Monday", "on Thursday", "next week", "this Friday"};
+
+    /**
+     * Run settings.
+     * @param messages Messages in the conversation
+     * @param backlog  Messages per burst in the backlog scenario
+     * @param shortSession Messages in the short connection scenario
+     * @param rounds   Timed repetitions; the first is a warm-up and is not reported
+     * @param seed     Seed of the generated conversation
+     * @param mode     Execution mode of the embedded server
+     */
+    record Options(int messages, int backlog, int shortSession, int rounds, long seed, ChatServer.Mode mode) {
+
+        static Options parse(String[] args) {
+            int messages = 5000;
+            int backlog = 50;
+            int shortSession = 20;
+            int rounds = 5;
+            long seed = 1;
+            ChatServer.Mode mode = ChatServer.Mode.THREADS;
+            for (String arg : args) {
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--messages=")) messages = Integer.parseInt(value);
+                else if (arg.startsWith("--backlog=")) backlog = Integer.parseInt(value);
+                else if (arg.startsWith("--short=")) shortSession = Integer.parseInt(value);
+                else if (arg.startsWith("--rounds=")) rounds = Integer.parseInt(value);
+                else if (arg.startsWith("--seed=")) seed = Long.parseLong(value);
+                else if (arg.startsWith("--mode=")) mode = ChatServer.Mode.valueOf(value.toUpperCase());
+                else throw new IllegalArgumentException("Unknown option " + arg);
+            }
+            return new Options(Math.max(1, messages), Math.max(1, backlog), Math.max(1, shortSession),
+                    Math.max(2, rounds), seed, mode);
+        }
+    }
+
+    /**
+     * Runs both parts.
+     * @param args See the class comment
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        List<String> conversation = conversation(options.messages(), new Random(options.seed()));
+        long textBytes = conversation.stream().mapToLong(m -> m.getBytes(StandardCharsets.UTF_8).length).sum();
+        System.out.printf("%d messages, %.1f characters on average%n%n",
+                conversation.size(), (double) textBytes / conversation.size());
+
+        // Part one: the encodings of the same conversation
+        List<byte[]> lines = new ArrayList<>();
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < conversation.size(); i++) {
+            OfflineMessageStore.Envelope envelope = new OfflineMessageStore.Envelope(
+                    i + 1, String.valueOf(i % 2 == 0 ? 1001 : 2002), conversation.get(i));
+            lines.add(ChatProtocol.Codec.SEQUENCED.message(envelope));
+            frames.add(ChatProtocol.Codec.BINARY.message(envelope));
+        }
+        System.out.printf("%-30s %12s %7s %14s %14s%n", "Encoding", "Bytes", "Ratio", "Deflate us/msg", "Inflate us/msg");
+        long textTotal = total(lines);
+        report("text lines (current)", textTotal, textTotal, 0, 0);
+        report("binary frames (current)", total(frames), textTotal, 0, 0);
+        for (int burst : new int[]{1, options.backlog()}) {
+            for (int level : new int[]{1, 6}) {
+                for (boolean dictionary : new boolean[]{false, true}) {
+                    String name = (burst == 1 ? "live" : "backlog") + " deflate-" + level + (dictionary ? " + dict" : "");
+                    measure(name, frames, burst, level, dictionary ? ChatCompression.DICTIONARY : new byte[0],
+                            options.rounds(), textTotal);
+                }
+            }
+        }
+
+        // Most connections are short: a few messages, where the dictionary matters most
+        int shortCount = Math.min(options.shortSession(), lines.size());
+        List<byte[]> shortFrames = frames.subList(0, shortCount);
+        long shortText = total(lines.subList(0, shortCount));
+        System.out.printf("%nFirst %d messages of a connection%n", shortCount);
+        report("text lines (current)", shortText, shortText, 0, 0);
+        report("binary frames (current)", total(shortFrames), shortText, 0, 0);
+        for (boolean dictionary : new boolean[]{false, true}) {
+            measure("live deflate-6" + (dictionary ? " + dict" : ""), shortFrames, 1, 6,
+                    dictionary ? ChatCompression.DICTIONARY : new byte[0], options.rounds(), shortText);
+        }
+
+        // Part two: the same messages through a real server
+        System.out.println();
+        System.setProperty("hospi.chat.persist", "false");
+        ChatServer server = new ChatServer(0);
+        server.setCareTeam(username -> Set.of());
+        server.start(options.mode());
+        try {
+            System.out.printf("%-30s %12s %12s %10s%n", "Protocol (" + options.mode() + ")", "Client out", "Client in", "CPU ms");
+            for (String protocol : new String[]{"text", "binary", "compressed"}) {
+                endToEnd(server.getLocalPort(), protocol, conversation);
+            }
+        } finally {
+            server.stop();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @return A conversation between a patient and a doctor, alternating, with the occasional
+     *         long clinical note
+     */
+    static List<String> conversation(int count, Random random) {
+        List<String> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String medicine = pick(random, MEDICINES);
+            String message = switch (random.nextInt(8)) {
+                case 0 -> "Hello doctor, I have been feeling " + pick(random, SYMPTOMS) + " since yesterday.";
+                case 1 -> "Please take " + medicine + " " + (random.nextInt(8) + 1) * 125 + " mg "
+                        + pick(random, SCHEDULES) + " for " + (random.nextInt(10) + 3) + " days.";
+                case 2 -> "My blood pressure readings this morning were " + (110 + random.nextInt(50)) + "/"
+                        + (70 + random.nextInt(30)) + " and my pulse was " + (60 + random.nextInt(40)) + ".";
+                case 3 -> "Thank you doctor. Can I reschedule my appointment to " + pick(random, DAYS) + "?";
+                case 4 -> "I took the " + medicine + " but I still have " + pick(random, SYMPTOMS)
+                        + " and a temperature of " + (36 + random.nextInt(30) / 10.0) + ".";
+                case 5 -> "Your test results are back: blood sugar " + (80 + random.nextInt(120))
+                        + " mg/dL. Please let me know if you notice any side effects.";
+                case 6 -> "OK";
+                default -> "Follow-up note: patient reports " + pick(random, SYMPTOMS) + " for "
+                        + (random.nextInt(14) + 1) + " days, worse in the evening. Vitals stable, oxygen saturation "
+                        + (94 + random.nextInt(6)) + "%. Continue " + medicine + " " + pick(random, SCHEDULES)
+                        + ", review at the follow-up consultation " + pick(random, DAYS)
+                        + ". Advised to come in immediately if the " + pick(random, SYMPTOMS) + " gets worse.";
+            };
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private static String pick(Random random, String[] choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    private static long total(List<byte[]> encoded) {
+        return encoded.stream().mapToLong(bytes -> bytes.length).sum();
+    }
+
+    /**
+     * Deflates the frames as one connection would, then inflates them back and checks the result.
+     */
+    private static void measure(String name, List<byte[]> frames, int burst, int level, byte[] dictionary,
+                                int rounds, long textTotal) throws DataFormatException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long bytes = 0;
+        long deflateNanos = 0;
+        long inflateNanos = 0;
+        for (int round = 0; round < rounds; round++) {
+            // Compress the whole conversation first, so the two timings do not mix
+            ChatCompression.Encoder encoder = new ChatCompression.Encoder(level, dictionary);
+            List<ByteBuffer> bursts = new ArrayList<>();
+            long start = threads.getCurrentThreadCpuTime();
+            for (int i = 0; i < frames.size(); i += burst) {
+                for (int j = i; j < Math.min(i + burst, frames.size()); j++) {
+                    encoder.add(ByteBuffer.wrap(frames.get(j)));
+                }
+                bursts.add(encoder.finish());
+            }
+            long deflated = threads.getCurrentThreadCpuTime() - start;
+            encoder.end();
+            long compressedBytes = bursts.stream().mapToLong(ByteBuffer::remaining).sum();
+
+            ChatCompression.Decoder decoder = new ChatCompression.Decoder(dictionary);
+            long inflatedBytes = 0;
+            start = threads.getCurrentThreadCpuTime();
+            for (ByteBuffer compressed : bursts) {
+                decoder.input(compressed);
+                ByteBuffer plain;
+                while ((plain = decoder.inflate()) != null) {
+                    inflatedBytes += plain.remaining();
+                }
+            }
+            long inflated = threads.getCurrentThreadCpuTime() - start;
+            decoder.end();
+            if (inflatedBytes != total(frames)) {
+                throw new IllegalStateException(name + ": inflated " + inflatedBytes + " of " + total(frames) + " bytes");
+            }
+            if (round == 0) continue;  // Warm-up
+            bytes = compressedBytes;
+            deflateNanos += deflated;
+            inflateNanos += inflated;
+        }
+        double perMessage = 1000.0 * (rounds - 1) * frames.size();
+        report(name, bytes, textTotal, deflateNanos / perMessage, inflateNanos / perMessage);
+    }
+
+    private static void report(String name, long bytes, long textTotal, double deflateMicros, double inflateMicros) {
+        System.out.printf("%-30s %12d %6.0f%% %14.2f %14.2f%n",
+                name, bytes, 100.0 * bytes / textTotal, deflateMicros, inflateMicros);
+    }
+
+    /**
+     * Sends the conversation from user 1001 to user 2002 through the server and reports the bytes
+     * both clients exchanged with it, and the CPU time of the whole process (server included).
+     */
+    private static void endToEnd(int port, String protocol, List<String> conversation) throws IOException {
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long cpuStart = os.getProcessCpuTime();
+        Counted sender = new Counted(new Socket("localhost", port));
+        Counted receiver = new Counted(new Socket("localhost", port));
+        try {
+            if (protocol.equals("text")) {
+                PrintWriter receiverOut = new PrintWriter(new OutputStreamWriter(receiver.out, StandardCharsets.UTF_8), true);
+                BufferedReader receiverIn = new BufferedReader(new InputStreamReader(receiver.in, StandardCharsets.UTF_8));
+                receiverOut.println("2002 SEQ 0");
+                receiverIn.readLine();  // SYNC
+                PrintWriter senderOut = new PrintWriter(new OutputStreamWriter(sender.out, StandardCharsets.UTF_8), true);
+                BufferedReader senderIn = new BufferedReader(new InputStreamReader(sender.in, StandardCharsets.UTF_8));
+                senderOut.println("1001 SEQ 0");
+                senderIn.readLine();  // SYNC
+                for (String message : conversation) {
+                    senderOut.println("TO:2002:" + message);
+                    receiverIn.readLine();
+                }
+            } else {
+                boolean compressed = protocol.equals("compressed");
+                DataInputStream receiverIn = open(receiver, 2002, compressed);
+                open(sender, 1001, compressed);
+                DataOutputStream senderOut = new DataOutputStream(sender.compressedOut);
+                for (String message : conversation) {
+                    senderOut.write(ChatProtocol.send(2002, message));
+                    senderOut.flush();
+                    ChatProtocol.readFrame(receiverIn);
+                }
+            }
+            System.out.printf("%-30s %12d %12d %10d%n", protocol, sender.written() + receiver.written(),
+                    sender.read() + receiver.read(), (os.getProcessCpuTime() - cpuStart) / 1_000_000);
+        } finally {
+            sender.socket.close();
+            receiver.socket.close();
+        }
+    }
+
+    /**
+     * Opens a binary connection the way ChatClient does and reads its SYNC header.
+     */
+    private static DataInputStream open(Counted connection, int userId, boolean compress) throws IOException {
+        OutputStream plain = new BufferedOutputStream(connection.out);
+        plain.write(ChatProtocol.MAGIC);
+        plain.write(ChatProtocol.hello(userId, 0, compress));
+        plain.flush();
+        connection.compressedOut = compress ? ChatCompression.compress(plain) : plain;
+        InputStream in = new BufferedInputStream(connection.in);
+        DataInputStream frames = new DataInputStream(compress ? ChatCompression.decompress(in) : in);
+        ChatProtocol.readFrame(frames);  // SYNC
+        return frames;
+    }
+
+    /**
+     * A client socket counting the bytes that cross it.
+     */
+    private static final class Counted {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private OutputStream compressedOut;
+        private long read;
+        private long written;
+
+        private Counted(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.in = new FilterInputStream(socket.getInputStream()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) read++;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n > 0) read += n;
+                    return n;
+                }
+            };
+            this.out = new FilterOutputStream(socket.getOutputStream()) {
+                @Override
+                public void write(int b) throws IOException {
+                    written++;
+                    super.write(b);
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    written += length;
+                    out.write(buffer, offset, length);
+                }
+            };
+        }
+
+        private long read() {
+            return read;
+        }
+
+        private long written() {
+            return written;
+        }
+    }
+}
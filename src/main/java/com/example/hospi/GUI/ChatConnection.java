@@ -0,0 +1,78 @@
+package com.example.hospi.GUI;
+
+import java.util.List;
+
+/**
+ * ChatConnection - One connected chat client as seen by the ChatServer routing code.
+ * Implemented by each transport (thread-per-socket and NIO selector) so routing does not
+ * depend on how bytes reach the socket. Output goes through a bounded OutboundQueue drained
+ * by the connection's own writer, so sending never blocks the caller.
+ */
+interface ChatConnection {
+
+    /**
+     * @return The user ID the client identified itself with, or null before the handshake
+     */
+    String username();
+
+    /**
+     * Queues encoded protocol output (text lines with their newlines, or binary frames) for
+     * delivery to this client. Safe to call from any thread; never blocks.
+     *
+     * @param data      The bytes to send, produced by ChatProtocol
+     * @param envelopes The messages the bytes deliver, oldest first; empty for control output
+     * @return false if the outbound queue is full and the overflow policy requires the
+     *         connection to be closed; the output was not queued
+     */
+    boolean send(byte[] data, List<OfflineMessageStore.Envelope> envelopes);
+
+    /**
+     * Queues output that delivers at most one message.
+     *
+     * @param data     The bytes to send
+     * @param envelope The message the bytes deliver, or null for control output
+     * @return false if the outbound queue overflowed, see send(byte[], List)
+     */
+    default boolean send(byte[] data, OfflineMessageStore.Envelope envelope) {
+        return send(data, envelope != null ? List.of(envelope) : List.of());
+    }
+
+    /**
+     * Queues control output (acks, receipts) that carries no message.
+     *
+     * @param data The bytes to send
+     * @return false if the outbound queue overflowed, see send(byte[], List)
+     */
+    default boolean send(byte[] data) {
+        return send(data, List.of());
+    }
+
+    /**
+     * @return Output items waiting to be written
+     */
+    int queueDepth();
+
+    /**
+     * Removes every message still waiting to be written, oldest first, including output the
+     * writer had taken off the queue but not finished writing. Some of those may already have
+     * reached the client; it drops them again by sequence number.
+     *
+     * @return The undelivered messages
+     */
+    List<OfflineMessageStore.Envelope> drainUndelivered();
+
+    /**
+     * Records that the client sent something. Called by the transport for every line or frame.
+     */
+    void markActive();
+
+    /**
+     * @return Milliseconds since the client last sent anything
+     */
+    long idleMillis();
+
+    /**
+     * Closes the underlying socket. Safe to call more than once.
+     */
+    void close();
+}
@@ -0,0 +1,39 @@
+package com.example.hospi.GUI;
+
+/**
+ * ChatDirectory - Presence directory shared by the nodes of a chat cluster.
+ * Records which node each connected user is attached to, so a node that receives a message
+ * for a user it does not hold knows where to forward it.
+ */
+interface ChatDirectory {
+
+    /**
+     * Records that a user is connected to a node, replacing any earlier entry.
+     *
+     * @param username User ID
+     * @param nodeId   Node the user connected to
+     */
+    void register(String username, String nodeId);
+
+    /**
+     * Removes a user's entry if it still names the given node; a newer connection on another
+     * node is left alone.
+     *
+     * @param username User ID
+     * @param nodeId   Node the user disconnected from
+     */
+    void unregister(String username, String nodeId);
+
+    /**
+     * @param username User ID
+     * @return The node the user is connected to, or null if none
+     */
+    String locate(String username);
+
+    /**
+     * Forgets every user registered on a node, e.g. when it starts after a crash.
+     *
+     * @param nodeId Node whose entries are removed
+     */
+    void clear(String nodeId);
+}
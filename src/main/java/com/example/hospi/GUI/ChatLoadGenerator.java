@@ -0,0 +1,504 @@
+package com.example.hospi.GUI;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * ChatLoadGenerator - Drives a chat server with simulated clients at a fixed message rate and
+ * reports delivery latency percentiles, throughput and server thread/heap usage.
+ *
+ * Clients use the plain text protocol: the user ID, then "TO:partner:sendTime" lines. Clients
+ * come in pairs that message each other, and the generator receives as well as sends, so
+ * latency is measured on one clock. Load is open-loop: each message has a scheduled send time
+ * and latency is measured from that time, not from when the write actually happened, so a
+ * server that stalls the senders shows up in the percentiles instead of hiding behind a lower
+ * send rate.
+ *
+ * Without --port an embedded server is started (persistence off unless -Dhospi.chat.persist=true)
+ * and measured in-process, along with its outbound queue figures. Against a running server
+ * (--host/--port) server figures are read over JMX when --jmx=host:port is given (start the
+ * server with -Dcom.sun.management.jmxremote.port=...).
+ *
+ * Execution modes are compared by listing several in --mode: each gets a fresh embedded server
+ * and the same load, one after the other, and a table of the runs is printed at the end.
+ *
+ * Usage: ChatLoadGenerator [--clients=1000] [--rate=2000] [--duration=30] [--warmup=5]
+ *                          [--senders=4] [--firstUser=100000] [--mode=threads[,virtual,nio]]
+ *                          [--host=localhost --port=12345] [--jmx=host:port]
+ * e.g.   ChatLoadGenerator --clients=5000 --rate=20000 --mode=nio
+ *        ChatLoadGenerator --clients=2000 --rate=10000 --duration=20 --mode=threads,virtual,nio
+ */
+public class ChatLoadGenerator {
+
+    private static final long REPORT_INTERVAL_MS = 5_000;
+    private static final String THREAD_PREFIX = "load-gen-";
+
+    /**
+     * Run settings.
+     * @param host      Server host
+     * @param port      Server port, or 0 to start an embedded server
+     * @param modes     Execution modes of the embedded server, run one after the other
+     * @param clients   Simulated clients (rounded up to an even number)
+     * @param rate      Messages per second across all clients
+     * @param duration  Measured seconds
+     * @param warmup    Seconds of load before measuring starts
+     * @param senders   Threads sharing the send schedule
+     * @param firstUser User ID of the first simulated client
+     * @param jmx       host:port of the server's JMX agent, or null
+     */
+    record Options(String host, int port, List<ChatServer.Mode> modes, int clients, int rate, int duration,
+                   int warmup, int senders, int firstUser, String jmx) {
+
+        static Options parse(String[] args) {
+            String host = "localhost";
+            int port = 0;
+            List<ChatServer.Mode> modes = List.of(ChatServer.Mode.THREADS);
+            int clients = 1000;
+            int rate = 2000;
+            int duration = 30;
+            int warmup = 5;
+            int senders = 4;
+            int firstUser = 100_000;
+            String jmx = null;
+            for (String arg : args) {
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--host=")) host = value;
+                else if (arg.startsWith("--port=")) port = Integer.parseInt(value);
+                else if (arg.startsWith("--mode=")) modes = parseModes(value);
+                else if (arg.startsWith("--clients=")) clients = Integer.parseInt(value);
+                else if (arg.startsWith("--rate=")) rate = Integer.parseInt(value);
+                else if (arg.startsWith("--duration=")) duration = Integer.parseInt(value);
+                else if (arg.startsWith("--warmup=")) warmup = Integer.parseInt(value);
+                else if (arg.startsWith("--senders=")) senders = Integer.parseInt(value);
+                else if (arg.startsWith("--firstUser=")) firstUser = Integer.parseInt(value);
+                else if (arg.startsWith("--jmx=")) jmx = value;
+                else throw new IllegalArgumentException("Unknown option " + arg);
+            }
+            if (port != 0 && modes.size() > 1) {
+                throw new IllegalArgumentException("Several modes can only be compared on the embedded server; drop --port");
+            }
+            clients = Math.max(2, clients + clients % 2);
+            senders = Math.max(1, Math.min(senders, clients));
+            return new Options(host, port, modes, clients, Math.max(1, rate), Math.max(1, duration),
+                    Math.max(0, warmup), senders, firstUser, jmx);
+        }
+
+        private static List<ChatServer.Mode> parseModes(String value) {
+            List<ChatServer.Mode> modes = new ArrayList<>();
+            for (String name : value.split(",")) {
+                try {
+                    modes.add(ChatServer.Mode.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown mode " + name + ", expected one of "
+                            + Arrays.toString(ChatServer.Mode.values()).toLowerCase(Locale.ROOT));
+                }
+            }
+            return modes;
+        }
+    }
+
+    /**
+     * Outcome of one run, for the comparison table.
+     */
+    private record Result(String label, int connectMs, long sent, long received, double throughput,
+                          double p50, double p99, double max, ServerSample peak) {
+    }
+
+    /**
+     * Runs one load session.
+     * @param args See the class comment
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        if (System.getProperty("hospi.chat.persist") == null) {
+            System.setProperty("hospi.chat.persist", "false");
+        }
+
+        List<Result> results = new ArrayList<>();
+        if (options.port() != 0) {
+            ServerProbe probe = options.jmx() != null ? ServerProbe.remote(options.jmx()) : null;
+            try {
+                results.add(new ChatLoadGenerator(options, options.host(), options.port(), probe, null,
+                        options.host() + ":" + options.port()).run());
+            } finally {
+                if (probe != null) probe.close();
+            }
+        } else {
+            for (ChatServer.Mode mode : options.modes()) {
+                Set<Thread> before = Thread.getAllStackTraces().keySet();
+                ChatServer embedded = new ChatServer(0);
+                embedded.setCareTeam(username -> Set.of());
+                embedded.start(mode);
+                String label = mode.name().toLowerCase(Locale.ROOT);
+                try {
+                    System.out.println("Mode " + label);
+                    results.add(new ChatLoadGenerator(options, "localhost", embedded.getLocalPort(),
+                            ServerProbe.local(before), embedded, label).run());
+                } finally {
+                    embedded.stop();
+                }
+            }
+        }
+        if (results.size() > 1) {
+            compare(results);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Prints one line per run, for runs made under the same load.
+     */
+    private static void compare(List<Result> results) {
+        System.out.println("Comparison");
+        System.out.printf("  %-8s %9s %12s %10s %9s %9s %9s  %s%n",
+                "mode", "connect", "delivered", "msg/s", "p50 ms", "p99 ms", "max ms", "server peak");
+        for (Result result : results) {
+            if (result == null) continue;
+            System.out.printf("  %-8s %7d ms %5d/%-6d %10.0f %9.2f %9.2f %9.2f  %s%n",
+                    result.label(), result.connectMs(), result.received(), result.sent(), result.throughput(),
+                    result.p50(), result.p99(), result.max(), result.peak() != null ? result.peak() : "-");
+        }
+    }
+
+    private final Options options;
+    private final String host;
+    private final int port;
+    private final ServerProbe probe;
+    private final ChatServer embedded;
+    private final String label;  // Names the run in the comparison table
+
+    private final List<SimulatedClient> clients = new ArrayList<>();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong maxScheduleLagNs = new AtomicLong();
+
+    // Latencies of messages scheduled after warmup, in nanoseconds
+    private long[] latencies = new long[1 << 16];
+    private int latencyCount;
+
+    private volatile long measureStartNs = Long.MAX_VALUE;
+
+    private ChatLoadGenerator(Options options, String host, int port, ServerProbe probe, ChatServer embedded,
+                              String label) {
+        this.options = options;
+        this.host = host;
+        this.port = port;
+        this.probe = probe;
+        this.embedded = embedded;
+        this.label = label;
+    }
+
+    /**
+     * @return The run's figures, or null if the clients could not all connect
+     */
+    private Result run() throws Exception {
+        System.out.printf("Target %s:%d, %d clients, %d msg/s for %d s after %d s warmup%n",
+                host, port, options.clients(), options.rate(), options.duration(), options.warmup());
+        ServerSample idle = sample();
+
+        // Connect everyone, then wait until each client's message to itself comes back: only then
+        // is every client registered and able to receive
+        long connectStart = System.nanoTime();
+        CountDownLatch ready = new CountDownLatch(options.clients());
+        for (int i = 0; i < options.clients(); i++) {
+            clients.add(new SimulatedClient(options.firstUser() + i, ready));
+        }
+        for (SimulatedClient client : clients) {
+            client.send(client.userId, "ready");
+        }
+        if (!ready.await(120, TimeUnit.SECONDS)) {
+            System.out.println("Only " + (options.clients() - ready.getCount()) + " clients became ready; aborting.");
+            closeAll();
+            return null;
+        }
+        int connectMs = (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart);
+        System.out.printf("Connected %d clients in %d ms%n", options.clients(), connectMs);
+
+        // Open-loop senders, each owning a share of the clients and of the rate
+        long startNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long endNs = startNs + TimeUnit.SECONDS.toNanos(options.warmup() + options.duration());
+        measureStartNs = startNs + TimeUnit.SECONDS.toNanos(options.warmup());
+        List<Thread> senders = new ArrayList<>();
+        for (int s = 0; s < options.senders(); s++) {
+            int index = s;
+            Thread sender = new Thread(() -> sendLoop(index, startNs, endNs), THREAD_PREFIX + "sender-" + s);
+            sender.start();
+            senders.add(sender);
+        }
+
+        // Progress while the load runs
+        ServerSample peak = idle;
+        long lastSent = 0;
+        long lastReceived = 0;
+        while (System.nanoTime() < endNs) {
+            Thread.sleep(Math.min(REPORT_INTERVAL_MS, Math.max(1, TimeUnit.NANOSECONDS.toMillis(endNs - System.nanoTime()))));
+            ServerSample now = sample();
+            peak = ServerSample.max(peak, now);
+            long s = sent.get();
+            long r = received.get();
+            System.out.printf("  %s sent=%d (+%d) received=%d (+%d)%s%n",
+                    System.nanoTime() < measureStartNs ? "warmup " : "measure", s, s - lastSent, r, r - lastReceived,
+                    now != null ? " " + now : "");
+            lastSent = s;
+            lastReceived = r;
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        // Give messages still in flight a moment to arrive
+        long drainDeadline = System.currentTimeMillis() + 5_000;
+        while (received.get() < sent.get() && System.currentTimeMillis() < drainDeadline) {
+            Thread.sleep(20);
+        }
+        Result result = report(idle, peak, connectMs);
+        closeAll();
+        return result;
+    }
+
+    /**
+     * Sends this thread's share of the schedule: one message every senders/rate seconds.
+     */
+    private void sendLoop(int index, long startNs, long endNs) {
+        List<SimulatedClient> own = new ArrayList<>();
+        for (int i = index; i < clients.size(); i += options.senders()) {
+            own.add(clients.get(i));
+        }
+        double intervalNs = 1e9 * options.senders() / options.rate();
+        for (long n = 0; ; n++) {
+            long scheduled = startNs + (long) (n * intervalNs);
+            if (scheduled >= endNs) break;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            } else {
+                maxScheduleLagNs.accumulateAndGet(-wait, Math::max);
+            }
+            SimulatedClient client = own.get((int) (n % own.size()));
+            client.send(client.partnerId(), Long.toString(scheduled));
+            sent.incrementAndGet();
+        }
+    }
+
+    private synchronized void record(long latencyNs) {
+        if (latencyCount == latencies.length) {
+            latencies = Arrays.copyOf(latencies, latencies.length * 2);
+        }
+        latencies[latencyCount++] = latencyNs;
+    }
+
+    private Result report(ServerSample idle, ServerSample peak, int connectMs) {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(latencies, latencyCount);
+        }
+        Arrays.sort(sorted);
+        long lost = sent.get() - received.get();
+        double throughput = (double) sorted.length / options.duration();
+        double max = sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6;
+        System.out.println("Results");
+        System.out.printf("  delivered  %d of %d sent%s%n", received.get(), sent.get(), lost > 0 ? " (" + lost + " missing)" : "");
+        System.out.printf("  throughput %.0f msg/s measured (target %d)%n", throughput, options.rate());
+        System.out.printf("  latency    p50=%.2f ms p99=%.2f ms p999=%.2f ms max=%.2f ms%n",
+                percentile(sorted, 50), percentile(sorted, 99), percentile(sorted, 99.9), max);
+        System.out.printf("  sender lag max=%.2f ms (large values mean the generator, not the server, was saturated)%n",
+                maxScheduleLagNs.get() / 1e6);
+        if (idle != null && peak != null) {
+            System.out.println("  server     idle " + idle + ", peak " + peak);
+        } else {
+            System.out.println("  server     not measured (use the embedded server or --jmx=host:port)");
+        }
+        if (embedded != null) {
+            ChatServer.OutboundMetrics outbound = embedded.outboundMetrics();
+            System.out.printf("  outbound   queued=%d maxDepth=%d dropped=%d overflowDisconnects=%d spilled=%d%n",
+                    outbound.queuedItems(), outbound.maxQueueDepth(), outbound.droppedFrames(),
+                    outbound.overflowDisconnects(), outbound.spilledMessages());
+        }
+        return new Result(label, connectMs, sent.get(), received.get(), throughput,
+                percentile(sorted, 50), percentile(sorted, 99), max, peak);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    private ServerSample sample() {
+        if (probe == null) return null;
+        try {
+            return probe.sample();
+        } catch (IOException e) {
+            System.err.println("Could not read server metrics: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void closeAll() throws InterruptedException {
+        clients.forEach(SimulatedClient::close);
+        // Let the reader threads exit so they do not count towards the next mode's heap and threads
+        for (SimulatedClient client : clients) {
+            client.reader.join(1_000);
+        }
+    }
+
+    /**
+     * One simulated user: a socket, its writer and a reader thread recording latencies.
+     */
+    private final class SimulatedClient {
+        private final int userId;
+        private final Socket socket;
+        private final PrintWriter out;
+        private final Thread reader;
+
+        private SimulatedClient(int userId, CountDownLatch ready) throws IOException {
+            this.userId = userId;
+            this.socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)));
+            out.println(userId);
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.reader = new Thread(() -> readLoop(in, ready), THREAD_PREFIX + "reader-" + userId);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private int partnerId() {
+            int index = userId - options.firstUser();
+            return options.firstUser() + (index ^ 1);
+        }
+
+        /**
+         * Each client is written by one sender thread at a time (main thread, then its sender).
+         */
+        private void send(int receiver, String text) {
+            out.print("TO:" + receiver + ":" + text + "\n");
+            out.flush();
+        }
+
+        private void readLoop(BufferedReader in, CountDownLatch ready) {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.startsWith("FROM:")) continue;
+                    String payload = line.substring(line.lastIndexOf(':') + 1);
+                    if (payload.equals("ready")) {
+                        ready.countDown();
+                        continue;
+                    }
+                    long now = System.nanoTime();
+                    long scheduled = Long.parseLong(payload);
+                    if (scheduled >= measureStartNs) record(now - scheduled);
+                    received.incrementAndGet();
+                }
+            } catch (IOException | NumberFormatException e) {
+                // Socket closed at the end of the run
+            }
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore close exceptions
+            }
+        }
+    }
+
+    /**
+     * Server thread count and heap use at one moment.
+     */
+    record ServerSample(int threads, long heapUsedBytes) {
+
+        static ServerSample max(ServerSample a, ServerSample b) {
+            if (a == null) return b;
+            if (b == null) return a;
+            return new ServerSample(Math.max(a.threads, b.threads), Math.max(a.heapUsedBytes, b.heapUsedBytes));
+        }
+
+        @Override
+        public String toString() {
+            return "threads=" + threads + " heap=" + heapUsedBytes / (1024 * 1024) + " MB";
+        }
+    }
+
+    /**
+     * Reads thread and heap figures from the server's JVM.
+     */
+    private interface ServerProbe {
+
+        ServerSample sample() throws IOException;
+
+        default void close() {
+        }
+
+        /**
+         * Embedded server: threads of this JVM started since the server was created, excluding
+         * the generator's own, so threads left over from an earlier mode are not counted. Heap
+         * figures include the generator's clients.
+         *
+         * @param before Threads alive before the server was created
+         */
+        static ServerProbe local(Set<Thread> before) {
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            return () -> {
+                int threads = (int) Thread.getAllStackTraces().keySet().stream()
+                        .filter(t -> !before.contains(t) && !t.getName().startsWith(THREAD_PREFIX))
+                        .count();
+                return new ServerSample(threads, memory.getHeapMemoryUsage().getUsed());
+            };
+        }
+
+        /**
+         * Remote server exposing a JMX agent.
+         */
+        static ServerProbe remote(String address) throws IOException {
+            JMXConnector connector = JMXConnectorFactory.connect(
+                    new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + address + "/jmxrmi"));
+            MBeanServerConnection connection = connector.getMBeanServerConnection();
+            ThreadMXBean threads = ManagementFactory.newPlatformMXBeanProxy(
+                    connection, ManagementFactory.THREAD_MXBEAN_NAME, ThreadMXBean.class);
+            MemoryMXBean memory = ManagementFactory.newPlatformMXBeanProxy(
+                    connection, ManagementFactory.MEMORY_MXBEAN_NAME, MemoryMXBean.class);
+            return new ServerProbe() {
+                @Override
+                public ServerSample sample() {
+                    return new ServerSample(threads.getThreadCount(), memory.getHeapMemoryUsage().getUsed());
+                }
+
+                @Override
+                public void close() {
+                    try {
+                        connector.close();
+                    } catch (IOException e) {
+                        // Ignore close exceptions
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package com.example.hospi.GUI;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * ChatMessageWriter - Write-behind persistence for routed chat messages.
+ * The chat server hands every routed message to this stage and moves on; a single writer
+ * thread collects messages into batches and inserts each batch into chat_messages in one
+ * transaction, committing every batchSize messages or flushMs milliseconds after the first
+ * message of the batch arrived, whichever comes first. Once a batch is committed each
+ * message's callback receives its generated ID, which the server turns into an ACK for the sender.
+ *
+ * Read receipts go through the same queue, so a receipt is applied in the same order relative
+ * to inserts as it was received: it marks seen exactly the messages routed before it.
+ *
+ * Care-team room messages are written once per message into care_team_messages, however many
+ * members the room has.
+ *
+ * If a batch's transaction fails, its writes are retried one at a time, so only the rows that
+ * fail again are reported as failed; the rest of the batch is still saved and acknowledged.
+ * Writer counters are served on /metrics as hospi_chat_persist_*.
+ */
+class ChatMessageWriter {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO hospital_db.chat_messages (sender_id, receiver_id, message_text) VALUES (?, ?, ?)";
+    private static final String ROOM_INSERT_SQL =
+            "INSERT INTO hospital_db.care_team_messages (patient_id, sender_id, message_text) VALUES (?, ?, ?)";
+    private static final String SEEN_SQL =
+            "UPDATE hospital_db.chat_messages SET seen = TRUE WHERE receiver_id = ? AND sender_id = ? AND seen = FALSE";
+
+    private final BlockingQueue<PendingWrite> queue;
+    private final int batchSize;
+    private final long flushMs;
+    private final Thread writer;
+
+    // Counters exposed through metrics()
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong receipts = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong retriedBatches = new AtomicLong();
+    private final Supplier<String> metricsSource = () -> metrics().prometheus();
+
+    private volatile boolean running = true;
+
+    /**
+     * Anything waiting on the writer thread.
+     */
+    private interface PendingWrite {
+    }
+
+    /**
+     * A routed message waiting to be written.
+     *
+     * @param senderId   User ID of the sender
+     * @param receiverId User ID of the receiver
+     * @param text       Message content
+     * @param onDone     Receives the generated message ID once committed, or -1 if the write failed
+     */
+    record PendingMessage(int senderId, int receiverId, String text, IntConsumer onDone) implements PendingWrite {
+    }
+
+    /**
+     * A read receipt: every unseen message from senderId to readerId is now seen.
+     *
+     * @param readerId User ID of the reader
+     * @param senderId User ID whose messages were read
+     * @param onDone   Runs once the update is committed
+     */
+    record SeenReceipt(int readerId, int senderId, Runnable onDone) implements PendingWrite {
+    }
+
+    /**
+     * A care-team room message waiting to be written.
+     *
+     * @param patientId patients.id of the room
+     * @param senderId  User ID of the sender
+     * @param text      Message content
+     * @param onDone    Receives the generated message ID once committed, or -1 if the write failed
+     */
+    record PendingRoomMessage(int patientId, int senderId, String text, IntConsumer onDone) implements PendingWrite {
+    }
+
+    /**
+     * Snapshot of writer activity.
+     *
+     * @param queueDepth   Messages waiting to be written
+     * @param accepted     Messages (direct and room) queued since start
+     * @param rejected     Messages refused because the queue was full or the writer stopped
+     * @param written      Messages committed
+     * @param failed       Messages that could not be written, even on their own
+     * @param receipts     Read receipts applied
+     * @param batches      Transactions committed or attempted
+     * @param retriedBatches Batches whose transaction failed and were retried one write at a time
+     */
+    record Metrics(int queueDepth, long accepted, long rejected, long written, long failed, long receipts, long batches,
+                   long retriedBatches) {
+
+        /**
+         * @return The snapshot as Prometheus gauges and counters
+         */
+        String prometheus() {
+            return "hospi_chat_persist_queue_depth " + queueDepth + "\n"
+                    + "hospi_chat_persist_accepted_total " + accepted + "\n"
+                    + "hospi_chat_persist_rejected_total " + rejected + "\n"
+                    + "hospi_chat_persist_written_total " + written + "\n"
+                    + "hospi_chat_persist_failed_total " + failed + "\n"
+                    + "hospi_chat_persist_receipts_total " + receipts + "\n"
+                    + "hospi_chat_persist_batches_total " + batches + "\n"
+                    + "hospi_chat_persist_retried_batches_total " + retriedBatches + "\n";
+        }
+    }
+
+    /**
+     * Creates a writer and starts its thread.
+     *
+     * @param queueCapacity Maximum number of messages waiting to be written
+     * @param batchSize     Messages per transaction
+     * @param flushMs       Longest a message waits for its batch to fill before it is committed
+     */
+    ChatMessageWriter(int queueCapacity, int batchSize, long flushMs) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.flushMs = Math.max(0, flushMs);
+        this.writer = new Thread(this::runWriter, "chat-message-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return A writer configured from -Dhospi.chat.persist.* system properties, its counters
+     *         served on /metrics until it is shut down
+     */
+    static ChatMessageWriter fromSystemProperties() {
+        ChatMessageWriter writer = new ChatMessageWriter(
+                Integer.getInteger("hospi.chat.persist.queueCapacity", 10_000),
+                Integer.getInteger("hospi.chat.persist.batchSize", 100),
+                Long.getLong("hospi.chat.persist.flushMs", 50L));
+        DatabaseConnection.registerMetrics("chat_persist", writer.metricsSource);
+        return writer;
+    }
+
+    /**
+     * Queues a message for writing without blocking.
+     *
+     * @param message The message and its completion callback
+     * @return true if queued; false if the queue is full or the writer stopped, in which case
+     *         the callback has already been told the write failed
+     */
+    boolean submit(PendingMessage message) {
+        return offer(message, message.onDone());
+    }
+
+    /**
+     * Queues a room message for writing without blocking.
+     *
+     * @param message The message and its completion callback
+     * @return true if queued; false if the queue is full or the writer stopped, in which case
+     *         the callback has already been told the write failed
+     */
+    boolean submit(PendingRoomMessage message) {
+        return offer(message, message.onDone());
+    }
+
+    private boolean offer(PendingWrite message, IntConsumer onDone) {
+        if (running && queue.offer(message)) {
+            accepted.incrementAndGet();
+            return true;
+        }
+        rejected.incrementAndGet();
+        onDone.accept(-1);
+        return false;
+    }
+
+    /**
+     * Queues a read receipt without blocking. Dropped receipts are harmless: the next one
+     * for the same conversation covers the same rows.
+     *
+     * @param receipt The receipt and its completion callback
+     * @return true if queued
+     */
+    boolean submit(SeenReceipt receipt) {
+        return running && queue.offer(receipt);
+    }
+
+    /**
+     * @return A snapshot of queue depth and write counters
+     */
+    Metrics metrics() {
+        return new Metrics(queue.size(), accepted.get(), rejected.get(), written.get(), failed.get(),
+                receipts.get(), batches.get(), retriedBatches.get());
+    }
+
+    /**
+     * Stops accepting messages and waits for queued ones to be written.
+     *
+     * @param timeoutMs Maximum time to wait for the queue to drain
+     */
+    void shutdown(long timeoutMs) {
+        running = false;
+        DatabaseConnection.unregisterMetrics("chat_persist", metricsSource);
+        try {
+            writer.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.interrupt();
+    }
+
+    /**
+     * Writer loop: builds a batch, writes it, repeats until shut down and drained.
+     */
+    private void runWriter() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                // Keep filling until the batch is full or the first message has waited flushMs
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) break;
+                    PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                if (batch.isEmpty()) return;
+            }
+
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes a batch in one transaction; if that fails, retries its writes one at a time.
+     */
+    private void write(List<PendingWrite> batch) {
+        batches.incrementAndGet();
+        try {
+            writeTransaction(batch);
+        } catch (SQLException e) {
+            retriedBatches.incrementAndGet();
+            System.err.println("Could not save a batch of " + batch.size() + " chat writes, retrying one at a time: "
+                    + e.getMessage());
+            writeIndividually(batch);
+        }
+    }
+
+    /**
+     * Applies a batch in one transaction and completes each callback. Runs of consecutive
+     * messages share one JDBC batch; a receipt first flushes the messages queued ahead of it.
+     *
+     * @throws SQLException if the transaction was rolled back; no callback has run then
+     */
+    private void writeTransaction(List<PendingWrite> batch) throws SQLException {
+        List<PendingMessage> inserted = new ArrayList<>();
+        List<PendingRoomMessage> roomInserted = new ArrayList<>();
+        List<SeenReceipt> applied = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        List<Integer> roomIds = new ArrayList<>();
+
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement insert = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement roomInsert = conn.prepareStatement(ROOM_INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement seen = conn.prepareStatement(SEEN_SQL)) {
+                int queuedInserts = 0;
+                for (PendingWrite pending : batch) {
+                    if (pending instanceof PendingMessage message) {
+                        insert.setInt(1, message.senderId());
+                        insert.setInt(2, message.receiverId());
+                        insert.setString(3, message.text());
+                        insert.addBatch();
+                        inserted.add(message);
+                        queuedInserts++;
+                    } else if (pending instanceof SeenReceipt receipt) {
+                        if (queuedInserts > 0) {
+                            executeInserts(insert, queuedInserts, ids);
+                            queuedInserts = 0;
+                        }
+                        seen.setInt(1, receipt.readerId());
+                        seen.setInt(2, receipt.senderId());
+                        seen.executeUpdate();
+                        applied.add(receipt);
+                    } else if (pending instanceof PendingRoomMessage message) {
+                        // A separate table, so room messages need no ordering against receipts
+                        roomInsert.setInt(1, message.patientId());
+                        roomInsert.setInt(2, message.senderId());
+                        roomInsert.setString(3, message.text());
+                        roomInsert.addBatch();
+                        roomInserted.add(message);
+                    }
+                }
+                if (queuedInserts > 0) {
+                    executeInserts(insert, queuedInserts, ids);
+                }
+                if (!roomInserted.isEmpty()) {
+                    executeInserts(roomInsert, roomInserted.size(), roomIds);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+
+        written.addAndGet(inserted.size() + roomInserted.size());
+        receipts.addAndGet(applied.size());
+        for (int i = 0; i < inserted.size(); i++) {
+            complete(inserted.get(i).onDone(), i < ids.size() ? ids.get(i) : 0);
+        }
+        for (int i = 0; i < roomInserted.size(); i++) {
+            complete(roomInserted.get(i).onDone(), i < roomIds.size() ? roomIds.get(i) : 0);
+        }
+        for (SeenReceipt receipt : applied) {
+            try {
+                receipt.onDone().run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Applies each write of a failed batch on its own, in order, so one bad row fails alone.
+     * If the database cannot be reached at all, the whole batch fails.
+     */
+    private void writeIndividually(List<PendingWrite> batch) {
+        Connection conn;
+        try {
+            conn = DatabaseConnection.getConnection();
+        } catch (SQLException e) {
+            failAll(batch, e);
+            return;
+        }
+        int done = 0;  // Writes whose callback has run
+        try (conn;
+             PreparedStatement insert = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+             PreparedStatement roomInsert = conn.prepareStatement(ROOM_INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+             PreparedStatement seen = conn.prepareStatement(SEEN_SQL)) {
+            conn.setAutoCommit(true);
+            for (; done < batch.size(); done++) {
+                PendingWrite pending = batch.get(done);
+                if (pending instanceof PendingMessage message) {
+                    insert.setInt(1, message.senderId());
+                    insert.setInt(2, message.receiverId());
+                    insert.setString(3, message.text());
+                    completeSingle(insert, message.onDone(), "chat message from " + message.senderId());
+                } else if (pending instanceof PendingRoomMessage message) {
+                    roomInsert.setInt(1, message.patientId());
+                    roomInsert.setInt(2, message.senderId());
+                    roomInsert.setString(3, message.text());
+                    completeSingle(roomInsert, message.onDone(), "room message from " + message.senderId());
+                } else if (pending instanceof SeenReceipt receipt) {
+                    try {
+                        seen.setInt(1, receipt.readerId());
+                        seen.setInt(2, receipt.senderId());
+                        seen.executeUpdate();
+                    } catch (SQLException e) {
+                        // The next receipt for the conversation covers the same rows
+                        System.err.println("Could not apply a read receipt of " + receipt.readerId() + ": " + e.getMessage());
+                        continue;
+                    }
+                    receipts.incrementAndGet();
+                    try {
+                        receipt.onDone().run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            // The connection broke; writes already completed are not reported again
+            if (done < batch.size()) failAll(batch.subList(done, batch.size()), e);
+        }
+    }
+
+    /**
+     * Executes one insert on its own and completes its callback with the generated ID, or -1.
+     */
+    private void completeSingle(PreparedStatement insert, IntConsumer onDone, String what) {
+        int messageId;
+        try {
+            insert.executeUpdate();
+            try (ResultSet keys = insert.getGeneratedKeys()) {
+                messageId = keys.next() ? keys.getInt(1) : 0;
+            }
+            written.incrementAndGet();
+        } catch (SQLException e) {
+            failed.incrementAndGet();
+            System.err.println("Could not save " + what + ": " + e.getMessage());
+            messageId = -1;
+        }
+        complete(onDone, messageId);
+    }
+
+    private void failAll(List<PendingWrite> batch, SQLException e) {
+        long receiptCount = batch.stream().filter(SeenReceipt.class::isInstance).count();
+        long messages = batch.size() - receiptCount;
+        failed.addAndGet(messages);
+        System.err.println("Could not save " + messages + " chat messages and "
+                + receiptCount + " read receipts: " + e.getMessage());
+        for (PendingWrite pending : batch) {
+            if (pending instanceof PendingMessage message) complete(message.onDone(), -1);
+            else if (pending instanceof PendingRoomMessage message) complete(message.onDone(), -1);
+        }
+    }
+
+    /**
+     * Executes the queued inserts and collects their generated IDs in order.
+     */
+    private static void executeInserts(PreparedStatement insert, int count, List<Integer> ids) throws SQLException {
+        insert.executeBatch();
+        int collected = 0;
+        try (ResultSet keys = insert.getGeneratedKeys()) {
+            while (collected < count && keys.next()) {
+                ids.add(keys.getInt(1));
+                collected++;
+            }
+        }
+        // Driver returned fewer keys than rows: the messages are saved, their IDs unknown
+        for (; collected < count; collected++) {
+            ids.add(0);
+        }
+    }
+
+    private static void complete(IntConsumer onDone, int messageId) {
+        try {
+            onDone.accept(messageId);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
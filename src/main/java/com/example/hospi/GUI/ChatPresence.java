@@ -0,0 +1,229 @@
+package com.example.hospi.GUI;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * ChatPresence - Online/away/offline state of the users connected to one chat server.
+ *
+ * A user is online from the moment they connect, may switch between online and away, and is
+ * offline once disconnected. Every change is pushed only to the user's care team - the doctors
+ * assigned to a patient, or the patients assigned to a doctor (doctorpatientassignment) - and
+ * never broadcast. On connect a user also receives the current state of each team member.
+ *
+ * Changes are applied in order on a single event thread, which also loads each user's care team
+ * once per connection, so neither the routing threads nor the NIO selector wait on the database.
+ */
+class ChatPresence {
+
+    private static final String CARE_TEAM_SQL = """
+            SELECT d.user_id AS member_id
+            FROM hospital_db.patients p
+            JOIN hospital_db.doctorpatientassignment da ON p.id = da.PatientID
+            JOIN hospital_db.doctors d ON d.id = da.DoctorID
+            WHERE p.user_id = ?
+            UNION
+            SELECT p.user_id AS member_id
+            FROM hospital_db.doctors d
+            JOIN hospital_db.doctorpatientassignment da ON d.id = da.DoctorID
+            JOIN hospital_db.patients p ON p.id = da.PatientID
+            WHERE d.user_id = ?
+            """;
+
+    /**
+     * Presence of one user.
+     */
+    enum State {
+        ONLINE,
+        AWAY,
+        OFFLINE;
+
+        /**
+         * @return The name used on the text protocol
+         */
+        String wireName() {
+            return name().toLowerCase();
+        }
+
+        /**
+         * @return The state with the given text protocol name, or null if unknown
+         */
+        static State fromWireName(String name) {
+            for (State state : values()) {
+                if (state.wireName().equals(name)) return state;
+            }
+            return null;
+        }
+
+        /**
+         * @return The state with the given binary protocol code, or null if unknown
+         */
+        static State fromCode(int code) {
+            return code >= 0 && code < values().length ? values()[code] : null;
+        }
+    }
+
+    /**
+     * Who is told about a user's presence.
+     */
+    interface CareTeam {
+
+        /**
+         * @param username User ID
+         * @return User IDs of the user's assigned doctors or patients
+         * @throws SQLException if the assignments cannot be read
+         */
+        Set<String> members(String username) throws SQLException;
+    }
+
+    /**
+     * Receives presence events to deliver.
+     */
+    interface Listener {
+
+        /**
+         * @param watcher User to notify
+         * @param subject User whose presence is reported
+         * @param state   The subject's presence
+         */
+        void presenceChanged(String watcher, String subject, State state);
+    }
+
+    private final CareTeam careTeam;
+    private final Listener listener;
+    private final Function<String, State> elsewhere;
+    private final ExecutorService events = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chat-presence");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only touched on the event thread
+    private final Map<String, State> states = new HashMap<>();
+    private final Map<String, Set<String>> teams = new HashMap<>();
+
+    /**
+     * @param careTeam  Looks up who is interested in a user
+     * @param listener  Delivers presence events
+     * @param elsewhere Presence of a user not connected to this server (e.g. on another cluster node)
+     */
+    ChatPresence(CareTeam careTeam, Listener listener, Function<String, State> elsewhere) {
+        this.careTeam = careTeam;
+        this.listener = listener;
+        this.elsewhere = elsewhere;
+    }
+
+    /**
+     * @return A care team lookup reading doctorpatientassignment
+     */
+    static CareTeam careTeamFromDatabase() {
+        return username -> {
+            Set<String> members = new HashSet<>();
+            int userId;
+            try {
+                userId = Integer.parseInt(username);
+            } catch (NumberFormatException e) {
+                return members;
+            }
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(CARE_TEAM_SQL)) {
+                stmt.setInt(1, userId);
+                stmt.setInt(2, userId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        members.add(String.valueOf(rs.getInt("member_id")));
+                    }
+                }
+            }
+            return members;
+        };
+    }
+
+    /**
+     * A user connected: marks them online, tells their care team, and tells them where their team stands.
+     */
+    void connected(String username) {
+        submit(() -> {
+            Set<String> team = loadTeam(username);
+            teams.put(username, team);
+            if (states.put(username, State.ONLINE) != State.ONLINE) {
+                publish(username, State.ONLINE, team);
+            }
+            for (String member : team) {
+                State state = states.get(member);
+                listener.presenceChanged(username, member, state != null ? state : elsewhere.apply(member));
+            }
+        });
+    }
+
+    /**
+     * A connected user reported being online or away.
+     */
+    void status(String username, State state) {
+        if (state == null || state == State.OFFLINE) return;
+        submit(() -> {
+            // Ignore reports racing a disconnect
+            if (!states.containsKey(username)) return;
+            if (states.put(username, state) != state) {
+                publish(username, state, teams.getOrDefault(username, Set.of()));
+            }
+        });
+    }
+
+    /**
+     * A user's last connection to this server closed.
+     */
+    void disconnected(String username) {
+        submit(() -> {
+            Set<String> team = teams.remove(username);
+            if (states.remove(username) == null) return;
+            // Reconnected to another cluster node in the meantime: that node reports them
+            if (elsewhere.apply(username) != State.OFFLINE) return;
+            publish(username, State.OFFLINE, team != null ? team : Set.of());
+        });
+    }
+
+    /**
+     * Stops the event thread; pending events are dropped.
+     */
+    void shutdown() {
+        events.shutdownNow();
+    }
+
+    private void submit(Runnable event) {
+        try {
+            events.execute(event);
+        } catch (RejectedExecutionException e) {
+            // Server stopping; connections closing now have nobody left to tell
+        }
+    }
+
+    private Set<String> loadTeam(String username) {
+        try {
+            return careTeam.members(username);
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Could not load the care team of " + username + ": " + e.getMessage());
+            return Set.of();
+        }
+    }
+
+    private void publish(String subject, State state, Set<String> team) {
+        for (String watcher : team) {
+            try {
+                listener.presenceChanged(watcher, subject, state);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
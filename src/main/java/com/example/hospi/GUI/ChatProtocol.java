@@ -0,0 +1,618 @@
+package com.example.hospi.GUI;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ChatProtocol - Wire formats shared by ChatServer and ChatClient.
+ *
+ * Text protocol (original): newline-delimited lines, see ChatServer.
+ *
+ * Binary protocol, version 1: the client opens with the MAGIC byte, after which both sides
+ * exchange frames of [int length][byte type][payload], where length counts the type byte and
+ * payload. Integers are big-endian, user IDs are ints and text is UTF-8 running to the end of
+ * the frame, so messages may contain line breaks. Frame payloads:
+ * <pre>
+ *   HELLO  client -> server   byte version, int userId, long lastSeq
+ *   SEND   client -> server   int receiverId, text
+ *   SEEN   both directions    int userId (sender whose messages were read / reader)
+ *   SYNC   server -> client   int count, long latestSeq
+ *   MSG    server -> client   long seq, int senderId, text
+ *   ACK    server -> client   int messageId (-1: the message could not be saved)
+ *   PING   client -> server   (empty) heartbeat
+ *   PONG   server -> client   (empty) heartbeat reply
+ *   STATUS client -> server   byte state (online or away)
+ *   PRESENCE server -> client int userId, byte state (online, away or offline)
+ *   ROOM_SEND client -> server int patientUserId, text (to the patient's care-team room)
+ *   ROOM_MSG server -> client  int patientUserId, int senderId, text
+ *   ROOM_ACK server -> client  int messageId (-1: not a member, or the message could not be saved)
+ *   SEARCH client -> server   text query
+ *   SEARCH_HIT server -> client int messageId, byte room, int conversationId, int senderId, long time, text snippet
+ *   SEARCH_DONE server -> client int hitCount (ends the hits of one SEARCH)
+ * </pre>
+ * Cluster nodes link to each other with the same framing, opening with NODE_HELLO:
+ * <pre>
+ *   NODE_HELLO    node -> node   text nodeId
+ *   FORWARD       node -> node   long forwardId, int senderId, int receiverId, text
+ *   FORWARD_ACK   node -> node   long forwardId, byte delivered (1: the receiver is connected there)
+ *   FORWARD_SEEN  node -> node   int readerId, int senderId
+ *   HANDOVER      node -> node   int userId (send me this user's offline messages)
+ *   FORWARD_PRESENCE node -> node int watcherId, int userId, byte state
+ *   FORWARD_ROOM  node -> node   int patientUserId, int senderId, text
+ * </pre>
+ * A dashboard asks for unread counts on a short connection that opens with UNREAD_QUERY instead
+ * of HELLO; the server answers once and closes, without registering the user:
+ * <pre>
+ *   UNREAD_QUERY  client -> server int userId
+ *   UNREAD        server -> client (int senderId, int unreadCount) per sender with unread messages
+ * </pre>
+ * Attachments (binary protocol only). A file is uploaded in chunks on the chat connection, then
+ * announced to its receiver with an ordinary message (attachmentNotice), so it is stored, queued
+ * offline and relayed like any other:
+ * <pre>
+ *   ATTACH_BEGIN  client -> server byte[32] sha256, long size
+ *   ATTACH_CHUNK  client -> server byte[32] sha256, long offset, bytes
+ *   ATTACH_STATUS server -> client byte[32] sha256, long received (size: stored; -1: refused or failed)
+ * </pre>
+ * and downloaded on a short connection that opens with ATTACH_GET. The server answers with an
+ * ATTACH_DATA frame followed by the raw bytes from the offset to the end, then closes:
+ * <pre>
+ *   ATTACH_GET    client -> server int userId, byte[32] sha256, long offset
+ *   ATTACH_DATA   server -> client long size (-1: not found or not shared with the user), long offset
+ * </pre>
+ * Version 2 is version 1 compressed: after a HELLO carrying VERSION_COMPRESSED, each direction
+ * is one deflate stream (see ChatCompression) carrying the same frames.
+ *
+ * A server that does not support the requested version closes the connection, and the
+ * client retries with version 1, then falls back to the text protocol.
+ */
+final class ChatProtocol {
+
+    // First byte of a binary connection; a text handshake starts with a printable user ID
+    static final int MAGIC = 0x00;
+    static final byte VERSION = 1;
+    static final byte VERSION_COMPRESSED = 2;
+
+    // Upper bound on a frame; anything longer is treated as abuse and the connection is dropped
+    static final int MAX_FRAME_BYTES = 64 * 1024;
+
+    // Frame types
+    static final byte HELLO = 1;
+    static final byte SEND = 2;
+    static final byte SEEN = 3;
+    static final byte SYNC = 4;
+    static final byte MSG = 5;
+    static final byte ACK = 6;
+    static final byte NODE_HELLO = 7;
+    static final byte FORWARD = 8;
+    static final byte FORWARD_SEEN = 9;
+    static final byte HANDOVER = 10;
+    static final byte PING = 11;
+    static final byte PONG = 12;
+    static final byte STATUS = 13;
+    static final byte PRESENCE = 14;
+    static final byte FORWARD_PRESENCE = 15;
+    static final byte ROOM_SEND = 16;
+    static final byte ROOM_MSG = 17;
+    static final byte ROOM_ACK = 18;
+    static final byte FORWARD_ROOM = 19;
+    static final byte SEARCH = 20;
+    static final byte SEARCH_HIT = 21;
+    static final byte SEARCH_DONE = 22;
+    static final byte UNREAD_QUERY = 23;
+    static final byte UNREAD = 24;
+    static final byte ATTACH_BEGIN = 25;
+    static final byte ATTACH_CHUNK = 26;
+    static final byte ATTACH_STATUS = 27;
+    static final byte ATTACH_GET = 28;
+    static final byte ATTACH_DATA = 29;
+    static final byte FORWARD_ACK = 30;
+
+    // Upload chunk size; leaves room for the chunk header inside MAX_FRAME_BYTES
+    static final int ATTACH_CHUNK_BYTES = 32 * 1024;
+    static final int HASH_BYTES = 32;
+    private static final String ATTACHMENT_PREFIX = "[attachment:";
+
+    private ChatProtocol() {
+    }
+
+    /**
+     * A file shared in a chat, as announced by its message.
+     *
+     * @param hash Hex SHA-256 of the file; names it in the BlobStore
+     * @param size Size in bytes
+     * @param mime Content type, e.g. image/jpeg
+     * @param name Original file name
+     */
+    record Attachment(String hash, long size, String mime, String name) {
+    }
+
+    /**
+     * @return The message text announcing an attachment, "[attachment:hash:size:mime] name";
+     *         readable as is by clients without attachment support
+     */
+    static String attachmentNotice(Attachment attachment) {
+        return ATTACHMENT_PREFIX + attachment.hash() + ":" + attachment.size() + ":" + attachment.mime() + "] "
+                + attachment.name();
+    }
+
+    /**
+     * @param text Message text
+     * @return The attachment the message announces, or null for an ordinary message
+     */
+    static Attachment parseAttachmentNotice(String text) {
+        if (!text.startsWith(ATTACHMENT_PREFIX)) return null;
+        int end = text.indexOf("] ");
+        if (end < 0) return null;
+        String[] parts = text.substring(ATTACHMENT_PREFIX.length(), end).split(":", 3);
+        if (parts.length < 3 || !parts[0].matches("[0-9a-f]{64}")) return null;
+        try {
+            return new Attachment(parts[0], Long.parseLong(parts[1]), parts[2], text.substring(end + 2));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * How server-to-client events are encoded for one connection.
+     */
+    enum Codec {
+        LEGACY,    // Text: "FROM:sender:text", no SYNC header
+        SEQUENCED, // Text: "SYNC:count:latestSeq" and "MSG:seq:sender:text"
+        BINARY;    // Length-prefixed frames
+
+        /**
+         * @return The encoded message
+         */
+        byte[] message(OfflineMessageStore.Envelope envelope) {
+            return switch (this) {
+                case LEGACY -> line("FROM:" + envelope.sender() + ":" + flatten(envelope.text()));
+                case SEQUENCED -> line("MSG:" + envelope.seq() + ":" + envelope.sender() + ":" + flatten(envelope.text()));
+                case BINARY -> ChatProtocol.message(envelope.seq(), userId(envelope.sender()), envelope.text());
+            };
+        }
+
+        /**
+         * @return The encoded backlog header, or null if this codec has none
+         */
+        byte[] sync(int count, long latestSeq) {
+            return switch (this) {
+                case LEGACY -> null;
+                case SEQUENCED -> line("SYNC:" + count + ":" + latestSeq);
+                case BINARY -> ChatProtocol.sync(count, latestSeq);
+            };
+        }
+
+        /**
+         * @param messageId Generated ID of the saved message, or -1 if it could not be saved
+         * @return The encoded acknowledgement
+         */
+        byte[] ack(int messageId) {
+            if (this == BINARY) return frame(ACK, 4).putInt(messageId).array();
+            return line(messageId >= 0 ? "ACK:" + messageId : "NACK");
+        }
+
+        /**
+         * @param reader User ID that read the messages
+         * @return The encoded read receipt
+         */
+        byte[] seen(String reader) {
+            if (this == BINARY) return ChatProtocol.seen(userId(reader));
+            return line("SEEN:" + reader);
+        }
+
+        /**
+         * @return The encoded heartbeat reply
+         */
+        byte[] pong() {
+            return this == BINARY ? frame(PONG, 0).array() : line("PONG");
+        }
+
+        /**
+         * @param username User whose presence changed
+         * @param state    New presence state
+         * @return The encoded presence event, or null if this codec has none
+         */
+        byte[] presence(String username, ChatPresence.State state) {
+            return switch (this) {
+                case LEGACY -> null;
+                case SEQUENCED -> line("PRESENCE:" + username + ":" + state.wireName());
+                case BINARY -> frame(PRESENCE, 4 + 1).putInt(userId(username)).put((byte) state.ordinal()).array();
+            };
+        }
+
+        /**
+         * @param patientUserId Room the message was posted to
+         * @param sender        User ID of the sender
+         * @param text          Message content
+         * @return The encoded room message, or null if this codec has no rooms
+         */
+        byte[] roomMessage(int patientUserId, String sender, String text) {
+            return switch (this) {
+                case LEGACY -> null;
+                case SEQUENCED -> line("ROOMMSG:" + patientUserId + ":" + sender + ":" + flatten(text));
+                case BINARY -> {
+                    byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+                    yield frame(ROOM_MSG, 4 + 4 + utf8.length).putInt(patientUserId).putInt(userId(sender)).put(utf8).array();
+                }
+            };
+        }
+
+        /**
+         * @param messageId Generated ID of the saved room message, or -1 if it was rejected or not saved
+         * @return The encoded acknowledgement, or null if this codec has no rooms
+         */
+        byte[] roomAck(int messageId) {
+            return switch (this) {
+                case LEGACY -> null;
+                case SEQUENCED -> line("ROOMACK:" + messageId);
+                case BINARY -> frame(ROOM_ACK, 4).putInt(messageId).array();
+            };
+        }
+
+        /**
+         * @param hit One search result
+         * @return The encoded result, or null if this codec has no search
+         */
+        byte[] searchHit(ChatSearchIndex.Hit hit) {
+            return switch (this) {
+                case LEGACY -> null;
+                case SEQUENCED -> line("HIT:" + hit.messageId() + ":" + (hit.room() ? 1 : 0) + ":" + hit.conversationId()
+                        + ":" + hit.senderId() + ":" + hit.time() + ":" + flatten(hit.snippet()));
+                case BINARY -> {
+                    byte[] utf8 = hit.snippet().getBytes(StandardCharsets.UTF_8);
+                    yield frame(SEARCH_HIT, 4 + 1 + 4 + 4 + 8 + utf8.length).putInt(hit.messageId())
+                            .put((byte) (hit.room() ? 1 : 0)).putInt(hit.conversationId()).putInt(hit.senderId())
+                            .putLong(hit.time()).put(utf8).array();
+                }
+            };
+        }
+
+        /**
+         * @param hitCount Number of hits sent for the search
+         * @return The encoded end of a search's results, or null if this codec has no search
+         */
+        byte[] searchDone(int hitCount) {
+            return switch (this) {
+                case LEGACY -> null;
+                case SEQUENCED -> line("SEARCHDONE:" + hitCount);
+                case BINARY -> frame(SEARCH_DONE, 4).putInt(hitCount).array();
+            };
+        }
+    }
+
+    /**
+     * @return A HELLO frame opening a binary connection
+     */
+    static byte[] hello(int userId, long lastSeq) {
+        return hello(userId, lastSeq, false);
+    }
+
+    /**
+     * @param compressed Whether to ask for version 2, compressing the rest of the connection
+     * @return A HELLO frame opening a binary connection
+     */
+    static byte[] hello(int userId, long lastSeq, boolean compressed) {
+        byte version = compressed ? VERSION_COMPRESSED : VERSION;
+        return frame(HELLO, 1 + 4 + 8).put(version).putInt(userId).putLong(lastSeq).array();
+    }
+
+    /**
+     * @return A SEND frame carrying a message to receiverId
+     */
+    static byte[] send(int receiverId, String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        return frame(SEND, 4 + utf8.length).putInt(receiverId).put(utf8).array();
+    }
+
+    /**
+     * @return A SEEN frame naming the other user in a conversation
+     */
+    static byte[] seen(int userId) {
+        return frame(SEEN, 4).putInt(userId).array();
+    }
+
+    /**
+     * @return A SYNC frame announcing the reconnect backlog
+     */
+    static byte[] sync(int count, long latestSeq) {
+        return frame(SYNC, 4 + 8).putInt(count).putLong(latestSeq).array();
+    }
+
+    /**
+     * @return A MSG frame delivering a message
+     */
+    static byte[] message(long seq, int senderId, String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        return frame(MSG, 8 + 4 + utf8.length).putLong(seq).putInt(senderId).put(utf8).array();
+    }
+
+    /**
+     * @return A PING frame
+     */
+    static byte[] ping() {
+        return frame(PING, 0).array();
+    }
+
+    /**
+     * @return A STATUS frame announcing the client's own presence
+     */
+    static byte[] status(ChatPresence.State state) {
+        return frame(STATUS, 1).put((byte) state.ordinal()).array();
+    }
+
+    /**
+     * @return A ROOM_SEND frame posting to a patient's care-team room
+     */
+    static byte[] roomSend(int patientUserId, String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        return frame(ROOM_SEND, 4 + utf8.length).putInt(patientUserId).put(utf8).array();
+    }
+
+    /**
+     * @return A SEARCH frame asking for the sender's messages matching the query
+     */
+    static byte[] search(String query) {
+        byte[] utf8 = query.getBytes(StandardCharsets.UTF_8);
+        return frame(SEARCH, utf8.length).put(utf8).array();
+    }
+
+    /**
+     * @return An ATTACH_BEGIN frame starting or resuming an upload
+     */
+    static byte[] attachBegin(byte[] hash, long size) {
+        return frame(ATTACH_BEGIN, HASH_BYTES + 8).put(hash).putLong(size).array();
+    }
+
+    /**
+     * @return An ATTACH_CHUNK frame carrying length bytes of data from start
+     */
+    static byte[] attachChunk(byte[] hash, long offset, byte[] data, int start, int length) {
+        return frame(ATTACH_CHUNK, HASH_BYTES + 8 + length).put(hash).putLong(offset).put(data, start, length).array();
+    }
+
+    /**
+     * @return An ATTACH_STATUS frame reporting how much of an upload the server holds
+     */
+    static byte[] attachStatus(byte[] hash, long received) {
+        return frame(ATTACH_STATUS, HASH_BYTES + 8).put(hash).putLong(received).array();
+    }
+
+    /**
+     * @return An ATTACH_GET frame asking for a stored attachment from the given offset
+     */
+    static byte[] attachGet(int userId, byte[] hash, long offset) {
+        return frame(ATTACH_GET, 4 + HASH_BYTES + 8).putInt(userId).put(hash).putLong(offset).array();
+    }
+
+    /**
+     * @return The ATTACH_DATA header sent before the raw bytes of an attachment
+     */
+    static byte[] attachData(long size, long offset) {
+        return frame(ATTACH_DATA, 8 + 8).putLong(size).putLong(offset).array();
+    }
+
+    /**
+     * @param frame Frame positioned at the type byte; left unchanged
+     * @return The request if this is an ATTACH_GET frame, otherwise null
+     */
+    static AttachmentRequest parseAttachGet(ByteBuffer frame) {
+        ByteBuffer copy = frame.duplicate();
+        if (copy.remaining() < 1 + 4 + HASH_BYTES + 8 || copy.get() != ATTACH_GET) return null;
+        int userId = copy.getInt();
+        byte[] hash = new byte[HASH_BYTES];
+        copy.get(hash);
+        return new AttachmentRequest(userId, BlobStore.hex(hash), copy.getLong());
+    }
+
+    /**
+     * A download asked for with ATTACH_GET.
+     *
+     * @param userId Who is asking
+     * @param hash   Hex SHA-256 of the attachment
+     * @param offset First byte wanted; more than 0 when resuming
+     */
+    record AttachmentRequest(int userId, String hash, long offset) {
+    }
+
+    /**
+     * @return An UNREAD_QUERY frame asking for the user's unread counts
+     */
+    static byte[] unreadQuery(int userId) {
+        return frame(UNREAD_QUERY, 4).putInt(userId).array();
+    }
+
+    /**
+     * @param counts Unread messages by sender
+     * @return An UNREAD frame carrying the counts
+     */
+    static byte[] unread(Map<Integer, Integer> counts) {
+        ByteBuffer frame = frame(UNREAD, counts.size() * 8);
+        counts.forEach((sender, count) -> frame.putInt(sender).putInt(count));
+        return frame.array();
+    }
+
+    /**
+     * @param frame Frame positioned at the type byte; left unchanged
+     * @return The user ID asked about if this is an UNREAD_QUERY frame, otherwise -1
+     */
+    static int parseUnreadQuery(ByteBuffer frame) {
+        ByteBuffer copy = frame.duplicate();
+        if (copy.remaining() < 5 || copy.get() != UNREAD_QUERY) return -1;
+        return copy.getInt();
+    }
+
+    /**
+     * @param frame UNREAD frame positioned after the type byte
+     * @return Unread messages by sender
+     */
+    static Map<Integer, Integer> parseUnread(ByteBuffer frame) {
+        Map<Integer, Integer> counts = new HashMap<>();
+        while (frame.remaining() >= 8) {
+            counts.put(frame.getInt(), frame.getInt());
+        }
+        return counts;
+    }
+
+    /**
+     * @return A NODE_HELLO frame opening a link from the given cluster node
+     */
+    static byte[] nodeHello(String nodeId) {
+        byte[] utf8 = nodeId.getBytes(StandardCharsets.UTF_8);
+        return frame(NODE_HELLO, utf8.length).put(utf8).array();
+    }
+
+    /**
+     * @return A FORWARD frame relaying a message to the node the receiver is on
+     */
+    static byte[] forward(long forwardId, String sender, String receiver, String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        return frame(FORWARD, 8 + 4 + 4 + utf8.length).putLong(forwardId).putInt(userId(sender))
+                .putInt(userId(receiver)).put(utf8).array();
+    }
+
+    /**
+     * @return A FORWARD_ACK frame telling the relaying node a FORWARD arrived
+     */
+    static byte[] forwardAck(long forwardId, boolean delivered) {
+        return frame(FORWARD_ACK, 8 + 1).putLong(forwardId).put((byte) (delivered ? 1 : 0)).array();
+    }
+
+    /**
+     * @return A FORWARD_SEEN frame relaying a read receipt to the node the sender is on
+     */
+    static byte[] forwardSeen(String reader, String sender) {
+        return frame(FORWARD_SEEN, 4 + 4).putInt(userId(reader)).putInt(userId(sender)).array();
+    }
+
+    /**
+     * @return A HANDOVER frame asking a user's home node for its offline messages
+     */
+    static byte[] handover(String username) {
+        return frame(HANDOVER, 4).putInt(userId(username)).array();
+    }
+
+    /**
+     * @return A FORWARD_PRESENCE frame relaying a presence event to the node the watcher is on
+     */
+    static byte[] forwardPresence(String watcher, String username, ChatPresence.State state) {
+        return frame(FORWARD_PRESENCE, 4 + 4 + 1).putInt(userId(watcher)).putInt(userId(username))
+                .put((byte) state.ordinal()).array();
+    }
+
+    /**
+     * @return A FORWARD_ROOM frame relaying a room message to a node with members of the room
+     */
+    static byte[] forwardRoom(int patientUserId, String sender, String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        return frame(FORWARD_ROOM, 4 + 4 + utf8.length).putInt(patientUserId).putInt(userId(sender)).put(utf8).array();
+    }
+
+    /**
+     * @param frame Frame positioned at the type byte; left unchanged
+     * @return The node ID if the frame is a NODE_HELLO, otherwise null
+     */
+    static String parseNodeHello(ByteBuffer frame) {
+        ByteBuffer copy = frame.duplicate();
+        if (!copy.hasRemaining() || copy.get() != NODE_HELLO) return null;
+        return text(copy);
+    }
+
+    /**
+     * Reads one frame from a blocking stream.
+     *
+     * @param in Stream positioned at a frame boundary
+     * @return The type byte and payload, positioned at the type byte
+     * @throws IOException if the stream ends or the length is out of range
+     */
+    static ByteBuffer readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return ByteBuffer.wrap(frame);
+    }
+
+    /**
+     * Parses a HELLO frame.
+     *
+     * @param frame Frame positioned at the type byte
+     * @return The handshake, or null if the frame is not a HELLO of a supported version
+     */
+    static ChatServer.Handshake parseHello(ByteBuffer frame) {
+        if (frame.remaining() < 1 + 1 + 4 + 8 || frame.get() != HELLO) {
+            return null;
+        }
+        byte version = frame.get();
+        if (version != VERSION && version != VERSION_COMPRESSED) return null;
+        int userId = frame.getInt();
+        long lastSeq = frame.getLong();
+        return new ChatServer.Handshake(String.valueOf(userId), Codec.BINARY, lastSeq, version == VERSION_COMPRESSED);
+    }
+
+    /**
+     * Decodes the payload of a MSG frame.
+     *
+     * @param frame Frame positioned after the type byte
+     * @return The delivered message
+     */
+    static OfflineMessageStore.Envelope parseMessage(ByteBuffer frame) {
+        long seq = frame.getLong();
+        int senderId = frame.getInt();
+        return new OfflineMessageStore.Envelope(seq, String.valueOf(senderId), text(frame));
+    }
+
+    /**
+     * @return The rest of the frame decoded as UTF-8
+     */
+    static String text(ByteBuffer frame) {
+        return new String(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Concatenates encoded output so a batch can be written in one call.
+     */
+    static byte[] concat(Iterable<byte[]> parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return A buffer sized for a frame of the given payload, with the length and type written
+     */
+    private static ByteBuffer frame(byte type, int payloadLength) {
+        return ByteBuffer.allocate(4 + 1 + payloadLength).putInt(1 + payloadLength).put(type);
+    }
+
+    private static byte[] line(String text) {
+        return (text + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Text lines cannot carry line breaks; they are shown as spaces to text-protocol clients.
+     */
+    private static String flatten(String text) {
+        return text.indexOf('\n') < 0 && text.indexOf('\r') < 0 ? text : text.replaceAll("\r\n|[\r\n]", " ");
+    }
+
+    /**
+     * Numeric user ID for binary frames; 0 for the (unused) case of a non-numeric name.
+     */
+    private static int userId(String username) {
+        try {
+            return Integer.parseInt(username);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
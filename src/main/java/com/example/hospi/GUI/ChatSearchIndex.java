@@ -0,0 +1,369 @@
+package com.example.hospi.GUI;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ChatSearchIndex - In-memory inverted index over chat_messages and care_team_messages.
+ *
+ * The index is loaded once when the chat server starts and then kept current as
+ * ChatMessageWriter commits each message, so a search never touches the message tables.
+ *
+ * Access control is structural. Every user has their own term dictionary covering the direct
+ * messages they sent or received, and every care-team room has one covering its messages. A
+ * search only reads the dictionaries of the user and of the rooms they belong to, so another
+ * conversation's messages are never scored and then filtered out.
+ *
+ * Hits are ranked by tf-idf, newest first on ties, and carry a snippet of text around the
+ * first matching word. A query word ending in '*' matches as a prefix ("amox*").
+ */
+class ChatSearchIndex {
+
+    private static final String LOAD_DIRECT_SQL = """
+            SELECT id, sender_id, receiver_id, message_text, sent_time
+            FROM hospital_db.chat_messages
+            WHERE id > ? ORDER BY id LIMIT ?
+            """;
+    private static final String LOAD_ROOM_SQL = """
+            SELECT m.id, p.user_id AS patient_user_id, m.sender_id, m.message_text, m.sent_time
+            FROM hospital_db.care_team_messages m
+            JOIN hospital_db.patients p ON p.id = m.patient_id
+            WHERE m.id > ? ORDER BY m.id LIMIT ?
+            """;
+    private static final int LOAD_PAGE = 5_000;
+
+    // Words shorter than this are not indexed; longer ones are cut to MAX_TERM_LENGTH
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 40;
+    private static final int SNIPPET_CHARS = 40;
+
+    /**
+     * One search result.
+     *
+     * @param messageId      ID in chat_messages, or in care_team_messages for a room message
+     * @param room           Whether the message was posted to a care-team room
+     * @param conversationId The other user of a direct message, or the room's patient user ID
+     * @param senderId       User ID of the sender
+     * @param time           When the message was sent, epoch milliseconds
+     * @param snippet        Text around the first matching word
+     * @param score          Relevance; higher is better
+     */
+    record Hit(int messageId, boolean room, int conversationId, int senderId, long time, String snippet, double score) {
+    }
+
+    // An indexed message; its position in docs is its document number
+    private record Doc(int messageId, boolean room, int conversationId, int senderId, int receiverId, long time, String text) {
+    }
+
+    /**
+     * Documents containing one term, in the order they were added, with the term's count in each.
+     */
+    private static final class Postings {
+        private int[] docs = new int[4];
+        private int[] freqs = new int[4];
+        private int size;
+
+        void add(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = freq;
+            size++;
+        }
+    }
+
+    private final List<Doc> docs = new ArrayList<>();
+    // Term dictionaries by user ID (direct messages) and by patient user ID (rooms)
+    private final Map<Integer, Map<String, Postings>> userTerms = new HashMap<>();
+    private final Map<Integer, Map<String, Postings>> roomTerms = new HashMap<>();
+    // Every term seen, sorted, for prefix queries; kept apart so indexing a message only hashes
+    private final NavigableSet<String> allTerms = new TreeSet<>();
+    private final Map<String, String> canonicalTerms = new HashMap<>();
+    // Message IDs already indexed, so a message committed during the initial load is not added twice
+    private final BitSet directIds = new BitSet();
+    private final BitSet roomIds = new BitSet();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chat-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Runs a search (or the initial load) on the search thread. Searches queued behind the
+     * initial load wait for it, so they never see a partial index.
+     */
+    void execute(Runnable task) {
+        try {
+            worker.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Server stopping
+        }
+    }
+
+    /**
+     * Queues the initial load of every stored message on the search thread.
+     */
+    void loadInBackground() {
+        execute(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                int direct = load(LOAD_DIRECT_SQL, false);
+                int room = load(LOAD_ROOM_SQL, true);
+                System.out.println("Chat search index loaded " + direct + " messages and " + room
+                        + " room messages in " + (System.currentTimeMillis() - start) + " ms.");
+            } catch (SQLException e) {
+                System.err.println("Could not load the chat search index: " + e.getMessage());
+            }
+        });
+    }
+
+    private int load(String sql, boolean room) throws SQLException {
+        int loaded = 0;
+        int lastId = 0;
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            while (true) {
+                stmt.setInt(1, lastId);
+                stmt.setInt(2, LOAD_PAGE);
+                int rows = 0;
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        rows++;
+                        lastId = rs.getInt("id");
+                        Timestamp sent = rs.getTimestamp("sent_time");
+                        long time = sent != null ? sent.getTime() : 0;
+                        if (room) {
+                            addRoom(lastId, rs.getInt("patient_user_id"), rs.getInt("sender_id"), rs.getString("message_text"), time);
+                        } else {
+                            addDirect(lastId, rs.getInt("sender_id"), rs.getInt("receiver_id"), rs.getString("message_text"), time);
+                        }
+                    }
+                }
+                loaded += rows;
+                if (rows < LOAD_PAGE) return loaded;
+            }
+        }
+    }
+
+    /**
+     * Indexes a committed direct message for both its sender and its receiver.
+     */
+    void addDirect(int messageId, int senderId, int receiverId, String text, long time) {
+        lock.writeLock().lock();
+        try {
+            if (messageId <= 0 || directIds.get(messageId)) return;
+            directIds.set(messageId);
+            int doc = docs.size();
+            docs.add(new Doc(messageId, false, 0, senderId, receiverId, time, text));
+            Map<String, Integer> counts = canonical(termCounts(text));
+            index(userTerms.computeIfAbsent(senderId, id -> new HashMap<>()), doc, counts);
+            if (receiverId != senderId) {
+                index(userTerms.computeIfAbsent(receiverId, id -> new HashMap<>()), doc, counts);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes a committed care-team room message once, for the whole room.
+     */
+    void addRoom(int messageId, int patientUserId, int senderId, String text, long time) {
+        lock.writeLock().lock();
+        try {
+            if (messageId <= 0 || roomIds.get(messageId)) return;
+            roomIds.set(messageId);
+            int doc = docs.size();
+            docs.add(new Doc(messageId, true, patientUserId, senderId, 0, time, text));
+            index(roomTerms.computeIfAbsent(patientUserId, id -> new HashMap<>()), doc, canonical(termCounts(text)));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void index(Map<String, Postings> terms, int doc, Map<String, Integer> counts) {
+        counts.forEach((term, count) -> terms.computeIfAbsent(term, t -> new Postings()).add(doc, count));
+    }
+
+    /**
+     * Replaces each term with the single shared instance of it, registering new terms for
+     * prefix queries. Shared instances also keep one copy of each word in memory.
+     */
+    private Map<String, Integer> canonical(Map<String, Integer> counts) {
+        Map<String, Integer> shared = new HashMap<>(counts.size() * 2);
+        counts.forEach((term, count) -> {
+            String existing = canonicalTerms.putIfAbsent(term, term);
+            if (existing == null) {
+                allTerms.add(term);
+                existing = term;
+            }
+            shared.put(existing, count);
+        });
+        return shared;
+    }
+
+    /**
+     * Searches the messages a user may read.
+     *
+     * @param userId Searching user; their direct messages are searched
+     * @param rooms  Patient user IDs of the care-team rooms the user belongs to
+     * @param query  Words to find; all are optional, messages matching more rank higher
+     * @param limit  Maximum number of hits
+     * @return Hits, best first
+     */
+    List<Hit> search(int userId, Collection<Integer> rooms, String query, int limit) {
+        List<String> words = new ArrayList<>(termCounts(query.replace("*", " * ")).keySet());
+        List<String> prefixes = new ArrayList<>();
+        for (String part : query.toLowerCase(Locale.ROOT).split("\\s+")) {
+            if (part.endsWith("*") && part.length() > MIN_TERM_LENGTH) {
+                String prefix = normalize(part.substring(0, part.length() - 1));
+                if (prefix != null) prefixes.add(prefix);
+            }
+        }
+        words.removeAll(prefixes);
+        if (words.isEmpty() && prefixes.isEmpty()) return List.of();
+
+        lock.readLock().lock();
+        try {
+            List<Map<String, Postings>> scopes = new ArrayList<>();
+            Map<String, Postings> own = userTerms.get(userId);
+            if (own != null) scopes.add(own);
+            for (Integer room : rooms) {
+                Map<String, Postings> roomScope = roomTerms.get(room);
+                if (roomScope != null) scopes.add(roomScope);
+            }
+            List<String> terms = new ArrayList<>(words);
+            for (String prefix : prefixes) {
+                terms.addAll(allTerms.subSet(prefix, true, prefix + Character.MAX_VALUE, false));
+            }
+
+            Map<Integer, Double> scores = new HashMap<>();
+            Map<Integer, String> firstMatch = new HashMap<>();
+            double total = Math.max(1, docs.size());
+            for (Map<String, Postings> scope : scopes) {
+                for (String term : terms) {
+                    score(term, scope.get(term), total, scores, firstMatch);
+                }
+            }
+
+            // Keep the best `limit` documents; the heap's head is the weakest kept
+            Comparator<Map.Entry<Integer, Double>> ranking = Map.Entry.<Integer, Double>comparingByValue()
+                    .thenComparingLong(entry -> docs.get(entry.getKey()).time());
+            PriorityQueue<Map.Entry<Integer, Double>> best = new PriorityQueue<>(ranking);
+            for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+                best.add(entry);
+                if (best.size() > limit) best.poll();
+            }
+
+            List<Hit> hits = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                Map.Entry<Integer, Double> entry = best.poll();
+                Doc doc = docs.get(entry.getKey());
+                int conversation = doc.room() ? doc.conversationId()
+                        : doc.senderId() == userId ? doc.receiverId() : doc.senderId();
+                hits.add(new Hit(doc.messageId(), doc.room(), conversation, doc.senderId(), doc.time(),
+                        snippet(doc.text(), firstMatch.get(entry.getKey())), entry.getValue()));
+            }
+            Collections.reverse(hits);
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void score(String term, Postings postings, double total, Map<Integer, Double> scores,
+                              Map<Integer, String> firstMatch) {
+        if (postings == null) return;
+        double idf = Math.log(1 + total / postings.size);
+        for (int i = 0; i < postings.size; i++) {
+            int doc = postings.docs[i];
+            scores.merge(doc, (1 + Math.log(postings.freqs[i])) * idf, Double::sum);
+            firstMatch.putIfAbsent(doc, term);
+        }
+    }
+
+    /**
+     * @return Number of indexed messages, direct and room
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stops the search thread; queued searches are dropped.
+     */
+    void shutdown() {
+        worker.shutdownNow();
+    }
+
+    /**
+     * Splits text into lower-case words and counts each.
+     */
+    private static Map<String, Integer> termCounts(String text) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String term = normalize(text.substring(start, i));
+                if (term != null) counts.merge(term, 1, Integer::sum);
+                start = -1;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return The word as indexed, or null if it is too short to index
+     */
+    private static String normalize(String word) {
+        if (word.length() < MIN_TERM_LENGTH) return null;
+        String term = word.toLowerCase(Locale.ROOT);
+        return term.length() > MAX_TERM_LENGTH ? term.substring(0, MAX_TERM_LENGTH) : term;
+    }
+
+    /**
+     * @return The text around the first occurrence of the term, trimmed with ellipses
+     */
+    private static String snippet(String text, String term) {
+        int at = term != null ? text.toLowerCase(Locale.ROOT).indexOf(term) : -1;
+        if (at < 0) at = 0;
+        int from = Math.max(0, at - SNIPPET_CHARS);
+        int to = Math.min(text.length(), at + (term != null ? term.length() : 0) + SNIPPET_CHARS);
+        return (from > 0 ? "\u2026" : "") + text.substring(from, to).replaceAll("\\s+", " ")
+                + (to < text.length() ? "\u2026" : "");
+    }
+}
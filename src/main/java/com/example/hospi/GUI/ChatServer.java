@@ -2,39 +2,376 @@ package com.example.hospi.GUI;
 
 import java.io.*;
 import java.net.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * ChatServer handles real-time messaging between clients.
  * Maintains connections with multiple clients and routes messages between them.
+ * Clients are served by one platform thread per socket, by one virtual thread per socket
+ * (--mode=virtual, Java 21+), or by a single selector thread multiplexing every connection (--mode=nio).
+ *
+ * Handshake: the first line is the user ID. Clients that append " SEQ <lastSeq>" receive
+ * sequence-numbered "MSG:seq:sender:text" lines, preceded on connect by "SYNC:count:latestSeq"
+ * and every message queued while they were offline; legacy clients receive "FROM:sender:text".
+ *
+ * Routed messages are persisted to chat_messages by a write-behind ChatMessageWriter; once a
+ * message is committed its sender receives "ACK:messageId", or "NACK" if it could not be saved.
+ * Acknowledgements reach each sender in the order its messages were sent.
+ *
+ * Read receipts: a client sends "SEEN:senderId" after reading that user's messages. The server
+ * marks them seen in the database and forwards "SEEN:readerId" to the sender if connected.
+ *
+ * Clients that open with ChatProtocol.MAGIC speak the length-prefixed binary protocol instead;
+ * it carries the same events. See ChatProtocol. A binary client may ask for the connection to be
+ * compressed (ChatCompression); the transports deflate whole bursts of output, so routing and the
+ * per-codec encoding of fan-out are unaffected.
+ *
+ * Every connection has a bounded outbound queue (-Dhospi.chat.outbound.capacity) drained by
+ * its own writer, so routing never waits on a slow socket. When a queue overflows,
+ * -Dhospi.chat.outbound.overflow decides: drop_oldest, disconnect, or spill (the default), which
+ * disconnects the client and moves its undelivered messages to the offline store for its next connect.
+ * Messages still queued when a client disconnects on its own are moved there as well.
+ *
+ * Heartbeats: clients send "PING" (answered with "PONG") at least every -Dhospi.chat.heartbeatMs.
+ * A SEQ or binary connection that sends nothing for -Dhospi.chat.idleTimeoutMs is closed, so dead
+ * TCP connections leave the routing map; legacy clients predate heartbeats and are exempt.
+ * Presence: each user is online, away ("STATUS:away" / "STATUS:online") or offline, and changes
+ * reach only the user's assigned doctors or patients as "PRESENCE:userId:state". See ChatPresence.
+ *
+ * Care-team rooms: a doctor sends "ROOM:patientUserId:text" to post to the room of every doctor
+ * assigned to that patient. Each connected member receives "ROOMMSG:patientUserId:senderId:text",
+ * encoded once per protocol and shared by all recipients; the message is stored once in
+ * care_team_messages and acknowledged with "ROOMACK:messageId". Members who are offline read the
+ * room's history when they open it. See CareTeamRooms.
+ *
+ * Search: "SEARCH:query" returns the best matches among the messages the user sent, received or
+ * can read in their care-team rooms, as "HIT:messageId:room:conversationId:senderId:time:snippet"
+ * lines ended by "SEARCHDONE:count". Answered from an in-memory index; see ChatSearchIndex.
+ *
+ * Unread counts per (receiver, sender) are kept in memory (UnreadCounter) and served to the
+ * dashboards over one-shot ChatProtocol.UNREAD_QUERY connections.
+ *
+ * Attachments (binary clients): files are uploaded in resumable chunks into a content-addressed
+ * BlobStore (-Dhospi.chat.blobDir, at most -Dhospi.chat.maxAttachmentBytes) and announced with an
+ * ordinary message. Downloads are sent from the file to the socket with FileChannel.transferTo,
+ * so attachments never pass through the heap on their way out.
+ *
+ * Cluster mode (--node=ID --cluster=a@host:port,b@host:port,...): several servers share a presence
+ * directory (the chat_presence table) and relay messages for users connected to another node.
+ * See ChatCluster.
  */
 public class ChatServer {
 
     // Network port the server listens on
-    private static final int PORT = 12345;
+    static final int PORT = 12345;
 
-    // Thread-safe map to store client output streams keyed by username
-    private static Map<String, PrintWriter> clientWriters =
-            Collections.synchronizedMap(new HashMap<>());
+    /**
+     * How client sockets are served.
+     */
+    enum Mode {
+        THREADS, // One blocking platform thread per connection
+        VIRTUAL, // One blocking virtual thread per connection
+        NIO      // Non-blocking SocketChannels on a Selector
+    }
+
+    private final int port;
+
+    // Other nodes and the shared presence directory; null when running standalone
+    private final ChatCluster cluster;
+
+    // Concurrent map of client connections keyed by username; lock-free reads keep
+    // virtual threads from pinning their carrier while routing
+    private final Map<String, Client> clientWriters = new ConcurrentHashMap<>();
+
+    // Delivery sequences and store-and-forward queues for offline recipients
+    private final OfflineMessageStore offlineStore;
+
+    // Per-connection output bounds and what to do when a client falls behind
+    private final int outboundCapacity = Integer.getInteger("hospi.chat.outbound.capacity", 1_024);
+    private final OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.fromSystemProperties();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder overflowDisconnects = new LongAdder();
+    private final LongAdder spilledMessages = new LongAdder();
+
+    // Write-behind persistence of routed messages; null when disabled with -Dhospi.chat.persist=false
+    private ChatMessageWriter messageWriter;
+
+    // Connections silent for longer than this are presumed dead
+    private final long idleTimeoutMs = Long.getLong("hospi.chat.idleTimeoutMs", 45_000L);
+    private ChatPresence.CareTeam careTeam = ChatPresence.careTeamFromDatabase();
+    private ChatPresence presence;
+    private ScheduledExecutorService idleSweeper;
+    private CareTeamRooms.Lookup roomLookup = CareTeamRooms.lookupFromDatabase();
+    private CareTeamRooms rooms;
+
+    // Inverted index over stored messages, kept current as the writer commits them
+    private final int searchLimit = Integer.getInteger("hospi.chat.searchLimit", 20);
+    private ChatSearchIndex searchIndex;
+
+    // Unread direct messages per (receiver, sender), for dashboard badges
+    private final UnreadCounter unread = new UnreadCounter();
+
+    // Attachments uploaded to this server
+    private final BlobStore blobs;
+
+    private ServerSocket serverSocket;   // Listening socket in THREADS and VIRTUAL modes
+    private ExecutorService handlers;    // Runs handleClient, one thread per connection
+    private NioChatServer nioServer;     // Selector loop in NIO mode
+    private volatile boolean running;
+
+    /**
+     * Creates a chat server for the given port.
+     * @param port Port to listen on, or 0 for an ephemeral port
+     */
+    public ChatServer(int port) {
+        this(port, null);
+    }
+
+    /**
+     * Creates a chat server that runs as one node of a cluster.
+     * @param port    Port to listen on, or 0 for an ephemeral port
+     * @param cluster Cluster membership, or null to run standalone
+     */
+    ChatServer(int port, ChatCluster cluster) {
+        this.port = port;
+        this.cluster = cluster;
+
+        // Nodes sharing a working directory keep their spool files apart
+        Path spoolDir = Path.of(System.getProperty("hospi.chat.spoolDir", "chat-spool"));
+        this.offlineStore = new OfflineMessageStore(cluster != null ? spoolDir.resolve(cluster.nodeId()) : spoolDir,
+                Integer.getInteger("hospi.chat.offlineMemoryLimit", 200),
+                Integer.getInteger("hospi.chat.offlineSpoolLimit", 10_000));
+        Path blobDir = Path.of(System.getProperty("hospi.chat.blobDir", "chat-blobs"));
+        this.blobs = new BlobStore(cluster != null ? blobDir.resolve(cluster.nodeId()) : blobDir,
+                BlobStore.maxAttachmentBytes());
+    }
 
     /**
      * Main entry point for the chat server.
-     * @param args Command line arguments (not used)
+     * @param args Optional --mode=threads|virtual|nio (default threads) and --port=N; for cluster
+     *             mode --node=ID and --cluster=id@host:port,... listing every node, this one included
      */
     public static void main(String[] args) {
-        System.out.println("Chat server started...");
+        Mode mode = Mode.THREADS;
+        int port = PORT;
+        String node = null;
+        String nodes = null;
+        for (String arg : args) {
+            if (arg.startsWith("--mode=")) {
+                mode = Mode.valueOf(arg.substring(7).toUpperCase());
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring(7));
+            } else if (arg.startsWith("--node=")) {
+                node = arg.substring(7);
+            } else if (arg.startsWith("--cluster=")) {
+                nodes = arg.substring(10);
+            }
+        }
+
+        ChatCluster cluster = null;
+        if (node != null && nodes != null) {
+            cluster = new ChatCluster(node, ChatCluster.parseNodes(nodes), new DatabaseChatDirectory());
+        }
+
+        try {
+            new ChatServer(port, cluster).start(mode);
+            System.out.println("Chat server started (" + mode.name().toLowerCase() + " mode)...");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Binds the listening socket and starts serving clients on background threads.
+     * @param mode How client sockets are served
+     * @throws IOException if the port cannot be bound
+     */
+    public synchronized void start(Mode mode) throws IOException {
+        running = true;
+        if (Boolean.parseBoolean(System.getProperty("hospi.chat.persist", "true"))) {
+            messageWriter = ChatMessageWriter.fromSystemProperties();
+        }
+        if (cluster != null) {
+            // Entries left behind if this node went down without unregistering its users
+            cluster.directory().clear(cluster.nodeId());
+        }
+        presence = new ChatPresence(careTeam, this::notifyPresence, this::presenceElsewhere);
+        rooms = new CareTeamRooms(roomLookup, Long.getLong("hospi.chat.roomCacheMs", 60_000L));
+        searchIndex = new ChatSearchIndex();
+        if (messageWriter != null) {
+            // Without persistence there are no stored messages, and no IDs to index new ones under
+            searchIndex.loadInBackground();
+            // Before any client connects, so no message is counted twice
+            unread.warmFromDatabase();
+        }
+        idleSweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-idle-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long sweepMs = Math.max(100, idleTimeoutMs / 3);
+        idleSweeper.scheduleWithFixedDelay(this::closeIdleConnections, sweepMs, sweepMs, TimeUnit.MILLISECONDS);
+        if (mode == Mode.NIO) {
+            nioServer = new NioChatServer(this, port);
+            Thread selectorThread = new Thread(nioServer, "chat-nio-selector");
+            selectorThread.start();
+            return;
+        }
+
+        handlers = mode == Mode.VIRTUAL ? newVirtualThreadExecutor() : null;
+        // Opened through a channel so accepted sockets have one too, for FileChannel.transferTo
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(port), 1024);
+        serverSocket = listener.socket();
+        Thread acceptor = new Thread(this::acceptLoop, "chat-acceptor");
+        acceptor.start();
+    }
+
+    /**
+     * Stops accepting clients and closes every open connection.
+     */
+    public synchronized void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException e) {
+            // Ignore close exceptions
+        }
+        if (nioServer != null) nioServer.close();
+        if (handlers != null) handlers.shutdown();
+        if (idleSweeper != null) idleSweeper.shutdownNow();
+
+        clientWriters.values().forEach(client -> client.connection().close());
+        if (cluster != null) cluster.close();
 
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
+        // Let messages already routed reach the database
+        if (messageWriter != null) messageWriter.shutdown(5_000);
+        if (presence != null) presence.shutdown();
+        if (rooms != null) rooms.shutdown();
+        if (searchIndex != null) searchIndex.shutdown();
+    }
+
+    /**
+     * Replaces the doctorpatientassignment lookup that decides who receives presence events,
+     * for harnesses running without a database. Call before start().
+     * @param careTeam Care team lookup
+     */
+    void setCareTeam(ChatPresence.CareTeam careTeam) {
+        this.careTeam = careTeam;
+    }
+
+    /**
+     * Replaces the doctorpatientassignment lookup that decides care-team room membership,
+     * for harnesses running without a database. Call before start().
+     * @param roomLookup Room membership lookup
+     */
+    void setRoomLookup(CareTeamRooms.Lookup roomLookup) {
+        this.roomLookup = roomLookup;
+    }
+
+    /**
+     * @return The port actually bound, useful when started on port 0
+     */
+    public int getLocalPort() {
+        if (nioServer != null) return nioServer.getLocalPort();
+        return serverSocket != null ? serverSocket.getLocalPort() : port;
+    }
+
+    /**
+     * @return Number of clients that have completed the handshake
+     */
+    public int getConnectedCount() {
+        return clientWriters.size();
+    }
+
+    /**
+     * Snapshot of outbound queueing across all connections.
+     * @param connections         Registered connections
+     * @param queuedItems         Output items waiting to be written, summed over connections
+     * @param maxQueueDepth       Deepest single queue
+     * @param droppedFrames       Items discarded by the drop_oldest policy
+     * @param overflowDisconnects Connections closed because their queue overflowed
+     * @param spilledMessages     Messages moved to the offline store by the spill policy
+     */
+    record OutboundMetrics(int connections, long queuedItems, int maxQueueDepth, long droppedFrames,
+                           long overflowDisconnects, long spilledMessages) {
+    }
+
+    /**
+     * @return Current outbound queue depths and overflow counters
+     */
+    public OutboundMetrics outboundMetrics() {
+        long queued = 0;
+        int max = 0;
+        for (Client client : clientWriters.values()) {
+            int depth = client.connection().queueDepth();
+            queued += depth;
+            max = Math.max(max, depth);
+        }
+        return new OutboundMetrics(clientWriters.size(), queued, max, droppedFrames.sum(),
+                overflowDisconnects.sum(), spilledMessages.sum());
+    }
+
+    /**
+     * @return A new bounded outbound queue configured for this server
+     */
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(outboundCapacity, overflowPolicy, droppedFrames);
+    }
+
+    /**
+     * Accept loop for THREADS and VIRTUAL modes - one handler thread per accepted socket.
+     */
+    private void acceptLoop() {
+        try {
             // Main server loop - accepts new client connections
-            while (true) {
+            while (running) {
                 // Wait for new client connection
                 Socket clientSocket = serverSocket.accept();
 
                 // Create new thread to handle client communication
-                new Thread(() -> handleClient(clientSocket)).start();
+                if (handlers != null) {
+                    handlers.execute(() -> handleClient(clientSocket));
+                } else {
+                    new Thread(() -> handleClient(clientSocket)).start();
+                }
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            if (running) e.printStackTrace();
+        }
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor when the runtime supports it (Java 21+).
+     * Looked up reflectively because the project still compiles for Java 17; older runtimes
+     * fall back to an unbounded pool of platform threads.
+     *
+     * @return Executor that starts one thread per submitted handler
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not available on Java "
+                    + Runtime.version().feature() + ", using platform threads.");
+            return Executors.newCachedThreadPool();
         }
     }
 
@@ -42,46 +379,92 @@ public class ChatServer {
      * Handles communication with a single client connection.
      * @param socket The client's socket connection
      */
-    private static void handleClient(Socket socket) {
+    private void handleClient(Socket socket) {
         String username = null;
+        ChatConnection connection = null;
+        Handshake handshake;
 
         try (
                 // Create input/output streams for the connection
-                BufferedReader in = new BufferedReader(
-                        new InputStreamReader(socket.getInputStream()));
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true)
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream()
         ) {
-            // Step 1: Receive and validate username
-            username = in.readLine();
-            if (username == null || username.isBlank()) {
+            // Let the OS probe connections that go quiet, in addition to the heartbeat timeout
+            socket.setKeepAlive(true);
+
+            // Step 1: A leading MAGIC byte selects the binary protocol; otherwise the first line is the user ID
+            in.mark(1);
+            boolean binary = in.read() == ChatProtocol.MAGIC;
+            if (!binary) in.reset();
+            DataInputStream frames = binary ? new DataInputStream(in) : null;
+            BufferedReader lines = binary ? null : new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            OutputStream connectionOut = out;
+
+            if (binary) {
+                ByteBuffer hello = ChatProtocol.readFrame(frames);
+                String node = ChatProtocol.parseNodeHello(hello);
+                if (node != null) {
+                    // Another cluster node relaying messages; it never registers as a user
+                    username = "node " + node;
+                    while (cluster != null) {
+                        handlePeerFrame(node, ChatProtocol.readFrame(frames));
+                    }
+                    return;
+                }
+                int unreadOf = ChatProtocol.parseUnreadQuery(hello);
+                if (unreadOf > 0) {
+                    // A dashboard asking for badges; answered without registering the user
+                    out.write(unreadReply(unreadOf));
+                    out.flush();
+                    return;
+                }
+                ChatProtocol.AttachmentRequest download = ChatProtocol.parseAttachGet(hello);
+                if (download != null) {
+                    sendAttachment(download, socket, out);
+                    return;
+                }
+                handshake = ChatProtocol.parseHello(hello);
+                if (handshake != null && handshake.compressed()) {
+                    // Version 2: everything after the HELLO is deflated, in both directions
+                    frames = new DataInputStream(ChatCompression.decompress(in));
+                    connectionOut = ChatCompression.compress(out);
+                }
+            } else {
+                handshake = Handshake.parse(lines.readLine());
+            }
+            if (handshake == null) {
                 socket.close();
                 return;
             }
+            username = handshake.username();
 
             // Register client in the shared map
-            clientWriters.put(username, out);
-            System.out.println(username + " connected.");
+            Executor writers = handlers != null ? handlers : task -> new Thread(task).start();
+            connection = new SocketConnection(username, socket, connectionOut, newOutboundQueue(), writers);
+            register(handshake, connection);
 
             // Step 2: Listen for incoming messages
-            String message;
-            while ((message = in.readLine()) != null) {
-                // Process messages with "TO:" prefix (outgoing messages)
-                if (message.startsWith("TO:")) {
-                    String[] parts = message.substring(3).split(":", 2);
-                    if (parts.length == 2) {
-                        String receiver = parts[0];
-                        String text = parts[1];
-                        sendMessage(username, receiver, text);
-                    }
+            if (binary) {
+                while (true) {
+                    ByteBuffer frame = ChatProtocol.readFrame(frames);
+                    connection.markActive();
+                    handleFrame(username, frame);
                 }
             }
+            String message;
+            while ((message = lines.readLine()) != null) {
+                connection.markActive();
+                handleLine(username, message);
+            }
+        } catch (EOFException e) {
+            // Binary client closed the connection
         } catch (IOException e) {
             System.out.println("Connection lost with " + username);
         } finally {
-            // Cleanup when client disconnects
-            if (username != null) {
-                clientWriters.remove(username);
-                System.out.println(username + " disconnected.");
+            // Cleanup when client disconnects; closing the connection also stops its writer
+            if (connection != null) {
+                unregister(username, connection);
+                connection.close();
             }
             try {
                 socket.close();
@@ -91,21 +474,905 @@ public class ChatServer {
         }
     }
 
+    /**
+     * What a client sent on connect.
+     * @param username User ID the client identified as
+     * @param codec    How events are encoded for the client
+     * @param lastSeq  Last sequence number the client has seen (0 if none)
+     * @param compressed Whether the rest of the connection is compressed (binary version 2)
+     */
+    record Handshake(String username, ChatProtocol.Codec codec, long lastSeq, boolean compressed) {
+
+        Handshake(String username, ChatProtocol.Codec codec, long lastSeq) {
+            this(username, codec, lastSeq, false);
+        }
+
+        /**
+         * Parses "userId" or "userId SEQ lastSeq".
+         * @param line The raw first line
+         * @return The handshake, or null if the line is missing or blank
+         */
+        static Handshake parse(String line) {
+            if (line == null || line.isBlank()) return null;
+            String[] parts = line.trim().split(" ");
+            if (parts.length == 3 && parts[1].equals("SEQ")) {
+                try {
+                    return new Handshake(parts[0], ChatProtocol.Codec.SEQUENCED, Long.parseLong(parts[2]));
+                } catch (NumberFormatException e) {
+                    return new Handshake(parts[0], ChatProtocol.Codec.SEQUENCED, 0);
+                }
+            }
+            return new Handshake(line, ChatProtocol.Codec.LEGACY, 0);
+        }
+    }
+
+    /**
+     * A registered connection and the protocol features it negotiated.
+     */
+    private record Client(ChatConnection connection, ChatProtocol.Codec codec) {
+    }
+
+    /**
+     * Adds a client that has completed the handshake to the routing map and
+     * flushes, in one batch, every message queued while it was offline.
+     * @param handshake  What the client sent on connect
+     * @param connection The client's connection
+     */
+    void register(Handshake handshake, ChatConnection connection) {
+        String username = handshake.username();
+        OfflineMessageStore.Mailbox mailbox = offlineStore.mailbox(username);
+
+        // Holding the mailbox keeps concurrent senders from slipping a live message ahead of the backlog
+        synchronized (mailbox) {
+            Client client = new Client(connection, handshake.codec());
+            clientWriters.put(username, client);
+
+            // A client ahead of the mailbox saw sequences from before a server restart; replay everything
+            long afterSeq = handshake.lastSeq() <= mailbox.lastSeq() ? handshake.lastSeq() : 0;
+            // A spooled backlog is read on the spool thread; live messages wait in the mailbox until then
+            mailbox.drain(afterSeq, pending -> flushBacklog(username, client, mailbox, pending));
+        }
+        System.out.println(username + " connected.");
+
+        if (cluster != null) {
+            // Route new messages here, then collect what waited on the home node while offline
+            cluster.forget(username);
+            cluster.execute(() -> {
+                cluster.directory().register(username, cluster.nodeId());
+                String home = cluster.homeNode(username);
+                if (!home.equals(cluster.nodeId())) {
+                    cluster.send(home, ChatProtocol.handover(username));
+                }
+            });
+        }
+        presence.connected(username);
+    }
+
+    /**
+     * Sends a client the messages queued while it was offline, with the SYNC header. Runs holding
+     * the mailbox, on the registering thread or, for a spooled backlog, on the spool thread.
+     */
+    private void flushBacklog(String username, Client client, OfflineMessageStore.Mailbox mailbox,
+                              List<OfflineMessageStore.Envelope> pending) {
+        if (clientWriters.get(username) != client) {
+            // Gone, or replaced, before its backlog was read; keep it for the next connection
+            pending.forEach(mailbox::enqueue);
+            return;
+        }
+        List<byte[]> batch = new ArrayList<>(pending.size() + 1);
+        byte[] sync = client.codec().sync(pending.size(), mailbox.lastSeq());
+        if (sync != null) {
+            batch.add(sync);
+        }
+        for (OfflineMessageStore.Envelope envelope : pending) {
+            batch.add(client.codec().message(envelope));
+        }
+        if (!batch.isEmpty()) {
+            // One item carrying every envelope, so a spill or disconnect hands the backlog back intact
+            deliverBatch(username, client, ChatProtocol.concat(batch), pending);
+        }
+        if (!pending.isEmpty()) {
+            System.out.println("Delivered " + pending.size() + " queued messages to " + username + ".");
+        }
+    }
+
+    /**
+     * Removes a client from the routing map, unless it has already been replaced by a newer connection.
+     * @param username   User ID of the client
+     * @param connection The connection that closed
+     */
+    void unregister(String username, ChatConnection connection) {
+        OfflineMessageStore.Mailbox mailbox = offlineStore.mailbox(username);
+        boolean removed = false;
+        int returned = 0;
+        synchronized (mailbox) {
+            Client current = clientWriters.get(username);
+            if (current != null && current.connection() == connection) {
+                removed = clientWriters.remove(username, current);
+            }
+            if (removed) {
+                // Messages routed to the client but never written wait for its next connect
+                List<OfflineMessageStore.Envelope> undelivered = connection.drainUndelivered();
+                undelivered.forEach(mailbox::enqueue);
+                returned = undelivered.size();
+            }
+        }
+        if (removed) {
+            leftNode(username);
+            System.out.println(username + " disconnected."
+                    + (returned > 0 ? " " + returned + " undelivered messages kept for the next connect." : ""));
+        }
+    }
+
+    /**
+     * Removes a user that is no longer connected here from the cluster directory.
+     */
+    private void leftNode(String username) {
+        if (cluster != null) {
+            cluster.forget(username);
+            // After the register queued when the user connected, so the directory sees them in order
+            cluster.execute(() -> cluster.directory().unregister(username, cluster.nodeId()));
+        }
+        presence.disconnected(username);
+    }
+
+    /**
+     * Processes one protocol line received from a connected client.
+     * @param username Sender of the line
+     * @param message  The raw line
+     */
+    void handleLine(String username, String message) {
+        // Process messages with "TO:" prefix (outgoing messages)
+        if (message.startsWith("TO:")) {
+            String[] parts = message.substring(3).split(":", 2);
+            if (parts.length == 2) {
+                routeDirect(username, parts[0], parts[1]);
+            }
+        } else if (message.startsWith("ROOM:")) {
+            String[] parts = message.substring(5).split(":", 2);
+            if (parts.length == 2) {
+                postToRoom(username, parts[0], parts[1]);
+            }
+        } else if (message.startsWith("SEARCH:")) {
+            search(username, message.substring(7));
+        } else if (message.startsWith("SEEN:")) {
+            markSeen(username, message.substring(5));
+        } else if (message.equals("PING")) {
+            pong(username);
+        } else if (message.startsWith("STATUS:")) {
+            presence.status(username, ChatPresence.State.fromWireName(message.substring(7)));
+        }
+    }
+
+    /**
+     * Processes one binary frame received from a connected client.
+     * @param username Sender of the frame
+     * @param frame    Frame positioned at the type byte
+     */
+    void handleFrame(String username, ByteBuffer frame) {
+        try {
+            switch (frame.get()) {
+                case ChatProtocol.SEND -> {
+                    String receiver = String.valueOf(frame.getInt());
+                    routeDirect(username, receiver, ChatProtocol.text(frame));
+                }
+                case ChatProtocol.ATTACH_BEGIN -> {
+                    byte[] hash = new byte[ChatProtocol.HASH_BYTES];
+                    frame.get(hash);
+                    long size = frame.getLong();
+                    int userId = userIdOf(username);
+                    onBlobThread(() -> replyAttachStatus(username, hash, blobs.begin(userId, BlobStore.hex(hash), size)));
+                }
+                case ChatProtocol.ATTACH_CHUNK -> {
+                    byte[] hash = new byte[ChatProtocol.HASH_BYTES];
+                    frame.get(hash);
+                    long offset = frame.getLong();
+                    long expected = offset + frame.remaining();
+                    int userId = userIdOf(username);
+                    String name = BlobStore.hex(hash);
+                    // The NIO transport reuses the frame's buffer once this returns
+                    ByteBuffer chunk = nioServer != null ? ByteBuffer.allocate(frame.remaining()).put(frame).flip() : frame;
+                    onBlobThread(() -> {
+                        long received = blobs.append(userId, name, offset, chunk);
+                        // Silent while chunks land in place; report completion, failure or where to resume
+                        if (received != expected || !blobs.uploading(userId, name)) {
+                            replyAttachStatus(username, hash, received);
+                        }
+                    });
+                }
+                case ChatProtocol.ROOM_SEND -> {
+                    String room = String.valueOf(frame.getInt());
+                    postToRoom(username, room, ChatProtocol.text(frame));
+                }
+                case ChatProtocol.SEARCH -> search(username, ChatProtocol.text(frame));
+                case ChatProtocol.SEEN -> markSeen(username, String.valueOf(frame.getInt()));
+                case ChatProtocol.PING -> pong(username);
+                case ChatProtocol.STATUS -> presence.status(username, ChatPresence.State.fromCode(frame.get()));
+                default -> {
+                    // Frame types from newer clients are ignored
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            System.out.println("Truncated frame from " + username + ", ignored.");
+        }
+    }
+
+    /**
+     * Processes one frame relayed by another cluster node.
+     * @param node  Node that sent the frame
+     * @param frame Frame positioned at the type byte
+     */
+    void handlePeerFrame(String node, ByteBuffer frame) {
+        if (cluster == null) return;  // Standalone servers do not accept relayed traffic
+        try {
+            switch (frame.get()) {
+                case ChatProtocol.FORWARD -> {
+                    long forwardId = frame.getLong();
+                    String sender = String.valueOf(frame.getInt());
+                    String receiver = String.valueOf(frame.getInt());
+                    boolean here = clientWriters.containsKey(receiver);
+                    // Already persisted and acknowledged by the sender's node; a repeat means our ack was lost
+                    if (cluster.firstDelivery(node, forwardId)) {
+                        sendMessage(sender, receiver, ChatProtocol.text(frame), true);
+                    }
+                    // This node has the message now: delivered, queued, or passed on to the home node
+                    cluster.send(node, ChatProtocol.forwardAck(forwardId, here));
+                }
+                case ChatProtocol.FORWARD_ACK -> {
+                    long forwardId = frame.getLong();
+                    cluster.acked(node, forwardId, frame.get() != 0);
+                }
+                case ChatProtocol.FORWARD_SEEN -> {
+                    String reader = String.valueOf(frame.getInt());
+                    forwardSeen(reader, String.valueOf(frame.getInt()), true);
+                }
+                case ChatProtocol.HANDOVER -> {
+                    String username = String.valueOf(frame.getInt());
+                    cluster.located(username, node);
+                    handOver(username, node);
+                }
+                case ChatProtocol.FORWARD_PRESENCE -> {
+                    String watcher = String.valueOf(frame.getInt());
+                    String subject = String.valueOf(frame.getInt());
+                    ChatPresence.State state = ChatPresence.State.fromCode(frame.get());
+                    Client client = clientWriters.get(watcher);
+                    if (client != null && state != null) deliverPresence(watcher, client, subject, state);
+                }
+                case ChatProtocol.FORWARD_ROOM -> {
+                    int patientUserId = frame.getInt();
+                    String sender = String.valueOf(frame.getInt());
+                    String text = ChatProtocol.text(frame);
+                    // Already stored by the sender's node; only this node's members are left to reach
+                    rooms.execute(() -> {
+                        CareTeamRooms.Room room = rooms.room(patientUserId);
+                        if (room != null) fanOut(room, sender, text, true);
+                    });
+                }
+                default -> {
+                    // Frame types from newer nodes are ignored
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            System.out.println("Truncated frame from node " + node + ", ignored.");
+        }
+    }
+
+    /**
+     * Routes a direct message from a client connected here: delivers it, saves it and counts it unread.
+     * @param sender   User ID of the sender
+     * @param receiver User ID of the receiver
+     * @param text     The message content
+     */
+    private void routeDirect(String sender, String receiver, String text) {
+        shareAttachment(sender, receiver, text);
+        sendMessage(sender, receiver, text, false);
+        persist(sender, receiver, text);
+        countUnread(sender, receiver);
+    }
+
+    /**
+     * Lets the receiver of an attachment notice download the attachment, if the sender may read it.
+     * For the NIO transport the readers file is checked and extended on the blob store's thread:
+     * after the sender's upload has finished there, and before the receiver's download is opened.
+     */
+    private void shareAttachment(String sender, String receiver, String text) {
+        ChatProtocol.Attachment attachment = ChatProtocol.parseAttachmentNotice(text);
+        if (attachment == null) return;
+        int senderId = userIdOf(sender);
+        int receiverId = userIdOf(receiver);
+        if (senderId <= 0 || receiverId <= 0) return;
+        onBlobThread(() -> {
+            if (blobs.mayRead(attachment.hash(), senderId)) {
+                blobs.grant(attachment.hash(), receiverId);
+            }
+        });
+    }
+
+    /**
+     * Runs attachment file work on the caller's thread, or for the NIO transport on the blob store's
+     * thread, so the selector never waits on the disk, on the store's lock or on verifying a
+     * finished upload.
+     */
+    private void onBlobThread(Runnable work) {
+        if (nioServer != null) {
+            blobs.execute(work);
+        } else {
+            work.run();
+        }
+    }
+
+    private void replyAttachStatus(String username, byte[] hash, long received) {
+        Client client = clientWriters.get(username);
+        if (client != null) deliver(username, client, ChatProtocol.attachStatus(hash, received), null);
+    }
+
+    /**
+     * @return The user's numeric ID, or -1 if the name is not numeric
+     */
+    private static int userIdOf(String username) {
+        try {
+            return Integer.parseInt(username);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Answers an ATTACH_GET on a blocking socket: the header, then the blob from the requested
+     * offset written by transferTo straight from the file to the socket.
+     */
+    private void sendAttachment(ChatProtocol.AttachmentRequest request, Socket socket, OutputStream out) throws IOException {
+        try (FileChannel blob = openAttachment(request)) {
+            long size = blob != null ? blob.size() : -1;
+            long offset = Math.max(0, Math.min(request.offset(), size));
+            out.write(ChatProtocol.attachData(size, offset));
+            out.flush();
+            if (blob == null) return;
+            WritableByteChannel target = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(out);
+            for (long position = offset; position < size; ) {
+                position += blob.transferTo(position, size - position, target);
+            }
+        }
+    }
+
+    /**
+     * Opens the blob a download asks for on the blob store's thread, for the NIO transport.
+     *
+     * @param onOpen Called on that thread with the blob, or null if it is missing or not shared with the user
+     */
+    void openAttachment(ChatProtocol.AttachmentRequest request, Consumer<FileChannel> onOpen) {
+        blobs.execute(() -> onOpen.accept(openAttachment(request)));
+    }
+
+    /**
+     * @return The blob a download asks for, or null if it is missing or not shared with the user
+     */
+    FileChannel openAttachment(ChatProtocol.AttachmentRequest request) {
+        FileChannel blob = blobs.open(request.hash(), request.userId());
+        if (blob == null) {
+            System.out.println("Attachment " + request.hash() + " not available to " + request.userId() + ".");
+        }
+        return blob;
+    }
+
     /**
      * Routes a message from sender to receiver.
      * @param sender Username of message sender
      * @param receiver Username of intended recipient
      * @param text The message content
+     * @param forwarded true if another cluster node relayed the message here
      */
-    private static void sendMessage(String sender, String receiver, String text) {
-        // Lookup recipient's output stream
-        PrintWriter receiverOut = clientWriters.get(receiver);
+    private void sendMessage(String sender, String receiver, String text, boolean forwarded) {
+        if (cluster != null && !clientWriters.containsKey(receiver)) {
+            // The directory lookup may wait on the database; keep it off routing threads and the selector
+            cluster.execute(() -> routeToPeer(sender, receiver, text, forwarded));
+            return;
+        }
+        deliverHere(sender, receiver, text);
+    }
 
-        if (receiverOut != null) {
-            // Format and send message with "FROM:" prefix
-            receiverOut.println("FROM:" + sender + ":" + text);
-        } else {
-            System.out.println("User " + receiver + " not found.");
+    /**
+     * Delivers a message to a receiver connected here, or queues it in the receiver's mailbox.
+     */
+    private void deliverHere(String sender, String receiver, String text) {
+        OfflineMessageStore.Mailbox mailbox = offlineStore.mailbox(receiver);
+
+        synchronized (mailbox) {
+            OfflineMessageStore.Envelope envelope =
+                    new OfflineMessageStore.Envelope(mailbox.nextSeq(), sender, text);
+
+            // Lookup recipient's connection; while its backlog is being read, the message queues behind it
+            Client receiverOut = clientWriters.get(receiver);
+            if (receiverOut != null && !mailbox.draining()) {
+                deliver(receiver, receiverOut, receiverOut.codec().message(envelope), envelope);
+            } else {
+                // Store and forward: delivered in one batch when the receiver reconnects
+                mailbox.enqueue(envelope);
+                System.out.println("User " + receiver + " offline, message queued.");
+            }
+        }
+    }
+
+    /**
+     * Relays a message for a user not connected here: to the node the directory says they are on,
+     * otherwise to their home node to wait there. A relayed message is only ever passed on to the
+     * home node, and the home node keeps it, so messages cannot bounce between nodes.
+     * Runs on the cluster executor. A node that does not acknowledge the message hands it on to
+     * the next choice: the home node, then this node's own mailbox.
+     */
+    private void routeToPeer(String sender, String receiver, String text, boolean forwarded) {
+        if (!forwarded && !clientWriters.containsKey(receiver)) {
+            String node = cluster.locate(receiver);
+            if (node != null && !node.equals(cluster.nodeId())
+                    && cluster.forward(node, sender, receiver, text, () -> routeHome(sender, receiver, text))) {
+                return;
+            }
+        }
+        routeHome(sender, receiver, text);
+    }
+
+    /**
+     * Not connected anywhere (or its node is down): keep the message on the home node.
+     */
+    private void routeHome(String sender, String receiver, String text) {
+        String home = cluster.homeNode(receiver);
+        if (!home.equals(cluster.nodeId()) && !clientWriters.containsKey(receiver)
+                && cluster.forward(home, sender, receiver, text, () -> deliverHere(sender, receiver, text))) {
+            return;
+        }
+        deliverHere(sender, receiver, text);
+    }
+
+    /**
+     * Sends a user's queued messages to the node they just connected to.
+     * @param username User ID
+     * @param node     Node that asked for them
+     */
+    private void handOver(String username, String node) {
+        OfflineMessageStore.Mailbox mailbox = offlineStore.mailbox(username);
+        synchronized (mailbox) {
+            // Also connected here: this connection already received the backlog
+            if (clientWriters.containsKey(username)) return;
+            mailbox.drain(0, pending -> handOver(username, node, mailbox, pending));
+        }
+    }
+
+    private void handOver(String username, String node, OfflineMessageStore.Mailbox mailbox,
+                          List<OfflineMessageStore.Envelope> pending) {
+        int sent = 0;
+        for (OfflineMessageStore.Envelope envelope : pending) {
+            // Not acknowledged: keep it for the user's next connect
+            Runnable keep = () -> {
+                synchronized (mailbox) {
+                    mailbox.enqueue(envelope);
+                }
+            };
+            if (!cluster.forward(node, envelope.sender(), username, envelope.text(), keep)) break;
+            sent++;
+        }
+        if (sent < pending.size()) {
+            // Node went away mid-handover; keep the rest for the user's next connect
+            pending.subList(sent, pending.size()).forEach(mailbox::enqueue);
+        }
+        if (sent > 0) {
+            System.out.println("Handed " + sent + " queued messages for " + username + " to node " + node + ".");
+        }
+    }
+
+    /**
+     * Hands a routed message to the write-behind writer and acknowledges the sender once it is durable.
+     * The message has been delivered already, so it is stored even if the sender has disconnected
+     * since; only the acknowledgement needs a connection.
+     * @param sender   User ID of the sender
+     * @param receiver User ID of the receiver
+     * @param text     The message content
+     */
+    private void persist(String sender, String receiver, String text) {
+        if (messageWriter == null) return;
+        Client senderClient = clientWriters.get(sender);
+
+        int senderId;
+        int receiverId;
+        try {
+            senderId = Integer.parseInt(sender);
+            receiverId = Integer.parseInt(receiver);
+        } catch (NumberFormatException e) {
+            // chat_messages only holds numeric user IDs
+            if (senderClient != null) deliver(sender, senderClient, senderClient.codec().ack(-1), null);
+            return;
+        }
+
+        // Runs on the writer thread after commit; the connection is the one that sent the message
+        messageWriter.submit(new ChatMessageWriter.PendingMessage(senderId, receiverId, text,
+                messageId -> {
+                    if (messageId > 0) {
+                        searchIndex.addDirect(messageId, senderId, receiverId, text, System.currentTimeMillis());
+                    }
+                    if (senderClient != null) {
+                        deliver(sender, senderClient, senderClient.codec().ack(messageId), null);
+                    }
+                }));
+    }
+
+    /**
+     * Posts a message to a patient's care-team room: fans it out to the members and stores it once.
+     * Membership is resolved on the room thread, so the caller never waits on the database.
+     * @param sender User ID of the sender; must be one of the patient's assigned doctors
+     * @param roomName User ID of the patient
+     * @param text The message content
+     */
+    private void postToRoom(String sender, String roomName, String text) {
+        int patientUserId;
+        try {
+            patientUserId = Integer.parseInt(roomName);
+        } catch (NumberFormatException e) {
+            rejectRoomMessage(sender);
+            return;
+        }
+        rooms.execute(() -> {
+            CareTeamRooms.Room room = rooms.room(patientUserId);
+            if (room == null || !room.members().contains(sender)) {
+                System.out.println(sender + " is not on the care team of " + roomName + ", room message rejected.");
+                rejectRoomMessage(sender);
+                return;
+            }
+            fanOut(room, sender, text, false);
+            persistRoomMessage(room, sender, text);
+        });
+    }
+
+    /**
+     * Delivers a room message to every member connected here and, unless it was relayed, once to
+     * each other node that has members connected. The message is encoded once per protocol and the
+     * same bytes are queued for every recipient using that protocol.
+     * @param room      The room
+     * @param sender    User ID of the sender, who does not get their own message back
+     * @param text      The message content
+     * @param forwarded true if another cluster node relayed the message here
+     */
+    private void fanOut(CareTeamRooms.Room room, String sender, String text, boolean forwarded) {
+        Map<ChatProtocol.Codec, byte[]> encoded = new EnumMap<>(ChatProtocol.Codec.class);
+        Set<String> remoteNodes = new HashSet<>();
+        for (String member : room.members()) {
+            if (member.equals(sender)) continue;
+            Client client = clientWriters.get(member);
+            if (client != null) {
+                byte[] data = encoded.computeIfAbsent(client.codec(),
+                        codec -> codec.roomMessage(room.patientUserId(), sender, text));
+                // Legacy clients have no rooms. No envelope: the stored room history replaces spilling
+                if (data != null) deliver(member, client, data, null);
+            } else if (cluster != null && !forwarded) {
+                String node = cluster.locate(member);
+                if (node != null && !node.equals(cluster.nodeId())) remoteNodes.add(node);
+            }
+        }
+        if (!remoteNodes.isEmpty()) {
+            byte[] frame = ChatProtocol.forwardRoom(room.patientUserId(), sender, text);
+            for (String node : remoteNodes) {
+                cluster.send(node, frame);
+            }
+        }
+    }
+
+    /**
+     * Stores a room message once and acknowledges the sender, if still connected, when it is durable.
+     */
+    private void persistRoomMessage(CareTeamRooms.Room room, String sender, String text) {
+        if (messageWriter == null) return;
+        // Runs on the room thread, so the sender may have disconnected since; the message is stored anyway
+        Client senderClient = clientWriters.get(sender);
+        messageWriter.submit(new ChatMessageWriter.PendingRoomMessage(room.patientId(), Integer.parseInt(sender), text,
+                messageId -> {
+                    if (messageId > 0) {
+                        searchIndex.addRoom(messageId, room.patientUserId(), Integer.parseInt(sender), text,
+                                System.currentTimeMillis());
+                    }
+                    if (senderClient == null) return;
+                    byte[] ack = senderClient.codec().roomAck(messageId);
+                    if (ack != null) deliver(sender, senderClient, ack, null);
+                }));
+    }
+
+    /**
+     * Answers a search with the best matching messages the user may read. Runs on the search
+     * thread; the user's rooms are those of the patients on their care team.
+     * @param username User ID of the searching user
+     * @param query    Words to look for
+     */
+    private void search(String username, String query) {
+        Client client = clientWriters.get(username);
+        if (client == null || client.codec() == ChatProtocol.Codec.LEGACY) return;
+        int userId;
+        try {
+            userId = Integer.parseInt(username);
+        } catch (NumberFormatException e) {
+            deliver(username, client, client.codec().searchDone(0), null);
+            return;
+        }
+        searchIndex.execute(() -> {
+            long start = System.nanoTime();
+            Set<Integer> roomIds = new HashSet<>();
+            try {
+                // A doctor's care team is their patients, whose rooms they belong to;
+                // a patient's is their doctors, who have no rooms
+                for (String member : careTeam.members(username)) {
+                    roomIds.add(Integer.parseInt(member));
+                }
+            } catch (SQLException | NumberFormatException e) {
+                System.err.println("Could not load the care team of " + username + ", searching direct messages only: "
+                        + e.getMessage());
+            }
+            List<ChatSearchIndex.Hit> hits = searchIndex.search(userId, roomIds, query, searchLimit);
+            for (ChatSearchIndex.Hit hit : hits) {
+                deliver(username, client, client.codec().searchHit(hit), null);
+            }
+            deliver(username, client, client.codec().searchDone(hits.size()), null);
+            System.out.println("Search by " + username + " returned " + hits.size() + " hits in "
+                    + (System.nanoTime() - start) / 1_000 + " us.");
+        });
+    }
+
+    private void rejectRoomMessage(String sender) {
+        Client client = clientWriters.get(sender);
+        if (client == null) return;
+        byte[] ack = client.codec().roomAck(-1);
+        if (ack != null) deliver(sender, client, ack, null);
+    }
+
+    /**
+     * Counts a routed direct message as unread until the receiver's next receipt for the sender.
+     */
+    private void countUnread(String sender, String receiver) {
+        try {
+            unread.messageRouted(Integer.parseInt(receiver), Integer.parseInt(sender));
+        } catch (NumberFormatException e) {
+            // Only numeric user IDs are counted
+        }
+    }
+
+    /**
+     * @param userId User ID a dashboard asked about
+     * @return The UNREAD frame answering an UNREAD_QUERY
+     */
+    byte[] unreadReply(int userId) {
+        return ChatProtocol.unread(unread.unreadFor(userId));
+    }
+
+    /**
+     * Applies a read receipt, then tells the original sender its messages were seen.
+     * @param reader User ID that read the messages
+     * @param sender User ID whose messages were read
+     */
+    private void markSeen(String reader, String sender) {
+        try {
+            unread.seen(Integer.parseInt(reader), Integer.parseInt(sender));
+        } catch (NumberFormatException e) {
+            // Only numeric user IDs are counted
+        }
+        Runnable forward = () -> forwardSeen(reader, sender, false);
+        if (messageWriter == null) {
+            forward.run();
+            return;
+        }
+        try {
+            // Queued behind the messages already routed, so exactly those are marked seen
+            messageWriter.submit(new ChatMessageWriter.SeenReceipt(
+                    Integer.parseInt(reader), Integer.parseInt(sender), forward));
+        } catch (NumberFormatException e) {
+            // chat_messages only holds numeric user IDs
+        }
+    }
+
+    /**
+     * Tells a sender that the reader has seen its messages, relaying to the sender's node if needed.
+     * @param reader    User ID that read the messages
+     * @param sender    User ID whose messages were read
+     * @param forwarded true if another cluster node relayed the receipt here
+     */
+    private void forwardSeen(String reader, String sender, boolean forwarded) {
+        Client senderClient = clientWriters.get(sender);
+        if (senderClient != null) {
+            deliver(sender, senderClient, senderClient.codec().seen(reader), null);
+        } else if (cluster != null && !forwarded) {
+            cluster.execute(() -> {
+                String node = cluster.locate(sender);
+                if (node != null && !node.equals(cluster.nodeId())) {
+                    cluster.send(node, ChatProtocol.forwardSeen(reader, sender));
+                }
+            });
+        }
+    }
+
+    /**
+     * Answers a heartbeat; the transport has already recorded the activity.
+     */
+    private void pong(String username) {
+        Client client = clientWriters.get(username);
+        if (client != null) deliver(username, client, client.codec().pong(), null);
+    }
+
+    /**
+     * Delivers a presence event to a watcher connected here or, in a cluster, on another node.
+     * Watchers connected nowhere are skipped; they get a snapshot when they connect.
+     */
+    private void notifyPresence(String watcher, String subject, ChatPresence.State state) {
+        Client client = clientWriters.get(watcher);
+        if (client != null) {
+            deliverPresence(watcher, client, subject, state);
+        } else if (cluster != null) {
+            String node = cluster.locate(watcher);
+            if (node != null && !node.equals(cluster.nodeId())) {
+                cluster.send(node, ChatProtocol.forwardPresence(watcher, subject, state));
+            }
+        }
+    }
+
+    private void deliverPresence(String watcher, Client client, String subject, ChatPresence.State state) {
+        byte[] event = client.codec().presence(subject, state);
+        if (event != null) deliver(watcher, client, event, null);
+    }
+
+    /**
+     * Presence of a user not connected here: online if another cluster node has them.
+     * Away is only known to the user's own node.
+     */
+    private ChatPresence.State presenceElsewhere(String username) {
+        if (cluster == null) return ChatPresence.State.OFFLINE;
+        String node = cluster.directory().locate(username);
+        return node != null && !node.equals(cluster.nodeId()) ? ChatPresence.State.ONLINE : ChatPresence.State.OFFLINE;
+    }
+
+    /**
+     * Closes heartbeat-capable connections that have been silent past the idle timeout.
+     * Closing makes the transport unregister the client, which reports it offline.
+     */
+    private void closeIdleConnections() {
+        for (Map.Entry<String, Client> entry : clientWriters.entrySet()) {
+            Client client = entry.getValue();
+            if (client.codec() == ChatProtocol.Codec.LEGACY) continue;
+            long idle = client.connection().idleMillis();
+            if (idle > idleTimeoutMs) {
+                System.out.println(entry.getKey() + " timed out after " + idle + " ms without a heartbeat.");
+                client.connection().close();
+            }
+        }
+    }
+
+    /**
+     * Queues output for a client and applies the overflow policy if the client has fallen behind.
+     * @param username User ID of the client
+     * @param client   The client's registration
+     * @param data     Encoded output
+     * @param envelope The message being delivered, or null for control output
+     */
+    private void deliver(String username, Client client, byte[] data, OfflineMessageStore.Envelope envelope) {
+        deliverBatch(username, client, data, envelope != null ? List.of(envelope) : List.of());
+    }
+
+    /**
+     * Queues output that delivers several messages at once, such as a reconnect backlog.
+     * @param envelopes The messages being delivered, oldest first
+     */
+    private void deliverBatch(String username, Client client, byte[] data, List<OfflineMessageStore.Envelope> envelopes) {
+        if (client.connection().send(data, envelopes)) return;
+
+        // Slow consumer: take it out of routing first, so later messages are queued offline behind the spilled ones
+        OfflineMessageStore.Mailbox mailbox = offlineStore.mailbox(username);
+        int spilled = 0;
+        synchronized (mailbox) {
+            if (!clientWriters.remove(username, client)) return;  // Already handled by another thread
+            if (overflowPolicy == OutboundQueue.OverflowPolicy.SPILL) {
+                List<OfflineMessageStore.Envelope> undelivered = client.connection().drainUndelivered();
+                undelivered.addAll(envelopes);
+                undelivered.forEach(mailbox::enqueue);
+                spilled = undelivered.size();
+            }
+        }
+        leftNode(username);
+        overflowDisconnects.increment();
+        spilledMessages.add(spilled);
+        client.connection().close();
+        System.out.println(username + " is not keeping up, disconnected."
+                + (spilled > 0 ? " " + spilled + " messages moved to offline storage." : ""));
+    }
+
+    /**
+     * ChatConnection backed by a blocking socket, with a writer task draining its outbound queue.
+     */
+    private static final class SocketConnection implements ChatConnection {
+        private final String username;
+        private final Socket socket;
+        private final OutputStream out;
+        private final OutboundQueue outbound;
+        private volatile List<OfflineMessageStore.Envelope> inFlight = List.of(); // Taken by the writer, not yet flushed
+        private volatile Thread writer;
+        private volatile boolean closed;
+        private volatile long lastActive = System.nanoTime();
+
+        private SocketConnection(String username, Socket socket, OutputStream out,
+                                 OutboundQueue outbound, Executor writers) {
+            this.username = username;
+            this.socket = socket;
+            this.out = out;
+            this.outbound = outbound;
+            writers.execute(this::writeLoop);
+        }
+
+        @Override
+        public String username() {
+            return username;
+        }
+
+        @Override
+        public boolean send(byte[] data, List<OfflineMessageStore.Envelope> envelopes) {
+            if (closed) return true;
+            return outbound.offer(new OutboundQueue.Item(ByteBuffer.wrap(data), envelopes));
+        }
+
+        @Override
+        public int queueDepth() {
+            return outbound.size();
+        }
+
+        @Override
+        public List<OfflineMessageStore.Envelope> drainUndelivered() {
+            List<OfflineMessageStore.Envelope> undelivered = new ArrayList<>(inFlight);
+            inFlight = List.of();
+            undelivered.addAll(outbound.drainUndelivered());
+            return undelivered;
+        }
+
+        @Override
+        public void markActive() {
+            lastActive = System.nanoTime();
+        }
+
+        @Override
+        public long idleMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActive);
+        }
+
+        /**
+         * Writes queued output until the connection closes, flushing once per burst. If the
+         * socket breaks mid-burst, the burst's messages stay in inFlight for drainUndelivered.
+         */
+        private void writeLoop() {
+            writer = Thread.currentThread();
+            List<OutboundQueue.Item> burst = new ArrayList<>();
+            try {
+                while (!closed) {
+                    burst.add(outbound.take());
+                    outbound.drainTo(burst);
+                    List<OfflineMessageStore.Envelope> envelopes = new ArrayList<>();
+                    for (OutboundQueue.Item item : burst) {
+                        envelopes.addAll(item.envelopes());
+                    }
+                    inFlight = envelopes;
+                    for (OutboundQueue.Item item : burst) {
+                        out.write(item.data().array());
+                    }
+                    out.flush();
+                    inFlight = List.of();
+                    burst.clear();
+                }
+            } catch (InterruptedException | IOException e) {
+                // Connection closed, or the socket broke; the reader side unregisters the client
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore close exceptions
+            }
+            // The queue is left for unregister, which hands undelivered messages back to the mailbox
+            Thread current = writer;
+            if (current != null && current != Thread.currentThread()) current.interrupt();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,608 @@
+package com.example.hospi.GUI;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ConnectionPool - A bounded pool of reusable JDBC connections.
+ * Physical connections are opened lazily up to a maximum size, validated when borrowed,
+ * retired after a maximum lifetime and handed out wrapped in a proxy whose close()
+ * returns the connection to the pool instead of tearing down the socket.
+ *
+ * Each physical connection also keeps the statements prepared on it, keyed by SQL text
+ * (see Queries). prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys) hand
+ * back the cached statement when one is idle,
+ * so with server-side prepares the database parses and plans a hot query once per
+ * connection rather than once per call. Closing the statement returns it to the cache.
+ */
+class ConnectionPool implements AutoCloseable {
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final Config config;
+
+    // Idle connections, most recently returned first so warm connections are reused
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    // Connections currently handed out to callers, scanned for leaks
+    private final Set<PooledConnection> inUse = ConcurrentHashMap.newKeySet();
+    // One permit per connection that may exist at the same time
+    private final Semaphore permits;
+    // Background thread for eviction, minimum-size top-up and leak detection
+    private final ScheduledExecutorService housekeeper;
+
+    // Counters exposed through stats()
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Pool settings. Every value can be overridden with a -Dhospi.db.pool.* system property.
+     *
+     * @param minSize            Connections kept open even when idle
+     * @param maxSize            Upper bound on open connections
+     * @param borrowTimeoutMs    How long a caller waits for a free connection before failing
+     * @param maxLifetimeMs      Age after which a connection is closed and replaced
+     * @param leakThresholdMs    Borrow duration after which a connection is reported as leaked, with
+     *                           the stack that borrowed it; 0 (the default) turns leak detection off,
+     *                           which spares every borrow the cost of recording that stack
+     * @param validationTimeoutS Timeout passed to Connection.isValid when borrowing
+     * @param statementCacheSize Prepared statements kept open per connection; 0 disables caching
+     */
+    record Config(int minSize, int maxSize, long borrowTimeoutMs, long maxLifetimeMs,
+                  long leakThresholdMs, int validationTimeoutS, int statementCacheSize) {
+
+        /**
+         * @return The configuration built from system properties, falling back to defaults
+         */
+        static Config fromSystemProperties() {
+            int max = Math.max(1, Integer.getInteger("hospi.db.pool.maxSize", 10));
+            int min = Math.min(max, Math.max(0, Integer.getInteger("hospi.db.pool.minSize", 2)));
+            return new Config(
+                    min,
+                    max,
+                    Long.getLong("hospi.db.pool.borrowTimeoutMs", 10_000L),
+                    Long.getLong("hospi.db.pool.maxLifetimeMs", 30 * 60_000L),
+                    Math.max(0, Long.getLong("hospi.db.pool.leakThresholdMs", 0L)),
+                    Integer.getInteger("hospi.db.pool.validationTimeoutS", 2),
+                    Math.max(0, Integer.getInteger("hospi.db.pool.statementCacheSize", 64))
+            );
+        }
+    }
+
+    /**
+     * Snapshot of pool usage.
+     *
+     * @param total              Open physical connections
+     * @param active             Connections currently borrowed
+     * @param idle               Connections waiting in the pool
+     * @param waiting            Threads blocked waiting for a connection
+     * @param created            Physical connections opened since start
+     * @param destroyed          Physical connections closed since start
+     * @param borrows            Successful borrows since start
+     * @param timeouts           Borrows that gave up waiting
+     * @param validationFailures Idle connections discarded because they failed validation
+     * @param leaks              Borrowed connections held longer than the leak threshold
+     * @param statementHits      prepareStatement calls served from a connection's statement cache
+     * @param statementMisses    prepareStatement calls that prepared a new statement
+     */
+    record Stats(int total, int active, int idle, int waiting, long created, long destroyed,
+                 long borrows, long timeouts, long validationFailures, long leaks,
+                 long statementHits, long statementMisses) {
+
+        /**
+         * @return Share of prepareStatement calls served from the cache, 0 before the first call
+         */
+        double statementHitRatio() {
+            long calls = statementHits + statementMisses;
+            return calls == 0 ? 0 : (double) statementHits / calls;
+        }
+    }
+
+    /**
+     * Creates a pool for the given database and opens the minimum number of connections
+     * in the background.
+     *
+     * @param url      JDBC URL of the database
+     * @param user     Database username
+     * @param password Database password
+     * @param config   Pool sizing and timeout settings
+     */
+    ConnectionPool(String url, String user, String password, Config config) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.config = config;
+        this.permits = new Semaphore(config.maxSize(), true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = config.leakThresholdMs() > 0
+                ? Math.max(1_000L, Math.min(config.leakThresholdMs(), 30_000L))
+                : 30_000L;
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection, waiting up to the configured timeout if the pool is exhausted.
+     * The returned connection must be closed to hand it back.
+     *
+     * @return A validated connection from the pool
+     * @throws SQLException if no connection becomes available or one cannot be opened
+     */
+    Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+
+        try {
+            if (!permits.tryAcquire(config.borrowTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException("Timed out after " + config.borrowTimeoutMs()
+                        + " ms waiting for a database connection.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", e);
+        }
+
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = open();
+            }
+            pooled.borrowedAt = System.currentTimeMillis();
+            // Filling in a stack trace is not free; only pay for it when someone will read it
+            pooled.borrowSite = config.leakThresholdMs() > 0 ? new Exception("Connection borrowed here") : null;
+            pooled.leakReported = false;
+            inUse.add(pooled);
+            borrows.incrementAndGet();
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return A snapshot of the current pool statistics
+     */
+    Stats stats() {
+        int active = inUse.size();
+        int idleCount = idle.size();
+        return new Stats(active + idleCount, active, idleCount, permits.getQueueLength(),
+                created.get(), destroyed.get(), borrows.get(), timeouts.get(),
+                validationFailures.get(), leaks.get(), statementHits.get(), statementMisses.get());
+    }
+
+    /**
+     * Closes every idle connection and stops the housekeeper.
+     * Borrowed connections are closed as they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    /**
+     * Takes the most recently used idle connection that is still young and valid.
+     *
+     * @return A usable idle connection, or null if none is available
+     */
+    private PooledConnection takeIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isExpired(pooled)) {
+                destroy(pooled);
+                continue;
+            }
+            if (!isValid(pooled)) {
+                validationFailures.incrementAndGet();
+                destroy(pooled);
+                continue;
+            }
+            return pooled;
+        }
+        return null;
+    }
+
+    /**
+     * Opens a new physical connection.
+     *
+     * @return The wrapped physical connection
+     * @throws SQLException if the database cannot be reached
+     */
+    private PooledConnection open() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, user, password);
+        created.incrementAndGet();
+        System.out.println("Connection successful!"); // Log each new physical connection
+        return new PooledConnection(physical);
+    }
+
+    /**
+     * Returns a borrowed connection to the pool, resetting any transaction state the caller left behind.
+     *
+     * @param pooled The connection being handed back
+     */
+    private void release(PooledConnection pooled) {
+        inUse.remove(pooled);
+        pooled.borrowSite = null;
+
+        try {
+            boolean reusable = !closed && !isExpired(pooled) && !pooled.physical.isClosed();
+            if (reusable && !pooled.physical.getAutoCommit()) {
+                // Callers that return early from a manual transaction must not leak it to the next borrower
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            if (reusable) {
+                idle.offerFirst(pooled);
+            } else {
+                destroy(pooled);
+            }
+        } catch (SQLException e) {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Periodic maintenance: retires expired idle connections, keeps the minimum size
+     * open and reports connections that have been borrowed for too long.
+     */
+    private void housekeep() {
+        try {
+            for (PooledConnection pooled : idle) {
+                if (isExpired(pooled) && idle.remove(pooled)) {
+                    destroy(pooled);
+                }
+            }
+
+            while (!closed && idle.size() + inUse.size() < config.minSize() && permits.tryAcquire()) {
+                try {
+                    idle.offerLast(open());
+                } finally {
+                    permits.release();
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            for (PooledConnection pooled : inUse) {
+                Exception site = pooled.borrowSite;
+                if (!pooled.leakReported && site != null && now - pooled.borrowedAt > config.leakThresholdMs()) {
+                    pooled.leakReported = true;
+                    leaks.incrementAndGet();
+                    System.err.println("Possible connection leak: borrowed " + (now - pooled.borrowedAt)
+                            + " ms ago and not yet returned.");
+                    site.printStackTrace();
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Connection pool maintenance failed: " + e.getMessage());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean isExpired(PooledConnection pooled) {
+        return System.currentTimeMillis() - pooled.createdAt > config.maxLifetimeMs();
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.physical.isValid(config.validationTimeoutS());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void destroy(PooledConnection pooled) {
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            // Ignore close exceptions
+        }
+        destroyed.incrementAndGet();
+    }
+
+    /**
+     * A physical connection together with its pool bookkeeping.
+     */
+    private final class PooledConnection {
+        private final Connection physical;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long borrowedAt;
+        private volatile Exception borrowSite;
+        private volatile boolean leakReported;
+
+        // Idle prepared statements, least recently used first. A statement in use is taken
+        // out, so two open statements never share one physical statement
+        private final Map<StatementKey, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+        // Settings of a freshly prepared statement, captured from the first one prepared here
+        private volatile StatementDefaults defaults;
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        /**
+         * @return The idle cached statement for the key, or a newly prepared one
+         */
+        private PreparedStatement takeStatement(StatementKey key) throws SQLException {
+            PreparedStatement cached;
+            synchronized (this) {
+                cached = statements.remove(key);
+            }
+            if (cached != null && !cached.isClosed()) {
+                statementHits.incrementAndGet();
+                return cached;
+            }
+            statementMisses.incrementAndGet();
+            PreparedStatement prepared = physical.prepareStatement(key.sql(), key.autoGeneratedKeys());
+            if (defaults == null) {
+                defaults = StatementDefaults.of(prepared);
+            }
+            return prepared;
+        }
+
+        /**
+         * Caches a statement its caller has closed, evicting the least recently used beyond
+         * the configured size. Parameters, batch and any limits the caller set are reset, so
+         * the next caller gets the statement as prepareStatement would have returned it. A
+         * statement that cannot be reset is closed instead.
+         */
+        private void returnStatement(StatementKey key, PreparedStatement statement) {
+            List<PreparedStatement> evicted = new ArrayList<>();
+            try {
+                ResultSet results = statement.getResultSet();
+                if (results != null) results.close();
+                statement.clearParameters();
+                statement.clearBatch();
+                StatementDefaults initial = defaults;
+                if (initial == null) {
+                    throw new SQLException("No statement defaults recorded.");
+                }
+                initial.restore(statement);
+                synchronized (this) {
+                    // Keep only one per SQL; a nested second one is closed
+                    if (statements.putIfAbsent(key, statement) != null) {
+                        evicted.add(statement);
+                    }
+                    Iterator<PreparedStatement> eldest = statements.values().iterator();
+                    while (statements.size() > config.statementCacheSize()) {
+                        evicted.add(eldest.next());
+                        eldest.remove();
+                    }
+                }
+            } catch (SQLException e) {
+                evicted.add(statement);
+            }
+            for (PreparedStatement stale : evicted) {
+                try {
+                    stale.close();
+                } catch (SQLException e) {
+                    // Ignore close exceptions
+                }
+            }
+        }
+
+        /**
+         * @return A fresh caller-facing handle; each borrow gets its own so a stale
+         * reference cannot close a connection that has since been lent to someone else
+         */
+        private Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new Handle(this));
+        }
+    }
+
+    /**
+     * Proxy handler that routes close() back to the pool and rejects use after close.
+     * prepareStatement(String) is served from the connection's statement cache.
+     */
+    private final class Handle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean released;
+        // Cached statements lent out through this handle and not closed yet
+        private final List<StatementHandle> openStatements = new ArrayList<>();
+
+        private Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        // Statements the caller never closed go back to the cache with the connection
+                        for (StatementHandle statement : new ArrayList<>(openStatements)) {
+                            statement.close();
+                        }
+                        released = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "prepareStatement":
+                    StatementKey key = StatementKey.of(method, args);
+                    if (key != null && config.statementCacheSize() > 0 && !released) {
+                        StatementHandle statement = new StatementHandle(this, (Connection) proxy, key,
+                                pooled.takeStatement(key));
+                        openStatements.add(statement);
+                        return Proxy.newProxyInstance(
+                                PreparedStatement.class.getClassLoader(),
+                                new Class<?>[]{PreparedStatement.class},
+                                statement);
+                    }
+                    break;
+                case "isClosed":
+                    return released || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.physical + (released ? ", returned" : "") + "]";
+                default:
+                    break;
+            }
+            if (released) {
+                throw new SQLException("Connection has already been returned to the pool.");
+            }
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private synchronized void statementClosed(StatementHandle statement) {
+            openStatements.remove(statement);
+        }
+    }
+
+    /**
+     * What a cached statement was prepared from.
+     *
+     * @param sql               SQL text, compared exactly
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or NO_GENERATED_KEYS
+     */
+    private record StatementKey(String sql, int autoGeneratedKeys) {
+
+        /**
+         * @return The key for a prepareStatement call, or null for the overloads that are not cached
+         */
+        static StatementKey of(Method method, Object[] args) {
+            Class<?>[] types = method.getParameterTypes();
+            if (types.length == 1) {
+                return new StatementKey((String) args[0], Statement.NO_GENERATED_KEYS);
+            }
+            if (types.length == 2 && types[1] == int.class) {
+                return new StatementKey((String) args[0], (Integer) args[1]);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Per-statement settings a caller may change, as the driver sets them on a new statement.
+     */
+    private record StatementDefaults(int maxRows, int queryTimeout, int fetchSize, int maxFieldSize) {
+
+        static StatementDefaults of(PreparedStatement statement) throws SQLException {
+            return new StatementDefaults(statement.getMaxRows(), statement.getQueryTimeout(),
+                    statement.getFetchSize(), statement.getMaxFieldSize());
+        }
+
+        /**
+         * Puts back whatever the last caller changed; the getters do not reach the database.
+         */
+        void restore(PreparedStatement statement) throws SQLException {
+            if (statement.getMaxRows() != maxRows) statement.setMaxRows(maxRows);
+            if (statement.getQueryTimeout() != queryTimeout) statement.setQueryTimeout(queryTimeout);
+            if (statement.getFetchSize() != fetchSize) statement.setFetchSize(fetchSize);
+            if (statement.getMaxFieldSize() != maxFieldSize) statement.setMaxFieldSize(maxFieldSize);
+        }
+    }
+
+    /**
+     * Proxy handler for a cached prepared statement: close() returns it to its connection's cache.
+     */
+    private final class StatementHandle implements InvocationHandler {
+        private final Handle connection;
+        private final Connection connectionProxy;
+        private final StatementKey key;
+        private final PreparedStatement physical;
+        private boolean closed;
+
+        private StatementHandle(Handle connection, Connection connectionProxy, StatementKey key, PreparedStatement physical) {
+            this.connection = connection;
+            this.connectionProxy = connectionProxy;
+            this.key = key;
+            this.physical = physical;
+        }
+
+        private void close() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+            }
+            // Outside this handle's lock: closing the connection locks it first, then this
+            connection.statementClosed(this);
+            connection.pooled.returnStatement(key, physical);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    close();
+                    return null;
+                case "isClosed":
+                    synchronized (this) {
+                        return closed || physical.isClosed();
+                    }
+                case "getConnection":
+                    return connectionProxy;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + key.sql().strip() + (closed ? ", returned" : "") + "]";
+                default:
+                    break;
+            }
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLException("Statement has already been closed.");
+                }
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.hospi.GUI;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * DatabaseChatDirectory - ChatDirectory stored in the chat_presence table, shared by every
+ * chat node that uses the hospital database. One row per connected user names its node.
+ *
+ * Failures are logged and treated as "not found": the caller then routes the message to the
+ * user's home node, where it waits in the offline store.
+ */
+class DatabaseChatDirectory implements ChatDirectory {
+
+    private static final String REGISTER_SQL =
+            "INSERT INTO hospital_db.chat_presence (user_id, node_id) VALUES (?, ?) "
+                    + "ON DUPLICATE KEY UPDATE node_id = VALUES(node_id), updated_at = CURRENT_TIMESTAMP";
+    private static final String UNREGISTER_SQL =
+            "DELETE FROM hospital_db.chat_presence WHERE user_id = ? AND node_id = ?";
+    private static final String LOCATE_SQL =
+            "SELECT node_id FROM hospital_db.chat_presence WHERE user_id = ?";
+    private static final String CLEAR_SQL =
+            "DELETE FROM hospital_db.chat_presence WHERE node_id = ?";
+
+    @Override
+    public void register(String username, String nodeId) {
+        update(REGISTER_SQL, username, nodeId);
+    }
+
+    @Override
+    public void unregister(String username, String nodeId) {
+        update(UNREGISTER_SQL, username, nodeId);
+    }
+
+    @Override
+    public String locate(String username) {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(LOCATE_SQL)) {
+            stmt.setString(1, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString("node_id") : null;
+            }
+        } catch (SQLException e) {
+            System.err.println("Could not look up chat presence of " + username + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void clear(String nodeId) {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(CLEAR_SQL)) {
+            stmt.setString(1, nodeId);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Could not clear chat presence of node " + nodeId + ": " + e.getMessage());
+        }
+    }
+
+    private static void update(String sql, String username, String nodeId) {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, username);
+            stmt.setString(2, nodeId);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Could not update chat presence of " + username + ": " + e.getMessage());
+        }
+    }
+}
@@ -1,40 +1,148 @@
 package com.example.hospi.GUI;
 
+import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
 
 /**
  * Provides centralized database connection management for the application.
- * This utility class handles establishing and managing connections to the MySQL database.
+ * This utility class hands out connections to the MySQL database from a shared pool,
+ * so callers pay the TCP and authentication handshake only when the pool grows.
+ * Every connection handed out is measured by QueryMetrics.
  */
 class DatabaseConnection {
 
+    // Database connection parameters
+    // JDBC URL for MySQL database: batches are sent as multi-row inserts, and statements are prepared on the
+    // server so the statements the pool caches per connection are parsed and planned once
+    private static final String URL = "jdbc:mysql://localhost:3306/hospital_db?rewriteBatchedStatements=true&useServerPrepStmts=true";
+    private static final String USER = "root"; // Database username with access privileges
+    private static final String PASSWORD = "seecs@123"; // Database password (Note: Hardcoded credentials should be secured in production)
+
+    // Further Prometheus lines for the metrics endpoint, by source name, in name order
+    private static final Map<String, Supplier<String>> METRIC_SOURCES = new ConcurrentSkipListMap<>();
+
+    /**
+     * Lazily created pool shared by every caller of getConnection().
+     */
+    private static final class PoolHolder {
+        private static final ConnectionPool POOL = createPool();
+
+        private static ConnectionPool createPool() {
+            ConnectionPool pool = new ConnectionPool(URL, USER, PASSWORD, ConnectionPool.Config.fromSystemProperties());
+            Runtime.getRuntime().addShutdownHook(new Thread(pool::close, "db-pool-shutdown"));
+            return pool;
+        }
+    }
+
     /**
-     * Establishes and returns a connection to the hospital database.
+     * Lazily created metrics shared by every connection handed out, with their HTTP endpoint
+     * when -Dhospi.db.metricsPort is set.
+     */
+    private static final class MetricsHolder {
+        private static final QueryMetrics METRICS = createMetrics();
+
+        private static QueryMetrics createMetrics() {
+            QueryMetrics metrics = QueryMetrics.fromSystemProperties();
+            int port = Integer.getInteger("hospi.db.metricsPort", 0);
+            if (port > 0) {
+                try {
+                    metrics.serve(port, DatabaseConnection::extraMetrics);
+                } catch (IOException e) {
+                    System.err.println("Could not serve query metrics on port " + port + ": " + e.getMessage());
+                }
+            }
+            return metrics;
+        }
+    }
+
+    /**
+     * Borrows a connection to the hospital database from the pool.
+     * Closing the returned connection hands it back to the pool for reuse.
      *
      * @return A live database Connection object
      * @throws SQLException if connection cannot be established
      */
     public static Connection getConnection() throws SQLException {
-        // Database connection parameters
-        String url = "jdbc:mysql://localhost:3306/hospital_db"; // JDBC URL for MySQL database
-        String user = "root"; // Database username with access privileges
-        String password = "seecs@123"; // Database password (Note: Hardcoded credentials should be secured in production)
-
         try {
-            // Attempt to establish connection using DriverManager
-            Connection connection = DriverManager.getConnection(url, user, password);
-            System.out.println("Connection successful!"); // Log successful connection
-            return connection;
+            // Borrow a validated connection, opening a new one only if the pool has none idle
+            return MetricsHolder.METRICS.instrument(PoolHolder.POOL.borrow());
         } catch (SQLException e) {
             // Log connection failure details
             System.out.println("Connection failed: " + e.getMessage());
             // Re-throw exception with application-specific message
-            throw new SQLException("Connection to database failed.");
+            throw new SQLException("Connection to database failed.", e);
         }
     }
 
+    /**
+     * Returns usage statistics for the shared connection pool.
+     *
+     * @return Snapshot of pool size, activity and error counters
+     */
+    static ConnectionPool.Stats getPoolStats() {
+        return PoolHolder.POOL.stats();
+    }
+
+    /**
+     * Returns the per-statement query numbers collected so far.
+     *
+     * @return Timing, row and error counts of every statement run through getConnection()
+     */
+    static QueryMetrics getQueryMetrics() {
+        return MetricsHolder.METRICS;
+    }
+
+    /**
+     * Adds the metrics of a background stage (e.g. the alert dispatcher) to the endpoint served
+     * with -Dhospi.db.metricsPort, next to the pool's.
+     *
+     * @param name  Source name; a later source of the same name replaces the earlier one
+     * @param lines Produces Prometheus lines, each ending in a newline; called per scrape
+     */
+    static void registerMetrics(String name, Supplier<String> lines) {
+        METRIC_SOURCES.put(name, lines);
+    }
+
+    /**
+     * Removes a source added with registerMetrics, unless another has replaced it since.
+     */
+    static void unregisterMetrics(String name, Supplier<String> lines) {
+        METRIC_SOURCES.remove(name, lines);
+    }
+
+    /**
+     * @return Pool statistics and every registered source, for the metrics endpoint
+     */
+    private static String extraMetrics() {
+        StringBuilder out = new StringBuilder(poolMetrics());
+        for (Map.Entry<String, Supplier<String>> source : METRIC_SOURCES.entrySet()) {
+            try {
+                out.append(source.getValue().get());
+            } catch (RuntimeException e) {
+                // One broken source must not take the endpoint down
+                System.err.println("Could not read " + source.getKey() + " metrics: " + e);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return Pool statistics as Prometheus gauges and counters, for the metrics endpoint
+     */
+    private static String poolMetrics() {
+        ConnectionPool.Stats stats = getPoolStats();
+        return "hospi_db_pool_connections{state=\"active\"} " + stats.active() + "\n"
+                + "hospi_db_pool_connections{state=\"idle\"} " + stats.idle() + "\n"
+                + "hospi_db_pool_waiting " + stats.waiting() + "\n"
+                + "hospi_db_pool_timeouts_total " + stats.timeouts() + "\n"
+                + "hospi_db_statement_cache_hits_total " + stats.statementHits() + "\n"
+                + "hospi_db_statement_cache_misses_total " + stats.statementMisses() + "\n";
+    }
+
     /**
      * Test method to verify database connectivity.
      *
@@ -50,6 +158,8 @@ class DatabaseConnection {
                 connection.close();
                 System.out.println("Test connection closed successfully.");
             }
+            System.out.println("Pool stats: " + getPoolStats());
+            System.out.print(getQueryMetrics().dump());
         } catch (SQLException e) {
             // Display any connection errors
             System.out.println("Error: " + e.getMessage());
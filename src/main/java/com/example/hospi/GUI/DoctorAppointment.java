@@ -13,7 +13,10 @@ import java.time.LocalDate;
 import java.time.DayOfWeek;
 import java.time.temporal.TemporalAdjusters;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 /**
  * DoctorAppointment is a JavaFX application for managing doctor appointments.
@@ -38,6 +41,8 @@ public class DoctorAppointment extends Application {
     private Label hospitalNameLabel;
     private int selectedAppointmentId = -1; // Tracks currently selected appointment
     private int doctorId;
+    private Stage stage;          // Window the database work belongs to
+    private VBox actionButtons;   // Disabled while a change is being saved
 
     /**
      * Main entry point for the JavaFX application.
@@ -50,6 +55,8 @@ public class DoctorAppointment extends Application {
     }
     @Override
     public void start(Stage primaryStage) {
+        stage = primaryStage;
+
         // ========== UI COMPONENT SETUP ========== //
 
         // Hospital Title (Top Section)
@@ -90,6 +97,7 @@ public class DoctorAppointment extends Application {
         buttonBox.setAlignment(Pos.CENTER_LEFT);
         buttonBox.setStyle("-fx-background-color: " + SECTION_BACKGROUND + "; -fx-background-radius: 10px;");
         buttonBox.setPrefWidth(300);
+        actionButtons = buttonBox;
 
         // Status Bar (Bottom Section)
         statusLabel = new Label("Status: Ready");
@@ -140,9 +148,35 @@ public class DoctorAppointment extends Application {
     }
 
     /**
-     * Loads and displays appointments from the database.
+     * Loads and displays appointments from the database, in the background.
      */
     private void viewAppointments() {
+        loadAppointments("Status: Appointments loaded successfully.");
+    }
+
+    /**
+     * Reloads the appointment list in the background
+     * @param doneMessage Status shown once the list is filled
+     */
+    private void loadAppointments(String doneMessage) {
+        appointmentsListView.setPlaceholder(new Label("Loading appointments..."));
+        AsyncDatabase.load(stage, this::queryAppointments, appointments -> {
+            appointmentsListView.setPlaceholder(new Label("No appointments."));
+            appointmentsListView.getItems().setAll(appointments);
+            statusLabel.setText(doneMessage);
+        }, e -> {
+            e.printStackTrace();
+            appointmentsListView.setPlaceholder(new Label("Could not load appointments."));
+            statusLabel.setText("Status: Error loading appointments.");
+        });
+    }
+
+    /**
+     * Reads the doctor's appointments (database threads)
+     * @return One display line per appointment, by date and start time
+     * @throws SQLException if the appointments cannot be read
+     */
+    private List<String> queryAppointments() throws SQLException {
         String query = """
                 SELECT a.id, p.name, a.appointment_date, a.start_time, a.end_time, a.status
                 FROM appointments a
@@ -151,12 +185,12 @@ public class DoctorAppointment extends Application {
                 ORDER BY a.appointment_date, a.start_time
                 """;
 
+        List<String> appointments = new ArrayList<>();
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(query)) {
 
-            stmt.setInt(1, doctorId); // TODO: Replace with logged-in doctor ID
+            stmt.setInt(1, doctorId);
             ResultSet rs = stmt.executeQuery();
-            appointmentsListView.getItems().clear();
 
             while (rs.next()) {
                 String appointment = String.format("ID: %d | Patient: %s | Date: %s | Time: %s-%s | Status: %s",
@@ -166,13 +200,29 @@ public class DoctorAppointment extends Application {
                         rs.getTime("start_time"),
                         rs.getTime("end_time"),
                         rs.getString("status"));
-                appointmentsListView.getItems().add(appointment);
+                appointments.add(appointment);
             }
-            statusLabel.setText("Status: Appointments loaded successfully.");
-        } catch (SQLException e) {
-            e.printStackTrace();
-            statusLabel.setText("Status: Error loading appointments.");
         }
+        return appointments;
+    }
+
+    /**
+     * Runs a change in the background with the action buttons disabled
+     * @param change Database work to run
+     * @param onDone Called on the JavaFX thread with the change's result
+     * @param failureMessage Status shown if the change fails
+     */
+    private <T> void saveChange(AsyncDatabase.Query<T> change, Consumer<T> onDone, String failureMessage) {
+        actionButtons.setDisable(true);
+        statusLabel.setText("Status: Saving...");
+        AsyncDatabase.load(stage, change, result -> {
+            actionButtons.setDisable(false);
+            onDone.accept(result);
+        }, e -> {
+            e.printStackTrace();
+            actionButtons.setDisable(false);
+            statusLabel.setText(failureMessage);
+        });
     }
 
     /**
@@ -232,14 +282,27 @@ public class DoctorAppointment extends Application {
 
         Optional<ButtonType> result = dialog.showAndWait();
         if (result.isPresent() && result.get() == saveButton) {
-            saveAvailabilityToDatabase(days, startFields, endFields, availableDates);
+            // Read the fields here; the save itself runs on a database thread
+            String[] starts = new String[days.length];
+            String[] ends = new String[days.length];
+            for (int i = 0; i < days.length; i++) {
+                starts[i] = startFields[i].getText().trim();
+                ends[i] = endFields[i].getText().trim();
+            }
+            saveChange(() -> {
+                saveAvailabilityToDatabase(days, starts, ends, availableDates);
+                return true;
+            }, saved -> statusLabel.setText("Status: Availability saved/updated successfully."),
+                    "Status: Error saving availability.");
         }
     }
 
     /**
-     * Saves availability data to the database.
+     * Saves availability data to the database (database threads).
+     * @throws SQLException if a row cannot be saved
      */
-    private void saveAvailabilityToDatabase(String[] days, TextField[] startFields, TextField[] endFields, LocalDate[] availableDates) {
+    private void saveAvailabilityToDatabase(String[] days, String[] starts, String[] ends, LocalDate[] availableDates)
+            throws SQLException {
         try (Connection conn = DatabaseConnection.getConnection()) {
             String selectQuery = "SELECT id FROM doctor_availability WHERE doctor_id = ? AND day_of_week = ? AND available_date = ?";
             String updateQuery = "UPDATE doctor_availability SET start_time = ?, end_time = ? WHERE id = ?";
@@ -255,8 +318,8 @@ public class DoctorAppointment extends Application {
             for (int i = 0; i < days.length; i++) {
                 String day = days[i];
                 LocalDate date = availableDates[i];
-                String start = startFields[i].getText().trim();
-                String end = endFields[i].getText().trim();
+                String start = starts[i];
+                String end = ends[i];
 
                 if (start.isEmpty() || end.isEmpty()) continue; // Skip empty inputs
 
@@ -283,11 +346,6 @@ public class DoctorAppointment extends Application {
                     insertStmt.executeUpdate();
                 }
             }
-
-            statusLabel.setText("Status: Availability saved/updated successfully.");
-        } catch (SQLException e) {
-            e.printStackTrace();
-            statusLabel.setText("Status: Error saving availability.");
         }
     }
 
@@ -328,63 +386,69 @@ public class DoctorAppointment extends Application {
         dialog.getDialogPane().setStyle("-fx-background-color: #34495e; -fx-padding: 20px;");
 
         // Process the doctor's choice
-        dialog.showAndWait().ifPresent(status -> {
-            // SQL queries for updating status and fetching patient details
-            String updateQuery = "UPDATE appointments SET status = ? WHERE id = ?";
-            String fetchEmailQuery = """
-                    SELECT p.name, p.address, a.appointment_date, a.start_time
-                    FROM appointments a
-                    JOIN patients p ON a.patient_id = p.id
-                    WHERE a.id = ?
-                    """;
-
-            try (Connection conn = DatabaseConnection.getConnection();
-                 PreparedStatement updateStmt = conn.prepareStatement(updateQuery);
-                 PreparedStatement fetchStmt = conn.prepareStatement(fetchEmailQuery)) {
-
-                // Update appointment status in database
-                updateStmt.setString(1, status);
-                updateStmt.setInt(2, appointmentId);
-                updateStmt.executeUpdate();
-
-                // Fetch patient details for email notification
-                fetchStmt.setInt(1, appointmentId);
-                ResultSet rs = fetchStmt.executeQuery();
+        dialog.showAndWait().ifPresent(status -> saveChange(() -> updateStatusAndNotify(appointmentId, status),
+                emailed -> loadAppointments(emailed ? "Status updated and email sent to patient."
+                        : "Status: Appointment status updated."),
+                "Database error occurred."));
+    }
 
-                if (rs.next()) {
-                    // Extract patient details from result set
-                    String patientName = rs.getString("name");
-                    String patientEmail = rs.getString("address");
-                    String date = rs.getString("appointment_date");
-                    String time = rs.getString("start_time");
-
-                    // Create email subject and body
-                    String subject = "Your Appointment Has Been " + status;
-                    String body = String.format("""
-                            Dear %s,
-                            
-                            Your appointment scheduled for %s at %s has been %s by the doctor.
-                            
-                            Thank you for using City Hospital RPMS.
-                            
-                            Best regards,
-                            City Hospital
-                            """, patientName, date, time, status.toLowerCase());
-
-                    // Send email notification to patient
-                    Notifiable notifier = new EmailNotification();
-                    notifier.sendNotification(subject, body, patientEmail);
-
-                    statusLabel.setText("Status updated and email sent to patient.");
-                }
+    /**
+     * Sets an appointment's status and emails the patient about it (database threads)
+     * @param appointmentId Appointment to update
+     * @param status New status, "Accepted" or "Rejected"
+     * @return true if the patient was found and emailed
+     * @throws SQLException if the update fails
+     */
+    private boolean updateStatusAndNotify(int appointmentId, String status) throws SQLException {
+        // SQL queries for updating status and fetching patient details
+        String updateQuery = "UPDATE appointments SET status = ? WHERE id = ?";
+        String fetchEmailQuery = """
+                SELECT p.name, p.address, a.appointment_date, a.start_time
+                FROM appointments a
+                JOIN patients p ON a.patient_id = p.id
+                WHERE a.id = ?
+                """;
+
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement updateStmt = conn.prepareStatement(updateQuery);
+             PreparedStatement fetchStmt = conn.prepareStatement(fetchEmailQuery)) {
+
+            // Update appointment status in database
+            updateStmt.setString(1, status);
+            updateStmt.setInt(2, appointmentId);
+            updateStmt.executeUpdate();
 
-                viewAppointments(); // Refresh the appointments list
+            // Fetch patient details for email notification
+            fetchStmt.setInt(1, appointmentId);
+            ResultSet rs = fetchStmt.executeQuery();
 
-            } catch (SQLException e) {
-                e.printStackTrace();
-                statusLabel.setText("Database error occurred.");
+            if (rs.next()) {
+                // Extract patient details from result set
+                String patientName = rs.getString("name");
+                String patientEmail = rs.getString("address");
+                String date = rs.getString("appointment_date");
+                String time = rs.getString("start_time");
+
+                // Create email subject and body
+                String subject = "Your Appointment Has Been " + status;
+                String body = String.format("""
+                        Dear %s,
+                        
+                        Your appointment scheduled for %s at %s has been %s by the doctor.
+                        
+                        Thank you for using City Hospital RPMS.
+                        
+                        Best regards,
+                        City Hospital
+                        """, patientName, date, time, status.toLowerCase());
+
+                // Send email notification to patient
+                Notifiable notifier = new EmailNotification();
+                notifier.sendNotification(subject, body, patientEmail);
+                return true;
             }
-        });
+        }
+        return false;
     }
 
     // Method to view patient information for selected appointment
@@ -398,6 +462,60 @@ public class DoctorAppointment extends Application {
         // Extract appointment ID
         int appointmentId = extractAppointmentId(selected);
 
+        statusLabel.setText("Status: Loading patient information...");
+        AsyncDatabase.load(stage, () -> queryPatientInfo(appointmentId), info -> {
+            if (info == null) {
+                statusLabel.setText("Status: No patient information found.");
+                return;
+            }
+            statusLabel.setText("Status: Ready");
+
+            // Create dialog to display patient information
+            Dialog<Void> dialog = new Dialog<>();
+            dialog.setTitle("Patient Information");
+            dialog.getDialogPane().setStyle("-fx-background-color: " + SECTION_BACKGROUND + ";");
+
+            // Create grid layout for patient data
+            GridPane grid = new GridPane();
+            grid.setHgap(10);
+            grid.setVgap(10);
+            grid.setPadding(new Insets(20));
+
+            // Add patient details to grid
+            addPatientInfoRow(grid, 0, "Patient ID:", info.id());
+            addPatientInfoRow(grid, 1, "Name:", info.name());
+            addPatientInfoRow(grid, 2, "Gender:", info.gender());
+            addPatientInfoRow(grid, 3, "Date of Birth:", info.dob());
+            addPatientInfoRow(grid, 4, "Phone:", info.phone());
+            addPatientInfoRow(grid, 5, "Address:", info.address());
+
+            dialog.getDialogPane().setContent(grid);
+            dialog.getDialogPane().getButtonTypes().add(ButtonType.OK);
+
+            // Style the OK button
+            Button okButton = (Button) dialog.getDialogPane().lookupButton(ButtonType.OK);
+            okButton.setStyle(BUTTON_STYLE);
+
+            dialog.showAndWait();
+        }, e -> {
+            e.printStackTrace();
+            statusLabel.setText("Status: Error retrieving patient information.");
+        });
+    }
+
+    /**
+     * Patient details shown for an appointment
+     */
+    private record PatientInfo(String id, String name, String gender, String dob, String phone, String address) {
+    }
+
+    /**
+     * Reads the patient behind an appointment (database threads)
+     * @param appointmentId Appointment to look up
+     * @return The patient's details, or null if the appointment has none
+     * @throws SQLException if the patient cannot be read
+     */
+    private PatientInfo queryPatientInfo(int appointmentId) throws SQLException {
         // SQL query to fetch patient details
         String query = """
                 SELECT p.id, p.name, p.gender, p.dob, p.phone, p.address
@@ -413,40 +531,11 @@ public class DoctorAppointment extends Application {
             ResultSet rs = stmt.executeQuery();
 
             if (rs.next()) {
-                // Create dialog to display patient information
-                Dialog<Void> dialog = new Dialog<>();
-                dialog.setTitle("Patient Information");
-                dialog.getDialogPane().setStyle("-fx-background-color: " + SECTION_BACKGROUND + ";");
-
-                // Create grid layout for patient data
-                GridPane grid = new GridPane();
-                grid.setHgap(10);
-                grid.setVgap(10);
-                grid.setPadding(new Insets(20));
-
-                // Add patient details to grid
-                addPatientInfoRow(grid, 0, "Patient ID:", rs.getString("id"));
-                addPatientInfoRow(grid, 1, "Name:", rs.getString("name"));
-                addPatientInfoRow(grid, 2, "Gender:", rs.getString("gender"));
-                addPatientInfoRow(grid, 3, "Date of Birth:", rs.getString("dob"));
-                addPatientInfoRow(grid, 4, "Phone:", rs.getString("phone"));
-                addPatientInfoRow(grid, 5, "Address:", rs.getString("address"));
-
-                dialog.getDialogPane().setContent(grid);
-                dialog.getDialogPane().getButtonTypes().add(ButtonType.OK);
-
-                // Style the OK button
-                Button okButton = (Button) dialog.getDialogPane().lookupButton(ButtonType.OK);
-                okButton.setStyle(BUTTON_STYLE);
-
-                dialog.showAndWait();
-            } else {
-                statusLabel.setText("Status: No patient information found.");
+                return new PatientInfo(rs.getString("id"), rs.getString("name"), rs.getString("gender"),
+                        rs.getString("dob"), rs.getString("phone"), rs.getString("address"));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            statusLabel.setText("Status: Error retrieving patient information.");
         }
+        return null;
     }
 
     // Helper method to add a row of patient information to the grid
@@ -485,22 +574,29 @@ public class DoctorAppointment extends Application {
         cancelBtn.setStyle("-fx-background-color: #e74c3c; -fx-text-fill: white; -fx-font-size: 13px; -fx-font-weight: bold; -fx-background-radius: 6px;");
 
         // Process new date input
-        dialog.showAndWait().ifPresent(newDate -> {
-            String query = "UPDATE appointments SET appointment_date = ? WHERE id = ?";
-            try (Connection conn = DatabaseConnection.getConnection();
-                 PreparedStatement stmt = conn.prepareStatement(query)) {
-
-                // Update appointment date in database
-                stmt.setString(1, newDate);
-                stmt.setInt(2, id);
-                stmt.executeUpdate();
-                viewAppointments(); // Refresh list
-                statusLabel.setText("Rescheduled to " + newDate);
-            } catch (SQLException e) {
-                e.printStackTrace();
-                statusLabel.setText("Reschedule failed.");
+        dialog.showAndWait().ifPresent(newDate -> saveChange(() -> updateAppointment(
+                        "UPDATE appointments SET appointment_date = ? WHERE id = ?", newDate, id),
+                updated -> loadAppointments("Rescheduled to " + newDate), "Reschedule failed."));
+    }
+
+    /**
+     * Runs a single-row appointment update (database threads)
+     * @param sql Update whose last parameter is the appointment ID
+     * @param value Value for the first parameter, or null if the update has none
+     * @param appointmentId Appointment to update
+     * @return Number of rows changed
+     * @throws SQLException if the update fails
+     */
+    private int updateAppointment(String sql, String value, int appointmentId) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            if (value != null) {
+                stmt.setString(index++, value);
             }
-        });
+            stmt.setInt(index, appointmentId);
+            return stmt.executeUpdate();
+        }
     }
 
     // Method to cancel an appointment
@@ -529,19 +625,10 @@ public class DoctorAppointment extends Application {
         // Process user confirmation
         confirmAlert.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
-                String query = "UPDATE appointments SET status = 'Cancelled' WHERE id = ?";
-                try (Connection conn = DatabaseConnection.getConnection();
-                     PreparedStatement stmt = conn.prepareStatement(query)) {
-
-                    // Update appointment status to cancelled
-                    stmt.setInt(1, id);
-                    stmt.executeUpdate();
-                    viewAppointments(); // Refresh list
-                    statusLabel.setText("Appointment cancelled successfully.");
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                    statusLabel.setText("Error cancelling appointment.");
-                }
+                // Update appointment status to cancelled
+                saveChange(() -> updateAppointment("UPDATE appointments SET status = 'Cancelled' WHERE id = ?", null, id),
+                        updated -> loadAppointments("Appointment cancelled successfully."),
+                        "Error cancelling appointment.");
             }
         });
     }
@@ -21,6 +21,7 @@ import java.util.List;
  */
 public class DoctorDashboard extends Application {
     private int doctorId; // Default doctor ID (would normally be set during login)
+    private Stage stage;  // Dashboard window; its background loads end when it closes
 
     DoctorDashboard(int doctorId){
         this.doctorId = doctorId;
@@ -33,22 +34,20 @@ public class DoctorDashboard extends Application {
      */
     @Override
     public void start(Stage stage) {
-        // Fetch doctor information from database
-        String doctorName = getDoctorName(doctorId);
-        String doctorUsername = getDoctorUsername(doctorId);
-
-        // Get data for dashboard sections
-        List<String> patients = getAssignedPatients(doctorId);
-        List<String> appointments = getAppointmentsForToday(doctorId);
+        this.stage = stage;
 
         // ========== UI COMPONENT CREATION ========== //
+        // Sections open with placeholders; their data is loaded in the background once the window is up
 
         // 1. Header Section (contains hospital name, welcome message, logout)
-        VBox header = createHeader(stage, doctorName);
+        Label welcomeLabel = new Label("Welcome");
+        VBox header = createHeader(stage, welcomeLabel);
 
         // 2. Patients Section (lists patients and related actions)
+        ListView<String> patientsList = createStyledListView(List.of());
+        patientsList.setPlaceholder(new Label("Loading patients..."));
         VBox patientsSection = createSection("\uD83D\uDC68\u200D⚕️ Your Patients",
-                createStyledListView(patients),
+                patientsList,
                 createHorizontalButtonGroup(
                         createButton("View Vitals", e -> openVitalsPage()),
                         createButton("Provide Feedback", e -> openProvideFeedbackWindow()),
@@ -57,8 +56,9 @@ public class DoctorDashboard extends Application {
         );
 
         // 3. Appointments Section (today's schedule and actions)
+        VBox appointmentsList = createAppointmentsSection(List.of("Loading appointments..."));
         VBox appointmentsSection = createSection("\uD83D\uDCC5 Today's Appointments",
-                createAppointmentsSection(appointments),
+                appointmentsList,
                 createHorizontalButtonGroup(
                         createButton("Schedule Appointment", e -> openAppointmentSchedulingWindow()),
                         createButton("Start Video Call", e -> openVideoCallPage())
@@ -66,11 +66,17 @@ public class DoctorDashboard extends Application {
         );
 
         // 4. Tools Section (doctor utilities)
+        Button consultationButton = createButton("Start Consultation", e -> openChatClient());
+        // Unread messages come from the chat server's counters, not from chat_messages
+        ChatClient.attachUnreadBadge(consultationButton, () -> {
+            String doctorUsername = getDoctorUsername(doctorId);
+            return doctorUsername == null ? -1 : getDoctorUserIdFromUsername(doctorUsername);
+        });
         VBox toolsSection = createSection("\uD83D\uDEE0️ Doctor Tools",
                 createHorizontalButtonGroup(
                         createButton("View Health Trends", e -> openViewTrendsDoctorPage()),
-                        createButton("Generate Report", e -> GenerateReport.generatePatientReportUI(doctorId)),
-                        createButton("Start Consultation", e -> openChatClient(doctorUsername))
+                        createButton("Generate Report", e -> GenerateReport.generatePatientReportUI(stage, doctorId)),
+                        consultationButton
                 )
         );
 
@@ -97,23 +103,41 @@ public class DoctorDashboard extends Application {
         stage.setScene(scene);
         stage.setTitle("Doctor Dashboard - Lifeline Remote Hospital");
         stage.show();
+
+        // ========== BACKGROUND LOADS ========== //
+
+        AsyncDatabase.load(stage, () -> getDoctorName(doctorId),
+                doctorName -> welcomeLabel.setText("Welcome, Dr. " + doctorName));
+        AsyncDatabase.load(stage, () -> getAssignedPatients(doctorId), patients -> {
+            patientsList.setPlaceholder(new Label("No patients assigned."));
+            patientsList.getItems().setAll(patients);
+        }, e -> {
+            e.printStackTrace();
+            patientsList.setPlaceholder(new Label("Could not load patients."));
+        });
+        AsyncDatabase.load(stage, () -> getAppointmentsForToday(doctorId), appointments ->
+                appointmentsList.getChildren().setAll(createAppointmentsSection(
+                        appointments.isEmpty() ? List.of("No appointments today.") : appointments).getChildren()), e -> {
+            e.printStackTrace();
+            appointmentsList.getChildren().setAll(
+                    createAppointmentsSection(List.of("Could not load today's appointments.")).getChildren());
+        });
     }
 
     /**
      * Creates the header section with hospital name, welcome message, and logout button.
      *
-     * @param stage      The main application stage (for logout functionality)
-     * @param doctorName The name of the logged-in doctor
+     * @param stage        The main application stage (for logout functionality)
+     * @param welcomeLabel Label greeting the doctor; named once the doctor's record is loaded
      * @return Configured VBox containing header components
      */
-    private VBox createHeader(Stage stage, String doctorName) {
+    private VBox createHeader(Stage stage, Label welcomeLabel) {
         // Hospital branding
         Label hospitalNameLabel = new Label("Lifeline Remote Hospital");
         hospitalNameLabel.setFont(Font.font("Segoe UI", FontWeight.BOLD, 38));
         hospitalNameLabel.setTextFill(Color.web("#87CEEB")); // Sky blue color
 
         // Personalized welcome message
-        Label welcomeLabel = new Label("Welcome, Dr. " + doctorName);
         welcomeLabel.setFont(Font.font("Segoe UI", FontWeight.SEMI_BOLD, 24));
         welcomeLabel.setTextFill(Color.web("#D0E8F2")); // Light blue color
 
@@ -270,29 +294,36 @@ public class DoctorDashboard extends Application {
     }
 
     /**
-     * Launches the chat client for doctor-patient communication.
-     *
-     * @param doctorUsername The username of the logged-in doctor
+     * Launches the chat client for doctor-patient communication, once the doctor's user
+     * account has been looked up in the background.
      */
-    private void openChatClient(String doctorUsername) {
-        // Validate username input
-        if (doctorUsername == null || doctorUsername.isBlank()) {
-            showAlert("Doctor username not found.");
-            return;
-        }
-
-        // Get additional doctor information needed for chat
-        int doctorUserId = getDoctorUserIdFromUsername(doctorUsername);
-        String doctorRole = getDoctorRole(doctorUserId);
-
-        // Verify information was retrieved successfully
-        if (doctorUserId == -1 || doctorRole == null) {
-            showAlert("Failed to retrieve doctor information.");
-            return;
-        }
+    private void openChatClient() {
+        AsyncDatabase.load(stage, () -> {
+            // Get the doctor information needed for chat
+            String doctorUsername = getDoctorUsername(doctorId);
+            if (doctorUsername == null || doctorUsername.isBlank()) return null;
+            int doctorUserId = getDoctorUserIdFromUsername(doctorUsername);
+            return new ChatIdentity(doctorUserId, getDoctorRole(doctorUserId));
+        }, identity -> {
+            // Verify information was retrieved successfully
+            if (identity == null) {
+                showAlert("Doctor username not found.");
+            } else if (identity.userId() == -1 || identity.role() == null) {
+                showAlert("Failed to retrieve doctor information.");
+            } else {
+                // Launch chat interface with proper identification
+                new ChatClient(identity.userId(), identity.role()).start(new Stage());
+            }
+        });
+    }
 
-        // Launch chat interface with proper identification
-        new ChatClient(doctorUserId, doctorRole).start(new Stage());
+    /**
+     * The doctor's user account, as the chat client identifies users.
+     *
+     * @param userId ID in the users table, or -1 if not found
+     * @param role   Role from the users table, or null if not found
+     */
+    private record ChatIdentity(int userId, String role) {
     }
 
     /**
@@ -316,13 +347,9 @@ public class DoctorDashboard extends Application {
      * @return The user ID if found, -1 otherwise
      */
     private int getDoctorUserIdFromUsername(String username) {
-        try (Connection con = DatabaseConnection.getConnection()) {
-            String query = "SELECT id FROM hospital_db.users WHERE username = ?";
-            try (PreparedStatement stmt = con.prepareStatement(query)) {
-                stmt.setString(1, username);
-                ResultSet rs = stmt.executeQuery();
-                if (rs.next()) return rs.getInt("id");
-            }
+        try {
+            IdentityDirectory.User user = IdentityDirectory.getInstance().userByUsername(username);
+            if (user != null) return user.id();
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -336,13 +363,9 @@ public class DoctorDashboard extends Application {
      * @return The user's role if found, null otherwise
      */
     private String getDoctorRole(int userId) {
-        try (Connection con = DatabaseConnection.getConnection()) {
-            String query = "SELECT role FROM hospital_db.users WHERE id = ?";
-            try (PreparedStatement stmt = con.prepareStatement(query)) {
-                stmt.setInt(1, userId);
-                ResultSet rs = stmt.executeQuery();
-                if (rs.next()) return rs.getString("role");
-            }
+        try {
+            IdentityDirectory.User user = IdentityDirectory.getInstance().user(userId);
+            if (user != null) return user.role();
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -356,13 +379,9 @@ public class DoctorDashboard extends Application {
      * @return The doctor's name if found, "Unknown" otherwise
      */
     private String getDoctorName(int doctorId) {
-        try (Connection con = DatabaseConnection.getConnection()) {
-            String sql = "SELECT name FROM hospital_db.doctors WHERE id = ?";
-            try (PreparedStatement stmt = con.prepareStatement(sql)) {
-                stmt.setInt(1, doctorId);
-                ResultSet rs = stmt.executeQuery();
-                if (rs.next()) return rs.getString("name");
-            }
+        try {
+            IdentityDirectory.Member doctor = IdentityDirectory.getInstance().doctor(doctorId);
+            if (doctor != null) return doctor.name();
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -376,13 +395,11 @@ public class DoctorDashboard extends Application {
      * @return The username if found, null otherwise
      */
     private String getDoctorUsername(int doctorId) {
-        try (Connection con = DatabaseConnection.getConnection()) {
-            String query = "SELECT username FROM hospital_db.users WHERE id = (SELECT user_id FROM hospital_db.doctors WHERE id = ?)";
-            try (PreparedStatement stmt = con.prepareStatement(query)) {
-                stmt.setInt(1, doctorId);
-                ResultSet rs = stmt.executeQuery();
-                if (rs.next()) return rs.getString("username");
-            }
+        try {
+            IdentityDirectory directory = IdentityDirectory.getInstance();
+            IdentityDirectory.Member doctor = directory.doctor(doctorId);
+            IdentityDirectory.User user = doctor == null ? null : directory.user(doctor.userId());
+            if (user != null) return user.username();
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -394,23 +411,12 @@ public class DoctorDashboard extends Application {
      *
      * @param doctorId The ID of the doctor
      * @return List of patient names with person emoji prefix
+     * @throws SQLException if the assignments cannot be read
      */
-    private List<String> getAssignedPatients(int doctorId) {
+    private List<String> getAssignedPatients(int doctorId) throws SQLException {
         List<String> list = new ArrayList<>();
-        try (Connection con = DatabaseConnection.getConnection()) {
-            String sql = """
-                SELECT DISTINCT p.id, p.name 
-                FROM hospital_db.doctorpatientassignment dpa
-                JOIN hospital_db.patients p ON dpa.PatientID = p.id
-                WHERE dpa.DoctorID = ?
-                """;
-            try (PreparedStatement stmt = con.prepareStatement(sql)) {
-                stmt.setInt(1, doctorId);
-                ResultSet rs = stmt.executeQuery();
-                while (rs.next()) list.add("👤 " + rs.getString("name"));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        for (PatientAssignments.AssignedPatient patient : PatientAssignments.getInstance().forDoctor(doctorId)) {
+            list.add("👤 " + patient.name());
         }
         return list;
     }
@@ -424,20 +430,20 @@ public class DoctorDashboard extends Application {
      * - Appointment time
      * - Patient name
      * - Appointment status in brackets
+     * @throws SQLException if the appointments cannot be read
      */
-    private List<String> getAppointmentsForToday(int doctorId) {
+    private List<String> getAppointmentsForToday(int doctorId) throws SQLException {
         List<String> list = new ArrayList<>();
         try (Connection con = DatabaseConnection.getConnection()) {
             String sql = "SELECT a.start_time, p.name, a.status FROM hospital_db.appointments a JOIN hospital_db.patients p ON a.patient_id = p.id WHERE a.doctor_id = ? AND a.appointment_date = CURDATE()";
             try (PreparedStatement stmt = con.prepareStatement(sql)) {
                 stmt.setInt(1, doctorId);
-                ResultSet rs = stmt.executeQuery();
-                while (rs.next()) {
-                    list.add("⏰ " + rs.getString("start_time") + " - " + rs.getString("name") + " [" + rs.getString("status") + "]");
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        list.add("⏰ " + rs.getString("start_time") + " - " + rs.getString("name") + " [" + rs.getString("status") + "]");
+                    }
                 }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return list;
     }
@@ -12,6 +12,8 @@ import javafx.scene.text.*;
 import javafx.stage.Stage;
 import java.sql.*;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * DoctorVideoCall - Interface for doctors to manage video call appointments.
@@ -19,7 +21,7 @@ import java.time.LocalDateTime;
  */
 public class DoctorVideoCall extends Application {
     private int doctorId; // ID of the logged-in doctor
-    private Connection conn; // Database connection
+    private Stage stage; // Window the database loads belong to
 
     // Theme colors for consistent UI styling
     private static final String BACKGROUND_COLOR = "#0d1b2a"; // Dark blue background
@@ -42,61 +44,63 @@ public class DoctorVideoCall extends Application {
      */
     @Override
     public void start(Stage stage) {
-        try {
-            this.conn = DatabaseConnection.getConnection();
-
-            // ========== MAIN LAYOUT ========== //
-            VBox mainLayout = new VBox(15); // 15px vertical spacing
-            mainLayout.setPadding(new Insets(20)); // 20px padding around edges
-            mainLayout.setStyle("-fx-background-color: " + BACKGROUND_COLOR + ";");
-
-            // ========== HEADER SECTION ========== //
-            Label headerLabel = new Label("Video Call Appointments");
-            headerLabel.setFont(Font.font("Segoe UI", FontWeight.BOLD, 24));
-            headerLabel.setTextFill(ACCENT_COLOR);
-
-            // ========== APPOINTMENTS TABLE ========== //
-            TableView<AppointmentData> table = new TableView<>();
-            table.setMinWidth(600); // Minimum width for better visibility
-            table.setStyle("-fx-background-color: " + SECTION_BACKGROUND + ";");
-
-            // Create table columns
-            TableColumn<AppointmentData, Integer> idColumn = createTableColumn("Appointment ID", "appointmentId");
-            TableColumn<AppointmentData, String> patientColumn = createTableColumn("Patient ID", "patientId");
-            TableColumn<AppointmentData, LocalDateTime> timeColumn = createTableColumn("Appointment Time", "appointmentTime");
-            TableColumn<AppointmentData, String> statusColumn = createTableColumn("Status", "status");
-
-            table.getColumns().addAll(idColumn, patientColumn, timeColumn, statusColumn);
-
-            // ========== ACTION BUTTONS ========== //
-            HBox buttonBox = new HBox(15); // 15px horizontal spacing
-            buttonBox.setAlignment(Pos.CENTER);
-
-            Button acceptButton = createStyledButton("Accept Appointment");
-            Button rejectButton = createStyledButton("Reject Appointment");
-
-            // Set button actions
-            acceptButton.setOnAction(e -> handleAppointmentResponse(table, true));
-            rejectButton.setOnAction(e -> handleAppointmentResponse(table, false));
-
-            buttonBox.getChildren().addAll(acceptButton, rejectButton);
-
-            // ========== FINAL ASSEMBLY ========== //
-            mainLayout.getChildren().addAll(headerLabel, table, buttonBox);
-
-            // Scene setup
-            Scene scene = new Scene(mainLayout, 800, 500);
-            stage.setTitle("Doctor Video Call Appointments");
-            stage.setScene(scene);
-            stage.show();
-
-            // Load initial appointment data
-            getAppointments(table);
-
-        } catch (SQLException e) {
-            showErrorAlert("Database Error", "Error connecting to database");
+        this.stage = stage;
+
+        // ========== MAIN LAYOUT ========== //
+        VBox mainLayout = new VBox(15); // 15px vertical spacing
+        mainLayout.setPadding(new Insets(20)); // 20px padding around edges
+        mainLayout.setStyle("-fx-background-color: " + BACKGROUND_COLOR + ";");
+
+        // ========== HEADER SECTION ========== //
+        Label headerLabel = new Label("Video Call Appointments");
+        headerLabel.setFont(Font.font("Segoe UI", FontWeight.BOLD, 24));
+        headerLabel.setTextFill(ACCENT_COLOR);
+
+        // ========== APPOINTMENTS TABLE ========== //
+        TableView<AppointmentData> table = new TableView<>();
+        table.setMinWidth(600); // Minimum width for better visibility
+        table.setStyle("-fx-background-color: " + SECTION_BACKGROUND + ";");
+        table.setPlaceholder(new Label("Loading appointments..."));
+
+        // Create table columns
+        TableColumn<AppointmentData, Integer> idColumn = createTableColumn("Appointment ID", "appointmentId");
+        TableColumn<AppointmentData, String> patientColumn = createTableColumn("Patient ID", "patientId");
+        TableColumn<AppointmentData, LocalDateTime> timeColumn = createTableColumn("Appointment Time", "appointmentTime");
+        TableColumn<AppointmentData, String> statusColumn = createTableColumn("Status", "status");
+
+        table.getColumns().addAll(idColumn, patientColumn, timeColumn, statusColumn);
+
+        // ========== ACTION BUTTONS ========== //
+        HBox buttonBox = new HBox(15); // 15px horizontal spacing
+        buttonBox.setAlignment(Pos.CENTER);
+
+        Button acceptButton = createStyledButton("Accept Appointment");
+        Button rejectButton = createStyledButton("Reject Appointment");
+
+        // Set button actions
+        acceptButton.setOnAction(e -> handleAppointmentResponse(table, buttonBox, true));
+        rejectButton.setOnAction(e -> handleAppointmentResponse(table, buttonBox, false));
+
+        buttonBox.getChildren().addAll(acceptButton, rejectButton);
+
+        // ========== FINAL ASSEMBLY ========== //
+        mainLayout.getChildren().addAll(headerLabel, table, buttonBox);
+
+        // Scene setup
+        Scene scene = new Scene(mainLayout, 800, 500);
+        stage.setTitle("Doctor Video Call Appointments");
+        stage.setScene(scene);
+        stage.show();
+
+        // Load initial appointment data in the background
+        AsyncDatabase.load(stage, this::getAppointments, appointments -> {
+            table.setPlaceholder(new Label("No pending video call requests."));
+            table.getItems().setAll(appointments);
+        }, e -> {
             e.printStackTrace();
-        }
+            table.setPlaceholder(new Label("Could not load appointments."));
+            showErrorAlert("Database Error", "Error connecting to database");
+        });
     }
 
     // ========== GETTERS/SETTERS ========== //
@@ -109,10 +113,6 @@ public class DoctorVideoCall extends Application {
         this.doctorId = doctorId;
     }
 
-    public Connection getConnection() {
-        return conn;
-    }
-
     // ========== UI HELPER METHODS ========== //
 
     /**
@@ -158,41 +158,49 @@ public class DoctorVideoCall extends Application {
     /**
      * Handles doctor's response to an appointment (accept/reject)
      * @param table The appointments table
+     * @param buttons Accept/reject buttons, disabled while the update runs
      * @param accept True for accept, false for reject
      */
-    private void handleAppointmentResponse(TableView<AppointmentData> table, boolean accept) {
+    private void handleAppointmentResponse(TableView<AppointmentData> table, HBox buttons, boolean accept) {
         AppointmentData selected = table.getSelectionModel().getSelectedItem();
         if (selected != null) {
-            try {
+            buttons.setDisable(true);
+            AsyncDatabase.load(stage, () -> {
                 respondToAppointment(selected.getAppointmentId(), accept);
+                return true;
+            }, done -> {
+                buttons.setDisable(false);
                 table.getItems().remove(selected);
                 showAlert("Success", "Appointment " + (accept ? "accepted" : "rejected") + " successfully");
-            } catch (SQLException ex) {
+            }, ex -> {
+                buttons.setDisable(false);
                 showErrorAlert("Database Error", "Failed to update appointment status");
                 ex.printStackTrace();
-            }
+            });
         } else {
             showAlert("No Selection", "Please select an appointment first");
         }
     }
 
     /**
-     * Loads pending video call appointments from database
-     * @param table The table to populate with appointments
+     * Loads pending video call appointments from database (database threads)
+     * @return Pending appointments, earliest first
      * @throws SQLException If database access fails
      */
-    public void getAppointments(TableView<AppointmentData> table) throws SQLException {
+    public List<AppointmentData> getAppointments() throws SQLException {
+        List<AppointmentData> appointments = new ArrayList<>();
         String query = """
             SELECT id, patient_id, appointment_time, status
             FROM video_call_appointments
             WHERE doctor_id = ? AND status = 'PENDING'
             ORDER BY appointment_time ASC
         """;
-        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setInt(1, doctorId);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    table.getItems().add(new AppointmentData(
+                    appointments.add(new AppointmentData(
                             rs.getInt("id"),
                             rs.getInt("patient_id"),
                             rs.getTimestamp("appointment_time").toLocalDateTime(),
@@ -201,10 +209,11 @@ public class DoctorVideoCall extends Application {
                 }
             }
         }
+        return appointments;
     }
 
     /**
-     * Updates appointment status in database
+     * Updates appointment status in database (database threads)
      * @param appointmentId The ID of the appointment to update
      * @param accept Whether to accept (true) or reject (false)
      * @throws SQLException If database update fails
@@ -218,7 +227,8 @@ public class DoctorVideoCall extends Application {
             SET status = ?, meeting_link = ?
             WHERE id = ? AND doctor_id = ?
         """;
-        try (PreparedStatement stmt = conn.prepareStatement(update)) {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(update)) {
             stmt.setString(1, status);
             stmt.setString(2, meetingLink);
             stmt.setInt(3, appointmentId);
@@ -226,18 +236,19 @@ public class DoctorVideoCall extends Application {
             stmt.executeUpdate();
 
             if (accept) {
-                sendEmailToBothUsers(appointmentId, meetingLink);
+                sendEmailToBothUsers(conn, appointmentId, meetingLink);
             }
         }
     }
 
     /**
      * Sends confirmation email to both doctor and patient
+     * @param conn Connection of the status update
      * @param appointmentId The appointment ID
      * @param link The meeting link (for accepted appointments)
      * @throws SQLException If database access fails
      */
-    private void sendEmailToBothUsers(int appointmentId, String link) throws SQLException {
+    private void sendEmailToBothUsers(Connection conn, int appointmentId, String link) throws SQLException {
         String query = """
             SELECT p.address AS patient_email, d.email AS doctor_email, a.appointment_time
             FROM video_call_appointments a
@@ -24,6 +24,18 @@ class EmailNotification implements Notifiable {
      */
     @Override
     public void sendNotification(String subject, String message, String recipient) {
+        trySendNotification(subject, message, recipient);
+    }
+
+    /**
+     * Sends an email notification to the specified recipient.
+     * @param subject The subject line of the email
+     * @param message The body content of the email
+     * @param recipient The recipient's email address
+     * @return true if the message was handed to the SMTP server, false if sending failed
+     */
+    @Override
+    public boolean trySendNotification(String subject, String message, String recipient) {
         // Configure SMTP server properties
         Properties props = new Properties();
         props.put("mail.smtp.auth", "true"); // Enable authentication
@@ -50,12 +62,13 @@ class EmailNotification implements Notifiable {
             // Send the email
             Transport.send(email);
             System.out.println("✅ Email sent to " + recipient); // Success log
+            return true;
 
         } catch (MessagingException e) {
             // Error handling
             e.printStackTrace();
             System.out.println("❌ Failed to send email to " + recipient); // Error log
-
+            return false;
         }
     }
 }
\ No newline at end of file
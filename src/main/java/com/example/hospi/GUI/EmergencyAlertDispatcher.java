@@ -0,0 +1,285 @@
+package com.example.hospi.GUI;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EmergencyAlertDispatcher - Delivers emergency alert notifications off the caller's thread.
+ * Callers that have already recorded an alert in emergency_alerts only enqueue an event;
+ * background workers look up the patient's assigned doctors and notify each of them,
+ * retrying failed deliveries, so slow mail servers never hold up vitals uploads.
+ */
+class EmergencyAlertDispatcher {
+
+    private static final String ASSIGNED_DOCTORS_SQL = "SELECT d.email, d.name FROM doctors d " +
+            "JOIN doctorpatientassignment da ON d.id = da.DoctorID " +
+            "WHERE da.PatientID = ?";
+
+    private static final EmergencyAlertDispatcher INSTANCE = createDefault();
+
+    private final Notifiable notifier;
+    private final BlockingQueue<AlertEvent> queue;
+    private final int maxAttempts;
+    private final long retryBackoffMs;
+    private final List<Thread> workers = new ArrayList<>();
+
+    // Counters exposed through metrics()
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong completedEvents = new AtomicLong();
+    private final AtomicLong totalLatencyMs = new AtomicLong();
+    private final AtomicLong maxLatencyMs = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /**
+     * An alert waiting to be delivered to the patient's doctors.
+     *
+     * @param patientId  Patient the alert is about
+     * @param vitalsId   Vitals record that triggered it
+     * @param alertType  Alert category as stored in emergency_alerts
+     * @param enqueuedAt Time the event was queued, in epoch milliseconds
+     */
+    record AlertEvent(int patientId, int vitalsId, String alertType, long enqueuedAt) {
+    }
+
+    /**
+     * Snapshot of dispatcher activity.
+     *
+     * @param queueDepth     Events waiting for a worker
+     * @param queueCapacity  Maximum events the queue holds
+     * @param enqueued       Events accepted since start
+     * @param rejected       Events dropped because the queue was full
+     * @param delivered      Notifications sent successfully
+     * @param failed         Notifications abandoned after the last retry
+     * @param retries        Delivery attempts that were retried
+     * @param avgLatencyMs   Mean time from enqueue to the last notification of an event
+     * @param maxLatencyMs   Longest such time seen
+     */
+    record Metrics(int queueDepth, int queueCapacity, long enqueued, long rejected, long delivered,
+                   long failed, long retries, double avgLatencyMs, long maxLatencyMs) {
+
+        /**
+         * @return The snapshot as Prometheus gauges and counters
+         */
+        String prometheus() {
+            return "hospi_alerts_queue_depth " + queueDepth + "\n"
+                    + "hospi_alerts_queue_capacity " + queueCapacity + "\n"
+                    + "hospi_alerts_enqueued_total " + enqueued + "\n"
+                    + "hospi_alerts_rejected_total " + rejected + "\n"
+                    + "hospi_alerts_delivered_total " + delivered + "\n"
+                    + "hospi_alerts_failed_total " + failed + "\n"
+                    + "hospi_alerts_retries_total " + retries + "\n"
+                    + String.format(Locale.ROOT, "hospi_alerts_latency_ms_avg %.1f\n", avgLatencyMs)
+                    + "hospi_alerts_latency_ms_max " + maxLatencyMs + "\n";
+        }
+    }
+
+    /**
+     * Creates a dispatcher and starts its worker threads.
+     *
+     * @param notifier       Channel used to reach doctors
+     * @param queueCapacity  Maximum number of pending events
+     * @param workerCount    Number of delivery threads
+     * @param maxAttempts    Delivery attempts per doctor before giving up
+     * @param retryBackoffMs Delay before the first retry, doubled on each further attempt
+     */
+    EmergencyAlertDispatcher(Notifiable notifier, int queueCapacity, int workerCount, int maxAttempts, long retryBackoffMs) {
+        this.notifier = notifier;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoffMs = Math.max(0, retryBackoffMs);
+
+        for (int i = 0; i < Math.max(1, workerCount); i++) {
+            Thread worker = new Thread(this::runWorker, "emergency-alert-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * @return The application-wide dispatcher, configured from -Dhospi.alerts.* system properties
+     */
+    static EmergencyAlertDispatcher getInstance() {
+        return INSTANCE;
+    }
+
+    private static EmergencyAlertDispatcher createDefault() {
+        EmergencyAlertDispatcher dispatcher = new EmergencyAlertDispatcher(
+                new EmailNotification(),
+                Integer.getInteger("hospi.alerts.queueCapacity", 1_000),
+                Integer.getInteger("hospi.alerts.workers", 2),
+                Integer.getInteger("hospi.alerts.maxAttempts", 3),
+                Long.getLong("hospi.alerts.retryBackoffMs", 2_000L));
+        // Queue depth and latency appear on the -Dhospi.db.metricsPort endpoint
+        DatabaseConnection.registerMetrics("alerts", () -> dispatcher.metrics().prometheus());
+        // Give queued alerts a short grace period to go out when the application exits
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> dispatcher.shutdown(5_000), "emergency-alert-shutdown"));
+        return dispatcher;
+    }
+
+    /**
+     * Queues an alert for delivery without blocking.
+     *
+     * @param patientId Patient the alert is about
+     * @param vitalsId  Vitals record that triggered it
+     * @param alertType Alert category
+     * @return true if the event was queued, false if the queue was full or the dispatcher stopped
+     */
+    boolean submit(int patientId, int vitalsId, String alertType) {
+        AlertEvent event = new AlertEvent(patientId, vitalsId, alertType, System.currentTimeMillis());
+        if (running && queue.offer(event)) {
+            enqueued.incrementAndGet();
+            return true;
+        }
+        // The alert row is already stored, so it still shows up in EmergencyAlertPage
+        rejected.incrementAndGet();
+        System.err.println("Emergency alert queue full, notification dropped for patient " + patientId
+                + " (vitals " + vitalsId + ")");
+        return false;
+    }
+
+    /**
+     * @return A snapshot of queue depth, delivery counters and latency
+     */
+    Metrics metrics() {
+        long completed = completedEvents.get();
+        double avg = completed == 0 ? 0 : (double) totalLatencyMs.get() / completed;
+        return new Metrics(queue.size(), queue.size() + queue.remainingCapacity(), enqueued.get(), rejected.get(),
+                delivered.get(), failed.get(), retries.get(), avg, maxLatencyMs.get());
+    }
+
+    /**
+     * Stops accepting events and waits for queued events to be delivered.
+     *
+     * @param timeoutMs Maximum time to wait for the queue to drain
+     */
+    void shutdown(long timeoutMs) {
+        running = false;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!queue.isEmpty() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers.forEach(Thread::interrupt);
+    }
+
+    /**
+     * Worker loop: takes events off the queue until the dispatcher is shut down.
+     */
+    private void runWorker() {
+        while (running || !queue.isEmpty()) {
+            AlertEvent event;
+            try {
+                event = queue.poll(500, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (event == null) {
+                continue;
+            }
+
+            try {
+                deliver(event);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+
+            long latency = System.currentTimeMillis() - event.enqueuedAt();
+            completedEvents.incrementAndGet();
+            totalLatencyMs.addAndGet(latency);
+            maxLatencyMs.accumulateAndGet(latency, Math::max);
+        }
+    }
+
+    /**
+     * Resolves the patient's assigned doctors and notifies each one.
+     *
+     * @param event The alert to deliver
+     * @throws InterruptedException if the worker is interrupted while backing off
+     */
+    private void deliver(AlertEvent event) throws InterruptedException {
+        List<String[]> doctors = null;
+        for (int attempt = 1; doctors == null; attempt++) {
+            try {
+                doctors = findAssignedDoctors(event.patientId());
+            } catch (SQLException e) {
+                if (attempt >= maxAttempts) {
+                    failed.incrementAndGet();
+                    System.err.println("Could not look up doctors for alert on patient " + event.patientId()
+                            + ": " + e.getMessage());
+                    return;
+                }
+                backOff(attempt);
+            }
+        }
+
+        for (String[] doctor : doctors) {
+            String email = doctor[0];
+            String name = doctor[1];
+            String subject = "🚨 Emergency Alert for Patient ID " + event.patientId();
+            String message = "Dear Dr. " + name + ",\n\nAbnormal vitals were detected for your patient (ID: " + event.patientId() + ").\nPlease review the vitals immediately.\n\nRegards,\nHospital System";
+            System.out.println("Sending emergency alert to: " + email);
+            sendWithRetry(subject, message, email);
+        }
+    }
+
+    /**
+     * Sends one notification, retrying with exponential backoff until it succeeds or attempts run out.
+     */
+    private void sendWithRetry(String subject, String message, String recipient) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            if (notifier.trySendNotification(subject, message, recipient)) {
+                delivered.incrementAndGet();
+                return;
+            }
+            if (attempt >= maxAttempts) {
+                failed.incrementAndGet();
+                System.err.println("Giving up on emergency alert to " + recipient + " after " + attempt + " attempts");
+                return;
+            }
+            backOff(attempt);
+        }
+    }
+
+    private void backOff(int attempt) throws InterruptedException {
+        retries.incrementAndGet();
+        Thread.sleep(retryBackoffMs << Math.min(attempt - 1, 10));
+    }
+
+    /**
+     * @return Email and name of every doctor assigned to the patient
+     */
+    private List<String[]> findAssignedDoctors(int patientId) throws SQLException {
+        List<String[]> doctors = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(ASSIGNED_DOCTORS_SQL)) {
+            ps.setInt(1, patientId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    doctors.add(new String[]{rs.getString("email"), rs.getString("name")});
+                }
+            }
+        }
+        return doctors;
+    }
+}
@@ -16,6 +16,7 @@ import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
+import javafx.stage.Window;
 import javafx.stage.FileChooser;
 import javafx.scene.Node;
 import javafx.embed.swing.SwingFXUtils;
@@ -60,19 +61,22 @@ public class GenerateReport extends Application {
 
     @Override
     public void start(Stage primaryStage) {
-        generatePatientReportUI(DOCTOR_ID);
+        // The patient list belongs to a window, so there is one to show it from
+        primaryStage.setTitle("Patient Report");
+        primaryStage.setScene(new Scene(new StackPane(createInfoText("Loading patients...")), 300, 100));
+        primaryStage.show();
+        generatePatientReportUI(primaryStage, DOCTOR_ID);
     }
 
     /**
      * Generates the initial UI for selecting a patient to generate a report
      *
+     * @param owner    Window the patient choice belongs to; closing it cancels the patient list load
      * @param doctorId The ID of the doctor whose patients we want to list
      */
-    public static void generatePatientReportUI(int doctorId) {
-        Platform.runLater(() -> {
-            // Get map of patient names to IDs
-            Map<String, Integer> patientMap = getAssignedPatients(doctorId);
-
+    public static void generatePatientReportUI(Window owner, int doctorId) {
+        // Get map of patient names to IDs off the JavaFX thread, then ask on it
+        AsyncDatabase.load(owner, () -> getAssignedPatients(doctorId), patientMap -> {
             if (patientMap.isEmpty()) {
                 showAlert("No patients assigned to you.");
                 return;
@@ -80,6 +84,7 @@ public class GenerateReport extends Application {
 
             // Create a choice dialog for selecting a patient
             ChoiceDialog<String> dialog = new ChoiceDialog<>(patientMap.keySet().iterator().next(), patientMap.keySet());
+            dialog.initOwner(owner);
             dialog.setTitle("Select Patient");
             dialog.setHeaderText("Choose a patient to generate the report:");
             dialog.setContentText("Patient:");
@@ -90,6 +95,9 @@ public class GenerateReport extends Application {
                 int patientId = patientMap.get(patientName);
                 showPatientReportScreen(patientId);
             });
+        }, e -> {
+            e.printStackTrace();
+            showAlert("Could not load your assigned patients. Please try again later.");
         });
     }
 
@@ -98,34 +106,23 @@ public class GenerateReport extends Application {
      *
      * @param doctorId The ID of the doctor
      * @return Map of patient names (with IDs) to patient IDs
+     * @throws SQLException if the database cannot be read
      */
-    private static Map<String, Integer> getAssignedPatients(int doctorId) {
+    private static Map<String, Integer> getAssignedPatients(int doctorId) throws SQLException {
         Map<String, Integer> patientMap = new LinkedHashMap<>();
-        String query = """
-                SELECT DISTINCT p.id, p.name 
-                FROM hospital_db.doctorpatientassignment dpa
-                JOIN hospital_db.patients p ON dpa.PatientID = p.id
-                WHERE dpa.DoctorID = ?
-                """;
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(query)) {
-            ps.setInt(1, doctorId);
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                // Format: "Patient Name (ID: 123)"
-                String nameWithId = rs.getString("name") + " (ID: " + rs.getInt("id") + ")";
-                patientMap.put(nameWithId, rs.getInt("id"));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        for (PatientAssignments.AssignedPatient patient : PatientAssignments.getInstance().forDoctor(doctorId)) {
+            // Format: "Patient Name (ID: 123)"
+            String nameWithId = patient.name() + " (ID: " + patient.id() + ")";
+            patientMap.put(nameWithId, patient.id());
         }
 
         return patientMap;
     }
 
     /**
-     * Creates and displays the full patient report screen
+     * Creates and displays the full patient report screen. The window opens at once and the
+     * report fills in when its queries, run in the background, have finished
      *
      * @param patientId The ID of the patient to generate the report for
      */
@@ -133,55 +130,86 @@ public class GenerateReport extends Application {
         VBox reportLayout = new VBox(20);
         reportLayout.setPadding(new Insets(20));
         reportLayout.setStyle("-fx-background-color: #0d1b2a;");
+        reportLayout.getChildren().add(createInfoText("Loading report..."));
+
+        // Create scrollable container for the report
+        ScrollPane scrollPane = new ScrollPane(reportLayout);
+        scrollPane.setFitToWidth(true);
+        scrollPane.setStyle("-fx-background: #0d1b2a;");
+
+        // Display the report window
+        Stage reportStage = new Stage();
+        reportStage.setTitle("Patient Report");
+        reportStage.setScene(new Scene(scrollPane, 900, 700));
+        reportStage.show();
+
+        AsyncDatabase.load(reportStage, () -> new ReportData(
+                getPatientInfo(patientId),
+                getAppointments(patientId),
+                getPrescriptions(patientId),
+                getFeedback(patientId),
+                getEmergencyAlerts(patientId),
+                fetchVitals(patientId),
+                fetchConsultations(patientId)
+        ), data -> fillReport(reportLayout, data), e -> {
+            e.printStackTrace();
+            reportLayout.getChildren().setAll(createInfoText("Could not load the report. Please try again later."));
+        });
+    }
+
+    /**
+     * Everything a patient report shows, read from the database in one background load
+     */
+    private record ReportData(List<Text> patientInfo, List<Text> appointments, List<Text> prescriptions,
+                              List<Text> feedback, List<Text> emergencyAlerts,
+                              Map<String, List<VitalDataPoint>> vitals, Map<String, Integer> consultations) {
+    }
+
+    /**
+     * Replaces the loading message with the report sections
+     *
+     * @param reportLayout The report's layout
+     * @param data         The loaded report
+     */
+    private static void fillReport(VBox reportLayout, ReportData data) {
+        reportLayout.getChildren().clear();
 
         // Add all report sections
         reportLayout.getChildren().add(createSectionTitle("Patient Info"));
-        reportLayout.getChildren().addAll(getPatientInfo(patientId));
+        reportLayout.getChildren().addAll(data.patientInfo());
 
         reportLayout.getChildren().add(createSectionTitle("Appointments"));
-        reportLayout.getChildren().addAll(getAppointments(patientId));
+        reportLayout.getChildren().addAll(data.appointments());
 
         reportLayout.getChildren().add(createSectionTitle("Prescriptions"));
-        reportLayout.getChildren().addAll(getPrescriptions(patientId));
+        reportLayout.getChildren().addAll(data.prescriptions());
 
         reportLayout.getChildren().add(createSectionTitle("Doctor Feedback"));
-        reportLayout.getChildren().addAll(getFeedback(patientId));
+        reportLayout.getChildren().addAll(data.feedback());
 
         reportLayout.getChildren().add(createSectionTitle("Emergency Alerts"));
-        reportLayout.getChildren().addAll(getEmergencyAlerts(patientId));
+        reportLayout.getChildren().addAll(data.emergencyAlerts());
 
         reportLayout.getChildren().add(createSectionTitle("Health Trends"));
-        addVitalsChartsToLayout(reportLayout, patientId);
+        addVitalsChartsToLayout(reportLayout, data.vitals());
 
         reportLayout.getChildren().add(createSectionTitle("🧑‍⚕️ Doctor Consultations Breakdown"));
-        reportLayout.getChildren().add(createConsultationPieChart(patientId));
+        reportLayout.getChildren().add(createConsultationPieChart(data.consultations()));
 
         // Add PDF export button
         Button downloadButton = new Button("📄 Download Report as PDF");
         downloadButton.setStyle("-fx-background-color: #00aaff; -fx-text-fill: white; -fx-font-size: 14;");
         downloadButton.setOnAction(e -> exportReportToPDF(reportLayout));
         reportLayout.getChildren().add(downloadButton);
-
-        // Create scrollable container for the report
-        ScrollPane scrollPane = new ScrollPane(reportLayout);
-        scrollPane.setFitToWidth(true);
-        scrollPane.setStyle("-fx-background: #0d1b2a;");
-
-        // Display the report window
-        Stage reportStage = new Stage();
-        reportStage.setTitle("Patient Report");
-        reportStage.setScene(new Scene(scrollPane, 900, 700));
-        reportStage.show();
     }
 
     /**
      * Adds vital signs charts to the report layout
      *
-     * @param layout    The VBox layout to add charts to
-     * @param patientId The ID of the patient
+     * @param layout     The VBox layout to add charts to
+     * @param vitalsData Vital sign names to their data points over time
      */
-    private static void addVitalsChartsToLayout(VBox layout, int patientId) {
-        Map<String, List<VitalDataPoint>> vitalsData = fetchVitals(patientId);
+    private static void addVitalsChartsToLayout(VBox layout, Map<String, List<VitalDataPoint>> vitalsData) {
         if (vitalsData.isEmpty()) {
             Text noData = new Text("⚠ No vitals recorded yet.");
             noData.setFill(Color.ORANGERED);
@@ -244,15 +272,29 @@ public class GenerateReport extends Application {
     /**
      * Creates a pie chart showing doctor consultation distribution
      *
-     * @param patientId The ID of the patient
+     * @param consultations Consultation counts by doctor name
      * @return Configured PieChart object
      */
-    private static PieChart createConsultationPieChart(int patientId) {
+    private static PieChart createConsultationPieChart(Map<String, Integer> consultations) {
         PieChart pieChart = new PieChart();
         pieChart.setTitle("Doctor Consultations");
         pieChart.setStyle("-fx-background-color: #102841;");
         pieChart.setLabelsVisible(true);
 
+        // Add data slices to the pie chart
+        consultations.forEach((doctorName, count) -> pieChart.getData().add(new PieChart.Data(doctorName, count)));
+        return pieChart;
+    }
+
+    /**
+     * Counts a patient's consultations per doctor
+     *
+     * @param patientId The ID of the patient
+     * @return Consultation counts by doctor name
+     * @throws SQLException if the database cannot be read
+     */
+    private static Map<String, Integer> fetchConsultations(int patientId) throws SQLException {
+        Map<String, Integer> consultations = new LinkedHashMap<>();
         String query = """
                 SELECT d.name AS doctor_name, COUNT(*) AS consultation_count
                 FROM hospital_db.doctorpatientassignment dpa
@@ -266,19 +308,13 @@ public class GenerateReport extends Application {
             ps.setInt(1, patientId);
             ResultSet rs = ps.executeQuery();
 
-            // Add data slices to the pie chart
             while (rs.next()) {
-                String doctorName = rs.getString("doctor_name");
-                int count = rs.getInt("consultation_count");
-                PieChart.Data slice = new PieChart.Data(doctorName, count);
-                pieChart.getData().add(slice);
+                consultations.put(rs.getString("doctor_name"), rs.getInt("consultation_count"));
             }
 
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
 
-        return pieChart;
+        return consultations;
     }
 
     // [Rest of the methods would be similarly commented...]
@@ -337,8 +373,9 @@ public class GenerateReport extends Application {
      *
      * @param patientId The ID of the patient
      * @return Map of vital sign names to their data points over time
+     * @throws SQLException if the database cannot be read
      */
-    private static Map<String, List<VitalDataPoint>> fetchVitals(int patientId) {
+    private static Map<String, List<VitalDataPoint>> fetchVitals(int patientId) throws SQLException {
         Map<String, List<VitalDataPoint>> vitalsMap = new HashMap<>();
         String query = "SELECT * FROM hospital_db.vitals WHERE patient_id = ? ORDER BY recorded_at ASC";
 
@@ -390,8 +427,6 @@ public class GenerateReport extends Application {
                 }
             }
 
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
 
         return vitalsMap;
@@ -402,8 +437,9 @@ public class GenerateReport extends Application {
      *
      * @param patientId The ID of the patient
      * @return List of Text nodes containing patient information
+     * @throws SQLException if the database cannot be read
      */
-    private static List<Text> getPatientInfo(int patientId) {
+    private static List<Text> getPatientInfo(int patientId) throws SQLException {
         List<Text> info = new ArrayList<>();
         String query = "SELECT * FROM hospital_db.patients WHERE id = ?";
 
@@ -419,8 +455,6 @@ public class GenerateReport extends Application {
                 info.add(createInfoText("Phone: " + rs.getString("phone")));
                 info.add(createInfoText("Address: " + rs.getString("address")));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return info;
     }
@@ -443,8 +477,9 @@ public class GenerateReport extends Application {
      *
      * @param patientId The ID of the patient
      * @return List of Text nodes containing appointment information
+     * @throws SQLException if the database cannot be read
      */
-    private static List<Text> getAppointments(int patientId) {
+    private static List<Text> getAppointments(int patientId) throws SQLException {
         List<Text> appointments = new ArrayList<>();
         String query = "SELECT * FROM hospital_db.appointments WHERE patient_id = ? ORDER BY appointment_date DESC";
 
@@ -460,8 +495,6 @@ public class GenerateReport extends Application {
                                 " | Status: " + rs.getString("status")
                 ));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return appointments;
     }
@@ -471,8 +504,9 @@ public class GenerateReport extends Application {
      *
      * @param patientId The ID of the patient
      * @return List of Text nodes containing prescription information
+     * @throws SQLException if the database cannot be read
      */
-    private static List<Text> getPrescriptions(int patientId) {
+    private static List<Text> getPrescriptions(int patientId) throws SQLException {
         List<Text> prescriptions = new ArrayList<>();
         String query = "SELECT * FROM hospital_db.prescriptions WHERE PatientID = ?";
 
@@ -489,8 +523,6 @@ public class GenerateReport extends Application {
                                 rs.getString("Instructions")
                 ));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return prescriptions;
     }
@@ -500,8 +532,9 @@ public class GenerateReport extends Application {
      *
      * @param patientId The ID of the patient
      * @return List of Text nodes containing feedback information
+     * @throws SQLException if the database cannot be read
      */
-    private static List<Text> getFeedback(int patientId) {
+    private static List<Text> getFeedback(int patientId) throws SQLException {
         List<Text> feedbackList = new ArrayList<>();
         String query = "SELECT * FROM hospital_db.feedback WHERE patient_id = ?";
 
@@ -516,8 +549,6 @@ public class GenerateReport extends Application {
                                 rs.getString("feedback_text") + " | Medication: " + rs.getString("medication")
                 ));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return feedbackList;
     }
@@ -527,8 +558,9 @@ public class GenerateReport extends Application {
      *
      * @param patientId The ID of the patient
      * @return List of Text nodes containing alert information
+     * @throws SQLException if the database cannot be read
      */
-    private static List<Text> getEmergencyAlerts(int patientId) {
+    private static List<Text> getEmergencyAlerts(int patientId) throws SQLException {
         List<Text> alerts = new ArrayList<>();
         String query = "SELECT * FROM hospital_db.emergency_alerts WHERE patient_id = ?";
 
@@ -537,10 +569,14 @@ public class GenerateReport extends Application {
             ps.setInt(1, patientId);
             ResultSet rs = ps.executeQuery();
             while (rs.next()) {
-                alerts.add(new Text(rs.getTimestamp("alert_time") + ": " + rs.getString("alert_type")));
+                String alert = rs.getTimestamp("alert_time") + ": " + rs.getString("alert_type");
+                int readings = rs.getInt("reading_count");
+                if (readings > 1) {
+                    // Coalesced alert: show how many readings it covers and the worst of them
+                    alert += " (" + readings + " readings, worst: " + rs.getString("worst_values") + ")";
+                }
+                alerts.add(new Text(alert));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return alerts;
     }
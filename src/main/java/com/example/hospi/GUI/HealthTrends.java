@@ -51,6 +51,7 @@ public class HealthTrends extends Application {
     public void start(Stage primaryStage) {
         initializeMainLayout();
         setupApplicationWindow(primaryStage);
+        displayVitalData(primaryStage);
     }
 
     /**
@@ -61,9 +62,9 @@ public class HealthTrends extends Application {
         mainLayout.setPadding(new Insets(20));
         mainLayout.setStyle("-fx-background-color: #0d1b2a;"); // Dark blue background
 
-        // Set up header and content areas
+        // Set up header and content areas; the charts replace this once the vitals are read
         mainLayout.setTop(buildHeader());
-        displayVitalData();
+        showCenterMessage("Loading vitals...", Color.LIGHTGRAY);
     }
 
     /**
@@ -98,27 +99,40 @@ public class HealthTrends extends Application {
     }
 
     /**
-     * Displays vital data in the main content area, either as charts or no-data message
+     * Reads the vitals in the background, then displays them as charts or a no-data message
+     * @param stage Window the load belongs to
      */
-    private void displayVitalData() {
-        Map<String, List<VitalDataPoint>> vitalsData = fetchVitals(patientId);
-
-        if (vitalsData.isEmpty()) {
-            showNoDataMessage();
-        } else {
-            displayVitalTabs(vitalsData);
-        }
+    private void displayVitalData(Stage stage) {
+        AsyncDatabase.load(stage, () -> fetchVitals(patientId), vitalsData -> {
+            if (vitalsData.isEmpty()) {
+                showNoDataMessage();
+            } else {
+                displayVitalTabs(vitalsData);
+            }
+        }, e -> {
+            e.printStackTrace();
+            showCenterMessage("⚠ Could not load vitals. Please try again later.", Color.web("#e74c3c"));
+        });
     }
 
     /**
      * Shows a message when no vital data is available
      */
     private void showNoDataMessage() {
-        Label noData = new Label("⚠ No vitals recorded yet.");
-        noData.setFont(Font.font("Segoe UI", FontPosture.ITALIC, 18));
-        noData.setTextFill(Color.web("#e74c3c")); // Red color for warning
+        showCenterMessage("⚠ No vitals recorded yet.", Color.web("#e74c3c")); // Red color for warning
+    }
+
+    /**
+     * Shows a single centered message in the content area
+     * @param text Message to show
+     * @param color Text color
+     */
+    private void showCenterMessage(String text, Color color) {
+        Label message = new Label(text);
+        message.setFont(Font.font("Segoe UI", FontPosture.ITALIC, 18));
+        message.setTextFill(color);
 
-        VBox centerBox = new VBox(noData);
+        VBox centerBox = new VBox(message);
         centerBox.setAlignment(Pos.CENTER);
         mainLayout.setCenter(centerBox);
     }
@@ -238,11 +252,12 @@ public class HealthTrends extends Application {
 
 
     /**
-     * Fetches vital signs data from the database
+     * Fetches vital signs data from the database (database threads)
      * @param patientId ID of the patient to fetch data for
      * @return Map of vital sign names to their data points
+     * @throws SQLException if the vitals cannot be read
      */
-    private Map<String, List<VitalDataPoint>> fetchVitals(int patientId) {
+    private Map<String, List<VitalDataPoint>> fetchVitals(int patientId) throws SQLException {
         Map<String, List<VitalDataPoint>> vitalsMap = new HashMap<>();
         String query = "SELECT * FROM vitals WHERE patient_id = ? ORDER BY recorded_at ASC";
 
@@ -276,9 +291,6 @@ public class HealthTrends extends Application {
                     }
                 }
             }
-
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
 
         return vitalsMap;
@@ -0,0 +1,277 @@
+package com.example.hospi.GUI;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * IdentityDirectory - Maps between users.id, doctors.id and patients.id, and the names and
+ * roles that go with them, without a query per lookup.
+ *
+ * The three tables are read in bulk into an immutable snapshot held in int-keyed open-addressing
+ * maps, so lookups neither box their keys nor take a lock. Code that adds or deletes users
+ * invalidates the directory and the next lookup reads it again. A snapshot is also replaced
+ * after -Dhospi.identity.cacheMs (default ten minutes), and a lookup that finds nothing reloads
+ * it at most once per -Dhospi.identity.missReloadMs (default two seconds), so an account created
+ * by another instance of the application can log in at once.
+ */
+class IdentityDirectory {
+
+    private static final String USERS_SQL = "SELECT id, username, role FROM hospital_db.users";
+    private static final String DOCTORS_SQL = "SELECT id, user_id, name FROM hospital_db.doctors";
+    private static final String PATIENTS_SQL = "SELECT id, user_id, name FROM hospital_db.patients";
+
+    /**
+     * A row of users.
+     *
+     * @param id       users.id
+     * @param username Login name
+     * @param role     "admin", "doctor" or "patient"
+     */
+    record User(int id, String username, String role) {
+    }
+
+    /**
+     * A row of doctors or patients.
+     *
+     * @param id     doctors.id or patients.id
+     * @param userId users.id of the account
+     * @param name   Full name
+     */
+    record Member(int id, int userId, String name) {
+    }
+
+    private static final IdentityDirectory INSTANCE = new IdentityDirectory(
+            Long.getLong("hospi.identity.cacheMs", 10 * 60_000L),
+            Long.getLong("hospi.identity.missReloadMs", 2_000L));
+
+    private final long cacheMs;
+    private final long missReloadMs;
+
+    // Replaced whole, never changed; null until first use and after invalidate(). Written under this
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param cacheMs      How long a snapshot is used before it is read again
+     * @param missReloadMs Least time between reloads caused by lookups that found nothing
+     */
+    IdentityDirectory(long cacheMs, long missReloadMs) {
+        this.cacheMs = cacheMs;
+        this.missReloadMs = missReloadMs;
+    }
+
+    /**
+     * @return The application-wide directory, configured by -Dhospi.identity.*
+     */
+    static IdentityDirectory getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return The user with this users.id, or null
+     * @throws SQLException if the directory has to be read and cannot be
+     */
+    User user(int userId) throws SQLException {
+        User user = current().users.get(userId);
+        return user != null || !reloadAfterMiss() ? user : current().users.get(userId);
+    }
+
+    /**
+     * @return The user with this login name, or null
+     * @throws SQLException if the directory has to be read and cannot be
+     */
+    User userByUsername(String username) throws SQLException {
+        User user = current().usernames.get(username);
+        return user != null || !reloadAfterMiss() ? user : current().usernames.get(username);
+    }
+
+    /**
+     * @return The doctor with this doctors.id, or null
+     * @throws SQLException if the directory has to be read and cannot be
+     */
+    Member doctor(int doctorId) throws SQLException {
+        Member doctor = current().doctors.get(doctorId);
+        return doctor != null || !reloadAfterMiss() ? doctor : current().doctors.get(doctorId);
+    }
+
+    /**
+     * @return The doctor record of this user, or null
+     * @throws SQLException if the directory has to be read and cannot be
+     */
+    Member doctorByUser(int userId) throws SQLException {
+        Member doctor = current().doctorsByUser.get(userId);
+        return doctor != null || !reloadAfterMiss() ? doctor : current().doctorsByUser.get(userId);
+    }
+
+    /**
+     * @return The patient with this patients.id, or null
+     * @throws SQLException if the directory has to be read and cannot be
+     */
+    Member patient(int patientId) throws SQLException {
+        Member patient = current().patients.get(patientId);
+        return patient != null || !reloadAfterMiss() ? patient : current().patients.get(patientId);
+    }
+
+    /**
+     * @return The patient record of this user, or null
+     * @throws SQLException if the directory has to be read and cannot be
+     */
+    Member patientByUser(int userId) throws SQLException {
+        Member patient = current().patientsByUser.get(userId);
+        return patient != null || !reloadAfterMiss() ? patient : current().patientsByUser.get(userId);
+    }
+
+    /**
+     * Users, doctors or patients were added, changed or deleted. Call after the change is committed.
+     */
+    synchronized void invalidate() {
+        snapshot = null;
+    }
+
+    private Snapshot current() throws SQLException {
+        Snapshot current = snapshot;
+        if (current != null && System.currentTimeMillis() - current.loadedAt < cacheMs) {
+            return current;
+        }
+        return reload(current);
+    }
+
+    // Returns whether a lookup that found nothing should look again in a fresh snapshot
+    private boolean reloadAfterMiss() throws SQLException {
+        Snapshot current = snapshot;
+        if (current != null && System.currentTimeMillis() - current.loadedAt < missReloadMs) {
+            return false;
+        }
+        return reload(current) != current;
+    }
+
+    /**
+     * Reads the directory unless another thread replaced the stale snapshot meanwhile. Loads are
+     * serialized, so a burst of lookups after invalidate() reads the tables once, and hold the
+     * lock invalidate() takes, so a change committed during a load is never hidden by it.
+     */
+    private synchronized Snapshot reload(Snapshot stale) throws SQLException {
+        Snapshot current = snapshot;
+        if (current != null && current != stale) {
+            return current;
+        }
+        snapshot = load();
+        return snapshot;
+    }
+
+    private static Snapshot load() throws SQLException {
+        long start = System.currentTimeMillis();
+        List<User> users = new ArrayList<>();
+        List<Member> doctors = new ArrayList<>();
+        List<Member> patients = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement(USERS_SQL);
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    users.add(new User(rs.getInt("id"), rs.getString("username"), rs.getString("role")));
+                }
+            }
+            readMembers(conn, DOCTORS_SQL, doctors);
+            readMembers(conn, PATIENTS_SQL, patients);
+        }
+        Snapshot loaded = new Snapshot(users, doctors, patients, start);
+        System.out.println("Identity directory loaded " + users.size() + " users, " + doctors.size() + " doctors and "
+                + patients.size() + " patients in " + (System.currentTimeMillis() - start) + " ms.");
+        return loaded;
+    }
+
+    private static void readMembers(Connection conn, String sql, List<Member> members) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                members.add(new Member(rs.getInt("id"), rs.getInt("user_id"), rs.getString("name")));
+            }
+        }
+    }
+
+    /**
+     * The directory as read at one moment.
+     */
+    private static final class Snapshot {
+        private final IntMap<User> users;
+        private final Map<String, User> usernames = new HashMap<>();
+        private final IntMap<Member> doctors;
+        private final IntMap<Member> doctorsByUser;
+        private final IntMap<Member> patients;
+        private final IntMap<Member> patientsByUser;
+        private final long loadedAt;
+
+        private Snapshot(List<User> userRows, List<Member> doctorRows, List<Member> patientRows, long loadedAt) {
+            this.loadedAt = loadedAt;
+            users = new IntMap<>(userRows.size());
+            for (User user : userRows) {
+                users.put(user.id(), user);
+                usernames.put(user.username(), user);
+            }
+            doctors = new IntMap<>(doctorRows.size());
+            doctorsByUser = new IntMap<>(doctorRows.size());
+            for (Member doctor : doctorRows) {
+                doctors.put(doctor.id(), doctor);
+                doctorsByUser.put(doctor.userId(), doctor);
+            }
+            patients = new IntMap<>(patientRows.size());
+            patientsByUser = new IntMap<>(patientRows.size());
+            for (Member patient : patientRows) {
+                patients.put(patient.id(), patient);
+                patientsByUser.put(patient.userId(), patient);
+            }
+        }
+    }
+
+    /**
+     * Map from int keys to values in two parallel arrays with linear probing, sized once for a
+     * known number of entries. Filled while a snapshot is built and only read afterwards.
+     */
+    static final class IntMap<V> {
+        private final int[] keys;
+        private final Object[] values;
+        private final int mask;
+
+        /**
+         * @param expected Entries that will be put; the table stays at most half full
+         */
+        IntMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1;
+            keys = new int[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        /**
+         * Adds or replaces the value of a key. Not for use once the map is being read.
+         */
+        void put(int key, V value) {
+            int slot = slot(key);
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        /**
+         * @return The value of the key, or null
+         */
+        @SuppressWarnings("unchecked")
+        V get(int key) {
+            return (V) values[slot(key)];
+        }
+
+        // The key's slot, or the empty slot where it would go; values are never null, so null marks empty
+        private int slot(int key) {
+            int hash = key * 0x9E3779B9;  // Spreads sequential IDs across the table
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (values[slot] != null && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
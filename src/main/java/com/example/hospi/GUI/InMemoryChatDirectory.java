@@ -0,0 +1,33 @@
+package com.example.hospi.GUI;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * InMemoryChatDirectory - ChatDirectory held in a map, for clusters whose nodes run in one
+ * JVM (ChatClusterTest). Nodes in separate processes use DatabaseChatDirectory.
+ */
+class InMemoryChatDirectory implements ChatDirectory {
+
+    private final Map<String, String> nodesByUser = new ConcurrentHashMap<>();
+
+    @Override
+    public void register(String username, String nodeId) {
+        nodesByUser.put(username, nodeId);
+    }
+
+    @Override
+    public void unregister(String username, String nodeId) {
+        nodesByUser.remove(username, nodeId);
+    }
+
+    @Override
+    public String locate(String username) {
+        return nodesByUser.get(username);
+    }
+
+    @Override
+    public void clear(String nodeId) {
+        nodesByUser.values().removeIf(nodeId::equals);
+    }
+}
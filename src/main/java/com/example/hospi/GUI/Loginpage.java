@@ -164,24 +164,36 @@ public class Loginpage extends Application {
             return;
         }
 
-        // Attempt authentication
-        UserSession session = getUserSession(username, password);
-        if (session != null) {
-            showSuccess("Login successful! Redirecting...");
-            redirectToDashboard(primaryStage, session);
-        } else {
-            showError("Invalid username or password.");
-        }
+        // Attempt authentication in the background; the window stays responsive meanwhile
+        loginButton.setDisable(true);
+        messageLabel.setText("Signing in...");
+        messageLabel.setTextFill(Color.LIGHTGRAY);
+        AsyncDatabase.load(primaryStage, () -> getUserSession(username, password), session -> {
+            loginButton.setDisable(false);
+            if (session != null) {
+                showSuccess("Login successful! Redirecting...");
+                redirectToDashboard(primaryStage, session);
+            } else {
+                showError("Invalid username or password.");
+            }
+        }, e -> {
+            e.printStackTrace();
+            loginButton.setDisable(false);
+            showError("Database error.");
+        });
     }
 
     /**
-     * Authenticates user credentials against the database
+     * Authenticates user credentials against the database and resolves the patient or doctor
+     * record behind the account (database threads)
      * @param username The username to authenticate
      * @param password The password to verify
      * @return UserSession object if authentication succeeds, null otherwise
+     * @throws SQLException if the database cannot be read or the account has no matching record
      */
-    private UserSession getUserSession(String username, String password) {
+    private UserSession getUserSession(String username, String password) throws SQLException {
         String query = "SELECT id, role FROM users WHERE username = ? AND password = ?";
+        UserSession session = null;
         try (Connection connection = DatabaseConnection.getConnection();
              PreparedStatement stmt = connection.prepareStatement(query)) {
 
@@ -192,13 +204,26 @@ public class Loginpage extends Application {
             if (rs.next()) {
                 int userId = rs.getInt("id");
                 String role = rs.getString("role");
-                return new UserSession(userId, role);
+                session = new UserSession(userId, role);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            showError("Database error.");
         }
-        return null;
+        if (session == null) {
+            return null;
+        }
+
+        // The directory may reload from the database, so resolve the dashboard's IDs here too
+        switch (session.role.toLowerCase()) {
+            case "patient":
+                session.memberId = getPatientIdFromUserId(session.userId);
+                session.memberName = getPatientNameById(session.memberId);
+                break;
+            case "doctor":
+                session.memberId = getDoctorIdFromUserId(session.userId);
+                break;
+            default:
+                break;
+        }
+        return session;
     }
 
     /**
@@ -210,13 +235,10 @@ public class Loginpage extends Application {
         try {
             switch (session.role.toLowerCase()) {
                 case "patient":
-                    int patientId = getPatientIdFromUserId(session.userId);
-                    String patientName = getPatientNameById(patientId);
-                    new PatientDashboard(patientId, patientName).start(new Stage());
+                    new PatientDashboard(session.memberId, session.memberName).start(new Stage());
                     break;
                 case "doctor":
-                    int doctorid = getDoctorIdFromUserId(session.userId);
-                    new DoctorDashboard(doctorid).start(new Stage());
+                    new DoctorDashboard(session.memberId).start(new Stage());
                     break;
                 case "admin":
                     new AdminDashboard(session.userId);
@@ -239,29 +261,17 @@ public class Loginpage extends Application {
      * @throws SQLException If no patient record is found
      */
     private int getPatientIdFromUserId(int userId) throws SQLException {
-        String query = "SELECT id FROM patients WHERE user_id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
-
-            stmt.setInt(1, userId);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("id");
-            }
+        IdentityDirectory.Member patient = IdentityDirectory.getInstance().patientByUser(userId);
+        if (patient != null) {
+            return patient.id();
         }
         throw new SQLException("Patient ID not found for user ID: " + userId);
     }
 
     private int getDoctorIdFromUserId(int userId) throws SQLException {
-        String query = "SELECT id FROM doctors WHERE user_id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
-
-            stmt.setInt(1, userId);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("id");
-            }
+        IdentityDirectory.Member doctor = IdentityDirectory.getInstance().doctorByUser(userId);
+        if (doctor != null) {
+            return doctor.id();
         }
         throw new SQLException("Doctor ID not found for user ID: " + userId);
     }
@@ -273,15 +283,9 @@ public class Loginpage extends Application {
      * @throws SQLException If no patient record is found
      */
     private String getPatientNameById(int patientId) throws SQLException {
-        String query = "SELECT name FROM patients WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
-
-            stmt.setInt(1, patientId);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getString("name");
-            }
+        IdentityDirectory.Member patient = IdentityDirectory.getInstance().patient(patientId);
+        if (patient != null) {
+            return patient.name();
         }
         throw new SQLException("Patient name not found for patient ID: " + patientId);
     }
@@ -310,6 +314,8 @@ public class Loginpage extends Application {
     private static class UserSession {
         int userId;
         String role;
+        int memberId;      // Patient or doctor ID for those roles
+        String memberName; // Patient name for the patient role
 
         public UserSession(int userId, String role) {
             this.userId = userId;
@@ -1,13 +1,6 @@
 package com.example.hospi.GUI;
 
 
-interface Notifiable {
-    void sendNotification(String subject, String message, String recipient);
-}
-
-
-
-
 public class Main {
     public static void main(String[] args) {
         // Create an instance of EmailNotification
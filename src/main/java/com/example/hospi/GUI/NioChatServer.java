@@ -0,0 +1,503 @@
+package com.example.hospi.GUI;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * NioChatServer - Non-blocking transport for ChatServer.
+ * A single selector thread accepts sockets, reads newline-delimited protocol lines (or
+ * length-prefixed binary frames) into per-connection buffers and drains per-connection write
+ * queues, resuming partial writes when the socket becomes writable again. Routing is delegated
+ * to the owning ChatServer, so protocol semantics are identical to the thread-per-socket mode.
+ */
+class NioChatServer implements Runnable {
+
+    // Upper bound on a single protocol line; longer input is treated as abuse and the client is dropped
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+    private static final int READ_BUFFER_BYTES = 8 * 1024;
+    // A compressed connection deflates queued output in bursts of up to this many compressed bytes
+    private static final int COMPRESSED_BURST_BYTES = 64 * 1024;
+
+    private final ChatServer server;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+
+    // Connections with output queued from other threads, handed to the selector thread
+    private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    private volatile Thread selectorThread;
+    private volatile boolean running = true;
+
+    /**
+     * Opens the selector and binds the listening channel.
+     *
+     * @param server Routing core that receives decoded lines
+     * @param port   Port to listen on, or 0 for an ephemeral port
+     * @throws IOException if the port cannot be bound
+     */
+    NioChatServer(ChatServer server, int port) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * @return The port the listening channel is bound to
+     */
+    int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Selector loop. Runs until close() is called.
+     */
+    @Override
+    public void run() {
+        selectorThread = Thread.currentThread();
+        try {
+            while (running) {
+                selector.select();
+
+                // Output queued by other threads since the last select
+                NioConnection pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    pending.flush();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) accept();
+                        if (key.isValid() && key.isReadable()) ((NioConnection) key.attachment()).read();
+                        if (key.isValid() && key.isWritable()) ((NioConnection) key.attachment()).flush();
+                    } catch (CancelledKeyException e) {
+                        // Connection closed while its events were being handled
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) e.printStackTrace();
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * Stops the selector loop and closes every connection.
+     */
+    void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setKeepAlive(true);
+            NioConnection connection = new NioConnection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioConnection connection) {
+                connection.close();
+            }
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            // Ignore close exceptions
+        }
+    }
+
+    /**
+     * One client socket with its read and write buffers.
+     */
+    private final class NioConnection implements ChatConnection {
+        private final SocketChannel channel;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        private final OutboundQueue outbound = server.newOutboundQueue();
+        private ByteBuffer current;  // Output taken off the queue and partly written
+        private volatile List<OfflineMessageStore.Envelope> inFlight = List.of(); // Messages in current
+        private SelectionKey key;
+
+        // Bytes of the line (or binary frame, length prefix included) currently being assembled
+        private byte[] line = new byte[256];
+        private int lineLength;
+        private Boolean binary;  // Decided by the first byte received; null until then
+        private String peerNode; // Set when another cluster node opened the connection
+        private boolean closeWhenFlushed; // One-shot query: close once the answer is written
+        private boolean downloading;      // ATTACH_GET received; the connection only sends from now on
+        private volatile FileChannel file; // Attachment being sent after the queued output, set by the blob thread
+        private long filePosition;
+        private long fileEnd;
+        private ChatCompression.Encoder encoder; // Set once a client asks for compression
+        private ChatCompression.Decoder decoder;
+
+        private volatile String username;
+        private volatile boolean closed;
+        private volatile long lastActive = System.nanoTime();
+
+        private NioConnection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public String username() {
+            return username;
+        }
+
+        @Override
+        public boolean send(byte[] data, List<OfflineMessageStore.Envelope> envelopes) {
+            if (closed) return true;
+            if (!outbound.offer(new OutboundQueue.Item(ByteBuffer.wrap(data), envelopes))) return false;
+            if (Thread.currentThread() == selectorThread) {
+                flush();
+            } else {
+                pendingWrites.add(this);
+                selector.wakeup();
+            }
+            return true;
+        }
+
+        @Override
+        public int queueDepth() {
+            return outbound.size();
+        }
+
+        @Override
+        public List<OfflineMessageStore.Envelope> drainUndelivered() {
+            List<OfflineMessageStore.Envelope> undelivered = new ArrayList<>(inFlight);
+            inFlight = List.of();
+            undelivered.addAll(outbound.drainUndelivered());
+            return undelivered;
+        }
+
+        @Override
+        public void markActive() {
+            lastActive = System.nanoTime();
+        }
+
+        @Override
+        public long idleMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActive);
+        }
+
+        /**
+         * Reads whatever is available and dispatches every complete line.
+         */
+        private void read() {
+            int n;
+            try {
+                n = channel.read(readBuffer);
+            } catch (IOException e) {
+                System.out.println("Connection lost with " + username);
+                close();
+                return;
+            }
+            if (n < 0) {
+                close();
+                return;
+            }
+            markActive();
+
+            readBuffer.flip();
+            if (binary == null && readBuffer.hasRemaining()) {
+                // A leading MAGIC byte selects the binary protocol
+                binary = readBuffer.get(0) == ChatProtocol.MAGIC;
+                if (binary) readBuffer.get();
+            }
+            if (Boolean.TRUE.equals(binary)) {
+                if (decoder != null) {
+                    inflateFrames(readBuffer);
+                } else {
+                    readFrames(readBuffer);
+                }
+                readBuffer.clear();
+                return;
+            }
+            while (readBuffer.hasRemaining() && !closed) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                    String text = new String(line, 0, length, StandardCharsets.UTF_8);
+                    lineLength = 0;
+                    onLine(text);
+                } else {
+                    if (lineLength == MAX_LINE_BYTES) {
+                        System.out.println("Line too long from " + username + ", closing connection.");
+                        close();
+                        return;
+                    }
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, Math.min(line.length * 2, MAX_LINE_BYTES));
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+            readBuffer.clear();
+        }
+
+        /**
+         * Assembles length-prefixed frames from the input and dispatches every complete one.
+         *
+         * @param input The read buffer, or data inflated from it
+         */
+        private void readFrames(ByteBuffer input) {
+            while (input.hasRemaining() && !closed) {
+                // Length prefix first, then exactly that many bytes of frame
+                int needed = lineLength < 4 ? 4 : 4 + frameLength();
+                int chunk = Math.min(needed - lineLength, input.remaining());
+                input.get(line, lineLength, chunk);
+                lineLength += chunk;
+
+                if (lineLength == 4) {
+                    int length = frameLength();
+                    if (length < 1 || length > ChatProtocol.MAX_FRAME_BYTES) {
+                        System.out.println("Invalid frame from " + username + ", closing connection.");
+                        close();
+                        return;
+                    }
+                    if (line.length < 4 + length) {
+                        line = Arrays.copyOf(line, 4 + length);
+                    }
+                } else if (lineLength == needed) {
+                    ByteBuffer frame = ByteBuffer.wrap(line, 4, lineLength - 4).slice();
+                    lineLength = 0;
+                    onFrame(frame);
+                    // The handler is done with the frame; start the next one in a fresh array if it was large
+                    if (line.length > READ_BUFFER_BYTES) line = new byte[256];
+                    if (decoder != null && input == readBuffer) {
+                        // The frame was a compressing HELLO: whatever follows it is deflated
+                        inflateFrames(input);
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Decompresses input from a compressed connection and dispatches the frames in it.
+         */
+        private void inflateFrames(ByteBuffer compressed) {
+            decoder.input(compressed);
+            try {
+                ByteBuffer plain;
+                while (!closed && (plain = decoder.inflate()) != null) {
+                    readFrames(plain);
+                }
+            } catch (DataFormatException e) {
+                System.out.println("Invalid compressed data from " + username + ", closing connection.");
+                close();
+            }
+        }
+
+        private int frameLength() {
+            return ByteBuffer.wrap(line, 0, 4).order(ByteOrder.BIG_ENDIAN).getInt();
+        }
+
+        private void onFrame(ByteBuffer frame) {
+            if (downloading) return;
+            if (peerNode != null) {
+                server.handlePeerFrame(peerNode, frame);
+                return;
+            }
+            if (username == null) {
+                // Step 1: the first frame is HELLO, or NODE_HELLO from another cluster node
+                peerNode = ChatProtocol.parseNodeHello(frame);
+                if (peerNode != null) return;
+                int unreadOf = ChatProtocol.parseUnreadQuery(frame);
+                if (unreadOf > 0) {
+                    // A dashboard asking for badges; answered without registering the user
+                    closeWhenFlushed = true;
+                    send(server.unreadReply(unreadOf));
+                    return;
+                }
+                ChatProtocol.AttachmentRequest download = ChatProtocol.parseAttachGet(frame);
+                if (download != null) {
+                    // The blob follows its header straight from the file, then the connection closes.
+                    // The check and open run on the blob store's thread; later frames are ignored.
+                    downloading = true;
+                    server.openAttachment(download, blob -> startDownload(blob, download.offset()));
+                    return;
+                }
+                ChatServer.Handshake handshake = ChatProtocol.parseHello(frame);
+                if (handshake == null) {
+                    close();
+                    return;
+                }
+                username = handshake.username();
+                if (handshake.compressed()) {
+                    // Before register(), whose backlog is the first compressed output
+                    encoder = new ChatCompression.Encoder(ChatCompression.level());
+                    decoder = new ChatCompression.Decoder();
+                }
+                server.register(handshake, this);
+                return;
+            }
+            // Step 2: every later frame is a protocol message
+            server.handleFrame(username, frame);
+        }
+
+        private void onLine(String text) {
+            if (username == null) {
+                // Step 1: the first line is the user ID
+                ChatServer.Handshake handshake = ChatServer.Handshake.parse(text);
+                if (handshake == null) {
+                    close();
+                    return;
+                }
+                username = handshake.username();
+                server.register(handshake, this);
+                return;
+            }
+            // Step 2: every later line is a protocol message
+            server.handleLine(username, text);
+        }
+
+        /**
+         * Blob store thread: queues the download header, after which flush() sends the blob.
+         * The file fields are set before the header is queued, which hands them to the selector.
+         *
+         * @param blob   The blob, or null if it is missing or not shared with the user
+         * @param offset Where the download resumes
+         */
+        private void startDownload(FileChannel blob, long offset) {
+            long size;
+            try {
+                size = blob != null ? blob.size() : -1;
+            } catch (IOException e) {
+                size = -1;
+                closeQuietly(blob);
+                blob = null;
+            }
+            fileEnd = size;
+            filePosition = Math.max(0, Math.min(offset, size));
+            closeWhenFlushed = true;
+            file = blob;
+            if (closed) {
+                // Closed while the blob was being opened; close() may have missed it
+                closeQuietly(blob);
+                return;
+            }
+            send(ChatProtocol.attachData(fileEnd, filePosition));
+        }
+
+        private void closeQuietly(FileChannel blob) {
+            if (blob == null) return;
+            try {
+                blob.close();
+            } catch (IOException e) {
+                // Ignore close exceptions
+            }
+        }
+
+        /**
+         * Writes queued output until the socket would block, then waits for OP_WRITE.
+         * Only called on the selector thread.
+         */
+        private void flush() {
+            if (closed) return;
+            try {
+                while (true) {
+                    if (current == null) {
+                        current = nextOutput();
+                        if (current == null) break;
+                    }
+                    channel.write(current);
+                    if (current.hasRemaining()) {
+                        // Partial write: resume when the socket drains
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    current = null;
+                    inFlight = List.of();
+                }
+                while (file != null && filePosition < fileEnd) {
+                    long sent = file.transferTo(filePosition, fileEnd - filePosition, channel);
+                    if (sent == 0) {
+                        // Socket buffer full: resume when it drains
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    filePosition += sent;
+                }
+                if (closeWhenFlushed) {
+                    close();
+                    return;
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            } catch (IOException | CancelledKeyException e) {
+                close();
+            }
+        }
+
+        /**
+         * @return The next queued frame, or on a compressed connection everything queued
+         *         (up to a limit) as one compressed block; null if nothing is queued
+         */
+        private ByteBuffer nextOutput() {
+            OutboundQueue.Item next = outbound.poll();
+            if (next == null) return null;
+            if (encoder == null) {
+                inFlight = next.envelopes();
+                return next.data();
+            }
+            // One SYNC_FLUSH per burst, as the thread-per-socket writer flushes once per burst
+            List<OfflineMessageStore.Envelope> envelopes = new ArrayList<>();
+            do {
+                encoder.add(next.data());
+                envelopes.addAll(next.envelopes());
+            } while (encoder.pending() < COMPRESSED_BURST_BYTES && (next = outbound.poll()) != null);
+            inFlight = envelopes;
+            return encoder.finish();
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore close exceptions
+            }
+            closeQuietly(file);
+            // Unregistering first hands queued messages back to the mailbox; drop whatever is left
+            if (username != null) {
+                server.unregister(username, this);
+            }
+            outbound.clear();
+        }
+    }
+}
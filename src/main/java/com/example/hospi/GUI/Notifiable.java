@@ -0,0 +1,17 @@
+package com.example.hospi.GUI;
+
+/**
+ * Notifiable - A channel that can deliver a notification to a recipient, such as email.
+ */
+interface Notifiable {
+    void sendNotification(String subject, String message, String recipient);
+
+    /**
+     * Sends a notification and reports whether it went out, so callers can retry.
+     * Channels that cannot detect failure report every attempt as successful.
+     */
+    default boolean trySendNotification(String subject, String message, String recipient) {
+        sendNotification(subject, message, recipient);
+        return true;
+    }
+}
@@ -0,0 +1,366 @@
+package com.example.hospi.GUI;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * OfflineMessageStore - Per-recipient delivery sequence numbers and store-and-forward queues.
+ * Every message routed to a user gets the next number in that user's sequence. Messages for
+ * users who are not connected are held in a bounded in-memory queue; once a user's queue
+ * outgrows it, the queue is spilled to a spool file on disk and later messages are appended
+ * there, so order is preserved. Everything is handed back in one batch when the user reconnects.
+ *
+ * Spool files are only ever touched by the store's own spool thread, so routing threads and the
+ * NIO selector never wait on the disk while holding a mailbox. A user's queue holds at most
+ * memoryLimit + spoolLimit messages; later ones are dropped, and the client sees the gap in its
+ * sequence and reloads the conversation from chat_messages. Spool files left by an earlier run
+ * are picked up at startup, and the user's sequence continues after the last message in them.
+ */
+class OfflineMessageStore {
+
+    private final Path spoolDir;
+    private final int memoryLimit;
+    private final int spoolLimit;
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    // Spool files found at startup, by file name, until their user's mailbox is created
+    private final Map<String, Restored> restored = new ConcurrentHashMap<>();
+
+    // Every spool file read and write runs here, one at a time
+    private final ExecutorService spooler = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chat-offline-spool");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A message waiting for, or delivered to, its recipient.
+     *
+     * @param seq    Position in the recipient's delivery sequence
+     * @param sender User ID of the sender
+     * @param text   Message content
+     */
+    record Envelope(long seq, String sender, String text) {
+
+        /**
+         * @return The envelope as "seq:sender:text", the payload of a MSG: line
+         */
+        String encode() {
+            return seq + ":" + sender + ":" + text;
+        }
+
+        /**
+         * @param line A line produced by encode()
+         * @return The decoded envelope, or null if the line is malformed
+         */
+        static Envelope decode(String line) {
+            String[] parts = line.split(":", 3);
+            if (parts.length < 3) return null;
+            try {
+                return new Envelope(Long.parseLong(parts[0]), parts[1], parts[2]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * What a spool file from an earlier run holds.
+     *
+     * @param messages Messages in the file
+     * @param lastSeq  Sequence number of the last one
+     */
+    private record Restored(int messages, long lastSeq) {
+    }
+
+    /**
+     * Creates a store, picking up the spool files an earlier run left in spoolDir.
+     *
+     * @param spoolDir    Directory for spilled queues, created on first spill
+     * @param memoryLimit Messages kept in memory per user before the queue is spilled to disk
+     * @param spoolLimit  Further messages kept on disk per user
+     */
+    OfflineMessageStore(Path spoolDir, int memoryLimit, int spoolLimit) {
+        this.spoolDir = spoolDir;
+        this.memoryLimit = Math.max(1, memoryLimit);
+        this.spoolLimit = Math.max(0, spoolLimit);
+        restoreSpoolFiles();
+    }
+
+    /**
+     * Returns the mailbox for a user, creating it on first use. Callers synchronize on the
+     * mailbox to make "deliver or enqueue" atomic with the user connecting.
+     *
+     * @param username Recipient user ID
+     * @return The user's mailbox
+     */
+    Mailbox mailbox(String username) {
+        return mailboxes.computeIfAbsent(username, Mailbox::new);
+    }
+
+    /**
+     * Reads the message count and last sequence number of every spool file in spoolDir.
+     * Runs once, before any mailbox exists.
+     */
+    private void restoreSpoolFiles() {
+        if (!Files.isDirectory(spoolDir)) return;
+        int messages = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDir, "*.spool")) {
+            for (Path file : files) {
+                Restored contents = readRestored(file);
+                if (contents == null) continue;
+                restored.put(file.getFileName().toString(), contents);
+                messages += contents.messages();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read offline spool directory " + spoolDir + ": " + e.getMessage());
+        }
+        if (!restored.isEmpty()) {
+            System.out.println("Restored " + messages + " offline messages for " + restored.size() + " users from "
+                    + spoolDir + ".");
+        }
+    }
+
+    /**
+     * @return What the file holds, or null if it is empty or unreadable; such files are deleted
+     */
+    private static Restored readRestored(Path file) {
+        int count = 0;
+        long lastSeq = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Envelope envelope = Envelope.decode(Mailbox.unescape(line));
+                if (envelope == null) continue;
+                count++;
+                lastSeq = Math.max(lastSeq, envelope.seq());
+            }
+        } catch (IOException e) {
+            System.err.println("Discarding unreadable offline spool " + file + ": " + e.getMessage());
+            count = 0;
+        }
+        if (count > 0) return new Restored(count, lastSeq);
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Left for the next start to try again
+        }
+        return null;
+    }
+
+    /**
+     * Delivery state for one recipient. Not thread-safe on its own; callers hold its monitor.
+     * The spool thread takes the same monitor to move messages to and from disk.
+     */
+    final class Mailbox {
+        private final String username;
+        // Messages not on disk, oldest first; they follow everything in the spool file
+        private final Deque<Envelope> memory = new ArrayDeque<>();
+        private long lastSeq;
+        private int spooled;       // Messages in the spool file
+        private boolean spilling;  // A spill is queued on, or running on, the spool thread
+        private int drains;        // Drains waiting for the spool thread to read the file
+        private boolean overflowing; // Messages are being dropped; logged once per episode
+
+        private Mailbox(String username) {
+            this.username = username;
+            Restored contents = restored.remove(spoolFile().getFileName().toString());
+            if (contents != null) {
+                spooled = contents.messages();
+                lastSeq = contents.lastSeq();
+            }
+        }
+
+        /**
+         * @return The next sequence number for this recipient
+         */
+        long nextSeq() {
+            return ++lastSeq;
+        }
+
+        /**
+         * @return The most recently assigned sequence number (0 if none)
+         */
+        long lastSeq() {
+            return lastSeq;
+        }
+
+        /**
+         * @return true while a drain is reading the spool file. Messages for the recipient must
+         *         then be enqueued here even if it is connected, so they follow the backlog
+         */
+        boolean draining() {
+            return drains > 0;
+        }
+
+        /**
+         * Holds a message until the recipient reconnects. Never blocks on the disk: once the
+         * queue is larger than the memory limit, the spool thread moves it to the spool file.
+         *
+         * @param envelope The message with its assigned sequence number
+         */
+        void enqueue(Envelope envelope) {
+            if (spooled + memory.size() >= memoryLimit + spoolLimit) {
+                // Still in chat_messages; the gap in the sequence makes the client reload from there
+                if (!overflowing) {
+                    System.err.println("Offline queue of " + username + " is full, dropping new messages.");
+                    overflowing = true;
+                }
+                return;
+            }
+            memory.addLast(envelope);
+            if ((spooled > 0 || memory.size() > memoryLimit) && !spilling && drains == 0) {
+                spilling = true;
+                spooler.execute(this::spill);
+            }
+        }
+
+        /**
+         * Removes every queued message and hands the ones the recipient has not seen yet, in
+         * delivery order, to onDrained. The caller holds this mailbox.
+         *
+         * Without a spool file that happens at once, on the caller's thread. Otherwise the file
+         * is read on the spool thread and onDrained runs there later, holding this mailbox;
+         * until then draining() is true.
+         *
+         * @param afterSeq  Messages with a sequence number at or below this were already seen and are dropped
+         * @param onDrained Receives the queued messages; runs holding this mailbox
+         */
+        void drain(long afterSeq, Consumer<List<Envelope>> onDrained) {
+            if (spooled == 0 && !spilling && drains == 0) {
+                onDrained.accept(takeMemory(new ArrayList<>(), afterSeq));
+                return;
+            }
+            drains++;
+            spooler.execute(() -> {
+                List<Envelope> pending = readSpool();
+                synchronized (this) {
+                    spooled = 0;
+                    drains--;
+                    onDrained.accept(takeMemory(pending, afterSeq));
+                }
+            });
+        }
+
+        private List<Envelope> takeMemory(List<Envelope> pending, long afterSeq) {
+            pending.addAll(memory);
+            memory.clear();
+            overflowing = false;
+            pending.removeIf(envelope -> envelope.seq() <= afterSeq);
+            return pending;
+        }
+
+        /**
+         * Spool thread: moves the messages in memory to the end of the spool file.
+         */
+        private void spill() {
+            List<Envelope> batch;
+            synchronized (this) {
+                if (drains > 0 || memory.isEmpty()) {
+                    // A drain is about to take everything anyway
+                    spilling = false;
+                    return;
+                }
+                batch = new ArrayList<>(memory);
+            }
+            try {
+                append(batch);
+            } catch (IOException e) {
+                // Disk unavailable: keep the messages in memory rather than lose them
+                System.err.println("Could not spool offline messages for " + username + ": " + e.getMessage());
+                synchronized (this) {
+                    spilling = false;
+                }
+                return;
+            }
+            synchronized (this) {
+                // Only enqueue touched memory meanwhile, and it adds at the tail
+                for (int i = 0; i < batch.size(); i++) {
+                    memory.pollFirst();
+                }
+                spooled += batch.size();
+                spilling = !memory.isEmpty() && drains == 0;
+                if (spilling) spooler.execute(this::spill);
+            }
+        }
+
+        /**
+         * Spool thread: reads and deletes the spool file.
+         *
+         * @return Its messages in delivery order; empty if there is none
+         */
+        private List<Envelope> readSpool() {
+            List<Envelope> pending = new ArrayList<>();
+            Path file = spoolFile();
+            if (Files.exists(file)) {
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        Envelope envelope = Envelope.decode(unescape(line));
+                        if (envelope != null) pending.add(envelope);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Could not read spooled messages for " + username + ": " + e.getMessage());
+                }
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    System.err.println("Could not delete spooled messages for " + username + ": " + e.getMessage());
+                }
+            }
+            return pending;
+        }
+
+        private void append(List<Envelope> envelopes) throws IOException {
+            Files.createDirectories(spoolDir);
+            try (BufferedWriter writer = Files.newBufferedWriter(spoolFile(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (Envelope envelope : envelopes) {
+                    writer.write(escape(envelope.encode()));
+                    writer.newLine();
+                }
+            }
+        }
+
+        /**
+         * Spool files hold one message per line; binary-protocol messages may contain line breaks.
+         */
+        private static String escape(String line) {
+            return line.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+        }
+
+        private static String unescape(String line) {
+            StringBuilder out = new StringBuilder(line.length());
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '\\' && i + 1 < line.length()) {
+                    char next = line.charAt(++i);
+                    out.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+                } else {
+                    out.append(c);
+                }
+            }
+            return out.toString();
+        }
+
+        private Path spoolFile() {
+            // User IDs are numeric; anything else is reduced to a safe file name
+            return spoolDir.resolve(username.replaceAll("[^A-Za-z0-9_-]", "_") + ".spool");
+        }
+    }
+}
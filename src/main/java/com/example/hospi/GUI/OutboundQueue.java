@@ -0,0 +1,146 @@
+package com.example.hospi.GUI;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OutboundQueue - Bounded queue of encoded output waiting to be written to one chat connection.
+ * Routing threads only ever add to it; a writer owned by the connection drains it, so a client
+ * that stops reading fills its own queue instead of blocking the threads that route to it.
+ * What happens when the queue is full is decided by the OverflowPolicy.
+ */
+final class OutboundQueue {
+
+    /**
+     * What to do when a slow client's queue is full.
+     */
+    enum OverflowPolicy {
+        DROP_OLDEST, // Discard the oldest queued output to make room
+        DISCONNECT,  // Close the connection; the client reconnects and resynchronizes
+        SPILL;       // Close the connection and return undelivered messages to the offline store
+
+        /**
+         * @return The policy named by -Dhospi.chat.outbound.overflow (default spill); an unknown
+         *         name is reported and falls back to spill
+         */
+        static OverflowPolicy fromSystemProperties() {
+            String name = System.getProperty("hospi.chat.outbound.overflow", "spill");
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown hospi.chat.outbound.overflow \"" + name + "\", expected drop_oldest,"
+                        + " disconnect or spill; using spill.");
+                return SPILL;
+            }
+        }
+    }
+
+    /**
+     * One piece of queued output.
+     *
+     * @param data      Encoded bytes
+     * @param envelopes The messages it delivers, oldest first; empty for control output (acks, receipts)
+     */
+    record Item(ByteBuffer data, List<OfflineMessageStore.Envelope> envelopes) {
+
+        /**
+         * @param data     Encoded bytes
+         * @param envelope The message it delivers, or null for control output
+         */
+        Item(ByteBuffer data, OfflineMessageStore.Envelope envelope) {
+            this(data, envelope != null ? List.of(envelope) : List.of());
+        }
+    }
+
+    private final BlockingQueue<Item> queue;
+    private final OverflowPolicy policy;
+    private final LongAdder droppedFrames;
+
+    /**
+     * @param capacity      Maximum queued items
+     * @param policy        Overflow behaviour
+     * @param droppedFrames Shared counter incremented for every item dropped by DROP_OLDEST
+     */
+    OutboundQueue(int capacity, OverflowPolicy policy, LongAdder droppedFrames) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.policy = policy;
+        this.droppedFrames = droppedFrames;
+    }
+
+    /**
+     * Adds output without blocking.
+     *
+     * @param item Output to queue
+     * @return false if the queue was full and the policy requires the connection to be closed;
+     *         the item was not queued in that case
+     */
+    boolean offer(Item item) {
+        if (queue.offer(item)) return true;
+        if (policy != OverflowPolicy.DROP_OLDEST) return false;
+
+        // Make room by discarding the oldest output. Writers remove an item before writing
+        // it, so nothing in the queue has been partly sent.
+        while (!queue.offer(item)) {
+            if (queue.poll() != null) droppedFrames.increment();
+        }
+        return true;
+    }
+
+    /**
+     * @return The next item, or null if empty
+     */
+    Item poll() {
+        return queue.poll();
+    }
+
+    /**
+     * Waits for the next item.
+     *
+     * @return The next item
+     * @throws InterruptedException if the writer is stopped
+     */
+    Item take() throws InterruptedException {
+        return queue.take();
+    }
+
+    /**
+     * Moves every queued item to the given collection.
+     */
+    void drainTo(Collection<Item> target) {
+        queue.drainTo(target);
+    }
+
+    /**
+     * Empties the queue and returns the messages that were in it, oldest first, so they can
+     * be handed to the offline store.
+     */
+    List<OfflineMessageStore.Envelope> drainUndelivered() {
+        List<Item> items = new ArrayList<>();
+        queue.drainTo(items);
+        List<OfflineMessageStore.Envelope> envelopes = new ArrayList<>();
+        for (Item item : items) {
+            envelopes.addAll(item.envelopes());
+        }
+        return envelopes;
+    }
+
+    /**
+     * @return Items currently queued
+     */
+    int size() {
+        return queue.size();
+    }
+
+    /**
+     * Discards everything queued.
+     */
+    void clear() {
+        queue.clear();
+    }
+}
@@ -43,13 +43,19 @@ public class PanicButton {
 
         // Set action handler for the panic button
         panicButton.setOnAction(e -> {
-            try {
+            // Look up and notify in the background; one click sends one alert
+            panicButton.setDisable(true);
+            AsyncDatabase.load(stage, () -> {
                 sendEmergencyAlert();
+                return true;
+            }, sent -> {
+                panicButton.setDisable(false);
                 showConfirmation("Emergency alert sent successfully!");
-            } catch (SQLException ex) {
+            }, ex -> {
                 ex.printStackTrace();
+                panicButton.setDisable(false);
                 showError("Failed to send emergency alert.");
-            }
+            });
         });
 
         // Set up the layout
@@ -63,7 +69,7 @@ public class PanicButton {
     }
 
     /**
-     * Sends emergency alerts to the assigned doctor via email and SMS
+     * Sends emergency alerts to the assigned doctor via email and SMS (database threads)
      * @throws SQLException If there's an error accessing the database
      */
     private void sendEmergencyAlert() throws SQLException {
@@ -10,6 +10,9 @@ import javafx.stage.Stage;
 
 import java.sql.*;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class PatientAppointment extends Application {
 
@@ -24,6 +27,9 @@ public class PatientAppointment extends Application {
     private int selectedDoctorId = -1;             // Currently selected doctor's ID
     private int selectedSlotId = -1;               // Currently selected time slot ID
     private int patientId;
+    private Stage stage;
+    private CompletableFuture<?> slotsLoad;        // Days of the selected doctor, while loading
+    private CompletableFuture<?> timesLoad;        // Times of the selected day, while loading
 
     // Default patient ID for demo
     PatientAppointment(int patientId){
@@ -32,6 +38,8 @@ public class PatientAppointment extends Application {
 
     @Override
     public void start(Stage primaryStage) {
+        this.stage = primaryStage;
+
         // Initialize UI components
         doctorComboBox = new ComboBox<>();
         slotListView = new ListView<>();
@@ -80,29 +88,45 @@ public class PatientAppointment extends Application {
     }
 
     /**
-     * Loads all doctors from the database into the doctor combo box
+     * Loads all doctors from the database into the doctor combo box, in the background
      */
     private void loadDoctors() {
+        doctorComboBox.setPromptText("Loading doctors...");
+        AsyncDatabase.load(stage, this::queryDoctors, doctors -> {
+            doctorComboBox.getItems().setAll(doctors);
+            doctorComboBox.setPromptText(null);
+        }, e -> {
+            e.printStackTrace();
+            doctorComboBox.setPromptText("Could not load doctors");
+            statusLabel.setText("Error loading doctors. Please try again later.");
+        });
+    }
+
+    /**
+     * Reads all doctors (database threads)
+     *
+     * @return Combo box entries in format "ID:123 | Name (Specialization)"
+     */
+    private List<String> queryDoctors() throws SQLException {
         String query = "SELECT id, name, specialization FROM doctors";
+        List<String> doctors = new ArrayList<>();
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(query);
              ResultSet rs = stmt.executeQuery()) {
 
-            doctorComboBox.getItems().clear();
             while (rs.next()) {
                 // Format doctor information for display
                 String doctorInfo = "ID:" + rs.getInt("id") +
                         " | " + rs.getString("name") +
                         " (" + rs.getString("specialization") + ")";
-                doctorComboBox.getItems().add(doctorInfo);
+                doctors.add(doctorInfo);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
+        return doctors;
     }
 
     /**
-     * Loads available time slots for the selected doctor
+     * Loads available time slots for the selected doctor, in the background
      */
     private void loadAvailableSlots() {
         String selectedDoctor = doctorComboBox.getSelectionModel().getSelectedItem();
@@ -110,63 +134,112 @@ public class PatientAppointment extends Application {
 
         // Extract doctor ID from the selected string
         selectedDoctorId = extractDoctorId(selectedDoctor);
+        int doctorId = selectedDoctorId;
+
+        // Loads for the previously selected doctor and slot must not overwrite these
+        if (slotsLoad != null) slotsLoad.cancel(false);
+        if (timesLoad != null) timesLoad.cancel(false);
+        slotListView.getItems().clear();
+        timeComboBox.getItems().clear();
+        slotListView.setPlaceholder(new Label("Loading available days..."));
+        slotsLoad = AsyncDatabase.load(stage, () -> querySlots(doctorId), slots -> {
+            slotListView.getItems().setAll(slots);
+            slotListView.setPlaceholder(new Label("No available days."));
+        }, e -> {
+            e.printStackTrace();
+            slotListView.setPlaceholder(new Label("Could not load available days."));
+        });
+    }
 
+    /**
+     * Reads a doctor's availability (database threads)
+     *
+     * @param doctorId Doctor to read
+     * @return List entries in format "SlotID:456 | Date: 2023-05-20 | 09:00 to 12:00"
+     */
+    private List<String> querySlots(int doctorId) throws SQLException {
         String query = "SELECT id, available_date, start_time, end_time FROM doctor_availability WHERE doctor_id = ?";
+        List<String> slots = new ArrayList<>();
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(query)) {
 
-            stmt.setInt(1, selectedDoctorId);
-            ResultSet rs = stmt.executeQuery();
-
-            slotListView.getItems().clear();
-            while (rs.next()) {
-                // Format slot information for display
-                String slotInfo = "SlotID:" + rs.getInt("id") +
-                        " | Date: " + rs.getDate("available_date") +
-                        " | " + rs.getString("start_time") + " to " + rs.getString("end_time");
-                slotListView.getItems().add(slotInfo);
+            stmt.setInt(1, doctorId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    // Format slot information for display
+                    String slotInfo = "SlotID:" + rs.getInt("id") +
+                            " | Date: " + rs.getDate("available_date") +
+                            " | " + rs.getString("start_time") + " to " + rs.getString("end_time");
+                    slots.add(slotInfo);
+                }
             }
-            timeComboBox.getItems().clear();
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
+        return slots;
     }
 
     /**
-     * Loads available times for the selected time slot
+     * Loads available times for the selected time slot, in the background
      */
     private void loadAvailableTimes() {
         String selectedSlot = slotListView.getSelectionModel().getSelectedItem();
         if (selectedSlot == null) return;
 
         selectedSlotId = extractSlotId(selectedSlot);
+        int slotId = selectedSlotId;
+
+        if (timesLoad != null) timesLoad.cancel(false);
         timeComboBox.getItems().clear();
+        timeComboBox.setPromptText("Loading times...");
+        timesLoad = AsyncDatabase.load(stage, () -> queryTimes(slotId), times -> {
+            timeComboBox.getItems().setAll(times);
+            timeComboBox.setPromptText(null);
+        }, e -> {
+            e.printStackTrace();
+            timeComboBox.setPromptText("Could not load times");
+        });
+    }
 
+    /**
+     * Reads the bookable times of a slot (database threads)
+     *
+     * @param slotId Slot to read
+     * @return Start times 30 minutes apart, empty if the slot is gone
+     */
+    private List<LocalTime> queryTimes(int slotId) throws SQLException {
         String query = "SELECT start_time, end_time FROM doctor_availability WHERE id = ?";
+        List<LocalTime> times = new ArrayList<>();
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(query)) {
 
-            stmt.setInt(1, selectedSlotId);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                // Parse start and end times
-                LocalTime start = LocalTime.parse(rs.getString("start_time"));
-                LocalTime end = LocalTime.parse(rs.getString("end_time"));
-
-                // Generate 30-minute time slots between start and end times
-                while (start.isBefore(end)) {
-                    timeComboBox.getItems().add(start);
-                    start = start.plusMinutes(30);
+            stmt.setInt(1, slotId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    // Parse start and end times
+                    LocalTime start = LocalTime.parse(rs.getString("start_time"));
+                    LocalTime end = LocalTime.parse(rs.getString("end_time"));
+
+                    // Generate 30-minute time slots between start and end times
+                    while (start.isBefore(end)) {
+                        times.add(start);
+                        start = start.plusMinutes(30);
+                    }
                 }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
+        return times;
+    }
+
+    /**
+     * Outcome of a booking attempt.
+     *
+     * @param booked  Whether the appointment was created
+     * @param message Status shown to the patient
+     */
+    private record Booking(boolean booked, String message) {
     }
 
     /**
-     * Books an appointment with the selected doctor, time slot, and time
+     * Books an appointment with the selected doctor, time slot, and time, in the background
      */
     private void bookAppointment() {
         String selectedSlot = slotListView.getSelectionModel().getSelectedItem();
@@ -178,42 +251,66 @@ public class PatientAppointment extends Application {
         }
 
         selectedSlotId = extractSlotId(selectedSlot);
+        int doctorId = selectedDoctorId;
+        int slotId = selectedSlotId;
+
+        btnBookAppointment.setDisable(true);
+        statusLabel.setText("Booking appointment...");
+        AsyncDatabase.load(stage, () -> book(doctorId, slotId, selectedTime), booking -> {
+            btnBookAppointment.setDisable(false);
+            statusLabel.setText(booking.message());
+            if (booking.booked()) loadAvailableTimes();
+        }, e -> {
+            e.printStackTrace();
+            btnBookAppointment.setDisable(false);
+            statusLabel.setText("Error booking appointment.");
+        });
+    }
 
+    /**
+     * Creates the appointment and the doctor-patient assignment in one transaction, then emails
+     * the doctor (database threads)
+     *
+     * @return Whether the appointment was booked, and the status to show
+     * @throws SQLException if the booking fails; nothing is saved then
+     */
+    private Booking book(int doctorId, int slotId, LocalTime selectedTime) throws SQLException {
         try (Connection conn = DatabaseConnection.getConnection()) {
             conn.setAutoCommit(false);  // Start transaction
 
-            // Get details of the selected slot
-            String fetchSlotQuery = "SELECT available_date FROM doctor_availability WHERE id = ?";
-            try (PreparedStatement fetchStmt = conn.prepareStatement(fetchSlotQuery)) {
-                fetchStmt.setInt(1, selectedSlotId);
-                ResultSet slotRs = fetchStmt.executeQuery();
-
-                if (!slotRs.next()) {
-                    statusLabel.setText("Selected slot no longer available.");
-                    conn.rollback();
-                    return;
+            Date appointmentDate;
+            LocalTime startTime = selectedTime;
+            LocalTime endTime = startTime.plusHours(1);  // Assume 1-hour appointments
+            try {
+                // Get details of the selected slot
+                String fetchSlotQuery = "SELECT available_date FROM doctor_availability WHERE id = ?";
+                try (PreparedStatement fetchStmt = conn.prepareStatement(fetchSlotQuery)) {
+                    fetchStmt.setInt(1, slotId);
+                    try (ResultSet slotRs = fetchStmt.executeQuery()) {
+                        if (!slotRs.next()) {
+                            conn.rollback();
+                            return new Booking(false, "Selected slot no longer available.");
+                        }
+                        appointmentDate = slotRs.getDate("available_date");
+                    }
                 }
 
-                Date appointmentDate = slotRs.getDate("available_date");
-                LocalTime startTime = selectedTime;
-                LocalTime endTime = startTime.plusHours(1);  // Assume 1-hour appointments
-
                 // Check for scheduling conflicts
                 String conflictQuery = "SELECT * FROM appointments WHERE doctor_id = ? AND appointment_date = ? " +
                         "AND ((start_time < ? AND end_time > ?) OR (start_time < ? AND end_time > ?))";
                 try (PreparedStatement conflictStmt = conn.prepareStatement(conflictQuery)) {
-                    conflictStmt.setInt(1, selectedDoctorId);
+                    conflictStmt.setInt(1, doctorId);
                     conflictStmt.setDate(2, appointmentDate);
                     conflictStmt.setTime(3, Time.valueOf(endTime));
                     conflictStmt.setTime(4, Time.valueOf(endTime));
                     conflictStmt.setTime(5, Time.valueOf(startTime));
                     conflictStmt.setTime(6, Time.valueOf(startTime));
 
-                    ResultSet conflictRs = conflictStmt.executeQuery();
-                    if (conflictRs.next()) {
-                        statusLabel.setText("Doctor unavailable at selected time.");
-                        conn.rollback();
-                        return;
+                    try (ResultSet conflictRs = conflictStmt.executeQuery()) {
+                        if (conflictRs.next()) {
+                            conn.rollback();
+                            return new Booking(false, "Doctor unavailable at selected time.");
+                        }
                     }
                 }
 
@@ -222,18 +319,19 @@ public class PatientAppointment extends Application {
                 String insertAppointmentQuery = "INSERT INTO appointments (doctor_id, patient_id, appointment_date, start_time, end_time, status) " +
                         "VALUES (?, ?, ?, ?, ?, ?)";
                 try (PreparedStatement insertStmt = conn.prepareStatement(insertAppointmentQuery, Statement.RETURN_GENERATED_KEYS)) {
-                    insertStmt.setInt(1, selectedDoctorId);
+                    insertStmt.setInt(1, doctorId);
                     insertStmt.setInt(2, patientId);
                     insertStmt.setDate(3, appointmentDate);
                     insertStmt.setTime(4, Time.valueOf(startTime));
                     insertStmt.setTime(5, Time.valueOf(endTime));
                     insertStmt.setString(6, "Pending");
                     insertStmt.executeUpdate();
-                    ResultSet generatedKeys = insertStmt.getGeneratedKeys();
-                    if (generatedKeys.next()) {
-                        generatedAppointmentId = generatedKeys.getInt(1);
-                    } else {
-                        throw new SQLException("Failed to get generated appointment ID.");
+                    try (ResultSet generatedKeys = insertStmt.getGeneratedKeys()) {
+                        if (generatedKeys.next()) {
+                            generatedAppointmentId = generatedKeys.getInt(1);
+                        } else {
+                            throw new SQLException("Failed to get generated appointment ID.");
+                        }
                     }
                 }
 
@@ -241,58 +339,61 @@ public class PatientAppointment extends Application {
                 String insertAssignmentQuery = "INSERT INTO doctorpatientassignment (DoctorID, PatientID, AppointmentID, AssignedDate) " +
                         "VALUES (?, ?, ?, CURRENT_TIMESTAMP)";
                 try (PreparedStatement assignStmt = conn.prepareStatement(insertAssignmentQuery)) {
-                    assignStmt.setInt(1, selectedDoctorId);
+                    assignStmt.setInt(1, doctorId);
                     assignStmt.setInt(2, patientId);
                     assignStmt.setInt(3, generatedAppointmentId);
                     assignStmt.executeUpdate();
                 }
 
                 conn.commit();  // Commit transaction
-                statusLabel.setText("Appointment and Assignment created successfully!");
-                loadAvailableTimes();
-
-                // Get doctor details for email notification
-                String doctorEmail = null;
-                String doctorName = null;
-                String doctorQuery = "SELECT name, email FROM doctors WHERE id = ?";
-                try (PreparedStatement doctorStmt = conn.prepareStatement(doctorQuery)) {
-                    doctorStmt.setInt(1, selectedDoctorId);
-                    ResultSet rs = doctorStmt.executeQuery();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            PatientAssignments.getInstance().invalidateDoctor(doctorId);
+
+            // Get doctor details for email notification
+            String doctorEmail = null;
+            String doctorName = null;
+            String doctorQuery = "SELECT name, email FROM doctors WHERE id = ?";
+            try (PreparedStatement doctorStmt = conn.prepareStatement(doctorQuery)) {
+                doctorStmt.setInt(1, doctorId);
+                try (ResultSet rs = doctorStmt.executeQuery()) {
                     if (rs.next()) {
                         doctorEmail = rs.getString("email");
                         doctorName = rs.getString("name");
                     }
                 }
+            }
 
-                // Get patient details for email notification
-                String patientName = null;
-                String patientQuery = "SELECT name FROM patients WHERE id = ?";
-                try (PreparedStatement patientStmt = conn.prepareStatement(patientQuery)) {
-                    patientStmt.setInt(1, patientId);
-                    ResultSet rs = patientStmt.executeQuery();
+            // Get patient details for email notification
+            String patientName = null;
+            try (PreparedStatement patientStmt = conn.prepareStatement(Queries.PATIENT_NAME)) {
+                patientStmt.setInt(1, patientId);
+                try (ResultSet rs = patientStmt.executeQuery()) {
                     if (rs.next()) {
                         patientName = rs.getString("name");
                     }
                 }
+            }
 
-                // Send email notification if we have all required information
-                if (doctorEmail != null && patientName != null) {
-                    String subject = "🩺 New Appointment Request from " + patientName;
-                    String emailMessage = "Dear Dr. " + doctorName + ",\n\n" +
-                            "You have a new appointment request:\n\n" +
-                            "Patient: " + patientName + "\n" +
-                            "Date: " + appointmentDate + "\n" +
-                            "Time: " + startTime + " - " + endTime + "\n\n" +
-                            "Please review it in your dashboard.\n\n" +
-                            "Regards,\nHospital Management System";
-
-                    EmailNotification emailSender = new EmailNotification();
-                    emailSender.sendNotification(subject, emailMessage, doctorEmail);
-                }
+            // Send email notification if we have all required information
+            if (doctorEmail != null && patientName != null) {
+                String subject = "🩺 New Appointment Request from " + patientName;
+                String emailMessage = "Dear Dr. " + doctorName + ",\n\n" +
+                        "You have a new appointment request:\n\n" +
+                        "Patient: " + patientName + "\n" +
+                        "Date: " + appointmentDate + "\n" +
+                        "Time: " + startTime + " - " + endTime + "\n\n" +
+                        "Please review it in your dashboard.\n\n" +
+                        "Regards,\nHospital Management System";
+
+                EmailNotification emailSender = new EmailNotification();
+                emailSender.sendNotification(subject, emailMessage, doctorEmail);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            statusLabel.setText("Error booking appointment.");
+            return new Booking(true, "Appointment and Assignment created successfully!");
         }
     }
 
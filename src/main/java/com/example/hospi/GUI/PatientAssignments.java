@@ -0,0 +1,145 @@
+package com.example.hospi.GUI;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PatientAssignments - The patients assigned to each doctor, shared by the doctor screens.
+ *
+ * Every doctor window that lists patients reads them from here. A doctor's list is read from
+ * doctorpatientassignment on first use and reused for -Dhospi.assignments.cacheMs (default five
+ * minutes), for at most -Dhospi.assignments.cacheSize doctors (default 256, least recently used
+ * dropped first). Code that changes assignments invalidates the affected doctors, so a new
+ * booking or a deleted user shows at once; the expiry only bounds how long a change made
+ * elsewhere, e.g. by another instance of the application, stays unseen.
+ */
+class PatientAssignments {
+
+    /**
+     * One patient assigned to a doctor.
+     *
+     * @param id   patients.id
+     * @param name Patient's name
+     */
+    record AssignedPatient(int id, String name) {
+    }
+
+    /**
+     * Reads the patients assigned to a doctor.
+     */
+    interface Lookup {
+
+        /**
+         * @param doctorId doctors.id
+         * @return The doctor's patients, empty if none
+         * @throws SQLException if the assignments cannot be read
+         */
+        List<AssignedPatient> find(int doctorId) throws SQLException;
+    }
+
+    private record Cached(List<AssignedPatient> patients, long loadedAt) {
+    }
+
+    private static final PatientAssignments INSTANCE = new PatientAssignments(databaseLookup(),
+            Long.getLong("hospi.assignments.cacheMs", 5 * 60_000L),
+            Math.max(1, Integer.getInteger("hospi.assignments.cacheSize", 256)));
+
+    private final Lookup lookup;
+    private final long cacheMs;
+
+    // Guarded by this. In access order, so the eldest entry is the least recently used doctor
+    private final LinkedHashMap<Integer, Cached> cache;
+    // Bumped by every invalidation, so a load that raced one is not cached; guarded by this
+    private long generation;
+
+    /**
+     * @param lookup  Reads a doctor's patients
+     * @param cacheMs How long a doctor's list is reused before it is read again
+     * @param maxSize Doctors whose lists are kept at most
+     */
+    PatientAssignments(Lookup lookup, long cacheMs, int maxSize) {
+        this.lookup = lookup;
+        this.cacheMs = cacheMs;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Cached> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return The application-wide assignments, configured by -Dhospi.assignments.*
+     */
+    static PatientAssignments getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return A lookup reading doctorpatientassignment
+     */
+    static Lookup databaseLookup() {
+        return doctorId -> {
+            List<AssignedPatient> patients = new ArrayList<>();
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(Queries.ASSIGNED_PATIENTS)) {
+                stmt.setInt(1, doctorId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        patients.add(new AssignedPatient(rs.getInt("id"), rs.getString("name")));
+                    }
+                }
+            }
+            return patients;
+        };
+    }
+
+    /**
+     * @param doctorId doctors.id
+     * @return The doctor's patients, in the order the database returned them; unmodifiable
+     * @throws SQLException if the list is not cached and cannot be read
+     */
+    List<AssignedPatient> forDoctor(int doctorId) throws SQLException {
+        long loadGeneration;
+        synchronized (this) {
+            Cached cached = cache.get(doctorId);
+            if (cached != null && System.currentTimeMillis() - cached.loadedAt() < cacheMs) {
+                return cached.patients();
+            }
+            loadGeneration = generation;
+        }
+
+        // Read outside the lock, so one slow doctor does not hold up the others
+        long loadedAt = System.currentTimeMillis();
+        List<AssignedPatient> patients = List.copyOf(lookup.find(doctorId));
+        synchronized (this) {
+            if (generation == loadGeneration) {
+                cache.put(doctorId, new Cached(patients, loadedAt));
+            }
+        }
+        return patients;
+    }
+
+    /**
+     * A doctor's assignments changed, e.g. a patient booked them.
+     */
+    synchronized void invalidateDoctor(int doctorId) {
+        generation++;
+        cache.remove(doctorId);
+    }
+
+    /**
+     * A patient's assignments are gone, e.g. the patient was deleted: every doctor listing them
+     * is read again.
+     */
+    synchronized void invalidatePatient(int patientId) {
+        generation++;
+        cache.values().removeIf(cached -> cached.patients().stream().anyMatch(p -> p.id() == patientId));
+    }
+}
@@ -10,6 +10,8 @@ import javafx.scene.paint.Color;
 import javafx.scene.text.*;
 import javafx.stage.Stage;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import java.io.File;
@@ -25,6 +27,7 @@ public class PatientDashboard extends Application {
     private int patientId;             // ID of the current patient
     private String patientName;        // Name of the current patient
     private Patient patient;           // Patient object containing additional details
+    private Stage stage;               // Dashboard window; its background loads end when it closes
 
     /**
      * Constructor with patient ID and name
@@ -102,6 +105,7 @@ public class PatientDashboard extends Application {
     @Override
     public void start(Stage primaryStage) {
         initializeFallbacks(); // Ensure valid default values
+        this.stage = primaryStage;
 
         // Main application layout
         BorderPane root = new BorderPane();
@@ -119,6 +123,7 @@ public class PatientDashboard extends Application {
         primaryStage.setTitle("Patient Dashboard - Lifeline Remote Hospital");
         primaryStage.setScene(scene);
         primaryStage.show();
+        // Sections were built with placeholders; their data arrives from the loads they started
     }
 
     /**
@@ -229,22 +234,14 @@ public class PatientDashboard extends Application {
         vitalsGrid.setHgap(20);
         vitalsGrid.setVgap(10);
 
-        // Load latest vitals from database
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            String sql = "SELECT heart_rate, blood_pressure, oxygen_level FROM vitals WHERE patient_id = ? ORDER BY recorded_at DESC LIMIT 1";
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, patientId);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                updateVitals(rs.getString("heart_rate"), rs.getString("blood_pressure"), rs.getString("oxygen_level"));
-            } else {
-                updateVitals("N/A", "N/A", "N/A"); // Default values if no records
-            }
-        } catch (SQLException e) {
-            updateVitals("Error", "Error", "Error"); // Error state
-            e.printStackTrace();
-        }
+        // Load latest vitals from database in the background
+        updateVitals("...", "...", "...");
+        AsyncDatabase.load(stage, this::loadLatestVitals,
+                vitals -> updateVitals(vitals[0], vitals[1], vitals[2]),
+                e -> {
+                    updateVitals("Error", "Error", "Error"); // Error state
+                    e.printStackTrace();
+                });
 
         VBox box = new VBox(10, title, vitalsGrid);
         styleSectionBox(box);
@@ -260,29 +257,14 @@ public class PatientDashboard extends Application {
         Label title = createSectionTitle("Upcoming Appointments");
         VBox appointmentsBox = new VBox(5);
 
-        // Load appointments from database
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            String sql = "SELECT appointment_date, start_time, end_time, doctor_id FROM appointments WHERE patient_id = ? ORDER BY appointment_date ASC";
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, patientId);
-            ResultSet rs = stmt.executeQuery();
-
-            // Add each appointment to the list
-            while (rs.next()) {
-                String appointmentDate = rs.getString("appointment_date");
-                String startTime = rs.getString("start_time");
-                String endTime = rs.getString("end_time");
-                int doctorId = rs.getInt("doctor_id");
-                appointmentsBox.getChildren().add(createColoredLabel("\u2714 " + appointmentDate + ": " + startTime + "–" + endTime + " with Dr. " + doctorId));
-            }
-
-            if (appointmentsBox.getChildren().isEmpty()) {
-                appointmentsBox.getChildren().add(createColoredLabel("No upcoming appointments."));
-            }
-        } catch (SQLException e) {
-            appointmentsBox.getChildren().add(createColoredLabel("Error loading appointments."));
-            e.printStackTrace();
-        }
+        // Load appointments from database in the background
+        appointmentsBox.getChildren().add(createColoredLabel("Loading appointments..."));
+        AsyncDatabase.load(stage, this::loadAppointments,
+                appointments -> showLines(appointmentsBox, appointments, "No upcoming appointments."),
+                e -> {
+                    showLines(appointmentsBox, List.of("Error loading appointments."), null);
+                    e.printStackTrace();
+                });
 
         VBox box = new VBox(10, title, appointmentsBox);
         styleSectionBox(box);
@@ -327,22 +309,14 @@ public class PatientDashboard extends Application {
         feedbackArea.setPrefHeight(100); // Fixed height
         feedbackArea.setStyle("-fx-control-inner-background: #2a2a3d; -fx-text-fill: #e0f7fa;"); // Dark background with light text
 
-        // Load latest feedback from database
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            String sql = "SELECT feedback_text FROM feedback WHERE patient_id = ? ORDER BY created_at DESC LIMIT 1";
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, patientId);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                feedbackArea.setText(rs.getString("feedback_text"));
-            } else {
-                feedbackArea.setText("No feedback available.");
-            }
-        } catch (SQLException e) {
-            feedbackArea.setText("Error loading feedback.");
-            e.printStackTrace();
-        }
+        // Load latest feedback from database in the background
+        feedbackArea.setText("Loading feedback...");
+        AsyncDatabase.load(stage, this::loadLatestFeedback,
+                feedback -> feedbackArea.setText(feedback != null ? feedback : "No feedback available."),
+                e -> {
+                    feedbackArea.setText("Error loading feedback.");
+                    e.printStackTrace();
+                });
 
         VBox box = new VBox(10, title, feedbackArea);
         styleSectionBox(box);
@@ -358,28 +332,14 @@ public class PatientDashboard extends Application {
         Label title = createSectionTitle("Current Medications");
         VBox medsBox = new VBox(5); // Container for medication list
 
-        // Load medications from database
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            String sql = "SELECT MedicineName, Dosage, Instructions FROM prescriptions WHERE PatientID = ?";
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, patientId);
-            ResultSet rs = stmt.executeQuery();
-
-            // Add each medication to the list
-            while (rs.next()) {
-                medsBox.getChildren().add(createColoredLabel("\uD83D\uDC8A " +
-                        rs.getString("MedicineName") + " - " +
-                        rs.getString("Dosage") + " (" +
-                        rs.getString("Instructions") + ")"));
-            }
-
-            if (medsBox.getChildren().isEmpty()) {
-                medsBox.getChildren().add(createColoredLabel("No current medications."));
-            }
-        } catch (SQLException e) {
-            medsBox.getChildren().add(createColoredLabel("Error loading medications."));
-            e.printStackTrace();
-        }
+        // Load medications from database in the background
+        medsBox.getChildren().add(createColoredLabel("Loading medications..."));
+        AsyncDatabase.load(stage, this::loadMedications,
+                medications -> showLines(medsBox, medications, "No current medications."),
+                e -> {
+                    showLines(medsBox, List.of("Error loading medications."), null);
+                    e.printStackTrace();
+                });
 
         VBox box = new VBox(10, title, medsBox);
         styleSectionBox(box);
@@ -392,7 +352,7 @@ public class PatientDashboard extends Application {
      * @return HBox containing medication-related action buttons
      */
     private HBox createMedicationActions() {
-        Button uploadVitalsBtn = createActionButton("📤 Upload Vitals Data", e -> handleUploadVitals());
+        Button uploadVitalsBtn = createActionButton("📤 Upload Vitals Data", e -> handleUploadVitals((Button) e.getSource()));
         HBox actionsBox = new HBox(10, uploadVitalsBtn);
         actionsBox.setAlignment(Pos.CENTER_LEFT);
         actionsBox.setPadding(new Insets(10, 0, 0, 0));
@@ -406,16 +366,22 @@ public class PatientDashboard extends Application {
      */
     private HBox createCommunicationActions() {
         // Button to start chat consultation with doctor
-        Button startConsultationBtn = createActionButton("💬 Start Consultation", e -> {
-            int patientUserId = getPatientUserId(patientId);
-            int doctorUserId = getAssignedDoctorUserId(patientId);
-            if (patientUserId > 0 && doctorUserId > 0) {
-                String role = getPatientRole(patientId);
-                new ChatClient(patientUserId, role).start(new Stage());
-            } else {
-                showAlert("Unable to start consultation. User IDs not found.");
-            }
-        });
+        Button startConsultationBtn = createActionButton("💬 Start Consultation", e ->
+                AsyncDatabase.load(stage, () -> {
+                    int patientUserId = getPatientUserId(patientId);
+                    int doctorUserId = getAssignedDoctorUserId(patientId);
+                    return patientUserId > 0 && doctorUserId > 0
+                            ? new ChatIdentity(patientUserId, getPatientRole(patientId))
+                            : null;
+                }, identity -> {
+                    if (identity != null) {
+                        new ChatClient(identity.userId(), identity.role()).start(new Stage());
+                    } else {
+                        showAlert("Unable to start consultation. User IDs not found.");
+                    }
+                }));
+        // Unread messages come from the chat server's counters, not from chat_messages
+        ChatClient.attachUnreadBadge(startConsultationBtn, () -> getPatientUserId(patientId));
 
         // Emergency panic button
         Button panicBtn = createActionButton("🚨 Emergency Panic Button", e -> {
@@ -452,24 +418,56 @@ public class PatientDashboard extends Application {
     }
 
     /**
-     * Handles uploading vitals data from CSV file
+     * Handles uploading vitals data from CSV file; the import runs in the background
+     *
+     * @param uploadButton Button disabled until the import finishes
      */
-    private void handleUploadVitals() {
+    private void handleUploadVitals(Button uploadButton) {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Select Vitals CSV File");
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV Files", "*.csv"));
 
-        File selectedFile = fileChooser.showOpenDialog(null);
+        File selectedFile = fileChooser.showOpenDialog(stage);
         if (selectedFile != null) {
-            boolean success = UploadVitals.uploadVitalsFromCSV(selectedFile, patientId);
-            if (success) {
-                showAlert("Vitals uploaded successfully.");
-            }
+            uploadButton.setDisable(true);
+            AsyncDatabase.load(stage, () -> UploadVitals.importVitalsFromCSV(selectedFile, patientId, 500, 5_000,
+                    progress -> System.out.println("Imported chunk " + progress.chunk() + " (" + progress.rowsInserted() + " rows)")),
+                    result -> {
+                        uploadButton.setDisable(false);
+                        showImportResult(result);
+                    }, e -> {
+                        e.printStackTrace();
+                        uploadButton.setDisable(false);
+                        showAlert("Vitals upload failed. Please try again later.");
+                    });
         } else {
             showAlert("No file selected.");
         }
     }
 
+    /**
+     * Tells the patient how much of an upload was saved
+     *
+     * @param result Outcome of the import
+     */
+    private void showImportResult(UploadVitals.ImportResult result) {
+        String summary;
+        if (result.failed()) {
+            summary = "Vitals upload stopped: " + result.error() + ". Lines up to " + result.committedThroughLine()
+                    + " were saved (" + result.inserted() + " rows imported); upload the rest of the file again";
+        } else if (result.inserted() > 0) {
+            summary = "Vitals uploaded successfully: " + result.inserted() + " rows imported";
+        } else {
+            summary = "No vitals were imported";
+        }
+        if (!result.rejected().isEmpty()) {
+            UploadVitals.RejectedRow first = result.rejected().get(0);
+            summary += ", " + result.rejected().size() + " rows rejected (first: line "
+                    + first.lineNumber() + ", " + first.reason() + ")";
+        }
+        showAlert(summary + ".");
+    }
+
     /**
      * Creates a styled action button
      *
@@ -485,6 +483,23 @@ public class PatientDashboard extends Application {
         return btn;
     }
 
+    /**
+     * Replaces a section's lines with loaded ones
+     *
+     * @param box       Section container to fill
+     * @param lines     Lines to show, one label each
+     * @param emptyText Shown instead when there are no lines
+     */
+    private void showLines(VBox box, List<String> lines, String emptyText) {
+        box.getChildren().clear();
+        for (String line : lines) {
+            box.getChildren().add(createColoredLabel(line));
+        }
+        if (box.getChildren().isEmpty()) {
+            box.getChildren().add(createColoredLabel(emptyText));
+        }
+    }
+
     /**
      * Updates the vitals display with new values
      *
@@ -551,6 +566,94 @@ public class PatientDashboard extends Application {
         alert.showAndWait();
     }
 
+    // ========== DATA ACCESS (run on the database threads) ========== //
+
+    /**
+     * Loads the patient's latest vitals reading
+     *
+     * @return Heart rate, blood pressure and oxygen level; "N/A" each if none is recorded
+     * @throws SQLException if the vitals cannot be read
+     */
+    private String[] loadLatestVitals() throws SQLException {
+        String sql = "SELECT heart_rate, blood_pressure, oxygen_level FROM vitals WHERE patient_id = ? ORDER BY recorded_at DESC LIMIT 1";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, patientId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return new String[]{rs.getString("heart_rate"), rs.getString("blood_pressure"), rs.getString("oxygen_level")};
+                }
+            }
+        }
+        return new String[]{"N/A", "N/A", "N/A"}; // Default values if no records
+    }
+
+    /**
+     * Loads the patient's appointments, earliest first
+     *
+     * @return One display line per appointment
+     * @throws SQLException if the appointments cannot be read
+     */
+    private List<String> loadAppointments() throws SQLException {
+        String sql = "SELECT appointment_date, start_time, end_time, doctor_id FROM appointments WHERE patient_id = ? ORDER BY appointment_date ASC";
+        List<String> appointments = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, patientId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String appointmentDate = rs.getString("appointment_date");
+                    String startTime = rs.getString("start_time");
+                    String endTime = rs.getString("end_time");
+                    int doctorId = rs.getInt("doctor_id");
+                    appointments.add("\u2714 " + appointmentDate + ": " + startTime + "–" + endTime + " with Dr. " + doctorId);
+                }
+            }
+        }
+        return appointments;
+    }
+
+    /**
+     * Loads the latest feedback a doctor left for the patient
+     *
+     * @return Feedback text, or null if there is none
+     * @throws SQLException if the feedback cannot be read
+     */
+    private String loadLatestFeedback() throws SQLException {
+        String sql = "SELECT feedback_text FROM feedback WHERE patient_id = ? ORDER BY created_at DESC LIMIT 1";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, patientId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString("feedback_text") : null;
+            }
+        }
+    }
+
+    /**
+     * Loads the patient's prescriptions
+     *
+     * @return One display line per medication
+     * @throws SQLException if the prescriptions cannot be read
+     */
+    private List<String> loadMedications() throws SQLException {
+        String sql = "SELECT MedicineName, Dosage, Instructions FROM prescriptions WHERE PatientID = ?";
+        List<String> medications = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, patientId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    medications.add("\uD83D\uDC8A " +
+                            rs.getString("MedicineName") + " - " +
+                            rs.getString("Dosage") + " (" +
+                            rs.getString("Instructions") + ")");
+                }
+            }
+        }
+        return medications;
+    }
+
     /**
      * Gets the user role for a patient
      *
@@ -558,13 +661,12 @@ public class PatientDashboard extends Application {
      * @return Role string ("patient" by default)
      */
     private String getPatientRole(int patientId) {
-        String sql = "SELECT role FROM users WHERE id = (SELECT user_id FROM patients WHERE id = ?)";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, patientId);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getString("role");
+        try {
+            IdentityDirectory directory = IdentityDirectory.getInstance();
+            IdentityDirectory.Member patient = directory.patient(patientId);
+            IdentityDirectory.User user = patient == null ? null : directory.user(patient.userId());
+            if (user != null) {
+                return user.role();
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -579,13 +681,10 @@ public class PatientDashboard extends Application {
      * @return User ID or -1 if not found
      */
     private int getPatientUserId(int patientId) {
-        String sql = "SELECT user_id FROM patients WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, patientId);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("user_id");
+        try {
+            IdentityDirectory.Member patient = IdentityDirectory.getInstance().patient(patientId);
+            if (patient != null) {
+                return patient.userId();
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -616,6 +715,15 @@ public class PatientDashboard extends Application {
         return -1; // Error value
     }
 
+    /**
+     * The patient's user account, as the chat client identifies users
+     *
+     * @param userId ID in the users table
+     * @param role   Role from the users table
+     */
+    private record ChatIdentity(int userId, String role) {
+    }
+
     /**
      * Main application entry point
      *
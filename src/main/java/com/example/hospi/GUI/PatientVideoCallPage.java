@@ -10,25 +10,29 @@ import javafx.stage.Stage;
 import java.sql.*;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class PatientVideoCallPage {
 
     private final int patientId;
-    private final Connection conn;
     private final ComboBox<String> doctorComboBox = new ComboBox<>();
     private final ComboBox<LocalDate> dayComboBox = new ComboBox<>();
     private final ComboBox<LocalTime> timeComboBox = new ComboBox<>();
+    private final Button bookBtn = new Button("Book Appointment");
     private final Label statusLabel = new Label();
     private final Map<String, Integer> doctorNameToId = new HashMap<>();
     private final Map<LocalDate, TimeRange> doctorAvailabilityByDate = new HashMap<>();
+    private Stage stage;
+    // Loads for an earlier selection must not overwrite the current one
+    private CompletableFuture<?> daysLoad;
+    private CompletableFuture<?> timesLoad;
 
-    public PatientVideoCallPage(int patientId) throws SQLException {
+    public PatientVideoCallPage(int patientId) {
         this.patientId = patientId;
-        this.conn = DatabaseConnection.getConnection();
     }
 
     public void show() {
-        Stage stage = new Stage();
+        stage = new Stage();
 
         VBox root = new VBox(15);
         root.setPadding(new Insets(20));
@@ -40,8 +44,7 @@ public class PatientVideoCallPage {
         Label doctorLabel = new Label("Select Assigned Doctor:");
         doctorLabel.setStyle("-fx-text-fill: white;");
 
-        doctorComboBox.setPromptText("Select Doctor");
-        loadAssignedDoctors();
+        doctorComboBox.setPromptText("Loading doctors...");
 
         Button loadDaysButton = new Button("Load Available Days");
         loadDaysButton.setOnAction(e -> loadAvailableDays());
@@ -56,7 +59,6 @@ public class PatientVideoCallPage {
         timeLabel.setStyle("-fx-text-fill: white;");
         timeComboBox.setPromptText("Select 1-hour Slot");
 
-        Button bookBtn = new Button("Book Appointment");
         bookBtn.setOnAction(e -> bookAppointment());
 
         statusLabel.setStyle("-fx-text-fill: lightgreen;");
@@ -75,27 +77,39 @@ public class PatientVideoCallPage {
         stage.setTitle("Lifeline Remote Hospital - Video Call");
         stage.setScene(scene);
         stage.show();
+
+        loadAssignedDoctors();
     }
 
     private void loadAssignedDoctors() {
         doctorComboBox.getItems().clear();
         doctorNameToId.clear();
-        try (PreparedStatement stmt = conn.prepareStatement(
+        AsyncDatabase.load(stage, this::queryAssignedDoctors, doctors -> {
+            doctorNameToId.putAll(doctors);
+            doctorComboBox.getItems().setAll(doctors.keySet());
+            doctorComboBox.setPromptText("Select Doctor");
+        }, e -> {
+            doctorComboBox.setPromptText("Select Doctor");
+            statusLabel.setText("❌ Error loading doctors.");
+            e.printStackTrace();
+        });
+    }
+
+    // Database threads: doctor names to IDs, in query order
+    private Map<String, Integer> queryAssignedDoctors() throws SQLException {
+        Map<String, Integer> doctors = new LinkedHashMap<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
                 "SELECT d.id, d.name FROM doctorpatientassignment a " +
                         "JOIN doctors d ON a.DoctorID = d.id " +
                         "WHERE a.PatientID = ?")) {
             stmt.setInt(1, patientId);
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
-                int id = rs.getInt("id");
-                String name = rs.getString("name");
-                doctorNameToId.put(name, id);
-                doctorComboBox.getItems().add(name);
+                doctors.put(rs.getString("name"), rs.getInt("id"));
             }
-        } catch (SQLException e) {
-            statusLabel.setText("❌ Error loading doctors.");
-            e.printStackTrace();
         }
+        return doctors;
     }
 
     private void loadAvailableDays() {
@@ -109,12 +123,31 @@ public class PatientVideoCallPage {
 
         int doctorId = doctorNameToId.get(selectedDoctor);
 
-        try (PreparedStatement stmt = conn.prepareStatement(
+        if (daysLoad != null) daysLoad.cancel(false);
+        statusLabel.setText("Loading days...");
+        daysLoad = AsyncDatabase.load(stage, () -> queryAvailability(doctorId), availability -> {
+            if (availability.isEmpty()) {
+                statusLabel.setText("❌ No available days.");
+            } else {
+                doctorAvailabilityByDate.putAll(availability);
+                dayComboBox.setItems(FXCollections.observableArrayList(availability.keySet()));
+                statusLabel.setText("✅ Days loaded.");
+            }
+        }, e -> {
+            statusLabel.setText("❌ Error loading days: " + e.getMessage());
+            e.printStackTrace();
+        });
+    }
+
+    // Database threads: the doctor's upcoming days and their hours, in query order
+    private Map<LocalDate, TimeRange> queryAvailability(int doctorId) throws SQLException {
+        Map<LocalDate, TimeRange> availability = new LinkedHashMap<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
                 "SELECT available_date, start_time, end_time FROM doctor_availability " +
                         "WHERE doctor_id = ? AND available_date >= CURDATE()")) {
             stmt.setInt(1, doctorId);
             ResultSet rs = stmt.executeQuery();
-            List<LocalDate> availableDays = new ArrayList<>();
 
             while (rs.next()) {
                 java.sql.Date sqlDate = rs.getDate("available_date");
@@ -125,24 +158,13 @@ public class PatientVideoCallPage {
                     LocalDate date = sqlDate.toLocalDate();
                     LocalTime start = LocalTime.parse(startStr);
                     LocalTime end = LocalTime.parse(endStr);
-                    doctorAvailabilityByDate.put(date, new TimeRange(start, end));
-                    availableDays.add(date);
+                    availability.put(date, new TimeRange(start, end));
                 } else {
                     System.out.println("⚠️ Skipped: Null time or date for doctor " + doctorId);
                 }
             }
-
-            if (availableDays.isEmpty()) {
-                statusLabel.setText("❌ No available days.");
-            } else {
-                dayComboBox.setItems(FXCollections.observableArrayList(availableDays));
-                statusLabel.setText("✅ Days loaded.");
-            }
-
-        } catch (SQLException e) {
-            statusLabel.setText("❌ Error loading days: " + e.getMessage());
-            e.printStackTrace();
         }
+        return availability;
     }
 
     private void loadAvailableTimes() {
@@ -163,31 +185,37 @@ public class PatientVideoCallPage {
             return;
         }
 
+        if (timesLoad != null) timesLoad.cancel(false);
+        statusLabel.setText("Loading time slots...");
+        timesLoad = AsyncDatabase.load(stage, () -> queryFreeTimes(doctorId, selectedDate, range), availableTimes -> {
+            if (availableTimes.isEmpty()) {
+                statusLabel.setText("❌ No available time slots.");
+            } else {
+                timeComboBox.setItems(FXCollections.observableArrayList(availableTimes));
+                statusLabel.setText("✅ Time slots loaded.");
+            }
+        }, e -> {
+            statusLabel.setText("❌ Slot check error: " + e.getMessage());
+            e.printStackTrace();
+        });
+    }
+
+    // Database threads: start times within the range whose hour is free, on one connection
+    private List<LocalTime> queryFreeTimes(int doctorId, LocalDate date, TimeRange range) throws SQLException {
         List<LocalTime> availableTimes = new ArrayList<>();
-        LocalTime current = range.start;
-        while (!current.plusHours(1).isAfter(range.end)) {
-            LocalDateTime startDateTime = LocalDateTime.of(selectedDate, current);
-            try {
-                if (isSlotFree(doctorId, startDateTime)) {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            LocalTime current = range.start;
+            while (!current.plusHours(1).isAfter(range.end)) {
+                if (isSlotFree(conn, doctorId, LocalDateTime.of(date, current))) {
                     availableTimes.add(current);
                 }
-            } catch (SQLException e) {
-                statusLabel.setText("❌ Slot check error: " + e.getMessage());
-                e.printStackTrace();
-                return;
+                current = current.plusMinutes(30); // Optional 30-min granularity
             }
-            current = current.plusMinutes(30); // Optional 30-min granularity
-        }
-
-        if (availableTimes.isEmpty()) {
-            statusLabel.setText("❌ No available time slots.");
-        } else {
-            timeComboBox.setItems(FXCollections.observableArrayList(availableTimes));
-            statusLabel.setText("✅ Time slots loaded.");
         }
+        return availableTimes;
     }
 
-    private boolean isSlotFree(int doctorId, LocalDateTime dateTime) throws SQLException {
+    private boolean isSlotFree(Connection conn, int doctorId, LocalDateTime dateTime) throws SQLException {
         Timestamp start = Timestamp.valueOf(dateTime);
         Timestamp end = Timestamp.valueOf(dateTime.plusHours(1));
 
@@ -231,18 +259,27 @@ public class PatientVideoCallPage {
         int doctorId = doctorNameToId.get(selectedDoctor);
         LocalDateTime appointmentTime = LocalDateTime.of(selectedDate, selectedTime);
 
-        try (PreparedStatement stmt = conn.prepareStatement(
+        bookBtn.setDisable(true);
+        AsyncDatabase.load(stage, () -> requestVideoCall(doctorId, appointmentTime), rows -> {
+            bookBtn.setDisable(false);
+            statusLabel.setText("✅ Video call appointment requested!");
+        }, e -> {
+            bookBtn.setDisable(false);
+            statusLabel.setText("❌ Booking failed: " + e.getMessage());
+            e.printStackTrace();
+        });
+    }
+
+    // Database threads
+    private int requestVideoCall(int doctorId, LocalDateTime appointmentTime) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
                 "INSERT INTO video_call_appointments (doctor_id, patient_id, appointment_time, status, created_at) " +
                         "VALUES (?, ?, ?, 'pending', NOW())")) {
             stmt.setInt(1, doctorId);
             stmt.setInt(2, patientId);
             stmt.setTimestamp(3, Timestamp.valueOf(appointmentTime));
-            stmt.executeUpdate();
-
-            statusLabel.setText("✅ Video call appointment requested!");
-        } catch (SQLException e) {
-            statusLabel.setText("❌ Booking failed: " + e.getMessage());
-            e.printStackTrace();
+            return stmt.executeUpdate();
         }
     }
 
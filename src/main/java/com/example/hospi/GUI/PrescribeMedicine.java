@@ -23,6 +23,8 @@ public class PrescribeMedicine extends Application {
     private TextArea instructionsTextArea;            // Text area for special instructions
     private TextField durationTextField;              // Input for treatment duration
     private TextField refillsTextField;               // Input for number of refills
+    private Button submitButton;                      // Disabled while a prescription is being saved
+    private Stage stage;
     private int doctorId;
 
     PrescribeMedicine(int doctorId){
@@ -37,6 +39,8 @@ public class PrescribeMedicine extends Application {
      */
     @Override
     public void start(Stage stage) {
+        this.stage = stage;
+
         // Create header with application title
         Label header = new Label("Prescribe Medicine");
         header.setFont(Font.font("Segoe UI", FontWeight.BOLD, 30));
@@ -115,7 +119,7 @@ public class PrescribeMedicine extends Application {
         form.addRow(5, refillsLabel, refillsTextField);
 
         // SUBMIT BUTTON
-        Button submitButton = new Button("Submit Prescription");
+        submitButton = new Button("Submit Prescription");
         submitButton.setStyle(
                 "-fx-background-color: #3498db;" +  // Blue background
                         "-fx-text-fill: white;" +           // White text
@@ -254,37 +258,29 @@ public class PrescribeMedicine extends Application {
 
     /**
      * Loads patients assigned to the specified doctor from the database
-     * and populates the patient dropdown menu
+     * and populates the patient dropdown menu, in the background
      *
      * @param doctorId The ID of the doctor whose patients to load
      */
     private void loadPatientsFromDatabase(int doctorId) {
-        // SQL query to fetch patients assigned to this doctor
-        String query ="""
-                SELECT DISTINCT p.id, p.name 
-                FROM hospital_db.doctorpatientassignment dpa
-                JOIN hospital_db.patients p ON dpa.PatientID = p.id
-                WHERE dpa.DoctorID = ?
-                """;
-
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pst = conn.prepareStatement(query)) {
-            pst.setInt(1, doctorId);
-            try (ResultSet rs = pst.executeQuery()) {
-                // Add each patient to the dropdown
-                while (rs.next()) {
-                    patientComboBox.getItems().add(rs.getString("patient_name"));
-                }
+        patientComboBox.setPromptText("Loading patients...");
+        // Fetch patients assigned to this doctor
+        AsyncDatabase.load(stage, () -> PatientAssignments.getInstance().forDoctor(doctorId), patients -> {
+            // Add each patient to the dropdown
+            for (PatientAssignments.AssignedPatient patient : patients) {
+                patientComboBox.getItems().add(patient.name());
             }
-        } catch (SQLException e) {
+            patientComboBox.setPromptText(null);
+        }, e -> {
             e.printStackTrace();
+            patientComboBox.setPromptText("Could not load patients");
             showAlert("Error loading patient data.");
-        }
+        });
     }
 
     /**
-     * Handles prescription form submission - validates input, saves to database,
-     * and sends email notification to patient
+     * Handles prescription form submission - validates input, then saves to database and
+     * sends email notification to patient in the background
      */
     private void submitPrescription() {
         // Get form values
@@ -301,6 +297,28 @@ public class PrescribeMedicine extends Application {
             return;
         }
 
+        submitButton.setDisable(true);
+        AsyncDatabase.load(stage,
+                () -> savePrescription(patientName, medicine, dosage, instructions, duration, refills),
+                message -> {
+                    submitButton.setDisable(false);
+                    showAlert(message);
+                },
+                e -> {
+                    e.printStackTrace();
+                    submitButton.setDisable(false);
+                    showAlert("A database error occurred. Please try again.");
+                });
+    }
+
+    /**
+     * Saves a prescription and emails the patient about it (database threads)
+     *
+     * @return The message to show the doctor
+     * @throws SQLException if the prescription cannot be saved
+     */
+    private String savePrescription(String patientName, String medicine, String dosage, String instructions,
+                                    String duration, String refills) throws SQLException {
         try (Connection conn = DatabaseConnection.getConnection()) {
             // First query: Get patient ID and email (stored in address field)
             String patientQuery = "SELECT id, address FROM hospital_db.patients WHERE name = ?";
@@ -318,8 +336,7 @@ public class PrescribeMedicine extends Application {
             }
 
             if (patientId == -1 || patientEmail.isEmpty()) {
-                showAlert("Patient information not found or missing email.");
-                return;
+                return "Patient information not found or missing email.";
             }
 
             // Second query: Insert prescription record
@@ -342,8 +359,6 @@ public class PrescribeMedicine extends Application {
                 // Execute the insert
                 int rowsInserted = insertStmt.executeUpdate();
                 if (rowsInserted > 0) {
-                    showAlert("✅ Prescription submitted successfully.");
-
                     // Prepare email notification
                     String subject = "🩺 Prescription Issued: " + medicine;
                     String emailBody = String.format("""
@@ -371,20 +386,19 @@ public class PrescribeMedicine extends Application {
                             java.time.LocalDate.now()
                     );
 
-                    // Send email notification
-                    Notifiable emailer = new EmailNotification();
-                    emailer.sendNotification(subject, emailBody, patientEmail);
+                    // Send email notification; the prescription is saved either way
+                    try {
+                        Notifiable emailer = new EmailNotification();
+                        emailer.sendNotification(subject, emailBody, patientEmail);
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        return "✅ Prescription submitted, but the patient could not be emailed.";
+                    }
+                    return "✅ Prescription submitted successfully.";
                 } else {
-                    showAlert("❌ Failed to submit prescription.");
+                    return "❌ Failed to submit prescription.";
                 }
             }
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-            showAlert("A database error occurred. Please try again.");
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            showAlert("An unexpected error occurred.");
         }
     }
 
@@ -13,6 +13,7 @@ import javafx.stage.Stage;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * ProvideFeedback - A JavaFX application for doctors to provide feedback to patients.
@@ -27,6 +28,8 @@ public class ProvideFeedback extends Application {
     private TextField medicationTextField;    // Input for prescribed medications
     private ListView<String> feedbackListView; // Display for feedback history
     private Button submitButton, clearButton; // Action buttons
+    private Stage stage;
+    private CompletableFuture<?> historyLoad; // History of the selected patient, while loading
 
     private int doctorId; // Hardcoded doctor ID (to be replaced with authentication)
 
@@ -44,6 +47,8 @@ public class ProvideFeedback extends Application {
 
     @Override
     public void start(Stage primaryStage) {
+        this.stage = primaryStage;
+
         // ==================== HEADER SECTION ====================
         Label headerLabel = new Label("🩺 Provide Patient Feedback");
         headerLabel.setFont(Font.font("Segoe UI", FontWeight.EXTRA_BOLD, 34));
@@ -202,70 +207,82 @@ public class ProvideFeedback extends Application {
 
     /**
      * Loads the list of patients assigned to the current doctor from the database
-     * and populates the patient selection dropdown.
+     * and populates the patient selection dropdown, in the background.
      * The patient names are displayed in the format "ID | Name".
      */
     private void loadPatientList() {
-        // SQL query to get all patients assigned to this doctor
-        String query ="""
-                SELECT DISTINCT p.id, p.name 
-                FROM hospital_db.doctorpatientassignment dpa
-                JOIN hospital_db.patients p ON dpa.PatientID = p.id
-                WHERE dpa.DoctorID = ?
-                """;
-
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setInt(1, doctorId); // Set the doctor ID parameter
-            ResultSet rs = stmt.executeQuery();
-
+        patientComboBox.setPromptText("Loading patients...");
+        // Get all patients assigned to this doctor
+        AsyncDatabase.load(stage, () -> PatientAssignments.getInstance().forDoctor(doctorId), patients -> {
             List<String> patientNames = new ArrayList<>();
             // Process each patient record
-            while (rs.next()) {
+            for (PatientAssignments.AssignedPatient patient : patients) {
                 // Format as "ID | Name" for display
-                patientNames.add(rs.getInt("id") + " | " + rs.getString("name"));
+                patientNames.add(patient.id() + " | " + patient.name());
             }
 
             // Update the combo box with the patient list
             patientComboBox.getItems().setAll(patientNames);
-        } catch (SQLException e) {
+            patientComboBox.setPromptText(null);
+        }, e -> {
+            e.printStackTrace();
+            patientComboBox.setPromptText("Could not load patients");
             showAlert("Error loading patients. Please try again later.");
-        }
+        });
     }
 
     /**
-     * Loads and displays the feedback history for the currently selected patient.
+     * Loads and displays the feedback history for the currently selected patient, in the background.
      * Each entry shows the timestamp, feedback text, and any prescribed medication.
      */
     private void loadFeedbackHistory() {
         String selected = patientComboBox.getValue();
         if (selected == null) return; // No patient selected
 
+        // A load for the previously selected patient must not overwrite this one
+        if (historyLoad != null) historyLoad.cancel(false);
+
         // Extract the patient ID from the selected item ("ID | Name")
         int patientId = extractPatientId(selected);
 
+        // Clear previous feedback entries
+        feedbackListView.getItems().clear();
+        feedbackListView.setPlaceholder(new Label("Loading feedback..."));
+        historyLoad = AsyncDatabase.load(stage, () -> queryFeedbackHistory(patientId), entries -> {
+            feedbackListView.getItems().setAll(entries);
+            feedbackListView.setPlaceholder(new Label("No feedback yet."));
+        }, e -> {
+            e.printStackTrace();
+            feedbackListView.setPlaceholder(new Label("Could not load feedback."));
+            showAlert("Error loading feedback history. Please try again.");
+        });
+    }
+
+    /**
+     * Reads the feedback history of a patient (database threads)
+     *
+     * @param patientId Patient to read
+     * @return One formatted entry per feedback record
+     */
+    private List<String> queryFeedbackHistory(int patientId) throws SQLException {
         // Query to get all feedback records for this patient
         String query = "SELECT feedback_text, medication, created_at FROM feedback WHERE patient_id = ?";
 
+        List<String> entries = new ArrayList<>();
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setInt(1, patientId);
-            ResultSet rs = stmt.executeQuery();
-
-            // Clear previous feedback entries
-            feedbackListView.getItems().clear();
-
-            // Process each feedback record
-            while (rs.next()) {
-                // Format the feedback entry with emojis for better readability
-                String entry = "🗓 " + rs.getTimestamp("created_at") +  // Timestamp
-                        "\n📝 " + rs.getString("feedback_text") +      // Feedback text
-                        "\n💊 " + rs.getString("medication");         // Medication
-                feedbackListView.getItems().add(entry);
+            try (ResultSet rs = stmt.executeQuery()) {
+                // Process each feedback record
+                while (rs.next()) {
+                    // Format the feedback entry with emojis for better readability
+                    entries.add("🗓 " + rs.getTimestamp("created_at") +  // Timestamp
+                            "\n📝 " + rs.getString("feedback_text") +      // Feedback text
+                            "\n💊 " + rs.getString("medication"));         // Medication
+                }
             }
-        } catch (SQLException e) {
-            showAlert("Error loading feedback history. Please try again.");
         }
+        return entries;
     }
 
     /**
@@ -274,6 +291,7 @@ public class ProvideFeedback extends Application {
      * 2. Sending email notification to patient
      * 3. Clearing the form
      * 4. Refreshing the history view
+     * The first two run in the background.
      */
     private void submitFeedback() {
         String selected = patientComboBox.getValue();
@@ -290,6 +308,28 @@ public class ProvideFeedback extends Application {
         String medication = medicationTextField.getText().trim();
         Timestamp timestamp = new Timestamp(System.currentTimeMillis());
 
+        submitButton.setDisable(true);
+        AsyncDatabase.load(stage, () -> saveFeedback(patientId, feedback, medication, timestamp), message -> {
+            // Update UI
+            submitButton.setDisable(false);
+            showAlert(message);
+            clearFeedback();
+            loadFeedbackHistory();
+        }, e -> {
+            submitButton.setDisable(false);
+            showAlert("Failed to submit feedback. Please try again.");
+            e.printStackTrace();
+        });
+    }
+
+    /**
+     * Saves feedback and emails the patient about it (database threads)
+     *
+     * @return The message to show the doctor
+     * @throws SQLException if the feedback cannot be saved
+     */
+    private String saveFeedback(int patientId, String feedback, String medication, Timestamp timestamp)
+            throws SQLException {
         // SQL queries
         String insertQuery = "INSERT INTO feedback (doctor_id, patient_id, feedback_text, medication, created_at) " +
                 "VALUES (?, ?, ?, ?, ?)";
@@ -309,9 +349,10 @@ public class ProvideFeedback extends Application {
 
             // 2. Get patient email for notification
             emailStmt.setInt(1, patientId);
-            ResultSet rs = emailStmt.executeQuery();
-
-            if (rs.next()) {
+            try (ResultSet rs = emailStmt.executeQuery()) {
+                if (!rs.next()) {
+                    return "Feedback submitted; no email address on file for the patient.";
+                }
                 String patientEmail = rs.getString("address");
 
                 // Prepare email content with formatted feedback
@@ -325,15 +366,7 @@ public class ProvideFeedback extends Application {
                 // Send email notification
                 new EmailNotification().sendNotification(subject, message, patientEmail);
             }
-
-            // Update UI
-            showAlert("Feedback successfully submitted and email sent.");
-            clearFeedback();
-            loadFeedbackHistory();
-
-        } catch (SQLException e) {
-            showAlert("Failed to submit feedback. Please try again.");
-            e.printStackTrace();
+            return "Feedback successfully submitted and email sent.";
         }
     }
 
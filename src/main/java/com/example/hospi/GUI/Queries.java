@@ -0,0 +1,48 @@
+package com.example.hospi.GUI;
+
+/**
+ * Queries - SQL run often enough to be worth keeping prepared.
+ *
+ * The connection pool caches prepared statements by their exact SQL text, so a query written
+ * out separately in several screens, differing only in whitespace, would be prepared once per
+ * spelling. Screens use these constants instead, and every caller of a lookup shares one
+ * statement per connection.
+ */
+final class Queries {
+
+    private Queries() {
+    }
+
+    /**
+     * Patients assigned to a doctor. Parameter: doctor ID. Columns: id, name.
+     */
+    static final String ASSIGNED_PATIENTS = """
+            SELECT DISTINCT p.id, p.name
+            FROM hospital_db.doctorpatientassignment dpa
+            JOIN hospital_db.patients p ON dpa.PatientID = p.id
+            WHERE dpa.DoctorID = ?
+            """;
+
+    /**
+     * A patient's name. Parameter: patient ID. Column: name.
+     */
+    static final String PATIENT_NAME = "SELECT name FROM patients WHERE id = ?";
+
+    /**
+     * The patient record of a user. Parameter: user ID. Column: id.
+     */
+    static final String PATIENT_ID_BY_USER = "SELECT id FROM patients WHERE user_id = ?";
+
+    /**
+     * The doctor record of a user. Parameter: user ID. Column: id.
+     */
+    static final String DOCTOR_ID_BY_USER = "SELECT id FROM doctors WHERE user_id = ?";
+
+    /**
+     * One vitals reading. Parameters: patient ID, heart rate, blood pressure, oxygen level,
+     * temperature, recorded at.
+     */
+    static final String INSERT_VITALS =
+            "INSERT INTO vitals (patient_id, heart_rate, blood_pressure, oxygen_level, temperature, recorded_at) " +
+                    "VALUES (?, ?, ?, ?, ?, ?)";
+}
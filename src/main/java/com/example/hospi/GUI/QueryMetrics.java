@@ -0,0 +1,474 @@
+package com.example.hospi.GUI;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * QueryMetrics - Timing, row and error counts for every SQL statement run through DatabaseConnection.
+ *
+ * Connections are wrapped so that each execute call on their statements is timed into a
+ * latency histogram kept per statement (SQL text with whitespace collapsed). Rows read through
+ * a ResultSet are counted as they are read; updates count the rows they changed. Executions
+ * slower than -Dhospi.db.slowQueryMs (default 200) and failed executions are appended to the
+ * slow-query log, -Dhospi.db.slowQueryLog (default slow-queries.log), with the SQL but never
+ * its parameters, which hold patient data. Failures are logged by SQLState and error code
+ * alone, because driver messages quote the values that caused them.
+ *
+ * The numbers are read with dump(), as a table sorted by total time, or scraped in Prometheus
+ * text format from http://localhost:PORT/metrics when -Dhospi.db.metricsPort is set.
+ */
+class QueryMetrics {
+
+    // Upper bounds of the latency histogram buckets, in milliseconds; a last bucket takes the rest
+    static final long[] BUCKET_BOUNDS_MS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000};
+
+    // Statements built from literals rather than parameters would otherwise grow the map without bound
+    private static final int MAX_STATEMENTS = 500;
+    private static final String OTHER = "(other statements)";
+
+    private final long slowNanos;
+    private final Path slowLog;
+
+    // By SQL as the caller wrote it, and by its normalized form, which the numbers belong to
+    private final Map<String, StatementStats> byRawSql = new ConcurrentHashMap<>();
+    private final Map<String, StatementStats> bySql = new ConcurrentHashMap<>();
+
+    /**
+     * @param slowQueryMs Executions at least this slow are logged
+     * @param slowLog     File the slow and failed executions are appended to
+     */
+    QueryMetrics(long slowQueryMs, Path slowLog) {
+        this.slowNanos = slowQueryMs * 1_000_000L;
+        this.slowLog = slowLog;
+    }
+
+    /**
+     * @return Metrics configured from -Dhospi.db.slowQueryMs and -Dhospi.db.slowQueryLog
+     */
+    static QueryMetrics fromSystemProperties() {
+        return new QueryMetrics(Long.getLong("hospi.db.slowQueryMs", 200L),
+                Path.of(System.getProperty("hospi.db.slowQueryLog", "slow-queries.log")));
+    }
+
+    /**
+     * Numbers for one statement.
+     *
+     * @param sql     Normalized SQL text
+     * @param calls   Executions, failed ones included
+     * @param errors  Executions that threw
+     * @param rows    Rows read or changed
+     * @param totalMs Time spent executing
+     * @param maxMs   Slowest execution
+     * @param buckets Executions per latency bucket (see BUCKET_BOUNDS_MS), the last one unbounded
+     */
+    record Snapshot(String sql, long calls, long errors, long rows, double totalMs, double maxMs, long[] buckets) {
+
+        /**
+         * @param quantile Between 0 and 1, e.g. 0.95
+         * @return Upper bound of the bucket holding the quantile, in ms; maxMs for the last bucket
+         */
+        double percentileMs(double quantile) {
+            long rank = (long) Math.ceil(quantile * calls);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return i < BUCKET_BOUNDS_MS.length ? Math.min(BUCKET_BOUNDS_MS[i], maxMs) : maxMs;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Wraps a connection so every statement created from it is measured.
+     *
+     * @param connection Connection to measure, typically a pooled one
+     * @return A connection that behaves the same and reports to these metrics
+     */
+    Connection instrument(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new ConnectionHandler(connection));
+    }
+
+    /**
+     * @return Numbers for every statement run so far, most total time first
+     */
+    List<Snapshot> snapshot() {
+        List<Snapshot> snapshots = new ArrayList<>();
+        bySql.forEach((sql, stats) -> snapshots.add(stats.snapshot(sql)));
+        snapshots.sort(Comparator.comparingDouble(Snapshot::totalMs).reversed());
+        return snapshots;
+    }
+
+    /**
+     * @return A plain-text table of snapshot(), for logs and the console
+     */
+    String dump() {
+        StringBuilder out = new StringBuilder(String.format(Locale.ROOT,
+                "%8s %7s %9s %10s %8s %8s %8s  %s%n", "calls", "errors", "rows", "total ms", "p50", "p95", "max", "sql"));
+        for (Snapshot s : snapshot()) {
+            out.append(String.format(Locale.ROOT, "%8d %7d %9d %10.1f %8.1f %8.1f %8.1f  %s%n",
+                    s.calls(), s.errors(), s.rows(), s.totalMs(),
+                    s.percentileMs(0.5), s.percentileMs(0.95), s.maxMs(), s.sql()));
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return snapshot() in Prometheus text exposition format
+     */
+    String prometheus() {
+        StringBuilder out = new StringBuilder();
+        out.append("# TYPE hospi_sql_duration_seconds histogram\n");
+        List<Snapshot> snapshots = snapshot();
+        for (Snapshot s : snapshots) {
+            String sql = "sql=\"" + escapeLabel(s.sql()) + "\"";
+            long cumulative = 0;
+            for (int i = 0; i < s.buckets().length; i++) {
+                cumulative += s.buckets()[i];
+                String le = i < BUCKET_BOUNDS_MS.length ? String.valueOf(BUCKET_BOUNDS_MS[i] / 1000.0) : "+Inf";
+                out.append("hospi_sql_duration_seconds_bucket{").append(sql).append(",le=\"").append(le)
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            out.append("hospi_sql_duration_seconds_sum{").append(sql).append("} ")
+                    .append(s.totalMs() / 1000.0).append('\n');
+            out.append("hospi_sql_duration_seconds_count{").append(sql).append("} ").append(s.calls()).append('\n');
+        }
+        out.append("# TYPE hospi_sql_errors_total counter\n");
+        for (Snapshot s : snapshots) {
+            out.append("hospi_sql_errors_total{sql=\"").append(escapeLabel(s.sql())).append("\"} ")
+                    .append(s.errors()).append('\n');
+        }
+        out.append("# TYPE hospi_sql_rows_total counter\n");
+        for (Snapshot s : snapshots) {
+            out.append("hospi_sql_rows_total{sql=\"").append(escapeLabel(s.sql())).append("\"} ")
+                    .append(s.rows()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Serves the metrics over HTTP on the loopback interface: /metrics in Prometheus format,
+     * /queries as the dump() table.
+     *
+     * @param port  Port to listen on
+     * @param extra Further Prometheus lines appended to /metrics, e.g. pool gauges
+     * @return The running server, on a daemon thread
+     * @throws IOException if the port cannot be bound
+     */
+    HttpServer serve(int port, Supplier<String> extra) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> respond(exchange, prometheus() + extra.get(),
+                "text/plain; version=0.0.4; charset=utf-8"));
+        server.createContext("/queries", exchange -> respond(exchange, dump(), "text/plain; charset=utf-8"));
+        server.setExecutor(null);  // The dispatcher thread; responses are built from counters in memory
+        // Threads inherit daemon status, so the server's dispatcher started from here cannot keep the application running
+        Thread thread = new Thread(server::start, "db-metrics-http");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("Query metrics served on http://localhost:" + port + "/metrics");
+        return server;
+    }
+
+    private static void respond(com.sun.net.httpserver.HttpExchange exchange, String body, String type) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Label values may not hold raw quotes, backslashes or newlines
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private StatementStats statsFor(String rawSql) {
+        String key = rawSql == null ? "(unknown)" : rawSql;
+        StatementStats stats = byRawSql.get(key);
+        if (stats != null) return stats;
+        String sql = key.strip().replaceAll("\\s+", " ");
+        if (bySql.size() >= MAX_STATEMENTS && !bySql.containsKey(sql)) {
+            sql = OTHER;
+        }
+        stats = bySql.computeIfAbsent(sql, s -> new StatementStats());
+        if (byRawSql.size() < MAX_STATEMENTS * 2) {
+            byRawSql.putIfAbsent(key, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Counts one execution, logging it if slow or failed.
+     */
+    private void executed(StatementStats stats, String rawSql, long nanos, SQLException failure) {
+        stats.record(nanos, failure != null);
+        if (failure != null) {
+            // Codes only: driver messages quote the offending values, e.g. "Duplicate entry 'x' for key"
+            writeLog(String.format(Locale.ROOT, "%s FAILED after %.1f ms [%s] %s SQLState %s, error %d | %s",
+                    LocalDateTime.now(), nanos / 1e6, Thread.currentThread().getName(),
+                    failure.getClass().getSimpleName(), failure.getSQLState(), failure.getErrorCode(), oneLine(rawSql)));
+        } else if (nanos >= slowNanos) {
+            writeLog(String.format(Locale.ROOT, "%s SLOW %.1f ms [%s] %s",
+                    LocalDateTime.now(), nanos / 1e6, Thread.currentThread().getName(), oneLine(rawSql)));
+        }
+    }
+
+    private static String oneLine(String sql) {
+        return sql == null ? "(unknown)" : sql.strip().replaceAll("\\s+", " ");
+    }
+
+    private synchronized void writeLog(String line) {
+        try {
+            Files.writeString(slowLog, line + System.lineSeparator(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Could not write slow-query log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Counters of one statement; updated by many threads without locking.
+     */
+    private static final class StatementStats {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MS.length + 1];
+
+        private StatementStats() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(long nanos, boolean failed) {
+            calls.increment();
+            if (failed) errors.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && nanos > BUCKET_BOUNDS_MS[bucket] * 1_000_000L) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+        }
+
+        private Snapshot snapshot(String sql) {
+            long[] counts = new long[buckets.length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets[i].sum();
+            }
+            return new Snapshot(sql, calls.sum(), errors.sum(), rows.sum(),
+                    totalNanos.sum() / 1e6, maxNanos.get() / 1e6, counts);
+        }
+    }
+
+    /**
+     * Wraps the statements a connection creates.
+     */
+    private final class ConnectionHandler implements InvocationHandler {
+        private final Connection target;
+
+        private ConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Instrumented" + target;
+                default:
+                    break;
+            }
+            Object result = invokeTarget(target, method, args);
+            if (result instanceof Statement statement) {
+                // SQL is known up front for prepared statements and calls, and per execute otherwise
+                String sql = method.getName().startsWith("prepare") ? (String) args[0] : null;
+                Class<?> type = switch (method.getName()) {
+                    case "prepareCall" -> CallableStatement.class;
+                    case "prepareStatement" -> PreparedStatement.class;
+                    default -> Statement.class;
+                };
+                return Proxy.newProxyInstance(
+                        Connection.class.getClassLoader(),
+                        new Class<?>[]{type},
+                        new StatementHandler(statement, (Connection) proxy, sql));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Times the execute calls of one statement and counts the rows they produce.
+     */
+    private final class StatementHandler implements InvocationHandler {
+        private final Statement target;
+        private final Connection connection;
+        private final String preparedSql;
+        // Result set of the last executeQuery, whose rows are still being counted
+        private RowCounter openResults;
+
+        private StatementHandler(Statement target, Connection connection, String preparedSql) {
+            this.target = target;
+            this.connection = connection;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "getConnection":
+                    return connection;
+                case "close":
+                    finishResults();
+                    return invokeTarget(target, method, args);
+                default:
+                    break;
+            }
+            if (!name.startsWith("execute")) {
+                return invokeTarget(target, method, args);
+            }
+
+            String sql = args != null && args.length > 0 && args[0] instanceof String s ? s : preparedSql;
+            StatementStats stats = statsFor(sql);
+            finishResults();
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = invokeTarget(target, method, args);
+            } catch (SQLException e) {
+                executed(stats, sql, System.nanoTime() - start, e);
+                throw e;
+            }
+            executed(stats, sql, System.nanoTime() - start, null);
+
+            if (result instanceof ResultSet results) {
+                openResults = new RowCounter(results, (Statement) proxy, stats);
+                return Proxy.newProxyInstance(
+                        ResultSet.class.getClassLoader(),
+                        new Class<?>[]{ResultSet.class},
+                        openResults);
+            }
+            if (result instanceof Integer changed) {
+                stats.rows.add(Math.max(0, changed));
+            } else if (result instanceof Long changed) {
+                stats.rows.add(Math.max(0, changed));
+            } else if (result instanceof int[] batch) {
+                for (int changed : batch) stats.rows.add(Math.max(0, changed));
+            } else if (result instanceof long[] batch) {
+                for (long changed : batch) stats.rows.add(Math.max(0, changed));
+            }
+            return result;
+        }
+
+        private void finishResults() {
+            if (openResults != null) {
+                openResults.finish();
+                openResults = null;
+            }
+        }
+    }
+
+    /**
+     * Counts the rows read from a result set; they are added to the statement's numbers once
+     * it is read to the end or closed, or its statement runs again or closes.
+     */
+    private static final class RowCounter implements InvocationHandler {
+        private final ResultSet target;
+        private final Statement statement;
+        private final StatementStats stats;
+        private long rows;
+        private boolean finished;
+
+        private RowCounter(ResultSet target, Statement statement, StatementStats stats) {
+            this.target = target;
+            this.statement = statement;
+            this.stats = stats;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "getStatement":
+                    return statement;
+                case "close":
+                    finish();
+                    break;
+                default:
+                    break;
+            }
+            Object result = invokeTarget(target, method, args);
+            if (method.getName().equals("next")) {
+                if ((Boolean) result) {
+                    rows++;
+                } else {
+                    finish();
+                }
+            }
+            return result;
+        }
+
+        private void finish() {
+            if (finished) return;
+            finished = true;
+            stats.rows.add(rows);
+        }
+    }
+
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
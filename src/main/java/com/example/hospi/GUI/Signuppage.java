@@ -25,6 +25,7 @@ public class Signuppage extends Application {
     private ComboBox<String> roleComboBox;  // Dropdown for user role selection
     private GridPane grid;                 // Main form layout
     private Button signupButton;           // Primary action button
+    private Stage stage;                   // Window the signup belongs to
 
     public static void main(String[] args) {
         launch(args);
@@ -36,6 +37,8 @@ public class Signuppage extends Application {
      */
     @Override
     public void start(Stage primaryStage) {
+        stage = primaryStage;
+
         // Initialize all input fields
         initializeFields();
 
@@ -244,7 +247,7 @@ public class Signuppage extends Application {
     /**
      * Handles the signup process including:
      * 1. Field validation
-     * 2. Database operations
+     * 2. Database operations, in the background
      * 3. User feedback
      */
     private void handleSignup() {
@@ -266,6 +269,51 @@ public class Signuppage extends Application {
             return;
         }
 
+        // Validate role-specific fields before touching the database
+        Date birthDate = null;
+        if (role.equals("Doctor") && specialization.isEmpty()) {
+            showAlert("Please enter specialization.");
+            return;
+        }
+        if (role.equals("Patient")) {
+            if (gender.isEmpty() || dob.isEmpty()) {
+                showAlert("Please enter gender and date of birth.");
+                return;
+            }
+            try {
+                birthDate = Date.valueOf(dob);
+            } catch (IllegalArgumentException e) {
+                showAlert("Invalid date format. Please use YYYY-MM-DD.");
+                return;
+            }
+        }
+
+        Date patientDob = birthDate;
+        signupButton.setDisable(true);
+        AsyncDatabase.load(stage, () -> createAccount(username, password, role, name, phone, email,
+                specialization, gender, patientDob), created -> {
+            signupButton.setDisable(false);
+            if (created) {
+                showAlert("Signup successful!");
+                clearForm();
+            } else {
+                showAlert("Error creating user.");
+            }
+        }, e -> {
+            e.printStackTrace();
+            signupButton.setDisable(false);
+            showAlert("Signup failed: " + e.getMessage());
+        });
+    }
+
+    /**
+     * Inserts the user and its role-specific record in one transaction (database threads)
+     * @return true if the account was created, false if the database returned no user ID
+     * @throws SQLException if an insert fails; nothing is kept in that case
+     */
+    private boolean createAccount(String username, String password, String role, String name,
+                                  String phone, String email, String specialization,
+                                  String gender, Date dob) throws SQLException {
         try (Connection conn = DatabaseConnection.getConnection()) {
             // Start transaction
             conn.setAutoCommit(false);
@@ -287,19 +335,13 @@ public class Signuppage extends Application {
                 }
 
                 if (userId == -1) {
-                    showAlert("Error creating user.");
                     conn.rollback();
-                    return;
+                    return false;
                 }
 
                 // 2. Insert into role-specific table
                 switch (role) {
                     case "Doctor":
-                        if (specialization.isEmpty()) {
-                            showAlert("Please enter specialization.");
-                            conn.rollback();
-                            return;
-                        }
                         String doctorSQL = "INSERT INTO doctors (user_id, name, specialization, phone, email) VALUES (?, ?, ?, ?, ?)";
                         try (PreparedStatement doctorStmt = conn.prepareStatement(doctorSQL)) {
                             doctorStmt.setInt(1, userId);
@@ -312,17 +354,12 @@ public class Signuppage extends Application {
                         break;
 
                     case "Patient":
-                        if (gender.isEmpty() || dob.isEmpty()) {
-                            showAlert("Please enter gender and date of birth.");
-                            conn.rollback();
-                            return;
-                        }
                         String patientSQL = "INSERT INTO patients (user_id, name, gender, dob, phone, address) VALUES (?, ?, ?, ?, ?, ?)";
                         try (PreparedStatement patientStmt = conn.prepareStatement(patientSQL)) {
                             patientStmt.setInt(1, userId);
                             patientStmt.setString(2, name);
                             patientStmt.setString(3, gender);
-                            patientStmt.setDate(4, Date.valueOf(dob));
+                            patientStmt.setDate(4, dob);
                             patientStmt.setString(5, phone);
                             patientStmt.setString(6, email); // Using email as address
                             patientStmt.executeUpdate();
@@ -343,17 +380,13 @@ public class Signuppage extends Application {
 
                 // Commit transaction if all operations succeeded
                 conn.commit();
-                showAlert("Signup successful!");
-                clearForm();
+                IdentityDirectory.getInstance().invalidate();
+                return true;
 
             } catch (SQLException e) {
                 conn.rollback();
                 throw e;
             }
-        } catch (SQLException e) {
-            showAlert("Signup failed: " + e.getMessage());
-        } catch (IllegalArgumentException e) {
-            showAlert("Invalid date format. Please use YYYY-MM-DD.");
         }
     }
 
@@ -0,0 +1,75 @@
+package com.example.hospi.GUI;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * UnreadCounter - Unread direct messages per (receiver, sender), kept in memory by the chat server.
+ *
+ * Warmed once from chat_messages when the server starts, then counted up as messages are routed
+ * and reset when the receiver's read receipt for that sender arrives, mirroring how
+ * ChatMessageWriter flips the seen flag. Dashboards read the counts over a one-shot
+ * ChatProtocol.UNREAD_QUERY connection, so showing a badge never queries the message table.
+ */
+class UnreadCounter {
+
+    private static final String WARM_SQL = """
+            SELECT receiver_id, sender_id, COUNT(*) AS unread
+            FROM hospital_db.chat_messages
+            WHERE seen = FALSE
+            GROUP BY receiver_id, sender_id
+            """;
+
+    // Receiver -> sender -> unread messages
+    private final Map<Integer, Map<Integer, Integer>> counts = new ConcurrentHashMap<>();
+
+    /**
+     * Loads the unread counts of every conversation. Call before the server accepts clients.
+     */
+    void warmFromDatabase() {
+        long start = System.currentTimeMillis();
+        int conversations = 0;
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(WARM_SQL);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                counts.computeIfAbsent(rs.getInt("receiver_id"), id -> new ConcurrentHashMap<>())
+                        .put(rs.getInt("sender_id"), rs.getInt("unread"));
+                conversations++;
+            }
+            System.out.println("Unread counts loaded for " + conversations + " conversations in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        } catch (SQLException e) {
+            System.err.println("Could not load unread message counts: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A message from sender to receiver was routed.
+     */
+    void messageRouted(int receiverId, int senderId) {
+        counts.computeIfAbsent(receiverId, id -> new ConcurrentHashMap<>()).merge(senderId, 1, Integer::sum);
+    }
+
+    /**
+     * The reader has seen every message the sender sent them so far.
+     */
+    void seen(int readerId, int senderId) {
+        Map<Integer, Integer> bySender = counts.get(readerId);
+        if (bySender != null) bySender.remove(senderId);
+    }
+
+    /**
+     * @param receiverId User ID
+     * @return Unread messages by sender; senders with nothing unread are left out
+     */
+    Map<Integer, Integer> unreadFor(int receiverId) {
+        Map<Integer, Integer> bySender = counts.get(receiverId);
+        return bySender == null ? Map.of() : new HashMap<>(bySender);
+    }
+}
@@ -9,18 +9,69 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Handles uploading of patient vitals to the database,
  * including emergency detection for abnormal vitals and email alert.
+ * Alert emails are queued on the EmergencyAlertDispatcher rather than sent inline.
  */
 public class UploadVitals {
 
-    private static final String INSERT_VITALS_SQL =
-            "INSERT INTO vitals (patient_id, heart_rate, blood_pressure, oxygen_level, temperature, recorded_at) " +
-                    "VALUES (?, ?, ?, ?, ?, ?)";
+    // Default bulk import sizes used by uploadVitalsFromCSV
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int DEFAULT_CHUNK_SIZE = 5_000;
 
-    private static final Notifiable notifier = new EmailNotification();
+    private static final String ALERT_TYPE = "Abnormal Vitals";
+
+    /**
+     * Progress report emitted after each committed chunk of a bulk import.
+     *
+     * @param chunk        1-based number of the chunk just committed
+     * @param rowsRead     Data rows read from the file so far
+     * @param rowsInserted Rows inserted so far
+     * @param rowsRejected Rows rejected so far
+     * @param alertsRaised Emergency alerts opened so far
+     */
+    public record ImportProgress(int chunk, int rowsRead, int rowsInserted, int rowsRejected, int alertsRaised) {
+    }
+
+    /**
+     * A CSV row that was not imported.
+     *
+     * @param lineNumber 1-based line number in the file
+     * @param line       The raw line
+     * @param reason     Why the row was rejected
+     */
+    public record RejectedRow(int lineNumber, String line, String reason) {
+    }
+
+    /**
+     * Outcome of a bulk import. Only committed chunks are counted: if the import fails, the rows
+     * of the chunk in flight are rolled back and every line after committedThroughLine was not imported.
+     *
+     * @param inserted             Rows inserted into vitals
+     * @param alertsRaised         Emergency alerts opened; readings folded into an open alert are not counted
+     * @param rejected             Rows that were skipped or refused by the database
+     * @param committedThroughLine Last line of the file whose chunk was committed (1 if none was)
+     * @param error                Why the import stopped early, or null if the whole file was read
+     */
+    public record ImportResult(int inserted, int alertsRaised, List<RejectedRow> rejected,
+                               int committedThroughLine, String error) {
+
+        /**
+         * @return true if the import stopped before the end of the file
+         */
+        public boolean failed() {
+            return error != null;
+        }
+    }
+
+    private record CsvRow(int lineNumber, String line, String heartRate, String bloodPressure,
+                          String oxygenLevel, String temperature) {
+    }
 
     public static boolean uploadVitalsToDatabase(
             int patientId,
@@ -30,7 +81,7 @@ public class UploadVitals {
             String temperature
     ) {
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(INSERT_VITALS_SQL, Statement.RETURN_GENERATED_KEYS)) {
+             PreparedStatement pstmt = conn.prepareStatement(Queries.INSERT_VITALS, Statement.RETURN_GENERATED_KEYS)) {
 
             fillPreparedStatement(pstmt, patientId, heartRate, bloodPressure, oxygenLevel, temperature);
             int rowsAffected = pstmt.executeUpdate();
@@ -39,8 +90,8 @@ public class UploadVitals {
                 try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
                     if (generatedKeys.next()) {
                         int vitalsId = generatedKeys.getInt(1);
-                        handleEmergency(conn, patientId, vitalsId);
-                        showAbnormalPopup();
+                        handleEmergency(conn, patientId, List.of(
+                                new AlertCoalescer.Reading(vitalsId, heartRate, bloodPressure, oxygenLevel, temperature)));
                     }
                 }
             }
@@ -53,12 +104,40 @@ public class UploadVitals {
     }
 
     public static boolean uploadVitalsFromCSV(File csvFile, int patientId) {
+        ImportResult result = importVitalsFromCSV(csvFile, patientId,
+                DEFAULT_BATCH_SIZE, DEFAULT_CHUNK_SIZE, UploadVitals::logProgress);
+        return !result.failed() && result.inserted() > 0;
+    }
+
+    /**
+     * Bulk-imports vitals from a CSV file (header line, then heart rate, blood pressure,
+     * oxygen level, temperature per row). Rows are sent through one reused statement in
+     * JDBC batches and committed in chunks; abnormal rows are folded into the patient's open
+     * emergency alert with the chunk they belong to, and doctors are notified once the chunk
+     * is committed if that opened a new alert.
+     *
+     * @param csvFile   The CSV file to read
+     * @param patientId The patient the vitals belong to
+     * @param batchSize Rows sent to the database per JDBC batch
+     * @param chunkSize Rows committed per transaction (rounded up to a whole number of batches)
+     * @param progress  Receives a report after every committed chunk, may be null
+     * @return Totals of the committed chunks together with their rejected rows, and where and
+     *         why the import stopped if it did not reach the end of the file
+     */
+    public static ImportResult importVitalsFromCSV(File csvFile, int patientId, int batchSize, int chunkSize,
+                                                   Consumer<ImportProgress> progress) {
+        List<RejectedRow> rejected = new ArrayList<>();
         if (csvFile == null || !csvFile.exists()) {
             System.err.println("Invalid CSV file provided.");
-            return false;
+            return new ImportResult(0, 0, rejected, 0, "Invalid CSV file provided.");
         }
 
-        boolean hasValidEntries = false;
+        int batch = Math.max(1, batchSize);
+        int chunk = Math.max(batch, chunkSize);
+        int inserted = 0;
+        int alerts = 0;
+        int committedThroughLine = 1;
+        String error = null;
 
         try (Connection conn = DatabaseConnection.getConnection();
              BufferedReader br = new BufferedReader(new FileReader(csvFile))) {
@@ -67,45 +146,141 @@ public class UploadVitals {
             String line = br.readLine();
             if (line == null) {
                 System.err.println("CSV file is empty.");
-                return false;
+                return new ImportResult(0, 0, rejected, 0, null);
             }
 
-            // Process remaining lines
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split(",");
-                if (values.length < 4) {
-                    System.out.println("Skipping invalid row: " + line);
-                    continue;
-                }
+            conn.setAutoCommit(false);
+            try (PreparedStatement insertVitals = conn.prepareStatement(Queries.INSERT_VITALS, Statement.RETURN_GENERATED_KEYS)) {
+
+                List<CsvRow> pendingBatch = new ArrayList<>(batch);
+                List<AlertCoalescer.Reading> chunkAbnormal = new ArrayList<>();
+                // Counted into the totals only once the chunk is committed
+                List<RejectedRow> chunkRejected = new ArrayList<>();
+                int chunkInserted = 0;
+                int chunkRows = 0;
+                int chunkNumber = 0;
+                int lineNumber = 1;
 
-                String heartRate = values[0].trim();
-                String bloodPressure = values[1].trim();
-                String oxygenLevel = values[2].trim();
-                String temperature = values[3].trim();
-
-                try (PreparedStatement pstmt = conn.prepareStatement(INSERT_VITALS_SQL, Statement.RETURN_GENERATED_KEYS)) {
-                    fillPreparedStatement(pstmt, patientId, heartRate, bloodPressure, oxygenLevel, temperature);
-                    int rowsAffected = pstmt.executeUpdate();
-
-                    if (rowsAffected > 0 && isAbnormal(heartRate, bloodPressure, oxygenLevel, temperature)) {
-                        try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
-                            if (generatedKeys.next()) {
-                                int vitalsId = generatedKeys.getInt(1);
-                                handleEmergency(conn, patientId, vitalsId);
-                                showAbnormalPopup();
-                            }
+                while (true) {
+                    line = br.readLine();
+                    boolean endOfFile = line == null;
+
+                    if (!endOfFile) {
+                        lineNumber++;
+                        String[] values = line.split(",");
+                        if (values.length < 4) {
+                            chunkRejected.add(new RejectedRow(lineNumber, line, "expected 4 columns, found " + values.length));
+                        } else {
+                            CsvRow row = new CsvRow(lineNumber, line,
+                                    values[0].trim(), values[1].trim(), values[2].trim(), values[3].trim());
+                            fillPreparedStatement(insertVitals, patientId,
+                                    row.heartRate(), row.bloodPressure(), row.oxygenLevel(), row.temperature());
+                            insertVitals.addBatch();
+                            pendingBatch.add(row);
                         }
                     }
 
-                    hasValidEntries = true;
+                    // Flush the JDBC batch when it is full or the file is exhausted
+                    if (pendingBatch.size() >= batch || (endOfFile && !pendingBatch.isEmpty())) {
+                        chunkInserted += executeVitalsBatch(insertVitals, pendingBatch, chunkAbnormal, chunkRejected);
+                        chunkRows += pendingBatch.size();
+                        pendingBatch.clear();
+                    }
+
+                    // Commit the chunk, updating the open emergency alert in the same transaction
+                    if (chunkRows >= chunk || (endOfFile && chunkRows > 0)) {
+                        AlertCoalescer.Update alertUpdate = AlertCoalescer.getInstance()
+                                .record(conn, patientId, ALERT_TYPE, chunkAbnormal);
+                        conn.commit();
+                        // Only now is the alert row real; a rolled-back chunk never reaches the coalescer
+                        alertUpdate.apply();
+                        List<Integer> openedAlerts = alertUpdate.opened();
+
+                        chunkNumber++;
+                        inserted += chunkInserted;
+                        rejected.addAll(chunkRejected);
+                        alerts += openedAlerts.size();
+                        committedThroughLine = lineNumber;
+                        // Notify only for alerts this chunk opened; later bursts just update them
+                        for (int vitalsId : openedAlerts) {
+                            EmergencyAlertDispatcher.getInstance().submit(patientId, vitalsId, ALERT_TYPE);
+                            showAbnormalPopup();
+                        }
+                        chunkAbnormal.clear();
+                        chunkRejected.clear();
+                        chunkInserted = 0;
+                        chunkRows = 0;
+
+                        if (progress != null) {
+                            progress.accept(new ImportProgress(chunkNumber, lineNumber - 1, inserted, rejected.size(), alerts));
+                        }
+                    }
+
+                    if (endOfFile) {
+                        // Malformed lines after the last committed chunk; nothing was written for them
+                        rejected.addAll(chunkRejected);
+                        committedThroughLine = lineNumber;
+                        break;
+                    }
                 }
+            } catch (SQLException e) {
+                // Only the chunk in flight is lost; earlier chunks are already committed
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
 
         } catch (IOException | SQLException e) {
-            System.err.println("Error uploading vitals from CSV: " + e.getMessage());
+            System.err.println("Error uploading vitals from CSV after line " + committedThroughLine + ": " + e.getMessage());
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
         }
 
-        return hasValidEntries;
+        return new ImportResult(inserted, alerts, rejected, committedThroughLine, error);
+    }
+
+    /**
+     * Executes one JDBC batch of vitals inserts, recording rows the database refused and
+     * collecting the abnormal rows, with their generated IDs, for the chunk's emergency alert.
+     *
+     * @return Number of rows inserted
+     */
+    private static int executeVitalsBatch(PreparedStatement insertVitals, List<CsvRow> rows,
+                                          List<AlertCoalescer.Reading> abnormal, List<RejectedRow> rejected) throws SQLException {
+        int[] counts;
+        try {
+            counts = insertVitals.executeBatch();
+        } catch (BatchUpdateException e) {
+            counts = e.getUpdateCounts();
+        }
+
+        int inserted = 0;
+        try (ResultSet generatedKeys = insertVitals.getGeneratedKeys()) {
+            for (int i = 0; i < rows.size(); i++) {
+                CsvRow row = rows.get(i);
+                // Drivers that stop at the first failure return fewer counts than rows
+                boolean failed = i >= counts.length || counts[i] == Statement.EXECUTE_FAILED;
+                if (failed) {
+                    rejected.add(new RejectedRow(row.lineNumber(), row.line(), "rejected by database"));
+                    continue;
+                }
+
+                inserted++;
+                // Keys come back in statement order, one per successful row
+                boolean hasKey = generatedKeys.next();
+                if (hasKey && isAbnormal(row.heartRate(), row.bloodPressure(), row.oxygenLevel(), row.temperature())) {
+                    abnormal.add(new AlertCoalescer.Reading(generatedKeys.getInt(1),
+                            row.heartRate(), row.bloodPressure(), row.oxygenLevel(), row.temperature()));
+                }
+            }
+        }
+        return inserted;
+    }
+
+    private static void logProgress(ImportProgress progress) {
+        System.out.println("Vitals import chunk " + progress.chunk() + ": " + progress.rowsInserted()
+                + " inserted, " + progress.rowsRejected() + " rejected, " + progress.alertsRaised()
+                + " alerts after " + progress.rowsRead() + " rows");
     }
 
     private static boolean isAbnormal(String heartRate, String bloodPressure, String oxygenLevel, String temperature) {
@@ -135,30 +310,15 @@ public class UploadVitals {
         }
     }
 
-    private static void handleEmergency(Connection conn, int patientId, int vitalsId) throws SQLException {
-        String insertAlertSQL = "INSERT INTO emergency_alerts (patient_id, vitals_id, alert_time, alert_type) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement ps = conn.prepareStatement(insertAlertSQL)) {
-            ps.setInt(1, patientId);
-            ps.setInt(2, vitalsId);
-            ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
-            ps.setString(4, "Abnormal Vitals");
-            ps.executeUpdate();
-        }
-
-        String doctorQuery = "SELECT d.email, d.name FROM doctors d " +
-                "JOIN doctorpatientassignment da ON d.id = da.DoctorID " +
-                "WHERE da.PatientID = ?";
-        try (PreparedStatement ps = conn.prepareStatement(doctorQuery)) {
-            ps.setInt(1, patientId);
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                String email = rs.getString("email");
-                String name = rs.getString("name");
-                String subject = "🚨 Emergency Alert for Patient ID " + patientId;
-                String message = "Dear Dr. " + name + ",\n\nAbnormal vitals were detected for your patient (ID: " + patientId + ").\nPlease review the vitals immediately.\n\nRegards,\nHospital System";
-                System.out.println("Sending emergency alert to: " + email);
-                notifier.sendNotification(subject, message, email);
-            }
+    private static void handleEmergency(Connection conn, int patientId, List<AlertCoalescer.Reading> readings)
+            throws SQLException {
+        AlertCoalescer.Update alertUpdate = AlertCoalescer.getInstance().record(conn, patientId, ALERT_TYPE, readings);
+        // Auto-commit: the alert row is already committed
+        alertUpdate.apply();
+        for (int vitalsId : alertUpdate.opened()) {
+            // Doctors are notified in the background so the upload does not wait on the mail server
+            EmergencyAlertDispatcher.getInstance().submit(patientId, vitalsId, ALERT_TYPE);
+            showAbnormalPopup();
         }
     }
 
@@ -87,6 +87,7 @@ public class UserService {
             }
 
             conn.commit();
+            IdentityDirectory.getInstance().invalidate();
             return true;
 
         } catch (SQLException e) {
@@ -98,6 +99,8 @@ public class UserService {
     public boolean deleteUser(int userId) {
         try (Connection conn = DatabaseConnection.getConnection()) {
             conn.setAutoCommit(false);
+            // Assignments removed below; the cached lists drop them once the deletion is committed
+            Runnable invalidateAssignments = () -> { };
 
             String getRoleQuery = "SELECT role FROM users WHERE id = ?";
             PreparedStatement roleStmt = conn.prepareStatement(getRoleQuery);
@@ -120,7 +123,7 @@ public class UserService {
             if ("doctor".equalsIgnoreCase(role)) {
                 // Get doctor.id from doctors where user_id = ?
                 int doctorId = -1;
-                PreparedStatement getDoctorIdStmt = conn.prepareStatement("SELECT id FROM doctors WHERE user_id = ?");
+                PreparedStatement getDoctorIdStmt = conn.prepareStatement(Queries.DOCTOR_ID_BY_USER);
                 getDoctorIdStmt.setInt(1, userId);
                 ResultSet doctorRs = getDoctorIdStmt.executeQuery();
                 if (doctorRs.next()) {
@@ -160,13 +163,15 @@ public class UserService {
                 PreparedStatement deleteDoctor = conn.prepareStatement("DELETE FROM doctors WHERE id = ?");
                 deleteDoctor.setInt(1, doctorId);
                 deleteDoctor.executeUpdate();
+                int deletedDoctorId = doctorId;
+                invalidateAssignments = () -> PatientAssignments.getInstance().invalidateDoctor(deletedDoctorId);
 
 
 
         } else if ("patient".equalsIgnoreCase(role)) {
                 // Get patient.id from patients where user_id = ?
                 int patientId = -1;
-                PreparedStatement getPatientIdStmt = conn.prepareStatement("SELECT id FROM patients WHERE user_id = ?");
+                PreparedStatement getPatientIdStmt = conn.prepareStatement(Queries.PATIENT_ID_BY_USER);
                 getPatientIdStmt.setInt(1, userId);
                 ResultSet patientRs = getPatientIdStmt.executeQuery();
                 if (patientRs.next()) {
@@ -199,6 +204,8 @@ public class UserService {
                 PreparedStatement deletePatient = conn.prepareStatement("DELETE FROM patients WHERE user_id = ?");
                 deletePatient.setInt(1, userId);
                 deletePatient.executeUpdate();
+                int deletedPatientId = patientId;
+                invalidateAssignments = () -> PatientAssignments.getInstance().invalidatePatient(deletedPatientId);
             }
 
             PreparedStatement deleteUserStmt = conn.prepareStatement("DELETE FROM users WHERE id = ?");
@@ -206,6 +213,8 @@ public class UserService {
             int affectedRows = deleteUserStmt.executeUpdate();
 
             conn.commit();
+            IdentityDirectory.getInstance().invalidate();
+            invalidateAssignments.run();
             return affectedRows > 0;
 
         } catch (SQLException e) {
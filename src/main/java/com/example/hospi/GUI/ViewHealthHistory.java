@@ -2,8 +2,6 @@ package com.example.hospi.GUI;
 
 import javafx.application.Application;
 import javafx.beans.property.*;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -17,6 +15,8 @@ import javafx.stage.Stage;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * JavaFX application for viewing a patient's health/vitals history.
@@ -25,6 +25,7 @@ import java.time.format.DateTimeFormatter;
 public class ViewHealthHistory extends Application {
 
     private int patientId; // Stores the patient ID whose history is being viewed
+    private String patientName = "Patient"; // Replaced once read from the database
 
     /**
      * Inner class representing a single vital signs record.
@@ -83,17 +84,16 @@ public class ViewHealthHistory extends Application {
     @Override
     public void start(Stage primaryStage) {
         if (patientId == -1) patientId = 1; // Default to patient 1 if not set
-        String patientName = fetchPatientName(patientId);
 
-        // Create title label with patient info
-        Label title = new Label("Vitals History of " + patientName + " (ID: " + patientId + ")");
+        // Create title label with patient info; the name is filled in once loaded
+        Label title = new Label("Vitals History (ID: " + patientId + ")");
         title.setFont(Font.font("Arial", 24));
         title.setTextFill(Color.web("#00BFFF"));
         title.setStyle("-fx-font-weight: bold; -fx-underline: true;");
 
         // Create table to display vitals history
         TableView<VitalRecord> vitalsTable = new TableView<>();
-        vitalsTable.setItems(fetchVitals(patientId)); // Load data from database
+        vitalsTable.setPlaceholder(new Label("Loading vitals..."));
         vitalsTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
         styleVitalsTable(vitalsTable); // Apply custom styling
 
@@ -130,6 +130,19 @@ public class ViewHealthHistory extends Application {
         primaryStage.setTitle("Patient Vitals History");
         primaryStage.setScene(scene);
         primaryStage.show();
+
+        // Load data from database
+        AsyncDatabase.load(primaryStage, () -> fetchPatientName(patientId), name -> {
+            patientName = name;
+            title.setText("Vitals History of " + name + " (ID: " + patientId + ")");
+        });
+        AsyncDatabase.load(primaryStage, () -> fetchVitals(patientId), records -> {
+            vitalsTable.getItems().setAll(records);
+            vitalsTable.setPlaceholder(new Label("No vitals recorded."));
+        }, e -> {
+            e.printStackTrace();
+            vitalsTable.setPlaceholder(new Label("Could not load vitals history. Please try again later."));
+        });
     }
 
     /**
@@ -161,32 +174,31 @@ public class ViewHealthHistory extends Application {
     }
 
     /**
-     * Fetches vital signs records from the database for a specific patient
+     * Fetches vital signs records from the database for a specific patient (database threads)
      * @param patientId ID of patient to fetch records for
-     * @return ObservableList of VitalRecord objects for the table
+     * @return VitalRecord objects for the table
+     * @throws SQLException if the vitals cannot be read
      */
-    private ObservableList<VitalRecord> fetchVitals(int patientId) {
-        ObservableList<VitalRecord> records = FXCollections.observableArrayList();
+    private List<VitalRecord> fetchVitals(int patientId) throws SQLException {
+        List<VitalRecord> records = new ArrayList<>();
         String query = "SELECT heart_rate, oxygen_level, temperature, blood_pressure, recorded_at FROM vitals WHERE patient_id = ?";
 
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(query)) {
 
             stmt.setInt(1, patientId);
-            ResultSet rs = stmt.executeQuery();
-
-            // Convert each database row to a VitalRecord object
-            while (rs.next()) {
-                records.add(new VitalRecord(
-                        rs.getInt("heart_rate"),
-                        rs.getInt("oxygen_level"),
-                        rs.getString("temperature"),
-                        rs.getString("blood_pressure"),
-                        rs.getTimestamp("recorded_at").toLocalDateTime()
-                ));
+            try (ResultSet rs = stmt.executeQuery()) {
+                // Convert each database row to a VitalRecord object
+                while (rs.next()) {
+                    records.add(new VitalRecord(
+                            rs.getInt("heart_rate"),
+                            rs.getInt("oxygen_level"),
+                            rs.getString("temperature"),
+                            rs.getString("blood_pressure"),
+                            rs.getTimestamp("recorded_at").toLocalDateTime()
+                    ));
+                }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
 
         return records;
@@ -222,23 +234,14 @@ public class ViewHealthHistory extends Application {
     }
 
     /**
-     * Fetches a patient's name from the database
+     * Fetches a patient's name from the database (database threads)
      * @param patientId ID of patient to lookup
      * @return Patient's name or "Patient" if not found
+     * @throws SQLException if the directory cannot be read
      */
-    private String fetchPatientName(int patientId) {
-        String query = "SELECT name FROM patients WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
-
-            stmt.setInt(1, patientId);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) return rs.getString("name");
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return "Patient"; // Default if name not found
+    private String fetchPatientName(int patientId) throws SQLException {
+        IdentityDirectory.Member patient = IdentityDirectory.getInstance().patient(patientId);
+        return patient != null ? patient.name() : "Patient"; // Default if name not found
     }
 
     public static void main(String[] args) {
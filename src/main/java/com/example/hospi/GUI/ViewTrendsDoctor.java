@@ -51,13 +51,9 @@ public class ViewTrendsDoctor extends Application {
         HBox headerBox = new HBox(headerLabel);
         headerBox.setPadding(new Insets(0, 0, 20, 0));
 
-        // Get list of patients assigned to this doctor
-        List<String> patientNames = getAssignedPatients(doctorId);
-
-        // Set up patient selection combo box
+        // Set up patient selection combo box; filled once the assigned patients are loaded
         patientComboBox = new ComboBox<>();
-        patientComboBox.getItems().addAll(patientNames);
-        patientComboBox.setPromptText("Select Patient");
+        patientComboBox.setPromptText("Loading patients...");
         patientComboBox.setStyle("-fx-background-color: #2a2a3d; -fx-text-fill: white;");
 
         // Set action handler for when a patient is selected
@@ -90,36 +86,27 @@ public class ViewTrendsDoctor extends Application {
         primaryStage.setTitle("View Trends for Doctor");
         primaryStage.setScene(scene);
         primaryStage.show();
+
+        // Get list of patients assigned to this doctor
+        AsyncDatabase.load(primaryStage, () -> PatientAssignments.getInstance().forDoctor(doctorId),
+                this::showAssignedPatients, e -> {
+                    e.printStackTrace();
+                    patientComboBox.setPromptText("Could not load patients");
+                    showAlert("Database Error", "Could not load your assigned patients.");
+                });
     }
 
     /**
-     * Retrieves list of patients assigned to the specified doctor
-     * @param doctorId ID of the doctor to look up
-     * @return List of patient names assigned to this doctor
+     * Fills the patient dropdown with the patients assigned to this doctor
+     * @param patients Patients read by PatientAssignments
      */
-    private List<String> getAssignedPatients(int doctorId) {
-        List<String> patients = new ArrayList<>();
-        String query = "SELECT p.id, p.name FROM hospital_db.patients p " +
-                "JOIN hospital_db.doctorpatientassignment d ON p.id = d.PatientID " +
-                "WHERE d.DoctorID = ?";
-
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setInt(1, doctorId);
-            ResultSet rs = stmt.executeQuery();
-
-            // Populate both the list and the ID-to-name map
-            while (rs.next()) {
-                String patientName = rs.getString("name");
-                int patientId = rs.getInt("id");
-                patients.add(patientName);
-                patientsMap.put(patientId, patientName);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+    private void showAssignedPatients(List<PatientAssignments.AssignedPatient> patients) {
+        // Populate both the list and the ID-to-name map
+        for (PatientAssignments.AssignedPatient patient : patients) {
+            patientComboBox.getItems().add(patient.name());
+            patientsMap.put(patient.id(), patient.name());
         }
-
-        return patients;
+        patientComboBox.setPromptText("Select Patient");
     }
 
     /**
@@ -15,6 +15,9 @@ import javafx.stage.Stage;
 
 import java.sql.*;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * JavaFX application that allows doctors to view vital signs of their assigned patients.
@@ -29,6 +32,8 @@ public class ViewVitals extends Application {
     private ComboBox<String> patientDropdown; // Dropdown for patient selection
     private TableView<VitalRecord> vitalsTableView; // Table to display vitals data
     private ObservableList<VitalRecord> vitalsData; // Data model for the table
+    private Stage stage; // Window the background loads report to
+    private CompletableFuture<List<VitalRecord>> vitalsLoad; // Vitals of the last selected patient, while loading
 
     // Hardcoded doctor ID (would normally come from login)
     private int doctorId;
@@ -44,6 +49,7 @@ public class ViewVitals extends Application {
     @Override
     public void start(Stage primaryStage) {
         // Initialize UI components
+        stage = primaryStage;
         patientDropdown = new ComboBox<>();
         vitalsTableView = new TableView<>();
         vitalsData = FXCollections.observableArrayList();
@@ -62,9 +68,8 @@ public class ViewVitals extends Application {
         Label vitalsLabel = new Label("Patient Vitals:");
         vitalsLabel.setStyle("-fx-font-size: 16px; -fx-text-fill: #64ffda;");
 
-        // Set up table and load initial data
+        // Set up table; data is loaded once the window is shown
         setupVitalsTable();
-        loadAssignedPatients();
 
         // Create main layout
         VBox leftPanel = new VBox(15, patientLabel, patientDropdown, vitalsLabel, vitalsTableView);
@@ -78,6 +83,7 @@ public class ViewVitals extends Application {
         primaryStage.setTitle("Doctor - View Patient Vitals");
         primaryStage.setScene(scene);
         primaryStage.show();
+        loadAssignedPatients();
     }
 
     /**
@@ -132,56 +138,73 @@ public class ViewVitals extends Application {
     }
 
     /**
-     * Loads patients assigned to the current doctor into the dropdown
+     * Loads patients assigned to the current doctor into the dropdown, in the background
      */
     private void loadAssignedPatients() {
-        String sql ="""
-                SELECT DISTINCT p.id, p.name 
-                FROM hospital_db.doctorpatientassignment dpa
-                JOIN hospital_db.patients p ON dpa.PatientID = p.id
-                WHERE dpa.DoctorID = ?
-                """;
-
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setInt(1, doctorId);
-            ResultSet rs = stmt.executeQuery();
-
+        patientDropdown.setPromptText("Loading patients...");
+        AsyncDatabase.load(stage, this::queryAssignedPatients, patients -> {
             // Clear and repopulate dropdown
-            patientDropdown.getItems().clear();
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String name = rs.getString("name");
-                // Format as "ID:123 | Patient Name"
-                patientDropdown.getItems().add("ID:" + id + " | " + name);
-            }
-
-        } catch (SQLException e) {
+            patientDropdown.getItems().setAll(patients);
+            patientDropdown.setPromptText("Select a patient...");
+        }, e -> {
+            patientDropdown.setPromptText("Could not load patients");
             e.printStackTrace();
+        });
+    }
+
+    /**
+     * Reads the patients assigned to the current doctor (database threads)
+     * @return Dropdown entries in format "ID:123 | Patient Name"
+     */
+    private List<String> queryAssignedPatients() throws SQLException {
+        List<String> patients = new ArrayList<>();
+        for (PatientAssignments.AssignedPatient patient : PatientAssignments.getInstance().forDoctor(doctorId)) {
+            // Format as "ID:123 | Patient Name"
+            patients.add("ID:" + patient.id() + " | " + patient.name());
         }
+        return patients;
     }
 
     /**
-     * Loads vitals data for the currently selected patient
+     * Loads vitals data for the currently selected patient, in the background
      */
     private void loadPatientVitals() {
         String selected = patientDropdown.getSelectionModel().getSelectedItem();
         if (selected == null) return;
 
+        // A load for the previously selected patient must not overwrite this one
+        if (vitalsLoad != null) vitalsLoad.cancel(false);
+
         int patientId = extractPatientId(selected);
+        vitalsData.clear();
+        vitalsTableView.setPlaceholder(new Label("Loading vitals..."));
+        vitalsLoad = AsyncDatabase.load(stage, () -> queryPatientVitals(patientId), records -> {
+            // Repopulate table data
+            vitalsData.setAll(records);
+            vitalsTableView.setPlaceholder(new Label("No vitals recorded."));
+        }, e -> {
+            vitalsTableView.setPlaceholder(new Label("Could not load vitals."));
+            e.printStackTrace();
+        });
+    }
+
+    /**
+     * Reads the vitals history of a patient (database threads)
+     * @param patientId Patient to read
+     * @return One record per vitals reading
+     */
+    private List<VitalRecord> queryPatientVitals(int patientId) throws SQLException {
         String sql = "SELECT * FROM vitals WHERE patient_id = ?";
 
+        List<VitalRecord> records = new ArrayList<>();
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setInt(1, patientId);
             ResultSet rs = stmt.executeQuery();
 
-            // Clear and repopulate table data
-            vitalsData.clear();
             while (rs.next()) {
-                vitalsData.add(new VitalRecord(
+                records.add(new VitalRecord(
                         rs.getInt("id"),
                         rs.getInt("heart_rate"),
                         rs.getInt("oxygen_level"),
@@ -190,10 +213,8 @@ public class ViewVitals extends Application {
                         rs.getTimestamp("recorded_at").toLocalDateTime()
                 ));
             }
-
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
+        return records;
     }
 
     /**
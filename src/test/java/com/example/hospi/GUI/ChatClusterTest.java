@@ -0,0 +1,253 @@
+package com.example.hospi.GUI;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs a chat cluster of several nodes in one JVM and checks cross-node routing.
+ * Each node is a ChatServer on an ephemeral port; the nodes share an InMemoryChatDirectory.
+ */
+class ChatClusterTest {
+
+    private static final long TIMEOUT_MS = 5_000;
+
+    private final Map<String, InetSocketAddress> addresses = new ConcurrentHashMap<>();
+    private final ChatDirectory directory = new InMemoryChatDirectory();
+    private final Map<String, ChatServer> servers = new LinkedHashMap<>();
+    private final Map<String, ChatCluster> clusters = new LinkedHashMap<>();
+    private final List<TestClient> clients = new ArrayList<>();
+    private ServerSocket silentNode;
+
+    @BeforeEach
+    void routingOnly() {
+        // There may be no database
+        System.setProperty("hospi.chat.persist", "false");
+        System.setProperty("hospi.chat.cluster.ackTimeoutMs", "200");
+        System.setProperty("hospi.chat.cluster.forwardAttempts", "2");
+    }
+
+    @AfterEach
+    void stopCluster() throws IOException {
+        clients.forEach(TestClient::close);
+        servers.values().forEach(ChatServer::stop);
+        if (silentNode != null) silentNode.close();
+        System.clearProperty("hospi.chat.cluster.ackTimeoutMs");
+        System.clearProperty("hospi.chat.cluster.forwardAttempts");
+    }
+
+    @Test
+    void relaysBetweenNodesWithThreads() throws Exception {
+        relaysBetweenNodes(ChatServer.Mode.THREADS);
+    }
+
+    @Test
+    void relaysBetweenNodesWithNio() throws Exception {
+        relaysBetweenNodes(ChatServer.Mode.NIO);
+    }
+
+    private void relaysBetweenNodes(ChatServer.Mode mode) throws Exception {
+        List<String> ids = startNodes(mode, 3);
+        TestClient alice = connect(ids.get(0), "1");
+        TestClient bob = connect(ids.get(1), "2");
+        assertTrue(waitUntilLocated("2", ids.get(1)));
+
+        alice.send("2", "hello from node1");
+        assertEquals("FROM:1:hello from node1", bob.next());
+        bob.send("1", "reply from node2");
+        assertEquals("FROM:2:reply from node2", alice.next());
+    }
+
+    @Test
+    void offlineMessagesFollowTheUserFromTheHomeNode() throws Exception {
+        List<String> ids = startNodes(ChatServer.Mode.THREADS, 3);
+        TestClient alice = connect(ids.get(0), "1");
+        // A user homed away from alice's node, so the message is relayed to the home node
+        String offline = userHomedAwayFrom(ids.get(0), 3);
+        String home = clusters.get(ids.get(0)).homeNode(offline);
+
+        alice.send(offline, "first while offline");
+        alice.send(offline, "second while offline");
+        Thread.sleep(300);
+        String elsewhere = ids.stream().filter(id -> !id.equals(home)).findFirst().orElseThrow();
+        TestClient carol = connect(elsewhere, offline);
+
+        assertEquals("FROM:1:first while offline", carol.next());
+        assertEquals("FROM:1:second while offline", carol.next());
+    }
+
+    @Test
+    void usersOfAStoppedNodeAreReachableAfterReconnecting() throws Exception {
+        List<String> ids = startNodes(ChatServer.Mode.THREADS, 3);
+        TestClient alice = connect(ids.get(0), "1");
+        connect(ids.get(1), "2");
+        assertTrue(waitUntilLocated("2", ids.get(1)));
+
+        servers.get(ids.get(1)).stop();
+        assertTrue(waitUntilLocated("2", null), "directory forgets users of a stopped node");
+        TestClient bobAgain = connect(ids.get(2), "2");
+        assertTrue(waitUntilLocated("2", ids.get(2)));
+
+        alice.send("2", "after failover");
+        assertEquals("FROM:1:after failover", bobAgain.next());
+    }
+
+    @Test
+    void unacknowledgedForwardFallsBackToTheHomeNode() throws Exception {
+        // A node that accepts links but never acknowledges anything
+        silentNode = new ServerSocket(0);
+        Thread sink = new Thread(() -> {
+            try (Socket link = silentNode.accept(); InputStream in = link.getInputStream()) {
+                while (in.read() >= 0) {
+                    // Discard
+                }
+            } catch (IOException e) {
+                // Closed by the test
+            }
+        }, "cluster-test-silent-node");
+        sink.setDaemon(true);
+        sink.start();
+        addresses.put("silent", new InetSocketAddress("localhost", silentNode.getLocalPort()));
+        List<String> ids = startNodes(ChatServer.Mode.THREADS, 2);
+
+        TestClient alice = connect(ids.get(0), "1");
+        String bob = userHomedAwayFrom("silent", 2);
+        directory.register(bob, "silent");
+
+        alice.send(bob, "kept after no ack");
+        // Two unanswered attempts, then the message goes to the home node
+        Thread.sleep(1_000);
+        directory.unregister(bob, "silent");
+        TestClient bobClient = connect(ids.get(1), bob);
+        assertEquals("FROM:1:kept after no ack", bobClient.next());
+    }
+
+    @Test
+    void repeatedForwardsAreDeliveredOnce() {
+        ChatCluster cluster = new ChatCluster("node1", new ConcurrentHashMap<>(), directory);
+        try {
+            assertTrue(cluster.firstDelivery("node2", 42));
+            assertFalse(cluster.firstDelivery("node2", 42));
+            assertTrue(cluster.firstDelivery("node3", 42));
+        } finally {
+            cluster.close();
+        }
+    }
+
+    /**
+     * Starts nodes "node1".."nodeN" and binds them before any link is opened; the address map is
+     * shared, so links see ports filled in afterwards.
+     */
+    private List<String> startNodes(ChatServer.Mode mode, int count) throws IOException {
+        for (int i = 1; i <= count; i++) {
+            String id = "node" + i;
+            ChatCluster cluster = new ChatCluster(id, addresses, directory);
+            ChatServer server = new ChatServer(0, cluster);
+            server.setCareTeam(username -> Set.of());
+            server.start(mode);
+            addresses.put(id, new InetSocketAddress("localhost", server.getLocalPort()));
+            servers.put(id, server);
+            clusters.put(id, cluster);
+        }
+        return new ArrayList<>(servers.keySet());
+    }
+
+    private String userHomedAwayFrom(String node, int firstId) {
+        ChatCluster anyNode = clusters.values().iterator().next();
+        int id = firstId;
+        while (anyNode.homeNode(String.valueOf(id)).equals(node)) {
+            id++;
+        }
+        return String.valueOf(id);
+    }
+
+    /**
+     * Waits for the directory to place a user on the given node (null: on no node).
+     * @return true if it did before the timeout
+     */
+    private boolean waitUntilLocated(String username, String node) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            String located = directory.locate(username);
+            if (node == null ? located == null : node.equals(located)) return true;
+            Thread.sleep(20);
+        }
+        return false;
+    }
+
+    private TestClient connect(String node, String username) throws IOException {
+        TestClient client = new TestClient(servers.get(node).getLocalPort(), username);
+        clients.add(client);
+        return client;
+    }
+
+    /**
+     * Minimal text-protocol client that collects every line it receives.
+     */
+    private static final class TestClient {
+        private final Socket socket;
+        private final PrintWriter out;
+        private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+        private TestClient(int port, String username) throws IOException {
+            socket = new Socket("localhost", port);
+            out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+            out.println(username);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Thread reader = new Thread(() -> {
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        received.add(line);
+                    }
+                } catch (IOException e) {
+                    // Socket closed
+                }
+            }, "cluster-test-client-" + username);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void send(String receiver, String text) {
+            out.println("TO:" + receiver + ":" + text);
+        }
+
+        /**
+         * @return The next line received, or null on timeout
+         */
+        String next() throws InterruptedException {
+            return received.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore close exceptions
+            }
+        }
+    }
+}
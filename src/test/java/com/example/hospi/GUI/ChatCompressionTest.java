@@ -0,0 +1,141 @@
+package com.example.hospi.GUI;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round-trips chat frames through the deflate streams of both transports: the blocking
+ * compress()/decompress() wrappers and the NIO Encoder/Decoder, which must interoperate.
+ */
+class ChatCompressionTest {
+
+    @Test
+    void encoderBurstsDecodeInOrder() throws DataFormatException {
+        ChatCompression.Encoder encoder = new ChatCompression.Encoder(ChatCompression.level());
+        ChatCompression.Decoder decoder = new ChatCompression.Decoder();
+        try {
+            for (int burst = 0; burst < 3; burst++) {
+                byte[] first = ChatProtocol.message(2L * burst + 1, 3, "Please take your tablet twice a day");
+                byte[] second = ChatProtocol.message(2L * burst + 2, 3, "Blood pressure readings " + burst);
+                encoder.add(ByteBuffer.wrap(first));
+                encoder.add(ByteBuffer.wrap(second));
+                // Each burst decodes on its own, without waiting for the next
+                assertArrayEquals(ChatProtocol.concat(List.of(first, second)), decode(decoder, encoder.finish()));
+            }
+        } finally {
+            encoder.end();
+            decoder.end();
+        }
+    }
+
+    @Test
+    void encoderGrowsItsOutputForLargeBursts() throws DataFormatException {
+        // Random bytes do not compress, so the burst outgrows the initial output buffer
+        byte[] data = new byte[64 * 1024];
+        new Random(11).nextBytes(data);
+        ChatCompression.Encoder encoder = new ChatCompression.Encoder(ChatCompression.level());
+        ChatCompression.Decoder decoder = new ChatCompression.Decoder();
+        try {
+            encoder.add(ByteBuffer.wrap(data));
+            assertArrayEquals(data, decode(decoder, encoder.finish()));
+        } finally {
+            encoder.end();
+            decoder.end();
+        }
+    }
+
+    @Test
+    void streamsRoundTripAcrossFlushes() throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        OutputStream out = ChatCompression.compress(wire);
+        out.write(ChatProtocol.hello(42, 0, true));
+        out.flush();
+        int afterFirstFlush = wire.size();
+        out.write(ChatProtocol.message(1, 3, "Follow-up appointment tomorrow morning"));
+        out.flush();
+        assertTrue(afterFirstFlush > 0 && wire.size() > afterFirstFlush, "flush() writes each burst out");
+
+        try (InputStream in = ChatCompression.decompress(new ByteArrayInputStream(wire.toByteArray()))) {
+            DataInputStream frames = new DataInputStream(in);
+            assertEquals(42, Integer.parseInt(ChatProtocol.parseHello(ChatProtocol.readFrame(frames)).username()));
+            ByteBuffer message = ChatProtocol.readFrame(frames);
+            message.get();
+            assertEquals("Follow-up appointment tomorrow morning", ChatProtocol.parseMessage(message).text());
+        }
+        out.close();
+    }
+
+    @Test
+    void encoderOutputReadsThroughTheBlockingStream() throws IOException {
+        byte[] frame = ChatProtocol.message(5, 3, "Test results are ready, please let me know if");
+        ChatCompression.Encoder encoder = new ChatCompression.Encoder(ChatCompression.level());
+        ByteBuffer burst;
+        try {
+            encoder.add(ByteBuffer.wrap(frame));
+            burst = encoder.finish();
+        } finally {
+            encoder.end();
+        }
+        byte[] compressed = new byte[burst.remaining()];
+        burst.get(compressed);
+
+        try (InputStream in = ChatCompression.decompress(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(frame, in.readNBytes(frame.length));
+        }
+    }
+
+    @Test
+    void dictionaryShrinksShortMessages() {
+        byte[] frame = ChatProtocol.message(1, 3, "Good morning doctor, I am feeling better since yesterday");
+        int withDictionary = compressedSize(frame, ChatCompression.DICTIONARY);
+        int without = compressedSize(frame, new byte[0]);
+        assertTrue(withDictionary < without, withDictionary + " bytes with the dictionary, " + without + " without");
+    }
+
+    @Test
+    void decoderRejectsNonDeflateData() {
+        ChatCompression.Decoder decoder = new ChatCompression.Decoder();
+        try {
+            // A final block of the reserved type 3
+            decoder.input(ByteBuffer.wrap(new byte[] {(byte) 0xff, 0x00, 0x00}));
+            assertThrows(DataFormatException.class, decoder::inflate);
+        } finally {
+            decoder.end();
+        }
+    }
+
+    private static byte[] decode(ChatCompression.Decoder decoder, ByteBuffer burst) throws DataFormatException {
+        decoder.input(burst);
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        ByteBuffer piece;
+        while ((piece = decoder.inflate()) != null) {
+            decoded.write(piece.array(), piece.arrayOffset() + piece.position(), piece.remaining());
+        }
+        return decoded.toByteArray();
+    }
+
+    private static int compressedSize(byte[] frame, byte[] dictionary) {
+        ChatCompression.Encoder encoder = new ChatCompression.Encoder(ChatCompression.level(), dictionary);
+        try {
+            encoder.add(ByteBuffer.wrap(frame));
+            return encoder.finish().remaining();
+        } finally {
+            encoder.end();
+        }
+    }
+}
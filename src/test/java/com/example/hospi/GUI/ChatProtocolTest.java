@@ -0,0 +1,132 @@
+package com.example.hospi.GUI;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Encodes binary chat frames with ChatProtocol and reads them back the way the servers do:
+ * readFrame off a stream, then the parser for the frame type.
+ */
+class ChatProtocolTest {
+
+    @Test
+    void helloRoundTrip() throws IOException {
+        ChatServer.Handshake plain = ChatProtocol.parseHello(read(ChatProtocol.hello(42, 1234L)));
+        assertEquals("42", plain.username());
+        assertEquals(ChatProtocol.Codec.BINARY, plain.codec());
+        assertEquals(1234L, plain.lastSeq());
+        assertFalse(plain.compressed());
+
+        assertTrue(ChatProtocol.parseHello(read(ChatProtocol.hello(42, 0, true))).compressed());
+    }
+
+    @Test
+    void helloRejectsOtherFramesAndVersions() throws IOException {
+        assertNull(ChatProtocol.parseHello(read(ChatProtocol.unreadQuery(42))));
+        byte[] hello = ChatProtocol.hello(42, 0);
+        hello[5] = 99;
+        assertNull(ChatProtocol.parseHello(read(hello)));
+    }
+
+    @Test
+    void messageRoundTrip() throws IOException {
+        ByteBuffer frame = read(ChatProtocol.message(7L, 3, "Dose at 8pm\nthen review ✓"));
+        assertEquals(ChatProtocol.MSG, frame.get());
+        OfflineMessageStore.Envelope envelope = ChatProtocol.parseMessage(frame);
+        assertEquals(new OfflineMessageStore.Envelope(7L, "3", "Dose at 8pm\nthen review ✓"), envelope);
+    }
+
+    @Test
+    void concatenatedFramesAreReadOneByOne() throws IOException {
+        byte[] batch = ChatProtocol.concat(List.of(ChatProtocol.message(1, 3, "a"), ChatProtocol.message(2, 3, "b")));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(batch));
+        for (String expected : List.of("a", "b")) {
+            ByteBuffer frame = ChatProtocol.readFrame(in);
+            frame.get();
+            assertEquals(expected, ChatProtocol.parseMessage(frame).text());
+        }
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    void readFrameRejectsInvalidLengths() throws IOException {
+        assertThrows(IOException.class, () -> ChatProtocol.readFrame(stream(0)));
+        assertThrows(IOException.class, () -> ChatProtocol.readFrame(stream(-1)));
+        assertThrows(IOException.class, () -> ChatProtocol.readFrame(stream(ChatProtocol.MAX_FRAME_BYTES + 1)));
+        // A valid length the stream does not deliver
+        assertThrows(IOException.class, () -> ChatProtocol.readFrame(stream(10)));
+    }
+
+    @Test
+    void unreadRoundTrip() throws IOException {
+        assertEquals(42, ChatProtocol.parseUnreadQuery(read(ChatProtocol.unreadQuery(42))));
+        assertEquals(-1, ChatProtocol.parseUnreadQuery(read(ChatProtocol.ping())));
+
+        Map<Integer, Integer> counts = Map.of(3, 5, 9, 1);
+        ByteBuffer frame = read(ChatProtocol.unread(counts));
+        assertEquals(ChatProtocol.UNREAD, frame.get());
+        assertEquals(counts, ChatProtocol.parseUnread(frame));
+    }
+
+    @Test
+    void attachGetRoundTrip() throws IOException {
+        byte[] hash = new byte[ChatProtocol.HASH_BYTES];
+        Arrays.fill(hash, (byte) 0xab);
+        ByteBuffer frame = read(ChatProtocol.attachGet(42, hash, 4096L));
+
+        ChatProtocol.AttachmentRequest request = ChatProtocol.parseAttachGet(frame);
+        assertEquals(new ChatProtocol.AttachmentRequest(42, "ab".repeat(ChatProtocol.HASH_BYTES), 4096L), request);
+        // The parser leaves the frame for the next one to try
+        assertEquals(0, frame.position());
+        assertNull(ChatProtocol.parseAttachGet(read(ChatProtocol.unreadQuery(42))));
+    }
+
+    @Test
+    void nodeHelloRoundTrip() throws IOException {
+        assertEquals("node-2", ChatProtocol.parseNodeHello(read(ChatProtocol.nodeHello("node-2"))));
+        assertNull(ChatProtocol.parseNodeHello(read(ChatProtocol.hello(42, 0))));
+    }
+
+    @Test
+    void attachmentNoticeRoundTrip() {
+        ChatProtocol.Attachment attachment = new ChatProtocol.Attachment("0f".repeat(32), 2048L, "image/jpeg",
+                "x-ray: left hand.jpg");
+        String notice = ChatProtocol.attachmentNotice(attachment);
+        assertEquals(attachment, ChatProtocol.parseAttachmentNotice(notice));
+
+        assertNull(ChatProtocol.parseAttachmentNotice("Ordinary message"));
+        assertNull(ChatProtocol.parseAttachmentNotice("[attachment:not-a-hash:1:text/plain] a.txt"));
+        assertNull(ChatProtocol.parseAttachmentNotice("[attachment:" + "0f".repeat(32) + ":big:text/plain] a.txt"));
+    }
+
+    /**
+     * @return The frame as readFrame returns it, positioned at the type byte
+     */
+    private static ByteBuffer read(byte[] encoded) throws IOException {
+        return ChatProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(encoded)));
+    }
+
+    /**
+     * @return A stream holding only a frame length
+     */
+    private static DataInputStream stream(int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeInt(length);
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
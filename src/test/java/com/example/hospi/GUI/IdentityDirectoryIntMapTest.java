@@ -0,0 +1,91 @@
+package com.example.hospi.GUI;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks IdentityDirectory.IntMap against a HashMap for the key patterns the directory sees:
+ * sequential database IDs, sparse IDs, and keys that land in the same slot.
+ */
+class IdentityDirectoryIntMapTest {
+
+    @Test
+    void findsWhatWasPutAndNothingElse() {
+        IdentityDirectory.IntMap<String> map = new IdentityDirectory.IntMap<>(3);
+        map.put(1, "admin");
+        map.put(2, "doctor");
+        map.put(0, "zero");
+
+        assertEquals("admin", map.get(1));
+        assertEquals("doctor", map.get(2));
+        assertEquals("zero", map.get(0));
+        assertNull(map.get(3));
+        assertNull(map.get(-1));
+    }
+
+    @Test
+    void putReplacesAnExistingKey() {
+        IdentityDirectory.IntMap<String> map = new IdentityDirectory.IntMap<>(1);
+        map.put(7, "old");
+        map.put(7, "new");
+        assertEquals("new", map.get(7));
+    }
+
+    @Test
+    void emptyMapFindsNothing() {
+        IdentityDirectory.IntMap<String> map = new IdentityDirectory.IntMap<>(0);
+        assertNull(map.get(0));
+        assertNull(map.get(42));
+    }
+
+    @Test
+    void sequentialIdsMatchAHashMap() {
+        int count = 10_000;
+        IdentityDirectory.IntMap<Integer> map = new IdentityDirectory.IntMap<>(count);
+        for (int id = 1; id <= count; id++) {
+            map.put(id, id * 10);
+        }
+        for (int id = 1; id <= count; id++) {
+            assertEquals(id * 10, map.get(id));
+        }
+        assertNull(map.get(count + 1));
+    }
+
+    @Test
+    void sparseAndNegativeKeysMatchAHashMap() {
+        Random random = new Random(25);
+        Map<Integer, Integer> expected = new HashMap<>();
+        while (expected.size() < 5_000) {
+            int key = random.nextInt();
+            expected.put(key, key ^ 0x5555);
+        }
+        IdentityDirectory.IntMap<Integer> map = new IdentityDirectory.IntMap<>(expected.size());
+        expected.forEach(map::put);
+
+        expected.forEach((key, value) -> assertEquals(value, map.get(key)));
+        for (int i = 0; i < 5_000; i++) {
+            int key = random.nextInt();
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    void keysSharingASlotAreKeptApart() {
+        // Keys differing only above the hash's mixed bits collide in a small table
+        IdentityDirectory.IntMap<String> map = new IdentityDirectory.IntMap<>(4);
+        int[] keys = {5, 5 + (1 << 30), 5 + (2 << 30), 5 + (3 << 30)};
+        for (int key : keys) {
+            map.put(key, "user" + key);
+        }
+        for (int key : keys) {
+            assertEquals("user" + key, map.get(key));
+        }
+        assertNull(map.get(6));
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.hospi.GUI;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Overflow policies and undelivered-message recovery of OutboundQueue.
+ */
+class OutboundQueueTest {
+
+    private final LongAdder dropped = new LongAdder();
+
+    private static OutboundQueue.Item item(String text, OfflineMessageStore.Envelope envelope) {
+        return new OutboundQueue.Item(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), envelope);
+    }
+
+    private static String text(OutboundQueue.Item item) {
+        return new String(item.data().array(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void dropOldestMakesRoomAndCountsDrops() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST, dropped);
+
+        assertTrue(queue.offer(item("a", null)));
+        assertTrue(queue.offer(item("b", null)));
+        assertTrue(queue.offer(item("c", null)));
+
+        assertEquals(2, queue.size());
+        assertEquals(1, dropped.sum());
+        assertEquals("b", text(queue.poll()));
+        assertEquals("c", text(queue.poll()));
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void disconnectRefusesWhenFull() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DISCONNECT, dropped);
+
+        assertTrue(queue.offer(item("a", null)));
+        assertFalse(queue.offer(item("b", null)));
+
+        assertEquals(1, queue.size());
+        assertEquals("a", text(queue.poll()));
+        assertEquals(0, dropped.sum());
+    }
+
+    @Test
+    void spillRefusesWhenFullAndKeepsQueuedMessages() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.SPILL, dropped);
+        OfflineMessageStore.Envelope first = new OfflineMessageStore.Envelope(1, "7", "first");
+
+        assertTrue(queue.offer(item("MSG:1", first)));
+        assertFalse(queue.offer(item("MSG:2", new OfflineMessageStore.Envelope(2, "7", "second"))));
+
+        assertEquals(List.of(first), queue.drainUndelivered());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void drainUndeliveredFlattensBatchesAndSkipsControlOutput() {
+        OutboundQueue queue = new OutboundQueue(8, OutboundQueue.OverflowPolicy.SPILL, dropped);
+        OfflineMessageStore.Envelope one = new OfflineMessageStore.Envelope(1, "7", "one");
+        OfflineMessageStore.Envelope two = new OfflineMessageStore.Envelope(2, "7", "two");
+        OfflineMessageStore.Envelope three = new OfflineMessageStore.Envelope(3, "8", "three");
+
+        queue.offer(new OutboundQueue.Item(ByteBuffer.allocate(0), List.of(one, two)));
+        queue.offer(item("ACK:5", null));
+        queue.offer(item("MSG:3", three));
+
+        assertEquals(List.of(one, two, three), queue.drainUndelivered());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void controlItemCarriesNoEnvelopes() {
+        assertTrue(item("PONG", null).envelopes().isEmpty());
+    }
+
+    @Test
+    void policyNamesParseUnderAnyLocaleAndUnknownOnesFallBackToSpill() {
+        Locale defaultLocale = Locale.getDefault();
+        String property = System.getProperty("hospi.chat.outbound.overflow");
+        try {
+            // Turkish upper-cases "i" to a dotted capital I, which no constant contains
+            Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+            System.setProperty("hospi.chat.outbound.overflow", "disconnect");
+            assertEquals(OutboundQueue.OverflowPolicy.DISCONNECT, OutboundQueue.OverflowPolicy.fromSystemProperties());
+            System.setProperty("hospi.chat.outbound.overflow", " drop_oldest ");
+            assertEquals(OutboundQueue.OverflowPolicy.DROP_OLDEST, OutboundQueue.OverflowPolicy.fromSystemProperties());
+
+            System.setProperty("hospi.chat.outbound.overflow", "dropoldest");
+            assertEquals(OutboundQueue.OverflowPolicy.SPILL, OutboundQueue.OverflowPolicy.fromSystemProperties());
+        } finally {
+            Locale.setDefault(defaultLocale);
+            if (property != null) {
+                System.setProperty("hospi.chat.outbound.overflow", property);
+            } else {
+                System.clearProperty("hospi.chat.outbound.overflow");
+            }
+        }
+    }
+}
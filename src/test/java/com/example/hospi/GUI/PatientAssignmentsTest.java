@@ -0,0 +1,133 @@
+package com.example.hospi.GUI;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks when PatientAssignments reuses a doctor's list and when it reads it again, against a
+ * lookup that counts its reads instead of the database.
+ */
+class PatientAssignmentsTest {
+
+    private static final long NO_EXPIRY = 60 * 60_000L;
+
+    private final Map<Integer, List<PatientAssignments.AssignedPatient>> assigned = new HashMap<>();
+    private final Map<Integer, Integer> reads = new HashMap<>();
+    private Runnable duringRead = () -> { };
+
+    private final PatientAssignments.Lookup lookup = doctorId -> {
+        reads.merge(doctorId, 1, Integer::sum);
+        duringRead.run();
+        return assigned.getOrDefault(doctorId, List.of());
+    };
+
+    @Test
+    void reusesAListUntilTheDoctorIsInvalidated() throws SQLException {
+        PatientAssignments assignments = new PatientAssignments(lookup, NO_EXPIRY, 16);
+        assign(1, patient(10, "Sara"));
+
+        assertEquals(List.of(patient(10, "Sara")), assignments.forDoctor(1));
+        assignments.forDoctor(1);
+        assertEquals(1, reads.get(1));
+
+        assign(1, patient(10, "Sara"), patient(11, "Omar"));
+        assignments.invalidateDoctor(1);
+        assertEquals(List.of(patient(10, "Sara"), patient(11, "Omar")), assignments.forDoctor(1));
+        assertEquals(2, reads.get(1));
+    }
+
+    @Test
+    void invalidatingAPatientReloadsOnlyTheDoctorsListingThem() throws SQLException {
+        PatientAssignments assignments = new PatientAssignments(lookup, NO_EXPIRY, 16);
+        assign(1, patient(10, "Sara"));
+        assign(2, patient(10, "Sara"), patient(11, "Omar"));
+        assign(3, patient(11, "Omar"));
+        for (int doctor = 1; doctor <= 3; doctor++) {
+            assignments.forDoctor(doctor);
+        }
+
+        assign(1);
+        assign(2, patient(11, "Omar"));
+        assignments.invalidatePatient(10);
+        for (int doctor = 1; doctor <= 3; doctor++) {
+            assignments.forDoctor(doctor);
+        }
+
+        assertEquals(List.of(), assignments.forDoctor(1));
+        assertEquals(List.of(patient(11, "Omar")), assignments.forDoctor(2));
+        assertEquals(Map.of(1, 2, 2, 2, 3, 1), reads);
+    }
+
+    @Test
+    void aLoadRacingAnInvalidationIsNotCached() throws SQLException {
+        PatientAssignments assignments = new PatientAssignments(lookup, NO_EXPIRY, 16);
+        assign(1, patient(10, "Sara"));
+        // The booking lands while the old list is being read
+        duringRead = () -> {
+            duringRead = () -> { };
+            assignments.invalidateDoctor(1);
+        };
+
+        assignments.forDoctor(1);
+        assign(1, patient(10, "Sara"), patient(11, "Omar"));
+        assertEquals(2, assignments.forDoctor(1).size());
+        assertEquals(2, reads.get(1));
+    }
+
+    @Test
+    void expiredListsAreReadAgain() throws SQLException {
+        PatientAssignments assignments = new PatientAssignments(lookup, 0, 16);
+        assignments.forDoctor(1);
+        assignments.forDoctor(1);
+        assertEquals(2, reads.get(1));
+    }
+
+    @Test
+    void leastRecentlyUsedDoctorIsDropped() throws SQLException {
+        PatientAssignments assignments = new PatientAssignments(lookup, NO_EXPIRY, 2);
+        assignments.forDoctor(1);
+        assignments.forDoctor(2);
+        assignments.forDoctor(1);
+        assignments.forDoctor(3);
+
+        assignments.forDoctor(1);
+        assignments.forDoctor(2);
+        assertEquals(Map.of(1, 1, 2, 2, 3, 1), reads);
+    }
+
+    @Test
+    void aFailedReadIsNotCached() throws SQLException {
+        PatientAssignments assignments = new PatientAssignments(lookup, NO_EXPIRY, 16);
+        duringRead = () -> {
+            throw new IllegalStateException("database down");
+        };
+        assertThrows(IllegalStateException.class, () -> assignments.forDoctor(1));
+
+        duringRead = () -> { };
+        assign(1, patient(10, "Sara"));
+        assertEquals(List.of(patient(10, "Sara")), assignments.forDoctor(1));
+    }
+
+    @Test
+    void listsAreUnmodifiable() throws SQLException {
+        PatientAssignments assignments = new PatientAssignments(lookup, NO_EXPIRY, 16);
+        assign(1, patient(10, "Sara"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> assignments.forDoctor(1).add(patient(11, "Omar")));
+    }
+
+    private void assign(int doctorId, PatientAssignments.AssignedPatient... patients) {
+        assigned.put(doctorId, List.of(patients));
+    }
+
+    private static PatientAssignments.AssignedPatient patient(int id, String name) {
+        return new PatientAssignments.AssignedPatient(id, name);
+    }
+}